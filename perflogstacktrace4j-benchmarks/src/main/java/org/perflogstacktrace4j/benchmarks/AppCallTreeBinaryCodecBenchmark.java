@@ -0,0 +1,190 @@
+package org.perflogstacktrace4j.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perflogstacktrace4j.dto.binary.AppCallTreeBinaryDecoder;
+import org.perflogstacktrace4j.dto.binary.AppCallTreeBinaryEncoder;
+import org.perflogstacktrace4j.dto.tree.AppCallTreeDTO;
+import org.perflogstacktrace4j.dto.tree.AppCallTreeNodeDTO;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.stats.LongStatsHistogram;
+import org.perflogstacktrace4j.model.stats.PerfTimeStats;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * binary encoding/decoding of large AppCallTree snapshots (<code>fanOut ^ depth</code> leaf nodes, ~52k nodes by default),
+ * compared to json encoding with a jackson streaming JsonGenerator, writing the same content (non-empty slots only).
+ * <BR/>
+ * Default jackson data-binding of AppCallTreeDTO is not used as baseline: it writes all slots and derived getters of histograms
+ * (~30k bytes per node), and does not fit in memory for such trees.
+ * Encoded sizes are reported by encodedSize(), as secondary results (see EncodedSize).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AppCallTreeBinaryCodecBenchmark {
+
+	@Param({"37"})
+	public int fanOut;
+
+	@Param({"3"})
+	public int depth;
+
+	private AppCallTree tree;
+	private AppCallTreeDTO treeDTO;
+	private byte[] binaryData;
+	private ByteBuffer encodeBuffer;
+	private JsonFactory jsonFactory;
+	private ByteArrayOutputStream jsonBuffer;
+
+	@Setup
+	public void setup() throws IOException {
+		tree = new AppCallTree("bench");
+		CallSite[] sites = new CallSite[fanOut];
+		for (int i = 0; i < fanOut; i++) {
+			sites[i] = CallSiteRegistry.getOrRegister(AppCallTreeBinaryCodecBenchmark.class.getName(), "node" + i);
+		}
+		fillRecursive(tree.getRootNode(), sites, depth, 1);
+		treeDTO = tree.copyToDTO();
+
+		binaryData = AppCallTreeBinaryEncoder.encode(treeDTO);
+		encodeBuffer = ByteBuffer.allocate(binaryData.length * 2);
+		jsonFactory = new JsonFactory();
+		jsonBuffer = new ByteArrayOutputStream();
+	}
+
+	/**
+	 * encoded sizes of the tree, as aux counters of encodedSize() (secondary results, also written to JSON results)
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class EncodedSize {
+		public long binaryBytes;
+		public long jsonBytes;
+		/** json size / binary size */
+		public double jsonToBinaryRatio;
+	}
+
+	private static void fillRecursive(AppCallTreeNode node, CallSite[] sites, int remainDepth, int seed) {
+		int count = 1 + (seed % 20);
+		for (int v = 1; v <= count; v++) {
+			long time = (seed * 7919L + v * 104729L) % 5000000L;
+			node.incrTimeStats(time, time / 2, time * 3 / 4);
+		}
+		if (remainDepth == 0) {
+			return;
+		}
+		for (int i = 0; i < sites.length; i++) {
+			fillRecursive(node.findOrCreateChild(sites[i]), sites, remainDepth - 1, seed * 31 + i);
+		}
+	}
+
+	@Benchmark
+	public ByteBuffer encodeBinary() throws IOException {
+		encodeBuffer.clear();
+		AppCallTreeBinaryEncoder encoder = new AppCallTreeBinaryEncoder(encodeBuffer);
+		encoder.write(treeDTO);
+		encoder.flush();
+		return encodeBuffer;
+	}
+
+	@Benchmark
+	public ByteBuffer encodeBinaryLiveTree() throws IOException {
+		encodeBuffer.clear();
+		AppCallTreeBinaryEncoder encoder = new AppCallTreeBinaryEncoder(encodeBuffer);
+		encoder.write(tree);
+		encoder.flush();
+		return encodeBuffer;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream encodeJson() throws IOException {
+		jsonBuffer.reset();
+		JsonGenerator gen = jsonFactory.createGenerator(jsonBuffer, JsonEncoding.UTF8);
+		gen.writeStartObject();
+		gen.writeStringField("name", treeDTO.getName());
+		gen.writeNumberField("fromSnapshotDate", treeDTO.getFromSnapshotDate().getTime());
+		gen.writeNumberField("toSnapshotDate", treeDTO.getToSnapshotDate().getTime());
+		gen.writeFieldName("rootNode");
+		writeJson(gen, treeDTO.getRootNode());
+		gen.writeEndObject();
+		gen.close();
+		return jsonBuffer;
+	}
+
+	/** single shot: aux counters are summed over iterations */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	public void encodedSize(EncodedSize size) throws IOException {
+		size.binaryBytes = encodeBinary().position();
+		size.jsonBytes = encodeJson().size();
+		size.jsonToBinaryRatio = (double) size.jsonBytes / size.binaryBytes;
+	}
+
+	@Benchmark
+	public AppCallTreeDTO decodeBinary() {
+		return AppCallTreeBinaryDecoder.decode(binaryData);
+	}
+
+	private static void writeJson(JsonGenerator gen, AppCallTreeNodeDTO node) throws IOException {
+		gen.writeStartObject();
+		gen.writeStringField("name", node.getName());
+		PerfTimeStats stats = node.getPerfTimeStats();
+		gen.writeNumberField("timingModeMask", stats.getTimingModeMask());
+		gen.writeNumberField("pendingCount", stats.getPendingCount());
+		writeJson(gen, "elapsed", stats.getElapsedTimeStats());
+		writeJson(gen, "threadUser", stats.getThreadUserTimeStats());
+		writeJson(gen, "threadCpu", stats.getThreadCpuTimeStats());
+		gen.writeArrayFieldStart("children");
+		for (AppCallTreeNodeDTO child : node.getChildList()) {
+			writeJson(gen, child);
+		}
+		gen.writeEndArray();
+		gen.writeEndObject();
+	}
+
+	private static void writeJson(JsonGenerator gen, String fieldName, LongStatsHistogram histo) throws IOException {
+		gen.writeObjectFieldStart(fieldName);
+		gen.writeNumberField("sum", histo.getSum());
+		gen.writeNumberField("min", histo.getMinValue());
+		gen.writeNumberField("max", histo.getMaxValue());
+		gen.writeNumberField("timeReachingMax", histo.getTimeReachingMaxValue());
+		gen.writeObjectFieldStart("slots");
+		int[] slotCounts = new int[histo.getSlotLen()];
+		histo.copyCountsTo(slotCounts);
+		for (int i = 0; i < slotCounts.length; i++) {
+			if (slotCounts[i] != 0) {
+				gen.writeNumberField(Integer.toString(i), slotCounts[i]);
+			}
+		}
+		gen.writeEndObject();
+		gen.writeEndObject();
+	}
+
+}
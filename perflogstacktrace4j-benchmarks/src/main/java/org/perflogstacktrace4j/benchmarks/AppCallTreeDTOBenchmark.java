@@ -0,0 +1,68 @@
+package org.perflogstacktrace4j.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perflogstacktrace4j.dto.tree.AppCallTreeDTO;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+
+/**
+ * cost of AppCallTree.copyToDTO() for large trees: <code>fanOut ^ depth</code> leaf nodes, each having recorded stats
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AppCallTreeDTOBenchmark {
+
+	@Param({"10"})
+	public int fanOut;
+
+	@Param({"2", "4"})
+	public int depth;
+
+	private AppCallTree tree;
+	
+	@Setup
+	public void setup() {
+		tree = new AppCallTree("bench");
+		CallSite[] sites = new CallSite[fanOut];
+		for (int i = 0; i < fanOut; i++) {
+			sites[i] = CallSiteRegistry.getOrRegister(AppCallTreeDTOBenchmark.class.getName(), "node" + i);
+		}
+		fillRecursive(tree.getRootNode(), sites, depth);
+	}
+
+	private static void fillRecursive(AppCallTreeNode node, CallSite[] sites, int remainDepth) {
+		for (int v = 1; v <= 10; v++) {
+			node.incrTimeStats(v * 1000L, v * 500L, v * 800L);
+		}
+		if (remainDepth == 0) {
+			return;
+		}
+		for (CallSite site : sites) {
+			fillRecursive(node.findOrCreateChild(site), sites, remainDepth - 1);
+		}
+	}
+
+	@Benchmark
+	public AppCallTreeDTO copyToDTO() {
+		return tree.copyToDTO();
+	}
+
+}
@@ -0,0 +1,95 @@
+package org.perflogstacktrace4j.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perflogstacktrace4j.dto.tree.AppCallTreeDTO;
+import org.perflogstacktrace4j.dto.tree.AppCallTreeMerger;
+import org.perflogstacktrace4j.dto.tree.AppCallTreeNodeDTO;
+import org.perflogstacktrace4j.model.stats.PerfTimeStats;
+
+/**
+ * merge of <code>treeCount</code> AppCallTreeDTO snapshots of <code>fanOut + fanOut ^ 2</code> nodes (~20k by default),
+ * sequentially with addRecursive(), or with AppCallTreeMerger (fork-join, pairwise reduction)
+ * <BR/>
+ * To fit in memory, the list of trees references only <code>distinctTreeCount</code> distinct instances (inputs are not modified),
+ * with only elapsed time histograms filled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class AppCallTreeMergeBenchmark {
+
+	@Param({"300"})
+	public int treeCount;
+
+	@Param({"16"})
+	public int distinctTreeCount;
+
+	@Param({"141"})
+	public int fanOut;
+
+	private List<AppCallTreeDTO> trees;
+	private AppCallTreeMerger merger;
+
+	@Setup
+	public void setup() {
+		List<AppCallTreeDTO> distinctTrees = new ArrayList<AppCallTreeDTO>();
+		for (int t = 0; t < distinctTreeCount; t++) {
+			AppCallTreeNodeDTO root = new AppCallTreeNodeDTO("");
+			for (int i = 0; i < fanOut; i++) {
+				AppCallTreeNodeDTO child = root.findOrCreateChild("node" + i);
+				fill(child.getPerfTimeStats(), t * 31 + i);
+				for (int j = 0; j < fanOut; j++) {
+					fill(child.findOrCreateChild("node" + j).getPerfTimeStats(), t * 31 + i * fanOut + j);
+				}
+			}
+			AppCallTreeDTO tree = new AppCallTreeDTO();
+			tree.setName("jvm" + t);
+			tree.setRootNode(root);
+			distinctTrees.add(tree);
+		}
+		trees = new ArrayList<AppCallTreeDTO>();
+		for (int i = 0; i < treeCount; i++) {
+			trees.add(distinctTrees.get(i % distinctTreeCount));
+		}
+		merger = new AppCallTreeMerger();
+	}
+
+	private static void fill(PerfTimeStats stats, int seed) {
+		int count = 1 + (seed % 20);
+		for (int v = 1; v <= count; v++) {
+			stats.getElapsedTimeStats().incr((seed * 7919L + v * 104729L) % 500000000L);
+		}
+	}
+
+	@Benchmark
+	public AppCallTreeNodeDTO sequentialAddRecursive() {
+		AppCallTreeNodeDTO res = new AppCallTreeNodeDTO("");
+		for (AppCallTreeDTO tree : trees) {
+			res.addRecursive(tree.getRootNode());
+		}
+		return res;
+	}
+
+	@Benchmark
+	public AppCallTreeDTO forkJoinMerge() {
+		return merger.merge(trees);
+	}
+
+}
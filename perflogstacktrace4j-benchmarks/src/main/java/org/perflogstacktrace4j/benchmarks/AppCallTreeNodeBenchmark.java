@@ -0,0 +1,120 @@
+package org.perflogstacktrace4j.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+
+/**
+ * cost of AppCallTreeNode.findOrCreateChild(), for a parent having <code>childCount</code> children:
+ * <ul>
+ * <li>hit: child already exists (steady state of an AppCallTree)</li>
+ * <li>miss: child is created (a new parent is created every MISS_SITE_COUNT calls, amortized)</li>
+ * <li>fold: parent has reached its max child count, the child is folded into the overflow child (see AppCallTree.setMaxChildCountPerNode())</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppCallTreeNodeBenchmark {
+
+	private static final int MISS_SITE_COUNT = 1024;
+	
+	@Param({"1", "8", "64"})
+	public int childCount;
+
+	private AppCallTreeNode parent;
+	private CallSite[] childSites;
+	private String[] childNames;
+	private int hitIndex;
+	
+	private CallSite[] missSites;
+	private AppCallTreeNode missParent;
+	private int missIndex;
+
+	private AppCallTreeNode foldParent;
+	private int foldIndex;
+	
+	@Setup
+	public void setup() {
+		String className = AppCallTreeNodeBenchmark.class.getName();
+		parent = new AppCallTreeNode(null, "");
+		childSites = new CallSite[childCount];
+		childNames = new String[childCount];
+		for (int i = 0; i < childCount; i++) {
+			childSites[i] = CallSiteRegistry.getOrRegister(className, "child" + i);
+			childNames[i] = childSites[i].getDisplayName();
+			parent.findOrCreateChild(childSites[i]);
+		}
+		missSites = new CallSite[MISS_SITE_COUNT];
+		for (int i = 0; i < MISS_SITE_COUNT; i++) {
+			missSites[i] = CallSiteRegistry.getOrRegister(className, "miss" + i);
+		}
+		missParent = new AppCallTreeNode(null, "");
+
+		AppCallTree foldTree = new AppCallTree("fold");
+		foldTree.setMaxChildCountPerNode(childCount);
+		foldParent = foldTree.getRootNode();
+		for (int i = 0; i < childCount; i++) {
+			foldParent.findOrCreateChild(childSites[i]);
+		}
+	}
+
+	@Benchmark
+	public AppCallTreeNode findChildHit() {
+		int i = hitIndex + 1;
+		if (i == childCount) {
+			i = 0;
+		}
+		hitIndex = i;
+		return parent.findOrCreateChild(childSites[i]);
+	}
+
+	@Benchmark
+	public AppCallTreeNode findChildHitByName() {
+		int i = hitIndex + 1;
+		if (i == childCount) {
+			i = 0;
+		}
+		hitIndex = i;
+		return parent.findOrCreateChild(childNames[i]);
+	}
+
+	@Benchmark
+	public AppCallTreeNode createChildMiss() {
+		int i = missIndex;
+		if (i == MISS_SITE_COUNT) {
+			missParent = new AppCallTreeNode(null, "");
+			i = 0;
+		}
+		missIndex = i + 1;
+		return missParent.findOrCreateChild(missSites[i]);
+	}
+
+	@Benchmark
+	public AppCallTreeNode foldChildOverLimit() {
+		int i = foldIndex + 1;
+		if (i == MISS_SITE_COUNT) {
+			i = 0;
+		}
+		foldIndex = i;
+		return foldParent.findOrCreateChild(missSites[i]);
+	}
+
+}
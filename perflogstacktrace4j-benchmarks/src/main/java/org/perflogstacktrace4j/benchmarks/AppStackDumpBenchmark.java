@@ -0,0 +1,81 @@
+package org.perflogstacktrace4j.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perflogstacktrace4j.live.AppStackDump;
+import org.perflogstacktrace4j.live.AppStackDumpWriter;
+import org.perflogstacktrace4j.live.LiveCallStackRegistry;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+
+/**
+ * cost of an applicative stack dump of <code>stackCount</code> live CallStacks (depth 8, with params),
+ * pushed in setup and registered without owner thread:
+ * <ul>
+ * <li>capture: snapshot all stacks and group by path</li>
+ * <li>captureAndWriteJson: capture, then write JSON with the 20 first threads of each group</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppStackDumpBenchmark {
+
+	private static final String CLASS_NAME = AppStackDumpBenchmark.class.getName();
+
+	private static final int DEPTH = 8;
+	private static final int PATH_COUNT = 10;
+
+	@Param({"1000", "10000"})
+	public int stackCount;
+
+	private LiveCallStackRegistry registry;
+
+	private final StringBuilder out = new StringBuilder();
+
+	@Setup
+	public void setup() {
+		CallSite[] callSites = new CallSite[DEPTH + PATH_COUNT];
+		for (int i = 0; i < callSites.length; i++) {
+			callSites[i] = CallSiteRegistry.getOrRegister(CLASS_NAME, "level" + i);
+		}
+		registry = new LiveCallStackRegistry();
+		for (int s = 0; s < stackCount; s++) {
+			CallStack stack = new CallStack();
+			for (int level = 0; level < DEPTH - 1; level++) {
+				stack.curr().pusher(callSites[level]).withParam("id", s).withParam("name", "stack" + s).push();
+			}
+			stack.curr().pusher(callSites[DEPTH + (s % PATH_COUNT)]).withParam("id", s).push();
+			registry.register(stack);
+		}
+	}
+
+	@Benchmark
+	public AppStackDump capture() {
+		return AppStackDump.capture(registry, true);
+	}
+
+	@Benchmark
+	public int captureAndWriteJson() throws IOException {
+		out.setLength(0);
+		new AppStackDumpWriter(out, AppStackDumpWriter.Format.JSON).write(AppStackDump.capture(registry, true));
+		return out.length();
+	}
+
+}
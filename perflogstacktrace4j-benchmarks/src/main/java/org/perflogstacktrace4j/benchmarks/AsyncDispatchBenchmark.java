@@ -0,0 +1,116 @@
+package org.perflogstacktrace4j.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.perflogstacktrace4j.dispatch.AsyncCallStackDispatcher;
+import org.perflogstacktrace4j.dispatch.CallStackEvent;
+import org.perflogstacktrace4j.dispatch.CallStackEventListener;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.CallStackElt;
+import org.perflogstacktrace4j.model.StackPopper;
+import org.perflogstacktrace4j.model.TimingPolicy;
+import org.perflogstacktrace4j.spi.CallStackListener;
+
+/**
+ * latency added to push()/pop() by a slow (exporter like) listener:
+ * called synchronously, or dispatched asynchronously with AsyncCallStackDispatcher (dropping events when its ring is full)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncDispatchBenchmark {
+
+	/** cpu work of the slow listener per event, see Blackhole.consumeCPU() */
+	private static final long LISTENER_TOKENS = 200;
+
+	@Param({"SYNC", "ASYNC"})
+	public String dispatchMode;
+
+	private CallStack callStack;
+	private CallSite callSite;
+	private AsyncCallStackDispatcher dispatcher;
+
+	@Setup
+	public void setup() {
+		callStack = new CallStack();
+		if ("ASYNC".equals(dispatchMode)) {
+			dispatcher = new AsyncCallStackDispatcher();
+			dispatcher.addListener(new CallStackEventListener() {
+				@Override
+				public void onEvent(CallStackEvent event) {
+					Blackhole.consumeCPU(LISTENER_TOKENS);
+				}
+			});
+			dispatcher.start();
+			callStack.addCallStackListener(dispatcher.createCallStackListener(callStack));
+		} else {
+			callStack.addCallStackListener(new SlowCallStackListener());
+		}
+		callSite = CallSiteRegistry.getOrRegister(AsyncDispatchBenchmark.class.getName(), "dispatched");
+		callSite.setTimingPolicy(TimingPolicy.wallOnly());
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (dispatcher != null) {
+			dispatcher.close();
+		}
+	}
+
+	@Benchmark
+	public void callStackPushPop() {
+		StackPopper toPop = callStack.curr().pusher(callSite).push();
+		toPop.close();
+	}
+
+	/**
+	 * synchronous listener, doing the same work per event as the async one
+	 */
+	public static class SlowCallStackListener extends CallStackListener {
+		@Override
+		public void onPush(CallStackElt stackElt) {
+			Blackhole.consumeCPU(LISTENER_TOKENS);
+		}
+
+		@Override
+		public void onPop(CallStackElt stackElt) {
+			Blackhole.consumeCPU(LISTENER_TOKENS);
+		}
+
+		@Override
+		public void onProgressStep(CallStackElt stackElt, int incr, String progressMessage) {
+		}
+
+		@Override
+		public void onLog(String msg, Map<String, Object> namedValues) {
+		}
+
+		@Override
+		public void onAttachCallStackToThread(CallStack stack, Thread thread) {
+		}
+
+		@Override
+		public void onDetachCallStackFromThread(CallStack stack, Thread thread) {
+		}
+	}
+
+}
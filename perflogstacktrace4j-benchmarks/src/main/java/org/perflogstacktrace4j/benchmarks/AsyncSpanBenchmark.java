@@ -0,0 +1,100 @@
+package org.perflogstacktrace4j.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perflogstacktrace4j.ThreadLocalCallStack;
+import org.perflogstacktrace4j.concurrent.AsyncSpan;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.CallStackContext;
+import org.perflogstacktrace4j.model.StackPopper;
+import org.perflogstacktrace4j.model.TimingPolicy;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeCallStackListener;
+
+/**
+ * cost of an AsyncSpan recorded in an AppCallTree, started at <code>depth</code>, compared to a (wall time only) push/pop:
+ * <ul>
+ * <li>startEnd: AsyncSpan.start() child of current element, then end()</li>
+ * <li>startFromContextEnd: AsyncSpan.start() child of a captured context (node resolved from root), then end()</li>
+ * <li>pushPop: push/pop of the same CallSite</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncSpanBenchmark {
+
+	private static final String CLASS_NAME = AsyncSpanBenchmark.class.getName();
+
+	@Param({"1", "8"})
+	public int depth;
+
+	private AppCallTree tree;
+	private CallStack callStack;
+	private AppCallTreeCallStackListener listener;
+	private StackPopper[] toPops;
+
+	private CallSite spanCallSite;
+	private CallStackContext context;
+
+	@Setup
+	public void setup() {
+		tree = new AppCallTree("bench");
+		callStack = ThreadLocalCallStack.currCallStack();
+		listener = tree.createCallStackListener(callStack);
+		callStack.addCallStackListener(listener);
+		toPops = new StackPopper[depth];
+		for (int i = 0; i < depth; i++) {
+			CallSite callSite = CallSiteRegistry.getOrRegister(CLASS_NAME, "level" + i);
+			callSite.setTimingPolicy(TimingPolicy.wallOnly());
+			toPops[i] = callStack.curr().pusher(callSite).push();
+		}
+		spanCallSite = CallSiteRegistry.getOrRegister(CLASS_NAME, "span");
+		spanCallSite.setTimingPolicy(TimingPolicy.wallOnly());
+		context = CallStackContext.capture(callStack.curr());
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (int i = depth - 1; i >= 0; i--) {
+			toPops[i].close();
+		}
+		callStack.removeCallStackListener(listener);
+	}
+
+	@Benchmark
+	public boolean startEnd() {
+		AsyncSpan span = AsyncSpan.start(spanCallSite);
+		return span.end();
+	}
+
+	@Benchmark
+	public boolean startFromContextEnd() {
+		AsyncSpan span = AsyncSpan.start(context, spanCallSite);
+		return span.end();
+	}
+
+	@Benchmark
+	public void pushPop() {
+		StackPopper toPop = callStack.curr().pusher(spanCallSite).push();
+		toPop.close();
+	}
+
+}
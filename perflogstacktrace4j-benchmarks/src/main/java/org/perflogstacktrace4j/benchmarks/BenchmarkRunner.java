@@ -0,0 +1,46 @@
+package org.perflogstacktrace4j.benchmarks;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * run all (or selected) benchmarks, writing results in JSON, to compare runs and spot regressions
+ * (for example using https://jmh.morethan.net)
+ * 
+ * usage: 
+ * <PRE>
+ * java -cp target/benchmarks.jar org.perflogstacktrace4j.benchmarks.BenchmarkRunner [resultFile] [includeRegexp..]
+ * </PRE>
+ * default result file: target/jmh-result.json 
+ * 
+ * equivalent using jmh command line: <code>java -jar target/benchmarks.jar -rf json -rff target/jmh-result.json</code>
+ */
+public class BenchmarkRunner {
+
+	public static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+	
+	public static void main(String[] args) throws RunnerException {
+		String resultFile = (args.length > 0)? args[0] : DEFAULT_RESULT_FILE;
+		File parentDir = new File(resultFile).getAbsoluteFile().getParentFile();
+		if (parentDir != null) {
+			parentDir.mkdirs();
+		}
+		ChainedOptionsBuilder opt = new OptionsBuilder()
+				.resultFormat(ResultFormatType.JSON)
+				.result(resultFile);
+		if (args.length > 1) {
+			for (int i = 1; i < args.length; i++) {
+				opt.include(args[i]);
+			}
+		} else {
+			opt.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+		}
+		new Runner(opt.build()).run();
+	}
+
+}
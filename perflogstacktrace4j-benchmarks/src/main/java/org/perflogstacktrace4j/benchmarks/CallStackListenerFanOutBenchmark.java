@@ -0,0 +1,105 @@
+package org.perflogstacktrace4j.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.CallStackElt;
+import org.perflogstacktrace4j.model.StackPopper;
+import org.perflogstacktrace4j.model.TimingPolicy;
+import org.perflogstacktrace4j.spi.CallStackListener;
+import org.perflogstacktrace4j.spi.CallStackListenerSupport;
+
+/**
+ * cost of firing push/pop events to 0, 1 or 4 (counting) listeners:
+ * directly through CallStackListenerSupport, and through a full CallStack push()/pop()
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallStackListenerFanOutBenchmark {
+
+	@Param({"0", "1", "4"})
+	public int listenerCount;
+
+	private CallStackListenerSupport listenerSupport;
+	private CallStack callStack;
+	private CallSite callSite;
+	private CallStackElt elt;
+	
+	@Setup
+	public void setup() {
+		listenerSupport = new CallStackListenerSupport();
+		callStack = new CallStack();
+		for (int i = 0; i < listenerCount; i++) {
+			listenerSupport.addListener(new CountingCallStackListener());
+			callStack.addCallStackListener(new CountingCallStackListener());
+		}
+		callSite = CallSiteRegistry.getOrRegister(CallStackListenerFanOutBenchmark.class.getName(), "fanOut");
+		callSite.setTimingPolicy(TimingPolicy.wallOnly());
+		elt = callStack.curr();
+	}
+
+	@Benchmark
+	public void fireOnPushOnPop() {
+		listenerSupport.fireOnPush(elt);
+		listenerSupport.fireOnPop(elt);
+	}
+
+	@Benchmark
+	public void callStackPushPop() {
+		StackPopper toPop = callStack.curr().pusher(callSite).push();
+		toPop.close();
+	}
+
+	/**
+	 * minimal listener, to measure the dispatch cost only
+	 */
+	public static class CountingCallStackListener extends CallStackListener {
+		public int pushCount;
+		public int popCount;
+
+		@Override
+		public void onPush(CallStackElt stackElt) {
+			pushCount++;
+		}
+
+		@Override
+		public void onPop(CallStackElt stackElt) {
+			popCount++;
+		}
+
+		@Override
+		public void onProgressStep(CallStackElt stackElt, int incr, String progressMessage) {
+		}
+
+		@Override
+		public void onLog(String msg, Map<String, Object> namedValues) {
+		}
+
+		@Override
+		public void onAttachCallStackToThread(CallStack stack, Thread thread) {
+		}
+
+		@Override
+		public void onDetachCallStackFromThread(CallStack stack, Thread thread) {
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package org.perflogstacktrace4j.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perflogstacktrace4j.ScopedCallStack;
+import org.perflogstacktrace4j.ThreadLocalCallStack;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.StackPopper;
+import org.perflogstacktrace4j.model.TimingPolicy;
+
+/**
+ * memory allocated for the CallStack of a new (typically virtual) thread running a task pushing/popping <code>depth</code> elements,
+ * run with "-prof gc" (see gc.alloc.rate.norm, in bytes/op):
+ * <ul>
+ * <li>DEFAULT: new CallStack, as created by ThreadLocalCallStack for each thread (10 elements, growing by 5)</li>
+ * <li>COMPACT: new compact CallStack, as created for virtual threads (2 elements, growing geometrically, deeper elements pooled)</li>
+ * <li>SCOPED: pooled compact CallStack bound to the thread during the task only (see ScopedCallStack)</li>
+ * </ul>
+ * The task is run in the benchmark thread: the gc profiler counts allocations of benchmark threads only,
+ * not of threads started by the benchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallStackMemoryBenchmark {
+
+	private static final String CLASS_NAME = CallStackMemoryBenchmark.class.getName();
+
+	@Param({"DEFAULT", "COMPACT", "SCOPED"})
+	public String mode;
+
+	@Param({"3", "12"})
+	public int depth;
+
+	private CallSite[] callSites;
+
+	private Runnable task;
+
+	@Setup
+	public void setup() {
+		callSites = new CallSite[depth];
+		for (int i = 0; i < depth; i++) {
+			callSites[i] = CallSiteRegistry.getOrRegister(CLASS_NAME, "level" + i);
+			callSites[i].setTimingPolicy(TimingPolicy.wallOnly());
+		}
+		final Runnable pushPopTask = new Runnable() {
+			@Override
+			public void run() {
+				pushPop(ThreadLocalCallStack.currCallStack(), 0);
+			}
+		};
+		task = ScopedCallStack.wrap(pushPopTask);
+	}
+
+	@Benchmark
+	public CallStack newThreadCallStackTask() {
+		if ("SCOPED".equals(mode)) {
+			task.run();
+			return null;
+		}
+		CallStack stack = ("COMPACT".equals(mode))? CallStack.createCompact() : new CallStack();
+		pushPop(stack, 0);
+		return stack;
+	}
+
+	private void pushPop(CallStack stack, int level) {
+		if (level == depth) {
+			return;
+		}
+		StackPopper toPop = stack.curr().pusher(callSites[level]).push();
+		try {
+			pushPop(stack, level + 1);
+		} finally {
+			toPop.close();
+		}
+	}
+
+}
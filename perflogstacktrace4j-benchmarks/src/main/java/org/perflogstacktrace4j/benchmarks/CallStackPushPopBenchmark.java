@@ -0,0 +1,93 @@
+package org.perflogstacktrace4j.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perflogstacktrace4j.ThreadLocalCallStack;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.StackPopper;
+import org.perflogstacktrace4j.model.TimingPolicy;
+
+/**
+ * cost of a push()/pop() pair on the current thread CallStack (no listener), 
+ * by name, by pre-registered CallSite, and with params
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallStackPushPopBenchmark {
+
+	private static final String CLASS_NAME = CallStackPushPopBenchmark.class.getName();
+	
+	/** WALL_AND_CPU: default, reading thread cpu/user times on push and pop, WALL_ONLY: System.nanoTime() only */
+	@Param({"WALL_AND_CPU", "WALL_ONLY"})
+	public String timing;
+	
+	private CallSite callSite;
+	
+	private long longValue = 123;
+	private Object objValue = "value";
+	
+	@Setup
+	public void setup() {
+		TimingPolicy timingPolicy = "WALL_ONLY".equals(timing)? TimingPolicy.wallOnly() : TimingPolicy.wallAndCpu();
+		TimingPolicy.setDefault(timingPolicy);
+		callSite = CallSiteRegistry.getOrRegister(CLASS_NAME, "callSite");
+		callSite.setTimingPolicy(timingPolicy);
+	}
+	
+	@Benchmark
+	public void pushPop() {
+		StackPopper toPop = ThreadLocalCallStack.push(CLASS_NAME, "pushPop");
+		toPop.close();
+	}
+
+	@Benchmark
+	public void pushPopCallSite() {
+		StackPopper toPop = ThreadLocalCallStack.push(callSite);
+		toPop.close();
+	}
+
+	@Benchmark
+	public void pushPopNested() {
+		StackPopper toPop = ThreadLocalCallStack.push(CLASS_NAME, "pushPopNested");
+		StackPopper toPop2 = ThreadLocalCallStack.push(CLASS_NAME, "nested1");
+		StackPopper toPop3 = ThreadLocalCallStack.push(CLASS_NAME, "nested2");
+		toPop3.close();
+		toPop2.close();
+		toPop.close();
+	}
+
+	@Benchmark
+	public void pushPopWithParams() {
+		StackPopper toPop = ThreadLocalCallStack.meth(CLASS_NAME, "pushPopWithParams")
+				.withParam("long", longValue)
+				.withParam("obj", objValue)
+				.push();
+		toPop.close();
+	}
+
+	@Benchmark
+	public void pushPopWithParamsCallSite() {
+		StackPopper toPop = ThreadLocalCallStack.meth(callSite)
+				.withParam("long", longValue)
+				.withParam("obj", objValue)
+				.push();
+		toPop.close();
+	}
+
+}
@@ -0,0 +1,112 @@
+package org.perflogstacktrace4j.benchmarks;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perflogstacktrace4j.ThreadLocalCallStack;
+import org.perflogstacktrace4j.concurrent.ContextPropagatingExecutorService;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.CallStackContext;
+import org.perflogstacktrace4j.model.StackPopper;
+import org.perflogstacktrace4j.model.StackPusher;
+import org.perflogstacktrace4j.model.TimingPolicy;
+
+/**
+ * cost of propagating the CallStack context of a submitting thread at <code>depth</code>, 
+ * with <code>propCount</code> inheritable props (see ContextPropagatingExecutorService):
+ * <ul>
+ * <li>capture: CallStackContext.capture() of current element</li>
+ * <li>wrapRunnable: capture + task wrapper allocation, as done on each submit()</li>
+ * <li>attachPushPopDetach: on the executing side, attach context, push/pop the task span (wall time only), detach context (no listener)</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextPropagationBenchmark {
+
+	private static final String CLASS_NAME = ContextPropagationBenchmark.class.getName();
+
+	@Param({"1", "8"})
+	public int depth;
+
+	@Param({"0", "2"})
+	public int propCount;
+
+	private StackPopper[] toPops;
+
+	private ContextPropagatingExecutorService executor;
+	private Runnable task = new Runnable() {
+		@Override
+		public void run() {
+			// do nothing
+		}
+	};
+
+	private CallStackContext context;
+	private CallStack workerStack;
+	private CallSite taskCallSite;
+
+	@Setup
+	public void setup() {
+		toPops = new StackPopper[depth];
+		for (int i = 0; i < depth; i++) {
+			StackPusher pusher = ThreadLocalCallStack.meth(CallSiteRegistry.getOrRegister(CLASS_NAME, "level" + i));
+			if (i == 0) {
+				for (int p = 0; p < propCount; p++) {
+					pusher.withInheritableProp("prop" + p, "value" + p);
+				}
+			}
+			toPops[i] = pusher.push();
+		}
+		executor = new ContextPropagatingExecutorService(Executors.newSingleThreadExecutor());
+		context = CallStackContext.capture(ThreadLocalCallStack.currStackElt());
+		workerStack = new CallStack();
+		taskCallSite = CallSiteRegistry.getOrRegister(CLASS_NAME, "task");
+		taskCallSite.setTimingPolicy(TimingPolicy.wallOnly());
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (int i = depth - 1; i >= 0; i--) {
+			toPops[i].close();
+		}
+		executor.shutdown();
+	}
+
+	@Benchmark
+	public CallStackContext capture() {
+		return CallStackContext.capture(ThreadLocalCallStack.currStackElt());
+	}
+
+	@Benchmark
+	public Runnable wrapRunnable() {
+		return executor.wrap(task);
+	}
+
+	@Benchmark
+	public void attachPushPopDetach() {
+		workerStack.attachContext(context);
+		StackPopper toPop = workerStack.curr().pusher(taskCallSite).push();
+		toPop.close();
+		workerStack.detachContext();
+	}
+
+}
@@ -0,0 +1,71 @@
+package org.perflogstacktrace4j.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.StackPopper;
+import org.perflogstacktrace4j.model.TimingPolicy;
+import org.perflogstacktrace4j.recorder.FlightRecorder;
+
+/**
+ * cost of recording push/pop events in a memory-mapped FlightRecorder, compared to no listener
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlightRecorderBenchmark {
+
+	@Param({"false", "true"})
+	public boolean recorderEnabled;
+
+	private File file;
+	private FlightRecorder recorder;
+	private CallStack callStack;
+	private CallSite callSite;
+
+	@Setup
+	public void setup() throws IOException {
+		callStack = new CallStack();
+		if (recorderEnabled) {
+			file = File.createTempFile("flight-recorder-bench", ".rec");
+			recorder = new FlightRecorder(file);
+			callStack.addCallStackListener(recorder.createCallStackListener(callStack));
+		}
+		callSite = CallSiteRegistry.getOrRegister(FlightRecorderBenchmark.class.getName(), "recorded");
+		callSite.setTimingPolicy(TimingPolicy.wallOnly());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		if (recorder != null) {
+			recorder.close();
+			file.delete();
+		}
+	}
+
+	@Benchmark
+	public void callStackPushPop() {
+		StackPopper toPop = callStack.curr().pusher(callSite).push();
+		toPop.close();
+	}
+
+}
@@ -0,0 +1,94 @@
+package org.perflogstacktrace4j.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.perflogstacktrace4j.model.stats.LongStatsHistogram;
+import org.perflogstacktrace4j.model.stats.PerfTimeStats;
+import org.perflogstacktrace4j.model.stats.RollingTimeWindowStats;
+
+/**
+ * contention benchmark: all threads incr() the same shared stats (~ hot root node of an AppCallTree)
+ * comparing default vs striped counters, and the extra cost of rolling time windows (rotated lazily on 1s buckets)
+ * 
+ * run scaling from 1 to N threads using main(), or with jmh option "-t <threads>"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongStatsHistogramContentionBenchmark {
+
+	@Param({"false", "true"})
+	public boolean striped;
+
+	private LongStatsHistogram histogram;
+	private PerfTimeStats perfTimeStats;
+	private RollingTimeWindowStats rollingTimeWindows;
+
+	@Setup
+	public void setup() {
+		histogram = new LongStatsHistogram();
+		perfTimeStats = new PerfTimeStats();
+		rollingTimeWindows = RollingTimeWindowStats.createDefault();
+		if (striped) {
+			histogram.enableStriping();
+			perfTimeStats.enableStriping(LongStatsHistogram.defaultStripeCount());
+		}
+		// pre-set min/max values, so that benchmark measure only counters contention
+		histogram.incr(0);
+		histogram.incr(1000);
+		perfTimeStats.incr(0, 0, 0);
+		perfTimeStats.incr(1000, 1000, 1000);
+	}
+
+	@Benchmark
+	public void histogramIncr() {
+		histogram.incr(100);
+	}
+
+	@Benchmark
+	public void perfTimeStatsIncr() {
+		perfTimeStats.incr(100, 50, 60);
+	}
+
+	@Benchmark
+	public void rollingTimeWindowsIncr() {
+		rollingTimeWindows.incr(100);
+	}
+
+	/**
+	 * run benchmark with 1, 2, 4, .. up to available processors threads
+	 */
+	public static void main(String[] args) throws RunnerException {
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; ; threads *= 2) {
+			int t = Math.min(threads, maxThreads);
+			Options opt = new OptionsBuilder()
+					.include(LongStatsHistogramContentionBenchmark.class.getSimpleName())
+					.threads(t)
+					.build();
+			new Runner(opt).run();
+			if (t == maxThreads) {
+				break;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+package org.perflogstacktrace4j.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+import org.perflogstacktrace4j.prometheus.PrometheusTextWriter;
+
+/**
+ * Prometheus scrape of a live AppCallTree (<code>fanOut + fanOut ^ 2</code> nodes, ~20k by default),
+ * with 3 histograms per node, written to a byte counting OutputStream
+ * <BR/>
+ * run with "-prof gc" to check allocation per scrape
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrometheusScrapeBenchmark {
+
+	@Param({"141"})
+	public int fanOut;
+
+	private AppCallTree tree;
+	private PrometheusTextWriter writer;
+	private CountingOutputStream out;
+
+	@Setup
+	public void setup() throws IOException {
+		tree = new AppCallTree("bench");
+		CallSite[] sites = new CallSite[fanOut];
+		for (int i = 0; i < fanOut; i++) {
+			sites[i] = CallSiteRegistry.getOrRegister(PrometheusScrapeBenchmark.class.getName(), "node" + i);
+		}
+		AppCallTreeNode root = tree.getRootNode();
+		for (int i = 0; i < fanOut; i++) {
+			AppCallTreeNode child = root.findOrCreateChild(sites[i]);
+			fill(child, i);
+			for (int j = 0; j < fanOut; j++) {
+				fill(child.findOrCreateChild(sites[j]), i * fanOut + j);
+			}
+		}
+		writer = new PrometheusTextWriter();
+		out = new CountingOutputStream();
+		writer.write(out, tree); // grow buffers
+	}
+
+	private static void fill(AppCallTreeNode node, int seed) {
+		int count = 1 + (seed % 20);
+		for (int v = 1; v <= count; v++) {
+			long time = (seed * 7919L + v * 104729L) % 500000000L;
+			node.incrTimeStats(time, time / 2, time * 3 / 4);
+		}
+	}
+
+	@Benchmark
+	public long scrape() throws IOException {
+		out.count = 0;
+		writer.write(out, tree);
+		return out.count;
+	}
+
+	/**
+	 * discard output, counting bytes
+	 */
+	public static class CountingOutputStream extends OutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+}
@@ -0,0 +1,270 @@
+package org.perflogstacktrace4j.influxdb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.perflogstacktrace4j.model.stats.PerfTimeStats;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+import org.perflogstacktrace4j.model.tree.AppCallTreePathWalker;
+import org.perflogstacktrace4j.utils.DaemonLoopThread;
+import org.perflogstacktrace4j.utils.ThrottledErrorLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * periodic exporter of AppCallTree(s) statistics to InfluxDB line protocol, sent to an InfluxLineSink (UDP socket, rolling file)
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * InfluxDbExporter exporter = new InfluxDbExporter(new InfluxUdpSink(new InetSocketAddress("localhost", 8089)), appCallTree);
+ * exporter.start();
+ * </PRE>
+ *
+ * On each export, the live tree is walked (without AppCallTreeDTO copy), and only nodes having changed since previous export
+ * (see LongStatsHistogram.compareHasChangeCount(), or pending count changed) are written, with cumulative values.
+ * The tree is not reset, so it can be shared with other exporters.
+ * <BR/>
+ * Previous stats are kept per node, and swapped with the current copy: once all nodes were seen, an export does not allocate.
+ * When an export fails (sink error), nodes written during this export are written again on next export.
+ */
+public class InfluxDbExporter implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(InfluxDbExporter.class);
+
+	public static final String DEFAULT_MEASUREMENT = "plst_call";
+	public static final long DEFAULT_PERIOD_MILLIS = 10000;
+
+	private static final byte[] EMPTY_BYTES = new byte[0];
+
+	private final AppCallTree[] trees;
+	private final byte[][] escapedTreeNames;
+
+	private final InfluxLineSink sink;
+	private final InfluxLineProtocolWriter writer;
+
+	private long periodMillis = DEFAULT_PERIOD_MILLIS;
+
+	private final Object lock = new Object();
+
+	/** stats of nodes at previous export */
+	private final IdentityHashMap<AppCallTreeNode,NodeState> nodeStates = new IdentityHashMap<AppCallTreeNode,NodeState>();
+	private int exportIndex;
+	private int exportLineCount;
+	private int exportSeenCount;
+
+	// current export
+	private byte[] exportTreeName;
+	private int exportIdx;
+	private long exportTimestampNanos;
+	/** states of nodes written during current export, marked unsent if export fails */
+	private final List<NodeState> exportWrittenStates = new ArrayList<NodeState>();
+
+	// reused buffers
+	private PerfTimeStats tmpStats = new PerfTimeStats();
+
+	/** walker of trees, with path as escaped tag value */
+	private final AppCallTreePathWalker treeWalker = new AppCallTreePathWalker() {
+		@Override
+		protected byte[] encodeName(String name) {
+			return InfluxLineProtocolWriter.escapeTagValue(name);
+		}
+		@Override
+		protected void visitNode(AppCallTreeNode node, byte[] path, int pathLen) throws IOException {
+			exportSeenCount++;
+			if (exportNodeIfChanged(node, path, pathLen)) {
+				exportLineCount++;
+			}
+		}
+	};
+
+	private final DaemonLoopThread exportThread = new DaemonLoopThread("perflogstacktrace4j-influxdb-exporter");
+
+	private final ThrottledErrorLogger exportErrorLogger = new ThrottledErrorLogger(LOG);
+
+	/**
+	 * stats of node at previous export
+	 */
+	private static final class NodeState {
+		PerfTimeStats stats;
+		int lastSeenExportIndex;
+		/** true when written during a failed export */
+		boolean unsent;
+	}
+
+	// ------------------------------------------------------------------------
+
+	public InfluxDbExporter(InfluxLineSink sink, AppCallTree... trees) {
+		this(sink, DEFAULT_MEASUREMENT, trees);
+	}
+
+	public InfluxDbExporter(InfluxLineSink sink, String measurement, AppCallTree... trees) {
+		this.sink = sink;
+		this.writer = new InfluxLineProtocolWriter(sink, measurement);
+		this.trees = trees.clone();
+		this.escapedTreeNames = new byte[trees.length][];
+		for (int i = 0; i < trees.length; i++) {
+			escapedTreeNames[i] = InfluxLineProtocolWriter.escapeTagValue(trees[i].getName());
+		}
+	}
+
+	// ------------------------------------------------------------------------
+
+	public long getPeriodMillis() {
+		return periodMillis;
+	}
+
+	/** export period, to be set before start() */
+	public void setPeriodMillis(long periodMillis) {
+		this.periodMillis = periodMillis;
+	}
+
+	public long getWrittenLineCount() {
+		return writer.getWrittenLineCount();
+	}
+
+	public long getWrittenBatchCount() {
+		return writer.getWrittenBatchCount();
+	}
+
+	/** @return count of lines dropped by sink (for example longer than an UDP packet), see InfluxLineSink.getDroppedLineCount() */
+	public long getDroppedLineCount() {
+		return sink.getDroppedLineCount();
+	}
+
+	/** @return count of failed exports (logged, not rethrown in export thread) */
+	public long getExportErrorCount() {
+		return exportErrorLogger.getErrorCount();
+	}
+
+	/** start (once) the daemon export thread */
+	public void start() {
+		exportThread.start(new Runnable() {
+			@Override
+			public void run() {
+				runExportLoop();
+			}
+		});
+	}
+
+	/**
+	 * stop export thread (after a last export), and close sink
+	 */
+	@Override
+	public void close() throws IOException {
+		exportThread.stopAndJoin();
+		synchronized(lock) {
+			sink.close();
+		}
+	}
+
+	/**
+	 * export now nodes changed since previous export
+	 * @return count of written lines
+	 */
+	public int export() throws IOException {
+		synchronized(lock) {
+			this.exportTimestampNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+			this.exportIdx = ++exportIndex;
+			this.exportLineCount = 0;
+			this.exportSeenCount = 0;
+			try {
+				for (int i = 0; i < trees.length; i++) {
+					this.exportTreeName = escapedTreeNames[i];
+					treeWalker.walk(trees[i], EMPTY_BYTES);
+				}
+				writer.flush();
+			} catch(IOException ex) {
+				// lines may have been lost (sink error, or not yet written batch): write them again on next export
+				writer.discardBatch();
+				for (NodeState state : exportWrittenStates) {
+					state.unsent = true;
+				}
+				throw ex;
+			} finally {
+				exportWrittenStates.clear();
+				this.exportTreeName = null;
+			}
+			if (exportSeenCount < nodeStates.size()) {
+				removeUnseenNodeStates(exportIdx);
+			}
+			return exportLineCount;
+		}
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	private void runExportLoop() {
+		long periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+		long nextTime = System.nanoTime() + periodNanos;
+		for (;;) {
+			long remain;
+			while (!exportThread.isStopRequested() && (remain = nextTime - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(remain);
+			}
+			try {
+				export();
+			} catch(Exception ex) {
+				exportErrorLogger.onError("Failed to export to influxdb", ex);
+			}
+			if (exportThread.isStopRequested()) {
+				return;
+			}
+			nextTime += periodNanos;
+		}
+	}
+
+	/**
+	 * write node if changed since previous export (or not sent), then keep its stats
+	 * (state is updated only when write succeeded, so the node is retried on next export otherwise)
+	 */
+	private boolean exportNodeIfChanged(AppCallTreeNode node, byte[] path, int pathLen) throws IOException {
+		PerfTimeStats curr = tmpStats;
+		node.copyTimeStatsTo(curr);
+		NodeState state = nodeStates.get(node);
+		boolean changed;
+		if (state == null || state.unsent) {
+			changed = true;
+		} else {
+			PerfTimeStats prev = state.stats;
+			changed = curr.getPendingCount() != prev.getPendingCount()
+					|| curr.getElapsedTimeStats().compareHasChangeCount(prev.getElapsedTimeStats())
+					|| curr.getThreadCpuTimeStats().compareHasChangeCount(prev.getThreadCpuTimeStats())
+					|| curr.getThreadUserTimeStats().compareHasChangeCount(prev.getThreadUserTimeStats());
+		}
+		if (changed) {
+			writer.writeLine(exportTreeName, path, pathLen, curr, exportTimestampNanos);
+		}
+		if (state == null) {
+			state = new NodeState();
+			nodeStates.put(node, state);
+			tmpStats = new PerfTimeStats();
+		} else {
+			tmpStats = state.stats; // swap, reused for next node
+		}
+		state.stats = curr;
+		state.lastSeenExportIndex = exportIdx;
+		if (changed) {
+			state.unsent = false;
+			exportWrittenStates.add(state);
+		}
+		return changed;
+	}
+
+	/** remove states of nodes no more in trees (for example after AppCallTree.clear()) */
+	private void removeUnseenNodeStates(int exportIdx) {
+		for (Iterator<NodeState> iter = nodeStates.values().iterator(); iter.hasNext(); ) {
+			if (iter.next().lastSeenExportIndex != exportIdx) {
+				iter.remove();
+			}
+		}
+	}
+
+}
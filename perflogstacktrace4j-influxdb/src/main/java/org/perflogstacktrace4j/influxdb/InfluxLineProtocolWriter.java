@@ -0,0 +1,226 @@
+package org.perflogstacktrace4j.influxdb;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.perflogstacktrace4j.model.stats.LongStatsHistogram;
+import org.perflogstacktrace4j.model.stats.PerfTimeStats;
+
+/**
+ * encoder of PerfTimeStats in InfluxDB line protocol, into a reused batch buffer flushed to an InfluxLineSink
+ * <PRE>
+ * plst_call,tree=app,path=a/b count=15i,sum=41000000i,avg=2733333i,max=9000000i,cpu_count=15i,..,pending=0i 1700000000000000000
+ * </PRE>
+ * Times are integer nanos. Fields of thread cpu / user time (prefixed by "cpu_" and "user_") are written only when measured.
+ * <BR/>
+ * Batches contain only complete lines, and are written to the sink when full (see InfluxLineSink.getMaxBatchSize()) or on flush().
+ * Not multi-thread safe.
+ */
+public class InfluxLineProtocolWriter {
+
+	private static final byte[] TREE_TAG = ascii(",tree=");
+	private static final byte[] PATH_TAG = ascii(",path=");
+	private static final byte[] CPU_PREFIX = ascii("cpu_");
+	private static final byte[] USER_PREFIX = ascii("user_");
+	private static final byte[] COUNT_FIELD = ascii("count=");
+	private static final byte[] SUM_FIELD = ascii("sum=");
+	private static final byte[] AVG_FIELD = ascii("avg=");
+	private static final byte[] MAX_FIELD = ascii("max=");
+	private static final byte[] PENDING_FIELD = ascii("pending=");
+
+	private final InfluxLineSink sink;
+
+	private final byte[] measurement;
+
+	private final byte[] batch;
+	private int batchLen;
+
+	/** current line, copied to batch when complete */
+	private byte[] line = new byte[1024];
+	private int lineLen;
+
+	private long writtenLineCount;
+	private long writtenBatchCount;
+
+	// ------------------------------------------------------------------------
+
+	public InfluxLineProtocolWriter(InfluxLineSink sink, String measurement) {
+		this.sink = sink;
+		this.measurement = escape(measurement, false);
+		this.batch = new byte[sink.getMaxBatchSize()];
+	}
+
+	// ------------------------------------------------------------------------
+
+	public long getWrittenLineCount() {
+		return writtenLineCount;
+	}
+
+	public long getWrittenBatchCount() {
+		return writtenBatchCount;
+	}
+
+	/**
+	 * append a line for stats of a node
+	 * @param escapedTree tree tag value, escaped (see escapeTagValue())
+	 * @param escapedPath bytes of path tag value, escaped
+	 */
+	public void writeLine(byte[] escapedTree, byte[] escapedPath, int pathLen, PerfTimeStats stats, long timestampNanos) throws IOException {
+		lineLen = 0;
+		append(measurement, measurement.length);
+		append(TREE_TAG, TREE_TAG.length);
+		append(escapedTree, escapedTree.length);
+		append(PATH_TAG, PATH_TAG.length);
+		append(escapedPath, pathLen);
+		appendByte(' ');
+		appendHistoFields(null, stats.getElapsedTimeStats(), true);
+		appendHistoFields(CPU_PREFIX, stats.getThreadCpuTimeStats(), false);
+		appendHistoFields(USER_PREFIX, stats.getThreadUserTimeStats(), false);
+		append(PENDING_FIELD, PENDING_FIELD.length);
+		appendLong(stats.getPendingCount());
+		appendByte('i');
+		appendByte(' ');
+		appendLong(timestampNanos);
+		appendByte('\n');
+
+		if (batchLen + lineLen > batch.length) {
+			writeBatch();
+			if (lineLen > batch.length) {
+				// line longer than a batch: written alone
+				sink.write(line, lineLen);
+				writtenBatchCount++;
+				writtenLineCount++;
+				return;
+			}
+		}
+		System.arraycopy(line, 0, batch, batchLen, lineLen);
+		batchLen += lineLen;
+		writtenLineCount++;
+	}
+
+	/**
+	 * discard pending batch, for example after a failed write (lines to be written again)
+	 */
+	public void discardBatch() {
+		batchLen = 0;
+	}
+
+	/**
+	 * write pending batch, and flush sink
+	 */
+	public void flush() throws IOException {
+		writeBatch();
+		sink.flush();
+	}
+
+	/**
+	 * @return tag value escaped for line protocol (backslash before comma, equal and space, newline replaced by space)
+	 */
+	public static byte[] escapeTagValue(String text) {
+		return escape(text, true);
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	private void writeBatch() throws IOException {
+		if (batchLen != 0) {
+			int len = batchLen;
+			batchLen = 0;
+			sink.write(batch, len);
+			writtenBatchCount++;
+		}
+	}
+
+	private void appendHistoFields(byte[] prefix, LongStatsHistogram histo, boolean always) {
+		long min = histo.getMinValue();
+		long max = histo.getMaxValue();
+		long count = (min <= max)? histo.getCount() : 0;
+		if (count == 0 && !always) {
+			return;
+		}
+		long sum = histo.getSum();
+		appendField(prefix, COUNT_FIELD, count);
+		appendField(prefix, SUM_FIELD, sum);
+		appendField(prefix, AVG_FIELD, (count != 0)? sum / count : 0);
+		appendField(prefix, MAX_FIELD, (count != 0)? max : 0);
+	}
+
+	private void appendField(byte[] prefix, byte[] name, long value) {
+		if (prefix != null) {
+			append(prefix, prefix.length);
+		}
+		append(name, name.length);
+		appendLong(value);
+		appendByte('i');
+		appendByte(',');
+	}
+
+	private void append(byte[] bytes, int len) {
+		ensureLineCapacity(len);
+		System.arraycopy(bytes, 0, line, lineLen, len);
+		lineLen += len;
+	}
+
+	private void appendByte(char c) {
+		ensureLineCapacity(1);
+		line[lineLen++] = (byte) c;
+	}
+
+	private void appendLong(long value) {
+		ensureLineCapacity(20);
+		byte[] buf = line;
+		int pos = lineLen;
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				value = Long.MIN_VALUE + 1; // not reachable for times, avoid overflow
+			}
+			buf[pos++] = '-';
+			value = -value;
+		}
+		int digitCount = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digitCount++;
+		}
+		int end = pos + digitCount;
+		for (int i = end - 1; i >= pos; i--) {
+			buf[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		lineLen = end;
+	}
+
+	private void ensureLineCapacity(int len) {
+		if (lineLen + len > line.length) {
+			line = Arrays.copyOf(line, Math.max(lineLen + len, line.length * 2));
+		}
+	}
+
+	private static byte[] ascii(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * escape comma and space (and equal for tag values), replace newline by space
+	 */
+	private static byte[] escape(String text, boolean escapeEqual) {
+		StringBuilder sb = new StringBuilder(text.length() + 8);
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch(c) {
+			case ',': case ' ': sb.append('\\').append(c); break;
+			case '=':
+				if (escapeEqual) {
+					sb.append('\\');
+				}
+				sb.append(c);
+				break;
+			case '\n': case '\r': sb.append("\\ "); break;
+			default: sb.append(c);
+			}
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+}
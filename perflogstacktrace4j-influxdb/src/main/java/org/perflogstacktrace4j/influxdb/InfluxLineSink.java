@@ -0,0 +1,41 @@
+package org.perflogstacktrace4j.influxdb;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * destination of line protocol batches, see InfluxDbExporter
+ */
+public abstract class InfluxLineSink implements Closeable {
+
+	/**
+	 * @return max size in bytes of a batch passed to write() (a batch contains only complete lines)
+	 */
+	public abstract int getMaxBatchSize();
+
+	/**
+	 * write a batch of lines, each terminated by '\n'
+	 * @param buffer reused by caller, only valid during this call
+	 */
+	public abstract void write(byte[] buffer, int len) throws IOException;
+
+	/**
+	 * @return count of lines dropped instead of written (for example longer than an UDP packet)
+	 */
+	public long getDroppedLineCount() {
+		return 0;
+	}
+
+	/**
+	 * called at end of each export
+	 */
+	public void flush() throws IOException {
+		// do nothing
+	}
+
+	@Override
+	public void close() throws IOException {
+		// do nothing
+	}
+
+}
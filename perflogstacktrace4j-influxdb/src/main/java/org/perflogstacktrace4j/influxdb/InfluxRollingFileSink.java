@@ -0,0 +1,105 @@
+package org.perflogstacktrace4j.influxdb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * sink appending batches to a local file, rolled when exceeding maxFileSize:
+ * <code>file</code> is renamed to <code>file.1</code> (and previous <code>file.1</code> to <code>file.2</code>.. up to maxBackupCount)
+ * <BR/>
+ * Files can be imported later, for example using "influx write --file" or telegraf tail input.
+ */
+public class InfluxRollingFileSink extends InfluxLineSink {
+
+	public static final int DEFAULT_MAX_BATCH_SIZE = 64 * 1024;
+
+	private final File file;
+	private final long maxFileSize;
+	private final int maxBackupCount;
+
+	private FileOutputStream out;
+	private long fileSize;
+
+	// ------------------------------------------------------------------------
+
+	public InfluxRollingFileSink(File file, long maxFileSize, int maxBackupCount) {
+		this.file = file;
+		this.maxFileSize = maxFileSize;
+		this.maxBackupCount = maxBackupCount;
+	}
+
+	// ------------------------------------------------------------------------
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public int getMaxBatchSize() {
+		return DEFAULT_MAX_BATCH_SIZE;
+	}
+
+	@Override
+	public void write(byte[] buffer, int len) throws IOException {
+		if (out != null && fileSize + len > maxFileSize && fileSize != 0) {
+			roll();
+		}
+		if (out == null) {
+			File parentDir = file.getAbsoluteFile().getParentFile();
+			if (parentDir != null && !parentDir.exists()) {
+				parentDir.mkdirs();
+			}
+			out = new FileOutputStream(file, true);
+			fileSize = file.length();
+		}
+		out.write(buffer, 0, len);
+		fileSize += len;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (out != null) {
+			out.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	private void roll() throws IOException {
+		close();
+		if (maxBackupCount <= 0) {
+			if (!file.delete()) {
+				throw new IOException("Failed to delete '" + file + "'");
+			}
+			return;
+		}
+		File oldest = backupFile(maxBackupCount);
+		if (oldest.exists() && !oldest.delete()) {
+			throw new IOException("Failed to delete '" + oldest + "'");
+		}
+		for (int i = maxBackupCount - 1; i >= 1; i--) {
+			File f = backupFile(i);
+			if (f.exists() && !f.renameTo(backupFile(i + 1))) {
+				throw new IOException("Failed to rename '" + f + "' to '" + backupFile(i + 1) + "'");
+			}
+		}
+		if (!file.renameTo(backupFile(1))) {
+			throw new IOException("Failed to rename '" + file + "' to '" + backupFile(1) + "'");
+		}
+	}
+
+	private File backupFile(int index) {
+		return new File(file.getPath() + "." + index);
+	}
+
+}
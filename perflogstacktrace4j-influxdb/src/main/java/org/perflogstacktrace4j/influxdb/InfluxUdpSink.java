@@ -0,0 +1,72 @@
+package org.perflogstacktrace4j.influxdb;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * sink sending each batch in a UDP datagram, to an InfluxDB UDP listener (or telegraf socket_listener)
+ */
+public class InfluxUdpSink extends InfluxLineSink {
+
+	/** default max datagram size, fitting in usual ethernet MTU */
+	public static final int DEFAULT_MAX_PACKET_SIZE = 1400;
+
+	private final InetSocketAddress target;
+	private final DatagramChannel channel;
+	private final ByteBuffer packetBuffer;
+
+	private volatile long droppedLineCount;
+
+	// ------------------------------------------------------------------------
+
+	public InfluxUdpSink(InetSocketAddress target) throws IOException {
+		this(target, DEFAULT_MAX_PACKET_SIZE);
+	}
+
+	public InfluxUdpSink(InetSocketAddress target, int maxPacketSize) throws IOException {
+		this.target = target;
+		this.channel = DatagramChannel.open();
+		this.packetBuffer = ByteBuffer.allocateDirect(maxPacketSize);
+	}
+
+	// ------------------------------------------------------------------------
+
+	public InetSocketAddress getTarget() {
+		return target;
+	}
+
+	@Override
+	public int getMaxBatchSize() {
+		return packetBuffer.capacity();
+	}
+
+	/** @return count of lines longer than max packet size (for example with a very deep path), dropped */
+	@Override
+	public long getDroppedLineCount() {
+		return droppedLineCount;
+	}
+
+	/**
+	 * send batch in a datagram, or drop it when longer than max packet size:
+	 * only possible for a single line (see getMaxBatchSize()), which would never fit in next exports neither
+	 */
+	@Override
+	public void write(byte[] buffer, int len) throws IOException {
+		if (len > packetBuffer.capacity()) {
+			droppedLineCount++; // single writer (exporter lock)
+			return;
+		}
+		packetBuffer.clear();
+		packetBuffer.put(buffer, 0, len);
+		packetBuffer.flip();
+		channel.send(packetBuffer, target);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,141 @@
+package org.perflogstacktrace4j.influxdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+
+public class InfluxDbExporterTest {
+
+	@Rule
+	public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+	private static class RecordingSink extends InfluxLineSink {
+		final List<String> lines = new ArrayList<String>();
+		int maxBatchSize = 4096;
+		boolean failing;
+
+		@Override
+		public int getMaxBatchSize() {
+			return maxBatchSize;
+		}
+
+		@Override
+		public void write(byte[] buffer, int len) throws IOException {
+			if (failing) {
+				throw new IOException("test sink failure");
+			}
+			for (String line : new String(buffer, 0, len, StandardCharsets.UTF_8).split("\n")) {
+				lines.add(line);
+			}
+		}
+	}
+
+	@Test
+	public void testExportOnlyChangedNodes() throws IOException {
+		AppCallTree tree = new AppCallTree("app");
+		AppCallTreeNode a = tree.getRootNode().findOrCreateChild("a");
+		AppCallTreeNode b = a.findOrCreateChild("b c");
+		a.incrTimeStats(1000, 0, 0);
+		b.incrTimeStats(2000, 0, 0);
+		RecordingSink sink = new RecordingSink();
+		InfluxDbExporter exporter = new InfluxDbExporter(sink, tree);
+
+		Assert.assertEquals(2, exporter.export());
+		Assert.assertTrue(sink.lines.get(0).startsWith("plst_call,tree=app,path=a count=1i,sum=1000i,"));
+		Assert.assertTrue(sink.lines.get(1).startsWith("plst_call,tree=app,path=a/b\\ c count=1i,sum=2000i,"));
+
+		Assert.assertEquals(0, exporter.export());
+
+		b.incrTimeStats(3000, 0, 0);
+		Assert.assertEquals(1, exporter.export());
+		Assert.assertTrue(sink.lines.get(2).startsWith("plst_call,tree=app,path=a/b\\ c count=2i,sum=5000i,"));
+		Assert.assertEquals(3, exporter.getWrittenLineCount());
+	}
+
+	@Test
+	public void testFailedExportRetriedOnNextExport() throws IOException {
+		AppCallTree tree = new AppCallTree("app");
+		AppCallTreeNode a = tree.getRootNode().findOrCreateChild("a");
+		a.incrTimeStats(1000, 0, 0);
+		RecordingSink sink = new RecordingSink();
+		InfluxDbExporter exporter = new InfluxDbExporter(sink, tree);
+		exporter.export();
+
+		a.incrTimeStats(1000, 0, 0);
+		a.findOrCreateChild("b").incrTimeStats(1000, 0, 0);
+		sink.failing = true;
+		try {
+			exporter.export();
+			Assert.fail();
+		} catch(IOException ex) {
+			// expected
+		}
+		sink.failing = false;
+		Assert.assertEquals(2, exporter.export());
+		Assert.assertEquals(3, sink.lines.size());
+		Assert.assertTrue(sink.lines.get(1).startsWith("plst_call,tree=app,path=a count=2i,"));
+		Assert.assertTrue(sink.lines.get(2).startsWith("plst_call,tree=app,path=a/b count=1i,"));
+		Assert.assertEquals(0, exporter.export());
+	}
+
+	@Test
+	public void testUdpSinkDropsTooLongLines() throws IOException {
+		AppCallTree tree = new AppCallTree("app");
+		StringBuilder longName = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			longName.append("name").append(i);
+		}
+		tree.getRootNode().findOrCreateChild(longName.toString()).incrTimeStats(1000, 0, 0);
+		tree.getRootNode().findOrCreateChild("short").incrTimeStats(1000, 0, 0);
+		InfluxUdpSink sink = new InfluxUdpSink(new InetSocketAddress("localhost", 8089), 512);
+		InfluxDbExporter exporter = new InfluxDbExporter(sink, tree);
+		try {
+			Assert.assertEquals(2, exporter.export());
+			Assert.assertEquals(1, exporter.getDroppedLineCount());
+			Assert.assertEquals(0, exporter.export());
+		} finally {
+			exporter.close();
+		}
+	}
+
+	@Test
+	public void testRollingFileSink() throws IOException {
+		File file = new File(tmpFolder.getRoot(), "sub/plst.influx");
+		InfluxRollingFileSink sink = new InfluxRollingFileSink(file, 100, 2);
+		byte[] line = "0123456789012345678901234567890123456789\n".getBytes(StandardCharsets.UTF_8); // 41 bytes
+		for (int i = 0; i < 8; i++) {
+			sink.write(line, line.length);
+		}
+		sink.close();
+		Assert.assertEquals(2 * line.length, file.length());
+		Assert.assertEquals(2 * line.length, new File(file.getPath() + ".1").length());
+		Assert.assertEquals(2 * line.length, new File(file.getPath() + ".2").length());
+		Assert.assertFalse(new File(file.getPath() + ".3").exists());
+		Assert.assertEquals(2, Files.readAllLines(file.toPath()).size());
+	}
+
+	@Test
+	public void testExportThread() throws IOException {
+		AppCallTree tree = new AppCallTree("app");
+		tree.getRootNode().findOrCreateChild("a").incrTimeStats(1000, 0, 0);
+		RecordingSink sink = new RecordingSink();
+		InfluxDbExporter exporter = new InfluxDbExporter(sink, tree);
+		exporter.setPeriodMillis(60000);
+		exporter.start();
+		exporter.close(); // last export before stopping
+		Assert.assertEquals(1, sink.lines.size());
+		Assert.assertEquals(0, exporter.getExportErrorCount());
+	}
+
+}
@@ -0,0 +1,116 @@
+package org.perflogstacktrace4j.prometheus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * embedded http server (com.sun.net.httpserver), exposing AppCallTree(s) statistics for Prometheus scraping
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * PrometheusHttpExporter exporter = new PrometheusHttpExporter(new InetSocketAddress(9404), appCallTree);
+ * exporter.start();
+ * // scrape http://host:9404/metrics
+ * </PRE>
+ *
+ * Response is streamed (chunked) from the live tree by a reused PrometheusTextWriter, scrapes are serialized.
+ */
+public class PrometheusHttpExporter implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(PrometheusHttpExporter.class);
+
+	public static final String DEFAULT_PATH = "/metrics";
+
+	private final AppCallTree[] trees;
+
+	private final PrometheusTextWriter writer;
+
+	private final HttpServer server;
+
+	private final AtomicLong scrapeCount = new AtomicLong();
+
+	// ------------------------------------------------------------------------
+
+	public PrometheusHttpExporter(InetSocketAddress address, AppCallTree... trees) throws IOException {
+		this(address, DEFAULT_PATH, new PrometheusTextWriter(), trees);
+	}
+
+	public PrometheusHttpExporter(InetSocketAddress address, String path, PrometheusTextWriter writer, AppCallTree... trees) throws IOException {
+		this.trees = trees.clone();
+		this.writer = writer;
+		this.server = HttpServer.create(address, 0);
+		server.createContext(path, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleScrape(exchange);
+			}
+		});
+	}
+
+	// ------------------------------------------------------------------------
+
+	public void start() {
+		server.start();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+
+	/** @return bound port, for example when created with port 0 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public long getScrapeCount() {
+		return scrapeCount.get();
+	}
+
+	/**
+	 * write current statistics to <code>out</code>, as for a scrape
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		synchronized(writer) {
+			writer.write(out, trees);
+		}
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	private void handleScrape(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Type", PrometheusTextWriter.CONTENT_TYPE);
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, 0); // chunked
+			OutputStream out = exchange.getResponseBody();
+			writeTo(out);
+			out.flush();
+			scrapeCount.incrementAndGet();
+		} catch(IOException ex) {
+			LOG.warn("Failed to write prometheus scrape response ..ignore " + ex.getMessage());
+		} finally {
+			exchange.close();
+		}
+	}
+
+}
@@ -0,0 +1,514 @@
+package org.perflogstacktrace4j.prometheus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.perflogstacktrace4j.model.stats.LongStatsHistogram;
+import org.perflogstacktrace4j.model.stats.LongStatsHistogramLayout;
+import org.perflogstacktrace4j.model.stats.PerfTimeStats;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+import org.perflogstacktrace4j.model.tree.AppCallTreePathWalker;
+
+/**
+ * writer of AppCallTree(s) statistics in Prometheus text exposition format (version 0.0.4)
+ * <BR/>
+ * Nodes are read directly from the live tree (no AppCallTreeDTO copy), and output is encoded in a reused byte buffer:
+ * once buffers are grown, a scrape does not allocate.
+ * <PRE>
+ * # TYPE plst_call_elapsed_seconds histogram
+ * plst_call_elapsed_seconds_bucket{tree="app",path="a/b",le="0.005"} 12
+ * ..
+ * plst_call_elapsed_seconds_bucket{tree="app",path="a/b",le="+Inf"} 15
+ * plst_call_elapsed_seconds_sum{tree="app",path="a/b"} 0.041
+ * plst_call_elapsed_seconds_count{tree="app",path="a/b"} 15
+ * </PRE>
+ *
+ * Families: elapsed time histogram (or summary when no bucket bounds), thread cpu / thread user time summaries
+ * (or histograms, when cpuTimeBuckets), max time gauges, and pending count gauge.
+ * So by default a node has 1 + bucket count + 2 elapsed series, and only 2 series per cpu / user time.
+ * Histogram buckets are mapped from LongStatsHistogram slots: a slot is counted in the first bucket containing its highest value,
+ * so bucket counts are exact when bounds are slot boundaries, and slightly under-estimated otherwise.
+ * <BR/>
+ * Values are cumulative since tree creation (or last AppCallTree.snapshotAndReset() / clear(), seen as counter resets by Prometheus).
+ * <BR/>
+ * Not multi-thread safe: use one writer per scraping thread, or synchronize.
+ */
+public class PrometheusTextWriter {
+
+	public static final String DEFAULT_METRIC_PREFIX = "plst";
+
+	public static final double[] DEFAULT_BUCKET_BOUNDS_SECONDS = new double[] {
+		0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+	};
+
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final int HISTO_COUNT = 3;
+	private static final String[] HISTO_NAMES = new String[] { "elapsed", "cpu", "user" };
+	private static final byte[][] HISTO_HELPS = new byte[][] {
+		ascii("elapsed time of calls"), ascii("thread cpu time of calls"), ascii("thread user time of calls") };
+	private static final byte[][] MAX_HISTO_HELPS = new byte[][] {
+		ascii("max elapsed time of calls"), ascii("max thread cpu time of calls"), ascii("max thread user time of calls") };
+	private static final byte[] PENDING_HELP = ascii("count of pending (not ended) calls");
+
+	private static final byte[] HISTOGRAM_TYPE = ascii("histogram");
+	private static final byte[] SUMMARY_TYPE = ascii("summary");
+	private static final byte[] GAUGE_TYPE = ascii("gauge");
+
+	private static final byte[] TREE_LABEL_PREFIX = ascii("{tree=\"");
+	private static final byte[] PATH_LABEL_PREFIX = ascii("\",path=\"");
+	private static final byte[] BUCKET_SUFFIX = ascii("_bucket");
+	private static final byte[] SUM_SUFFIX = ascii("_sum");
+	private static final byte[] COUNT_SUFFIX = ascii("_count");
+	private static final byte[] CLOSE_LABELS = ascii("} ");
+	private static final byte[] HELP_PREFIX = ascii("# HELP ");
+	private static final byte[] TYPE_PREFIX = ascii("# TYPE ");
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int INITIAL_NODE_CAPACITY = 1024;
+
+	private final byte[][] familyNames = new byte[HISTO_COUNT][];
+	private final byte[][] maxFamilyNames = new byte[HISTO_COUNT][];
+	private final byte[] pendingFamilyName;
+
+	/** bucket bounds in nanos, null for summaries */
+	private final long[] bucketBoundNanos;
+	/** precomputed <code>,le="..."}</code> per bucket, +Inf last */
+	private final byte[][] bucketLeLabels;
+	private final int bucketCount;
+
+	/** bucket count per histogram: bucketCount, or 0 for summaries */
+	private final int[] histoBucketCounts = new int[HISTO_COUNT];
+	/** position of histogram values in node values */
+	private final int[] histoValuePos = new int[HISTO_COUNT];
+
+	/** per node values: pending count, then per histogram: count, sum, max, bucket counts */
+	private final int nodeValueLen;
+
+	// reused buffers
+	// ------------------------------------------------------------------------
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int bufferPos;
+	private OutputStream out;
+
+	private final PerfTimeStats tmpStats = new PerfTimeStats();
+	private int[] tmpSlotCounts = new int[0];
+
+	private LongStatsHistogramLayout cachedLayout;
+	private int[] cachedSlotToBucket;
+
+	/** walker of trees, with path as escaped label bytes <code>{tree="..",path="a/b</code> */
+	private final AppCallTreePathWalker treeWalker = new AppCallTreePathWalker() {
+		@Override
+		protected byte[] encodeName(String name) {
+			return escapeLabelValue(name);
+		}
+		@Override
+		protected void visitNode(AppCallTreeNode node, byte[] path, int pathLen) {
+			collectNode(node, path, pathLen);
+		}
+	};
+
+	private int nodeCount;
+	private long[] nodeValues;
+	/** label bytes of nodes: <code>{tree="..",path=".."</code>, without closing brace */
+	private byte[] nodeLabels = new byte[64 * 1024];
+	private int[] nodeLabelEnds;
+	private int nodeLabelsLen;
+
+	// ------------------------------------------------------------------------
+
+	public PrometheusTextWriter() {
+		this(DEFAULT_METRIC_PREFIX, DEFAULT_BUCKET_BOUNDS_SECONDS);
+	}
+
+	/**
+	 * @param bucketBoundsSeconds increasing elapsed time histogram bucket upper bounds (without +Inf), or null for summary (_sum and _count only)
+	 */
+	public PrometheusTextWriter(String metricPrefix, double[] bucketBoundsSeconds) {
+		this(metricPrefix, bucketBoundsSeconds, false);
+	}
+
+	/**
+	 * @param bucketBoundsSeconds see above
+	 * @param cpuTimeBuckets true to write also thread cpu / user times as histograms with buckets (2 * (bucket count + 1) more series per node),
+	 * false for summaries
+	 */
+	public PrometheusTextWriter(String metricPrefix, double[] bucketBoundsSeconds, boolean cpuTimeBuckets) {
+		for (int h = 0; h < HISTO_COUNT; h++) {
+			familyNames[h] = ascii(metricPrefix + "_call_" + HISTO_NAMES[h] + "_seconds");
+			maxFamilyNames[h] = ascii(metricPrefix + "_call_" + HISTO_NAMES[h] + "_max_seconds");
+		}
+		this.pendingFamilyName = ascii(metricPrefix + "_call_pending");
+		if (bucketBoundsSeconds != null) {
+			this.bucketCount = bucketBoundsSeconds.length + 1;
+			this.bucketBoundNanos = new long[bucketBoundsSeconds.length];
+			this.bucketLeLabels = new byte[bucketCount][];
+			for (int i = 0; i < bucketBoundsSeconds.length; i++) {
+				long boundNanos = Math.round(bucketBoundsSeconds[i] * 1e9);
+				if (i > 0 && boundNanos <= bucketBoundNanos[i-1]) {
+					throw new IllegalArgumentException("bucket bounds must be increasing");
+				}
+				bucketBoundNanos[i] = boundNanos;
+				byte[] tmp = new byte[32];
+				int len = encodeSeconds(tmp, 0, boundNanos);
+				bucketLeLabels[i] = ascii(",le=\"" + new String(tmp, 0, len, StandardCharsets.US_ASCII) + "\"}");
+			}
+			bucketLeLabels[bucketCount - 1] = ascii(",le=\"+Inf\"}");
+		} else {
+			this.bucketCount = 0;
+			this.bucketBoundNanos = null;
+			this.bucketLeLabels = null;
+		}
+		int pos = 1;
+		for (int h = 0; h < HISTO_COUNT; h++) {
+			histoBucketCounts[h] = (h == 0 || cpuTimeBuckets)? bucketCount : 0;
+			histoValuePos[h] = pos;
+			pos += 3 + histoBucketCounts[h];
+		}
+		this.nodeValueLen = pos;
+		this.nodeValues = new long[INITIAL_NODE_CAPACITY * nodeValueLen];
+		this.nodeLabelEnds = new int[INITIAL_NODE_CAPACITY];
+	}
+
+	// ------------------------------------------------------------------------
+
+	/**
+	 * write statistics of all nodes of <code>trees</code> (except roots) to <code>out</code>
+	 * (<code>out</code> is not flushed neither closed)
+	 */
+	public void write(OutputStream out, AppCallTree... trees) throws IOException {
+		this.out = out;
+		this.bufferPos = 0;
+		this.nodeCount = 0;
+		this.nodeLabelsLen = 0;
+		try {
+			for (AppCallTree tree : trees) {
+				collectTree(tree);
+			}
+			for (int h = 0; h < HISTO_COUNT; h++) {
+				writeTimeFamily(h);
+			}
+			for (int h = 0; h < HISTO_COUNT; h++) {
+				writeMaxFamily(h);
+			}
+			writePendingFamily();
+			flushBuffer();
+		} finally {
+			this.out = null;
+		}
+	}
+
+	/** @return count of nodes written by last call to write() */
+	public int getLastNodeCount() {
+		return nodeCount;
+	}
+
+	// phase 1: copy node values and labels
+	// ------------------------------------------------------------------------
+
+	private void collectTree(AppCallTree tree) throws IOException {
+		byte[] escapedTreeName = escapeLabelValue(tree.getName());
+		byte[] pathPrefix = new byte[TREE_LABEL_PREFIX.length + escapedTreeName.length + PATH_LABEL_PREFIX.length];
+		System.arraycopy(TREE_LABEL_PREFIX, 0, pathPrefix, 0, TREE_LABEL_PREFIX.length);
+		System.arraycopy(escapedTreeName, 0, pathPrefix, TREE_LABEL_PREFIX.length, escapedTreeName.length);
+		System.arraycopy(PATH_LABEL_PREFIX, 0, pathPrefix, TREE_LABEL_PREFIX.length + escapedTreeName.length, PATH_LABEL_PREFIX.length);
+		treeWalker.walk(tree, pathPrefix);
+	}
+
+	private void collectNode(AppCallTreeNode node, byte[] path, int pathLen) {
+		int n = nodeCount;
+		if ((n + 1) * nodeValueLen > nodeValues.length) {
+			nodeValues = Arrays.copyOf(nodeValues, nodeValues.length * 2);
+			nodeLabelEnds = Arrays.copyOf(nodeLabelEnds, nodeLabelEnds.length * 2);
+		}
+		int labelEnd = nodeLabelsLen + pathLen + 1;
+		if (labelEnd > nodeLabels.length) {
+			nodeLabels = Arrays.copyOf(nodeLabels, Math.max(labelEnd, nodeLabels.length * 2));
+		}
+		System.arraycopy(path, 0, nodeLabels, nodeLabelsLen, pathLen);
+		nodeLabels[labelEnd - 1] = '"';
+		nodeLabelEnds[n] = labelEnd;
+		nodeLabelsLen = labelEnd;
+
+		PerfTimeStats stats = tmpStats;
+		node.copyTimeStatsTo(stats);
+		long[] values = nodeValues;
+		int pos = n * nodeValueLen;
+		values[pos++] = stats.getPendingCount();
+		pos = collectHisto(stats.getElapsedTimeStats(), histoBucketCounts[0], values, pos);
+		pos = collectHisto(stats.getThreadCpuTimeStats(), histoBucketCounts[1], values, pos);
+		pos = collectHisto(stats.getThreadUserTimeStats(), histoBucketCounts[2], values, pos);
+		nodeCount = n + 1;
+	}
+
+	private int collectHisto(LongStatsHistogram histo, int bucketCount, long[] values, int pos) {
+		long min = histo.getMinValue();
+		long max = histo.getMaxValue();
+		int countPos = pos;
+		values[pos++] = 0;
+		values[pos++] = histo.getSum();
+		values[pos++] = (min <= max)? max : 0;
+		int bucketPos = pos;
+		for (int b = 0; b < bucketCount; b++) {
+			values[pos++] = 0;
+		}
+		if (min > max) {
+			return pos; // empty
+		}
+		LongStatsHistogramLayout layout = histo.getLayout();
+		int[] slotToBucket = slotToBucket(layout);
+		int fromIndex = layout.valueToSlotIndex(min);
+		int toIndex = layout.valueToSlotIndex(max) + 1;
+		histo.copyCountsTo(tmpSlotCounts, fromIndex, toIndex);
+		long count = 0;
+		for (int i = fromIndex; i < toIndex; i++) {
+			int slotCount = tmpSlotCounts[i];
+			if (slotCount != 0) {
+				count += slotCount;
+				if (bucketCount != 0) {
+					values[bucketPos + slotToBucket[i]] += slotCount;
+				}
+			}
+		}
+		values[countPos] = count;
+		return pos;
+	}
+
+	private int[] slotToBucket(LongStatsHistogramLayout layout) {
+		if (layout != cachedLayout) {
+			int slotLen = layout.getSlotLen();
+			int[] res = new int[slotLen];
+			int b = 0;
+			for (int i = 0; i < slotLen; i++) {
+				long slotTo = layout.slotTo(i);
+				while (b < bucketCount - 1 && slotTo > bucketBoundNanos[b]) {
+					b++;
+				}
+				res[i] = b;
+			}
+			this.cachedSlotToBucket = res;
+			this.cachedLayout = layout;
+			if (tmpSlotCounts.length < slotLen) {
+				tmpSlotCounts = new int[slotLen];
+			}
+		}
+		return cachedSlotToBucket;
+	}
+
+	// phase 2: write families
+	// ------------------------------------------------------------------------
+
+	private void writeTimeFamily(int h) throws IOException {
+		byte[] name = familyNames[h];
+		int bucketCount = histoBucketCounts[h];
+		writeFamilyHeader(name, HISTO_HELPS[h], (bucketCount != 0)? HISTOGRAM_TYPE : SUMMARY_TYPE);
+		int histoPos = histoValuePos[h];
+		int labelStart = 0;
+		for (int n = 0; n < nodeCount; n++) {
+			int labelEnd = nodeLabelEnds[n];
+			int pos = n * nodeValueLen + histoPos;
+			long count = nodeValues[pos];
+			if (count != 0 || h == 0) {
+				long cumulCount = 0;
+				for (int b = 0; b < bucketCount; b++) {
+					cumulCount += nodeValues[pos + 3 + b];
+					write(name);
+					write(BUCKET_SUFFIX);
+					write(nodeLabels, labelStart, labelEnd);
+					write(bucketLeLabels[b]);
+					writeByte(' ');
+					writeLong(cumulCount);
+					writeByte('\n');
+				}
+				write(name);
+				write(SUM_SUFFIX);
+				write(nodeLabels, labelStart, labelEnd);
+				write(CLOSE_LABELS);
+				writeSeconds(nodeValues[pos + 1]);
+				writeByte('\n');
+				write(name);
+				write(COUNT_SUFFIX);
+				write(nodeLabels, labelStart, labelEnd);
+				write(CLOSE_LABELS);
+				writeLong(count);
+				writeByte('\n');
+			}
+			labelStart = labelEnd;
+		}
+	}
+
+	private void writeMaxFamily(int h) throws IOException {
+		byte[] name = maxFamilyNames[h];
+		writeFamilyHeader(name, MAX_HISTO_HELPS[h], GAUGE_TYPE);
+		int histoPos = histoValuePos[h];
+		int labelStart = 0;
+		for (int n = 0; n < nodeCount; n++) {
+			int labelEnd = nodeLabelEnds[n];
+			int pos = n * nodeValueLen + histoPos;
+			if (nodeValues[pos] != 0) {
+				write(name);
+				write(nodeLabels, labelStart, labelEnd);
+				write(CLOSE_LABELS);
+				writeSeconds(nodeValues[pos + 2]);
+				writeByte('\n');
+			}
+			labelStart = labelEnd;
+		}
+	}
+
+	private void writePendingFamily() throws IOException {
+		byte[] name = pendingFamilyName;
+		writeFamilyHeader(name, PENDING_HELP, GAUGE_TYPE);
+		int labelStart = 0;
+		for (int n = 0; n < nodeCount; n++) {
+			int labelEnd = nodeLabelEnds[n];
+			write(name);
+			write(nodeLabels, labelStart, labelEnd);
+			write(CLOSE_LABELS);
+			writeLong(nodeValues[n * nodeValueLen]);
+			writeByte('\n');
+			labelStart = labelEnd;
+		}
+	}
+
+	private void writeFamilyHeader(byte[] name, byte[] help, byte[] type) throws IOException {
+		write(HELP_PREFIX);
+		write(name);
+		writeByte(' ');
+		write(help);
+		writeByte('\n');
+		write(TYPE_PREFIX);
+		write(name);
+		writeByte(' ');
+		write(type);
+		writeByte('\n');
+	}
+
+	// low-level encoding
+	// ------------------------------------------------------------------------
+
+	private void write(byte[] bytes) throws IOException {
+		write(bytes, 0, bytes.length);
+	}
+
+	private void write(byte[] bytes, int from, int to) throws IOException {
+		int len = to - from;
+		if (bufferPos + len > buffer.length) {
+			flushBuffer();
+			if (len > buffer.length) {
+				out.write(bytes, from, len);
+				return;
+			}
+		}
+		System.arraycopy(bytes, from, buffer, bufferPos, len);
+		bufferPos += len;
+	}
+
+	private void writeByte(char c) throws IOException {
+		if (bufferPos == buffer.length) {
+			flushBuffer();
+		}
+		buffer[bufferPos++] = (byte) c;
+	}
+
+	private void writeLong(long value) throws IOException {
+		if (bufferPos + 20 > buffer.length) {
+			flushBuffer();
+		}
+		bufferPos = encodeLong(buffer, bufferPos, value);
+	}
+
+	private void writeSeconds(long nanos) throws IOException {
+		if (bufferPos + 32 > buffer.length) {
+			flushBuffer();
+		}
+		bufferPos = encodeSeconds(buffer, bufferPos, nanos);
+	}
+
+	/** @return end position */
+	private static int encodeLong(byte[] buf, int pos, long value) {
+		if (value < 0) {
+			buf[pos++] = '-';
+			if (value == Long.MIN_VALUE) {
+				// -Long.MIN_VALUE overflows: encode "922337203685477580" then last digit
+				pos = encodeLong(buf, pos, -(value / 10));
+				buf[pos++] = '8';
+				return pos;
+			}
+			value = -value;
+		}
+		int digitCount = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digitCount++;
+		}
+		int end = pos + digitCount;
+		for (int i = end - 1; i >= pos; i--) {
+			buf[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		return end;
+	}
+
+	/**
+	 * encode nanos as decimal seconds, without trailing zeros: 1500000 -> "0.0015"
+	 * @return end position
+	 */
+	private static int encodeSeconds(byte[] buf, int pos, long nanos) {
+		long seconds = nanos / 1000000000L;
+		long fraction = nanos % 1000000000L;
+		if (nanos < 0) {
+			buf[pos++] = '-';
+			seconds = -seconds;
+			fraction = -fraction;
+		}
+		pos = encodeLong(buf, pos, seconds);
+		if (fraction != 0) {
+			buf[pos++] = '.';
+			int digitCount = 9;
+			while (fraction % 10 == 0) {
+				fraction /= 10;
+				digitCount--;
+			}
+			for (int i = pos + digitCount - 1; i >= pos; i--) {
+				buf[i] = (byte) ('0' + (fraction % 10));
+				fraction /= 10;
+			}
+			pos += digitCount;
+		}
+		return pos;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (bufferPos != 0) {
+			if (out != null) {
+				out.write(buffer, 0, bufferPos);
+			}
+			bufferPos = 0;
+		}
+	}
+
+	private static byte[] ascii(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** escape label value: backslash, double-quote and line feed */
+	private static byte[] escapeLabelValue(String text) {
+		StringBuilder sb = new StringBuilder(text.length() + 8);
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch(c) {
+			case '\\': sb.append("\\\\"); break;
+			case '"': sb.append("\\\""); break;
+			case '\n': sb.append("\\n"); break;
+			default: sb.append(c);
+			}
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,111 @@
+package org.perflogstacktrace4j.prometheus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+
+public class PrometheusTextWriterTest {
+
+	private static final long MILLIS = 1000000L;
+
+	private static AppCallTree createTree() {
+		AppCallTree tree = new AppCallTree("app");
+		AppCallTreeNode a = tree.getRootNode().findOrCreateChild("a");
+		a.incrTimeStats(2 * MILLIS, MILLIS, MILLIS);
+		AppCallTreeNode b = a.findOrCreateChild("b\"q");
+		b.incrTimeStats(20 * MILLIS, 0, 0);
+		b.incrTimeStats(200 * MILLIS, 0, 0);
+		return tree;
+	}
+
+	private static String write(PrometheusTextWriter writer, AppCallTree tree) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.write(out, tree);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testElapsedHistogram_cpuSummaries() throws IOException {
+		PrometheusTextWriter writer = new PrometheusTextWriter();
+		String text = write(writer, createTree());
+		Assert.assertEquals(2, writer.getLastNodeCount());
+
+		Assert.assertTrue(text.contains("# TYPE plst_call_elapsed_seconds histogram\n"));
+		Assert.assertTrue(text.contains("plst_call_elapsed_seconds_bucket{tree=\"app\",path=\"a/b\\\"q\",le=\"0.01\"} 0\n"));
+		Assert.assertTrue(text.contains("plst_call_elapsed_seconds_bucket{tree=\"app\",path=\"a/b\\\"q\",le=\"0.25\"} 2\n"));
+		Assert.assertTrue(text.contains("plst_call_elapsed_seconds_bucket{tree=\"app\",path=\"a/b\\\"q\",le=\"+Inf\"} 2\n"));
+		Assert.assertTrue(text.contains("plst_call_elapsed_seconds_count{tree=\"app\",path=\"a/b\\\"q\"} 2\n"));
+		Assert.assertTrue(text.contains("plst_call_elapsed_seconds_sum{tree=\"app\",path=\"a\"} 0.002\n"));
+		Assert.assertTrue(text.contains("plst_call_elapsed_max_seconds{tree=\"app\",path=\"a/b\\\"q\"} 0.2\n"));
+		Assert.assertTrue(text.contains("plst_call_pending{tree=\"app\",path=\"a\"} 0\n"));
+
+		Assert.assertTrue(text.contains("# TYPE plst_call_cpu_seconds summary\n"));
+		Assert.assertTrue(text.contains("# TYPE plst_call_user_seconds summary\n"));
+		Assert.assertTrue(text.contains("plst_call_cpu_seconds_count{tree=\"app\",path=\"a\"} 1\n"));
+		Assert.assertFalse(text.contains("plst_call_cpu_seconds_bucket"));
+		Assert.assertFalse(text.contains("plst_call_user_seconds_bucket"));
+
+		Assert.assertEquals(text, write(writer, createTree())); // reused buffers
+	}
+
+	@Test
+	public void testCpuTimeBucketsOptIn() throws IOException {
+		PrometheusTextWriter writer = new PrometheusTextWriter(PrometheusTextWriter.DEFAULT_METRIC_PREFIX,
+				PrometheusTextWriter.DEFAULT_BUCKET_BOUNDS_SECONDS, true);
+		String text = write(writer, createTree());
+		Assert.assertTrue(text.contains("# TYPE plst_call_cpu_seconds histogram\n"));
+		Assert.assertTrue(text.contains("plst_call_cpu_seconds_bucket{tree=\"app\",path=\"a\",le=\"0.005\"} 1\n"));
+		Assert.assertTrue(text.contains("plst_call_user_seconds_bucket{tree=\"app\",path=\"a\",le=\"+Inf\"} 1\n"));
+	}
+
+	@Test
+	public void testSummariesWithoutBucketBounds() throws IOException {
+		String text = write(new PrometheusTextWriter("x", null), createTree());
+		Assert.assertTrue(text.contains("# TYPE x_call_elapsed_seconds summary\n"));
+		Assert.assertFalse(text.contains("_bucket"));
+		Assert.assertTrue(text.contains("x_call_elapsed_seconds_count{tree=\"app\",path=\"a/b\\\"q\"} 2\n"));
+	}
+
+	@Test
+	public void testHttpScrape() throws IOException {
+		PrometheusHttpExporter exporter = new PrometheusHttpExporter(new InetSocketAddress("localhost", 0), createTree());
+		exporter.start();
+		try {
+			URL url = new URL("http://localhost:" + exporter.getPort() + PrometheusHttpExporter.DEFAULT_PATH);
+			for (int i = 0; i < 2; i++) {
+				HttpURLConnection con = (HttpURLConnection) url.openConnection();
+				Assert.assertEquals(200, con.getResponseCode());
+				Assert.assertEquals(PrometheusTextWriter.CONTENT_TYPE, con.getContentType());
+				String body = readFully(con.getInputStream());
+				Assert.assertTrue(body.contains("plst_call_pending{tree=\"app\",path=\"a\"} 0\n"));
+			}
+			Assert.assertEquals(2, exporter.getScrapeCount());
+		} finally {
+			exporter.close();
+		}
+	}
+
+	private static String readFully(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		} finally {
+			in.close();
+		}
+	}
+
+}
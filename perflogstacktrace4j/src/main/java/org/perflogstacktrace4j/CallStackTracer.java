@@ -1,9 +1,12 @@
 package org.perflogstacktrace4j;
 
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
 import org.perflogstacktrace4j.model.CallStack;
 import org.perflogstacktrace4j.model.CallStackElt;
 import org.perflogstacktrace4j.model.StackPopper;
 import org.perflogstacktrace4j.model.StackPusher;
+import org.perflogstacktrace4j.model.TimingPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,16 +33,32 @@ import org.slf4j.LoggerFactory;
 public final class CallStackTracer {
 
 	private final Class<?> clazz;
+	private final String className;
 	
 	private final Logger slf4jLogger;
 
-	private CallStackTracer(Class<?> clazz) {
+	/** optional timing policy for all push() of this tracer, null for TimingPolicy.getDefault() */
+	private final TimingPolicy timingPolicy;
+
+	private CallStackTracer(Class<?> clazz, TimingPolicy timingPolicy) {
 		this.clazz = clazz;
+		this.className = clazz.getName();
 		this.slf4jLogger = LoggerFactory.getLogger(clazz);
+		this.timingPolicy = timingPolicy;
 	}
 	
 	public static CallStackTracer getTracer(Class<?> clazz) {
-		return new CallStackTracer(clazz);
+		return new CallStackTracer(clazz, null);
+	}
+
+	/**
+	 * sample usage, for hot code where thread cpu time is not needed:
+	 * <PRE>
+	 * private static final CallStackTracer TRACER = CallStackTracer.getTracer(SomeClass.class, TimingPolicy.wallOnly());
+	 * </PRE>
+	 */
+	public static CallStackTracer getTracer(Class<?> clazz, TimingPolicy timingPolicy) {
+		return new CallStackTracer(clazz, timingPolicy);
 	}
 	
 	
@@ -57,7 +76,11 @@ public final class CallStackTracer {
 	 * </PRE>
 	 */
 	public StackPusher meth(String methodName) {
-		return ThreadLocalCallStack.meth(clazz.getName(), methodName);
+		StackPusher res = ThreadLocalCallStack.meth(className, methodName);
+		if (timingPolicy != null) {
+			res.withTimingPolicy(timingPolicy);
+		}
+		return res;
 	}
 
 	/**
@@ -69,7 +92,32 @@ public final class CallStackTracer {
 	 * </PRE>
 	 */
 	public StackPopper push(String methodName) {
-		return ThreadLocalCallStack.push(clazz.getName(), methodName);
+		return meth(methodName).push();
+	}
+
+	/**
+	 * find or register a CallSite handle for this tracer class + methodName
+	 * 
+	 * sample usage:
+	 * <PRE>
+	 * private static final CallSite SITE_someMethod = TRACER.site("someMethod");
+	 * 
+	 * try (StackPopper pop = SITE_someMethod.push()) {  // => no String work, no hashing
+	 *   ..
+	 * } // => call ThreadLocalCallStack.pop()
+	 * </PRE>
+	 * when this tracer has a timing policy, it is also set on the returned CallSite
+	 */
+	public CallSite site(String methodName) {
+		CallSite res = CallSiteRegistry.getOrRegister(className, methodName);
+		if (timingPolicy != null) {
+			res.setTimingPolicy(timingPolicy);
+		}
+		return res;
+	}
+
+	public TimingPolicy getTimingPolicy() {
+		return timingPolicy;
 	}
 
 	public CallStack currCallStack() {
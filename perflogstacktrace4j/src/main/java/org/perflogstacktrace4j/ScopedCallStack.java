@@ -0,0 +1,188 @@
+package org.perflogstacktrace4j;
+
+import java.util.concurrent.Callable;
+
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.spi.CallStackListenerFactory;
+import org.perflogstacktrace4j.utils.UnsafeUtils;
+
+/**
+ * scoped carrier of CallStack, as an alternative to the lazily created per-thread CallStack of ThreadLocalCallStack,
+ * for many short-lived threads (typically virtual threads, 1 per task)
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * executor.submit(() -> ScopedCallStack.run(task)); // task uses ThreadLocalCallStack as usual
+ * </PRE>
+ *
+ * A compact CallStack (see CallStack.createCompact()) is borrowed from a pool and bound to the current thread
+ * during the scope only (like a ScopedValue), then unbound and returned to the pool when the scope exits with an empty stack.
+ * So a thread running only scoped tasks allocates no CallStack, element or listener, and keeps no CallStack after the scope.
+ * When a CallStack is already bound to the current thread (nested scope, or thread already using ThreadLocalCallStack),
+ * the task is simply run with it.
+ * <BR/>
+ * The pool is lock-free and striped by thread: a thread takes and returns stacks by CAS in the slots of its stripe
+ * (or of the next stripe), so concurrent tasks on different carrier threads rarely contend.
+ * <BR/>
+ * Pooled stacks keep their listeners: they are discarded when listener factories were changed since their creation
+ * (see ThreadLocalCallStack.addCallStackListenerFactory()).
+ */
+public final class ScopedCallStack {
+
+	public static final int DEFAULT_MAX_POOLED_COUNT = 256;
+
+	/** count of pool stripes (power of 2): a thread uses the stripe of its id, then the next one */
+	private static final int STRIPE_COUNT = Integer.highestOneBit(Math.min(64, 2 * Runtime.getRuntime().availableProcessors() - 1)) * 2;
+
+	/** pooled stack, with the listener factories used to create it */
+	private static final class PooledStack {
+		final CallStack stack;
+		CallStackListenerFactory[] factories;
+
+		PooledStack(CallStack stack) {
+			this.stack = stack;
+		}
+	}
+
+	private static final class Pool {
+		/** STRIPE_COUNT stripes of <code>stripeLen</code> slots of PooledStack, taken and put by CAS */
+		final Object[] slots;
+		final int stripeLen;
+
+		Pool(int maxPooledCount) {
+			this.stripeLen = (Math.max(0, maxPooledCount) + STRIPE_COUNT - 1) / STRIPE_COUNT;
+			this.slots = new Object[stripeLen * STRIPE_COUNT];
+		}
+	}
+
+	/** replaced (emptied) on setMaxPooledCount() */
+	private static volatile Pool pool = new Pool(DEFAULT_MAX_POOLED_COUNT);
+
+	private ScopedCallStack() {
+	}
+
+	// ------------------------------------------------------------------------
+
+	public static void run(Runnable task) {
+		if (ThreadLocalCallStack.getBoundCallStack() != null) {
+			task.run();
+			return;
+		}
+		CallStackListenerFactory[] factories = ThreadLocalCallStack.getCallStackListenerFactories();
+		PooledStack pooled = acquire(factories);
+		ThreadLocalCallStack.bindCallStack(pooled.stack);
+		try {
+			task.run();
+		} finally {
+			ThreadLocalCallStack.bindCallStack(null);
+			release(pooled, factories);
+		}
+	}
+
+	public static <T> T call(Callable<T> task) throws Exception {
+		if (ThreadLocalCallStack.getBoundCallStack() != null) {
+			return task.call();
+		}
+		CallStackListenerFactory[] factories = ThreadLocalCallStack.getCallStackListenerFactories();
+		PooledStack pooled = acquire(factories);
+		ThreadLocalCallStack.bindCallStack(pooled.stack);
+		try {
+			return task.call();
+		} finally {
+			ThreadLocalCallStack.bindCallStack(null);
+			release(pooled, factories);
+		}
+	}
+
+	/** @return Runnable running <code>task</code> in a scoped CallStack */
+	public static Runnable wrap(final Runnable task) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				ScopedCallStack.run(task);
+			}
+		};
+	}
+
+	/** @return Callable calling <code>task</code> in a scoped CallStack */
+	public static <T> Callable<T> wrap(final Callable<T> task) {
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				return ScopedCallStack.call(task);
+			}
+		};
+	}
+
+	/** @return count of pooled stacks (scan of the pool, approximate when concurrently used) */
+	public static int getPooledCount() {
+		Object[] slots = pool.slots;
+		int res = 0;
+		for (int i = 0; i < slots.length; i++) {
+			if (UnsafeUtils.getObjectVolatileAt(slots, i) != null) {
+				res++;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * set max count of pooled stacks (rounded up to a multiple of the stripe count), currently pooled stacks are dropped
+	 */
+	public static void setMaxPooledCount(int maxPooledCount) {
+		pool = new Pool(maxPooledCount);
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	/** @return stripe of current thread (ids are spread by fibonacci hashing, as consecutive threads often run concurrently) */
+	private static int threadStripe() {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (STRIPE_COUNT - 1);
+	}
+
+	private static PooledStack acquire(CallStackListenerFactory[] factories) {
+		Pool p = pool;
+		Object[] slots = p.slots;
+		int stripeLen = p.stripeLen;
+		int stripe = threadStripe();
+		for (int k = 0; k < 2; k++) {
+			int from = ((stripe + k) & (STRIPE_COUNT - 1)) * stripeLen;
+			for (int i = from, to = from + stripeLen; i < to; i++) {
+				Object slot = UnsafeUtils.getObjectVolatileAt(slots, i);
+				if (slot != null && UnsafeUtils.compareAndSwapObjectAt(slots, i, slot, null)) {
+					PooledStack res = (PooledStack) slot;
+					if (res.factories == factories) {
+						return res;
+					}
+					// else stale listeners, drop
+				}
+			}
+		}
+		return new PooledStack(ThreadLocalCallStack.createCallStack(true));
+	}
+
+	private static void release(PooledStack pooled, CallStackListenerFactory[] factories) {
+		if (pooled.stack.curr().getStackEltIndex() != 0) {
+			return; // not popped (or not detached): do not re-use
+		}
+		pooled.factories = factories; // published by CAS
+		Pool p = pool;
+		Object[] slots = p.slots;
+		int stripeLen = p.stripeLen;
+		int stripe = threadStripe();
+		for (int k = 0; k < 2; k++) {
+			int from = ((stripe + k) & (STRIPE_COUNT - 1)) * stripeLen;
+			for (int i = from, to = from + stripeLen; i < to; i++) {
+				if (UnsafeUtils.getObjectVolatileAt(slots, i) == null 
+						&& UnsafeUtils.compareAndSwapObjectAt(slots, i, null, pooled)) {
+					return;
+				}
+			}
+		}
+		// pool stripes full: drop
+	}
+
+}
@@ -1,9 +1,14 @@
 package org.perflogstacktrace4j;
 
+import java.lang.reflect.Method;
+
+import org.perflogstacktrace4j.model.CallSite;
 import org.perflogstacktrace4j.model.CallStack;
 import org.perflogstacktrace4j.model.CallStackElt;
 import org.perflogstacktrace4j.model.StackPopper;
 import org.perflogstacktrace4j.model.StackPusher;
+import org.perflogstacktrace4j.spi.CallStackListener;
+import org.perflogstacktrace4j.spi.CallStackListenerFactory;
 import org.slf4j.Logger;
 
 
@@ -14,15 +19,71 @@ import org.slf4j.Logger;
  */
 public final class ThreadLocalCallStack {
 
-	private static final ThreadLocal<CallStack> threadLocal = new ThreadLocal<CallStack>() {
-		@Override
-		protected CallStack initialValue() {
-			return new CallStack();
-		}
-	};
+	private static final Object lock = new Object();
+
+	// copy on write
+	private static volatile CallStackListenerFactory[] callStackListenerFactories = new CallStackListenerFactory[0];
+	
+	/** see setCompactCallStacks() */
+	private static volatile boolean compactCallStacks;
+
+	/** Thread.isVirtual() (jdk >= 21), null if not available */
+	private static final Method threadIsVirtualMethod = findThreadIsVirtualMethod();
+
+	/** CallStack of thread, lazily created (see currCallStack()), or bound by ScopedCallStack */
+	private static final ThreadLocal<CallStack> threadLocal = new ThreadLocal<CallStack>();
 	
+	/**
+	 * register a factory for listeners to attach to each new thread CallStack
+	 * (CallStack already created for threads are unchanged) 
+	 */
+	public static void addCallStackListenerFactory(CallStackListenerFactory factory) {
+		synchronized(lock) {
+			CallStackListenerFactory[] prev = callStackListenerFactories;
+			int len = prev.length;
+			CallStackListenerFactory[] chg = new CallStackListenerFactory[len + 1];
+			System.arraycopy(prev, 0, chg, 0, len);
+			chg[len] = factory;
+			callStackListenerFactories = chg;
+		}
+	}
+
+	public static void removeCallStackListenerFactory(CallStackListenerFactory factory) {
+		synchronized(lock) {
+			CallStackListenerFactory[] prev = callStackListenerFactories;
+			for (int i = 0; i < prev.length; i++) {
+				if (prev[i] == factory) {
+					CallStackListenerFactory[] chg = new CallStackListenerFactory[prev.length - 1];
+					System.arraycopy(prev, 0, chg, 0, i);
+					System.arraycopy(prev, i + 1, chg, i, prev.length - i - 1);
+					callStackListenerFactories = chg;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * create compact CallStacks (see CallStack.createCompact()) for threads using their first CallStack after this call.
+	 * Virtual threads always use compact CallStacks.
+	 */
+	public static void setCompactCallStacks(boolean compactCallStacks) {
+		ThreadLocalCallStack.compactCallStacks = compactCallStacks;
+	}
+
+	public static boolean isCompactCallStacks() {
+		return compactCallStacks;
+	}
+
 	public static CallStack currCallStack() {
-		return threadLocal.get();
+		CallStack res = threadLocal.get();
+		if (res == null) {
+			Thread thread = Thread.currentThread();
+			res = createCallStack(compactCallStacks || isVirtualThread(thread));
+			res.setOwnerThread(thread);
+			threadLocal.set(res);
+		}
+		return res;
 	}
 
 	public static CallStackElt currStackElt() {
@@ -71,6 +132,15 @@ public final class ThreadLocalCallStack {
 		return currStackElt.pusher(className, methodName);
 	}
 
+	/** 
+	 * idem meth(className, methodName), using a pre-registered CallSite (no String work)
+	 * cf CallStackTracer.site() 
+	 */
+	public static StackPusher meth(CallSite callSite) {
+		CallStackElt currStackElt = currStackElt();
+		return currStackElt.pusher(callSite);
+	}
+
 	/** alias for <code>meth(logger.getName(), String methodName)</code> */
 	public static StackPusher meth(Logger logger, String methodName) {
         String className = logger.getName(); 
@@ -90,5 +160,68 @@ public final class ThreadLocalCallStack {
 	public static StackPopper push(String className, String methodName) {
 		return meth(className, methodName).push();
 	}
+
+	/** alias for <code>meth(callSite).push()</code> */
+	public static StackPopper push(CallSite callSite) {
+		return meth(callSite).push();
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	/** @return new CallStack, with listeners created by registered factories */
+	/*pp*/ static CallStack createCallStack(boolean compact) {
+		CallStack res = (compact)? CallStack.createCompact() : new CallStack();
+		for (CallStackListenerFactory factory : callStackListenerFactories) {
+			CallStackListener listener = factory.createListener(res);
+			if (listener != null) {
+				res.addCallStackListener(listener);
+			}
+		}
+		return res;
+	}
+
+	/** @return registered factories (copy on write array, replaced on add/remove) */
+	/*pp*/ static CallStackListenerFactory[] getCallStackListenerFactories() {
+		return callStackListenerFactories;
+	}
+
+	/** @return CallStack of current thread, or null if not yet created or bound */
+	/*pp*/ static CallStack getBoundCallStack() {
+		return threadLocal.get();
+	}
+
+	/** bind <code>stack</code> to current thread, or unbind when null (see ScopedCallStack) */
+	/*pp*/ static void bindCallStack(CallStack stack) {
+		if (stack != null) {
+			stack.setOwnerThread(Thread.currentThread());
+			threadLocal.set(stack);
+		} else {
+			CallStack prev = threadLocal.get();
+			if (prev != null) {
+				prev.setOwnerThread(null);
+			}
+			threadLocal.remove();
+		}
+	}
+
+	private static boolean isVirtualThread(Thread thread) {
+		if (threadIsVirtualMethod == null) {
+			return false;
+		}
+		try {
+			return ((Boolean) threadIsVirtualMethod.invoke(thread)).booleanValue();
+		} catch(Exception ex) {
+			return false;
+		}
+	}
+
+	private static Method findThreadIsVirtualMethod() {
+		try {
+			return Thread.class.getMethod("isVirtual");
+		} catch(NoSuchMethodException ex) {
+			return null; // jdk < 21
+		}
+	}
     
 }
@@ -0,0 +1,228 @@
+package org.perflogstacktrace4j.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+import org.perflogstacktrace4j.ThreadLocalCallStack;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.CallStackContext;
+import org.perflogstacktrace4j.model.CallStackElt;
+import org.perflogstacktrace4j.model.tree.AppCallTreeCallStackListener;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+import org.perflogstacktrace4j.spi.CallStackListener;
+import org.perflogstacktrace4j.utils.ThreadTimeUtils;
+import org.perflogstacktrace4j.utils.UnsafeUtils;
+import org.perflogstacktrace4j.utils.UnsafeUtils.IntVolatileFieldAccessor;
+
+/**
+ * detachable span: started in a thread, ended from any thread, for timing a logical operation hopping threads
+ * (typically a chain of CompletableFuture stages, see AsyncSpans)
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * final AsyncSpan span = AsyncSpan.start(MY_CALL_SITE);
+ * client.sendAsync(request).whenComplete(..) { span.end(); }
+ * </PRE>
+ *
+ * On start, the AppCallTreeNode of the span is resolved, as a child of the current element node
+ * (for each AppCallTreeCallStackListener of the current thread CallStack), and the span is added to its pending counts.
+ * On end, the elapsed time is recorded in the node stats, and the pending is removed.
+ * Only the elapsed time is recorded (thread user / cpu times are meaningless for a span executed by several threads).
+ * <BR/>
+ * The span is a lightweight token: resolved nodes, start time and CallStackContext of the span (parent path + span CallSite),
+ * that can be used to run code in the span context in another thread (see wrap()).
+ * end() is idempotent and thread-safe: only the first call records.
+ */
+public final class AsyncSpan {
+
+	private static final IntVolatileFieldAccessor<AsyncSpan> endedAccessor =
+			UnsafeUtils.intVolatileFieldAccessor(AsyncSpan.class, "ended");
+
+	private static final AppCallTreeNode[] EMPTY_NODES = new AppCallTreeNode[0];
+
+	private final CallSite callSite;
+
+	/** context of span: path of parent + span CallSite, with inheritable props */
+	private final CallStackContext context;
+
+	/** nodes of span, 1 per AppCallTree */
+	private final AppCallTreeNode[] nodes;
+
+	private final long startTime;
+
+	/** 0 while running, 1 when ended */
+	private int ended;
+
+	// ------------------------------------------------------------------------
+
+	private AsyncSpan(CallSite callSite, CallStackContext context, AppCallTreeNode[] nodes, long startTime) {
+		this.callSite = callSite;
+		this.context = context;
+		this.nodes = nodes;
+		this.startTime = startTime;
+	}
+
+	/**
+	 * @return new started span, child of the current element of the current thread CallStack
+	 */
+	public static AsyncSpan start(CallSite callSite) {
+		CallStack stack = ThreadLocalCallStack.currCallStack();
+		CallStackElt curr = stack.curr();
+		CallStackContext context = CallStackContext.capture(curr, callSite);
+		int index = curr.getStackEltIndex();
+		CallStackListener[] listeners = stack.getCallStackListeners();
+		AppCallTreeNode[] nodes = EMPTY_NODES;
+		for (CallStackListener listener : listeners) {
+			if (!(listener instanceof AppCallTreeCallStackListener)) {
+				continue;
+			}
+			AppCallTreeCallStackListener treeListener = (AppCallTreeCallStackListener) listener;
+			AppCallTreeNode parentNode = treeListener.getNodeAt(index);
+			AppCallTreeNode node = (parentNode != null)? parentNode.findOrCreateChild(callSite)
+					: findOrCreatePath(treeListener.getTree().getRootNode(), context);
+			nodes = appendNode(nodes, node);
+		}
+		return doStart(callSite, context, nodes);
+	}
+
+	/**
+	 * @return new started span, child of <code>parentContext</code> (typically the context of a previous span, ended or not),
+	 * with nodes resolved in the AppCallTrees of the current thread CallStack listeners
+	 */
+	public static AsyncSpan start(CallStackContext parentContext, CallSite callSite) {
+		CallStackContext context = parentContext.withChild(callSite);
+		CallStackListener[] listeners = ThreadLocalCallStack.currCallStack().getCallStackListeners();
+		AppCallTreeNode[] nodes = EMPTY_NODES;
+		for (CallStackListener listener : listeners) {
+			if (listener instanceof AppCallTreeCallStackListener) {
+				AppCallTreeNode root = ((AppCallTreeCallStackListener) listener).getTree().getRootNode();
+				nodes = appendNode(nodes, findOrCreatePath(root, context));
+			}
+		}
+		return doStart(callSite, context, nodes);
+	}
+
+	// ------------------------------------------------------------------------
+
+	public CallSite getCallSite() {
+		return callSite;
+	}
+
+	/** @return context of span (parent path + span CallSite), to run code in the span, see wrap() */
+	public CallStackContext getContext() {
+		return context;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public boolean isEnded() {
+		return endedAccessor.get(this) != 0;
+	}
+
+	/**
+	 * end the span, from any thread: record elapsed time in nodes stats, and remove pending
+	 * @return true if ended by this call, false if already ended
+	 */
+	public boolean end() {
+		if (!endedAccessor.compareAndSwap(this, 0, 1)) {
+			return false;
+		}
+		long endTime = ThreadTimeUtils.getTime();
+		for (AppCallTreeNode node : nodes) {
+			node.incrAndRemovePending(startTime, endTime);
+		}
+		return true;
+	}
+
+	/**
+	 * @return Runnable running <code>task</code> attached to the span context (so pushed elements are children of the span)
+	 * if the executing thread CallStack is empty, else under its current element
+	 */
+	public Runnable wrap(final Runnable task) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				CallStack stack = ThreadLocalCallStack.currCallStack();
+				boolean attached = stack.attachContext(context);
+				try {
+					task.run();
+				} finally {
+					if (attached) {
+						stack.detachContext();
+					}
+				}
+			}
+		};
+	}
+
+	/** see wrap(Runnable) */
+	public <T> Callable<T> wrap(final Callable<T> task) {
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				CallStack stack = ThreadLocalCallStack.currCallStack();
+				boolean attached = stack.attachContext(context);
+				try {
+					return task.call();
+				} finally {
+					if (attached) {
+						stack.detachContext();
+					}
+				}
+			}
+		};
+	}
+
+	/** see wrap(Runnable) */
+	public <T> Supplier<T> wrapSupplier(final Supplier<T> task) {
+		return new Supplier<T>() {
+			@Override
+			public T get() {
+				CallStack stack = ThreadLocalCallStack.currCallStack();
+				boolean attached = stack.attachContext(context);
+				try {
+					return task.get();
+				} finally {
+					if (attached) {
+						stack.detachContext();
+					}
+				}
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "AsyncSpan[" + context + (isEnded()? ", ended" : "") + "]";
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	private static AsyncSpan doStart(CallSite callSite, CallStackContext context, AppCallTreeNode[] nodes) {
+		long startTime = ThreadTimeUtils.getTime();
+		for (AppCallTreeNode node : nodes) {
+			node.addPending(startTime);
+		}
+		return new AsyncSpan(callSite, context, nodes, startTime);
+	}
+
+	private static AppCallTreeNode findOrCreatePath(AppCallTreeNode root, CallStackContext context) {
+		AppCallTreeNode node = root;
+		for (int i = 0, depth = context.getDepth(); i < depth; i++) {
+			node = node.findOrCreateChild(context.getCallSiteAt(i));
+		}
+		return node;
+	}
+
+	private static AppCallTreeNode[] appendNode(AppCallTreeNode[] nodes, AppCallTreeNode node) {
+		AppCallTreeNode[] res = new AppCallTreeNode[nodes.length + 1];
+		System.arraycopy(nodes, 0, res, 0, nodes.length);
+		res[nodes.length] = node;
+		return res;
+	}
+
+}
@@ -0,0 +1,152 @@
+package org.perflogstacktrace4j.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.perflogstacktrace4j.ThreadLocalCallStack;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallStackContext;
+
+/**
+ * helpers for timing CompletableFuture stages as AsyncSpans, without passing span tokens manually
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * CompletableFuture&lt;Order&gt; order = AsyncSpans.supplyAsync(LOAD_ORDER, loader, executor);
+ * CompletableFuture&lt;Invoice&gt; invoice = AsyncSpans.thenApplyAsync(order, BUILD_INVOICE, builder, executor);
+ * </PRE>
+ *
+ * Each stage is a span, child of the current element of the thread creating the pipeline
+ * (the context is captured when the stage is created, not when it is executed).
+ * A span starts when its stage becomes runnable (on submit for supplyAsync(), on completion of the previous stage for thenXxxAsync()),
+ * and ends when its stage completes, normally or exceptionally: the elapsed time includes the wait in the executor queue.
+ * The body of the stage runs attached to the span context, so elements it pushes are aggregated as children of the span.
+ */
+public final class AsyncSpans {
+
+	/** BiConsumer for whenComplete(), ending a span */
+	private static final class SpanEnder implements BiConsumer<Object, Object> {
+		private final AsyncSpan span;
+
+		SpanEnder(AsyncSpan span) {
+			this.span = span;
+		}
+
+		@Override
+		public void accept(Object result, Object ex) {
+			span.end();
+		}
+	}
+
+	// ------------------------------------------------------------------------
+
+	private AsyncSpans() {
+	}
+
+	// ------------------------------------------------------------------------
+
+	/**
+	 * start a span now, child of the current element, ended on completion of <code>future</code>
+	 * @return <code>future</code>
+	 */
+	public static <T, F extends CompletionStage<T>> F trace(CallSite callSite, F future) {
+		future.whenComplete(new SpanEnder(AsyncSpan.start(callSite)));
+		return future;
+	}
+
+	/**
+	 * start a span, child of the current element, then call <code>futureStarter</code> in the current thread,
+	 * and end the span on completion of the returned future (or immediately if <code>futureStarter</code> fails)
+	 * @return future completed after the span is ended
+	 */
+	public static <T> CompletableFuture<T> trace(CallSite callSite, Supplier<? extends CompletionStage<T>> futureStarter) {
+		AsyncSpan span = AsyncSpan.start(callSite);
+		CompletionStage<T> future;
+		try {
+			future = futureStarter.get();
+		} catch(RuntimeException ex) {
+			span.end();
+			throw ex;
+		} catch(Error ex) {
+			span.end();
+			throw ex;
+		}
+		return future.toCompletableFuture().whenComplete(new SpanEnder(span));
+	}
+
+	/**
+	 * @return future of <code>supplier</code> executed by <code>executor</code> in a span, child of the current element
+	 */
+	public static <T> CompletableFuture<T> supplyAsync(CallSite callSite, Supplier<T> supplier, Executor executor) {
+		return doSupplyAsync(AsyncSpan.start(callSite), supplier, executor);
+	}
+
+	/**
+	 * @return future of <code>runnable</code> executed by <code>executor</code> in a span, child of the current element
+	 */
+	public static CompletableFuture<Void> runAsync(CallSite callSite, final Runnable runnable, Executor executor) {
+		return doSupplyAsync(AsyncSpan.start(callSite), new Supplier<Void>() {
+			@Override
+			public Void get() {
+				runnable.run();
+				return null;
+			}
+		}, executor);
+	}
+
+	/**
+	 * @return future of <code>fn</code> applied to the result of <code>prev</code> by <code>executor</code>, in a span
+	 * child of the current element (when calling this method), started on completion of <code>prev</code>
+	 */
+	public static <T, U> CompletableFuture<U> thenApplyAsync(CompletionStage<T> prev,
+			final CallSite callSite, final Function<? super T, ? extends U> fn, final Executor executor) {
+		final CallStackContext parentContext = CallStackContext.capture(ThreadLocalCallStack.currStackElt());
+		return prev.toCompletableFuture().thenCompose(new Function<T, CompletionStage<U>>() {
+			@Override
+			public CompletionStage<U> apply(final T value) {
+				return doSupplyAsync(AsyncSpan.start(parentContext, callSite), new Supplier<U>() {
+					@Override
+					public U get() {
+						return fn.apply(value);
+					}
+				}, executor);
+			}
+		});
+	}
+
+	/**
+	 * @return future of <code>action</code> applied to the result of <code>prev</code> by <code>executor</code>, in a span
+	 * child of the current element (when calling this method), started on completion of <code>prev</code>
+	 */
+	public static <T> CompletableFuture<Void> thenAcceptAsync(CompletionStage<T> prev,
+			CallSite callSite, final Consumer<? super T> action, Executor executor) {
+		return thenApplyAsync(prev, callSite, new Function<T, Void>() {
+			@Override
+			public Void apply(T value) {
+				action.accept(value);
+				return null;
+			}
+		}, executor);
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	private static <T> CompletableFuture<T> doSupplyAsync(AsyncSpan span, Supplier<T> supplier, Executor executor) {
+		CompletableFuture<T> future;
+		try {
+			future = CompletableFuture.supplyAsync(span.wrapSupplier(supplier), executor);
+		} catch(RuntimeException ex) {
+			// typically RejectedExecutionException
+			span.end();
+			throw ex;
+		}
+		return future.whenComplete(new SpanEnder(span));
+	}
+
+}
@@ -0,0 +1,158 @@
+package org.perflogstacktrace4j.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+
+/**
+ * ExecutorService wrapper propagating the applicative CallStack context of the submitting thread to the executing thread
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * ExecutorService executor = new ContextPropagatingExecutorService(Executors.newFixedThreadPool(4));
+ * try (StackPopper toPop = ThreadLocalCallStack.push("MyService", "process")) {
+ *     executor.submit(task); // task stats are aggregated under "MyService:process/..ContextPropagatingExecutorService:run"
+ * }
+ * </PRE>
+ *
+ * On submit, the current CallStackElt path and inheritable props are captured (see CallStackContext.capture()).
+ * On execution, the context is attached to the worker thread CallStack (firing onAttachCallStackToThread() to listeners),
+ * a child span <code>taskCallSite</code> is pushed during the task, then the context is detached (firing onDetachCallStackFromThread()).
+ */
+public class ContextPropagatingExecutorService implements ExecutorService {
+
+	public static final CallSite DEFAULT_TASK_CALL_SITE = 
+			CallSiteRegistry.getOrRegister(ContextPropagatingExecutorService.class.getName(), "run");
+
+	private final ExecutorService delegate;
+
+	private final CallSite taskCallSite;
+
+	// ------------------------------------------------------------------------
+
+	public ContextPropagatingExecutorService(ExecutorService delegate) {
+		this(delegate, DEFAULT_TASK_CALL_SITE);
+	}
+
+	/**
+	 * @param taskCallSite CallSite of the span pushed for each task, under the captured path
+	 */
+	public ContextPropagatingExecutorService(ExecutorService delegate, CallSite taskCallSite) {
+		if (delegate == null || taskCallSite == null) throw new IllegalArgumentException();
+		this.delegate = delegate;
+		this.taskCallSite = taskCallSite;
+	}
+
+	// ------------------------------------------------------------------------
+
+	public ExecutorService getDelegate() {
+		return delegate;
+	}
+
+	public CallSite getTaskCallSite() {
+		return taskCallSite;
+	}
+
+	/** @return wrapper of task, capturing the context of current thread */
+	public Runnable wrap(Runnable task) {
+		return ContextPropagatingTask.capture(taskCallSite, task);
+	}
+
+	/** @return wrapper of task, capturing the context of current thread */
+	public <T> Callable<T> wrap(Callable<T> task) {
+		return ContextPropagatingTask.capture(taskCallSite, task);
+	}
+
+	private <T> List<Callable<T>> wrapAll(Collection<? extends Callable<T>> tasks) {
+		List<Callable<T>> res = new ArrayList<Callable<T>>(tasks.size());
+		for (Callable<T> task : tasks) {
+			res.add(wrap(task));
+		}
+		return res;
+	}
+
+	// implements ExecutorService
+	// ------------------------------------------------------------------------
+
+	@Override
+	public void execute(Runnable command) {
+		delegate.execute(wrap(command));
+	}
+
+	@Override
+	public Future<?> submit(Runnable task) {
+		return delegate.submit(wrap(task));
+	}
+
+	@Override
+	public <T> Future<T> submit(Runnable task, T result) {
+		return delegate.submit(wrap(task), result);
+	}
+
+	@Override
+	public <T> Future<T> submit(Callable<T> task) {
+		return delegate.submit(wrap(task));
+	}
+
+	@Override
+	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+		return delegate.invokeAll(wrapAll(tasks));
+	}
+
+	@Override
+	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException {
+		return delegate.invokeAll(wrapAll(tasks), timeout, unit);
+	}
+
+	@Override
+	public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+		return delegate.invokeAny(wrapAll(tasks));
+	}
+
+	@Override
+	public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) 
+			throws InterruptedException, ExecutionException, TimeoutException {
+		return delegate.invokeAny(wrapAll(tasks), timeout, unit);
+	}
+
+	@Override
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	/** @return tasks never commenced, as wrapped tasks */
+	@Override
+	public List<Runnable> shutdownNow() {
+		return delegate.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return delegate.awaitTermination(timeout, unit);
+	}
+
+	@Override
+	public String toString() {
+		return "ContextPropagatingExecutorService[" + delegate + "]";
+	}
+
+}
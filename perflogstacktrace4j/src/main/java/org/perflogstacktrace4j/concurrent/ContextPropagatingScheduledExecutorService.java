@@ -0,0 +1,59 @@
+package org.perflogstacktrace4j.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.perflogstacktrace4j.model.CallSite;
+
+/**
+ * ScheduledExecutorService wrapper propagating the applicative CallStack context of the scheduling thread,
+ * see ContextPropagatingExecutorService
+ * <BR/>
+ * for periodic tasks, the context is captured once when scheduling, and attached on each execution
+ */
+public class ContextPropagatingScheduledExecutorService extends ContextPropagatingExecutorService implements ScheduledExecutorService {
+
+	private final ScheduledExecutorService scheduledDelegate;
+
+	// ------------------------------------------------------------------------
+
+	public ContextPropagatingScheduledExecutorService(ScheduledExecutorService delegate) {
+		this(delegate, DEFAULT_TASK_CALL_SITE);
+	}
+
+	public ContextPropagatingScheduledExecutorService(ScheduledExecutorService delegate, CallSite taskCallSite) {
+		super(delegate, taskCallSite);
+		this.scheduledDelegate = delegate;
+	}
+
+	// implements ScheduledExecutorService
+	// ------------------------------------------------------------------------
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return scheduledDelegate.schedule(wrap(command), delay, unit);
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		return scheduledDelegate.schedule(wrap(callable), delay, unit);
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		return scheduledDelegate.scheduleAtFixedRate(wrap(command), initialDelay, period, unit);
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		return scheduledDelegate.scheduleWithFixedDelay(wrap(command), initialDelay, delay, unit);
+	}
+
+	@Override
+	public String toString() {
+		return "ContextPropagatingScheduledExecutorService[" + getDelegate() + "]";
+	}
+
+}
@@ -0,0 +1,91 @@
+package org.perflogstacktrace4j.concurrent;
+
+import java.util.concurrent.Callable;
+
+import org.perflogstacktrace4j.ThreadLocalCallStack;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.CallStackContext;
+import org.perflogstacktrace4j.model.StackPopper;
+
+/**
+ * task wrapper, running a Runnable or Callable in the CallStackContext captured when the task was created (in the submitting thread):
+ * the context is attached to the CallStack of the executing thread, and a child span <code>taskCallSite</code> is pushed under it
+ * <BR/>
+ * When the executing thread CallStack is not empty (for example a task run by the submitting thread, as with CallerRunsPolicy),
+ * the context is not attached, and the child span is pushed under the current element.
+ */
+final class ContextPropagatingTask<T> implements Runnable, Callable<T> {
+
+	private final CallStackContext context;
+	private final CallSite taskCallSite;
+	private final Runnable runnable;
+	private final Callable<T> callable;
+
+	// ------------------------------------------------------------------------
+
+	ContextPropagatingTask(CallStackContext context, CallSite taskCallSite, Runnable runnable, Callable<T> callable) {
+		this.context = context;
+		this.taskCallSite = taskCallSite;
+		this.runnable = runnable;
+		this.callable = callable;
+	}
+
+	static ContextPropagatingTask<Object> capture(CallSite taskCallSite, Runnable runnable) {
+		CallStackContext context = CallStackContext.capture(ThreadLocalCallStack.currStackElt());
+		return new ContextPropagatingTask<Object>(context, taskCallSite, runnable, null);
+	}
+
+	static <T> ContextPropagatingTask<T> capture(CallSite taskCallSite, Callable<T> callable) {
+		CallStackContext context = CallStackContext.capture(ThreadLocalCallStack.currStackElt());
+		return new ContextPropagatingTask<T>(context, taskCallSite, null, callable);
+	}
+
+	// ------------------------------------------------------------------------
+
+	public CallStackContext getContext() {
+		return context;
+	}
+
+	@Override
+	public void run() {
+		CallStack stack = ThreadLocalCallStack.currCallStack();
+		boolean attached = stack.attachContext(context);
+		try {
+			StackPopper toPop = stack.curr().pusher(taskCallSite).push();
+			try {
+				runnable.run();
+			} finally {
+				toPop.close();
+			}
+		} finally {
+			if (attached) {
+				stack.detachContext();
+			}
+		}
+	}
+
+	@Override
+	public T call() throws Exception {
+		CallStack stack = ThreadLocalCallStack.currCallStack();
+		boolean attached = stack.attachContext(context);
+		try {
+			StackPopper toPop = stack.curr().pusher(taskCallSite).push();
+			try {
+				return callable.call();
+			} finally {
+				toPop.close();
+			}
+		} finally {
+			if (attached) {
+				stack.detachContext();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ContextPropagatingTask[" + context + ", " + ((runnable != null)? runnable : callable) + "]";
+	}
+
+}
@@ -0,0 +1,343 @@
+package org.perflogstacktrace4j.dispatch;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.spi.CallStackListener;
+import org.perflogstacktrace4j.spi.CallStackListenerFactory;
+import org.perflogstacktrace4j.utils.DaemonLoopThread;
+import org.perflogstacktrace4j.utils.ThrottledErrorLogger;
+import org.perflogstacktrace4j.utils.UnsafeUtils;
+import org.perflogstacktrace4j.utils.UnsafeUtils.ObjectVolatileFieldAccessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous dispatcher of CallStack events to (possibly slow) CallStackEventListener(s), like exporters
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * AsyncCallStackDispatcher dispatcher = new AsyncCallStackDispatcher();
+ * dispatcher.addListener(exporterListener);
+ * dispatcher.start();
+ * ThreadLocalCallStack.addCallStackListenerFactory(dispatcher.getCallStackListenerFactory());
+ * </PRE>
+ *
+ * On applicative threads, push/pop/progress events are only copied into a bounded per-CallStack ring buffer
+ * (see AsyncCallStackListener), without lock or allocation.
+ * Rings start small and grow up to ringCapacity events, only for bursting threads.
+ * A background daemon thread drains all rings in batches, and calls listeners.
+ * <BR/>
+ * Rings are registered in a lock-free linked list (CAS on its head),
+ * and unlinked by the consumer once drained, when their CallStack was garbage collected or their thread terminated.
+ * <BR/>
+ * When a ring is full, the event is dropped (and counted, see getDroppedEventCount()),
+ * optionally after waiting up to overflowMaxWaitNanos for the consumer (see OverflowPolicy).
+ */
+public class AsyncCallStackDispatcher implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AsyncCallStackDispatcher.class);
+
+	private static final ObjectVolatileFieldAccessor<AsyncCallStackDispatcher, CallStackEventRing> ringsHeadAccessor =
+			UnsafeUtils.objectVolatileFieldAccessor(AsyncCallStackDispatcher.class, "ringsHead");
+
+	public static enum OverflowPolicy {
+		/** drop event when ring is full, never blocking applicative threads */
+		DROP,
+		/** when ring is full, wait for the consumer (backpressure) up to overflowMaxWaitNanos, then drop */
+		WAIT_THEN_DROP
+	}
+
+	public static final int DEFAULT_RING_CAPACITY = 1024;
+	public static final int DEFAULT_BATCH_SIZE = 256;
+	public static final long DEFAULT_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/*pp*/ static final long OVERFLOW_WAIT_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private final int ringCapacity;
+	private final OverflowPolicy overflowPolicy;
+	private final long overflowMaxWaitNanos;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private long idleParkNanos = DEFAULT_IDLE_PARK_NANOS;
+
+	private final Object lock = new Object();
+
+	// copy on write
+	private volatile CallStackEventListener[] listeners = new CallStackEventListener[0];
+
+	/** head of linked list of rings, see CallStackEventRing.next */
+	private volatile CallStackEventRing ringsHead;
+
+	private final AtomicInteger streamIdGenerator = new AtomicInteger();
+
+	/** events dropped in removed rings (of garbage collected CallStacks, or terminated threads) */
+	private volatile long removedRingsDroppedCount;
+
+	private volatile long dispatchedEventCount;
+
+	private final ThrottledErrorLogger listenerErrorLogger = new ThrottledErrorLogger(LOG);
+
+	private final DaemonLoopThread consumerThread = new DaemonLoopThread("perflogstacktrace4j-async-dispatcher");
+
+	/** reused flyweight event, used by consumer thread only */
+	private final CallStackEvent event = new CallStackEvent();
+
+	private final CallStackListenerFactory callStackListenerFactory = new CallStackListenerFactory() {
+		@Override
+		public CallStackListener createListener(CallStack stack) {
+			return createCallStackListener(stack);
+		}
+	};
+
+	// ------------------------------------------------------------------------
+
+	public AsyncCallStackDispatcher() {
+		this(DEFAULT_RING_CAPACITY, OverflowPolicy.DROP, 0);
+	}
+
+	/**
+	 * @param ringCapacity max count of events per CallStack ring (rounded up to a power of 2)
+	 * @param overflowMaxWaitNanos for OverflowPolicy.WAIT_THEN_DROP
+	 */
+	public AsyncCallStackDispatcher(int ringCapacity, OverflowPolicy overflowPolicy, long overflowMaxWaitNanos) {
+		this.ringCapacity = ringCapacity;
+		this.overflowPolicy = overflowPolicy;
+		this.overflowMaxWaitNanos = overflowMaxWaitNanos;
+	}
+
+	// ------------------------------------------------------------------------
+
+	public CallStackListenerFactory getCallStackListenerFactory() {
+		return callStackListenerFactory;
+	}
+
+	/** create a listener to attach to <code>stack</code> (one listener per CallStack) */
+	public AsyncCallStackListener createCallStackListener(CallStack stack) {
+		return new AsyncCallStackListener(this);
+	}
+
+	public void addListener(CallStackEventListener l) {
+		synchronized(lock) {
+			CallStackEventListener[] prev = listeners;
+			CallStackEventListener[] chg = Arrays.copyOf(prev, prev.length + 1);
+			chg[prev.length] = l;
+			this.listeners = chg;
+		}
+	}
+
+	public void removeListener(CallStackEventListener l) {
+		synchronized(lock) {
+			List<CallStackEventListener> ls = new ArrayList<>(Arrays.asList(listeners));
+			ls.remove(l);
+			this.listeners = ls.toArray(new CallStackEventListener[ls.size()]);
+		}
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	public long getOverflowMaxWaitNanos() {
+		return overflowMaxWaitNanos;
+	}
+
+	public int getRingCapacity() {
+		return ringCapacity;
+	}
+
+	/** max count of events dispatched per ring and per pass, to be set before start() */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/** consumer park time when all rings are empty, to be set before start() */
+	public void setIdleParkNanos(long idleParkNanos) {
+		this.idleParkNanos = idleParkNanos;
+	}
+
+	/** @return count of rings (CallStacks having produced events, not garbage collected yet, of live threads) */
+	public int getRingCount() {
+		int res = 0;
+		for (CallStackEventRing ring = ringsHead; ring != null; ring = ring.next) {
+			if (!ring.isRemoved()) {
+				res++;
+			}
+		}
+		return res;
+	}
+
+	public long getDispatchedEventCount() {
+		return dispatchedEventCount;
+	}
+
+	/** @return count of events dropped because a ring was full */
+	public long getDroppedEventCount() {
+		long res = removedRingsDroppedCount;
+		for (CallStackEventRing ring = ringsHead; ring != null; ring = ring.next) {
+			if (!ring.isRemoved()) {
+				res += ring.getDroppedCount();
+			}
+		}
+		return res;
+	}
+
+	/** @return count of exceptions thrown by listeners (logged, not rethrown) */
+	public long getListenerErrorCount() {
+		return listenerErrorLogger.getErrorCount();
+	}
+
+	/** @return approximate count of events waiting to be dispatched */
+	public long getPendingEventCount() {
+		long res = 0;
+		for (CallStackEventRing ring = ringsHead; ring != null; ring = ring.next) {
+			res += ring.size();
+		}
+		return res;
+	}
+
+	/** start (once) the daemon consumer thread */
+	public void start() {
+		consumerThread.start(new Runnable() {
+			@Override
+			public void run() {
+				runConsumer();
+			}
+		});
+	}
+
+	/**
+	 * stop consumer thread, after dispatching events already published
+	 */
+	@Override
+	public void close() {
+		consumerThread.stopAndJoin();
+	}
+
+	/**
+	 * dispatch pending events of all rings, in current thread.
+	 * Only for a dispatcher without consumer thread (not started): there must be only one consumer at a time
+	 * @return count of dispatched events
+	 */
+	public int dispatchPending() {
+		if (consumerThread.isStarted()) {
+			throw new IllegalStateException("consumer thread is started");
+		}
+		int res = 0;
+		for (;;) {
+			int count = dispatchPass();
+			if (count == 0) {
+				return res;
+			}
+			res += count;
+		}
+	}
+
+	// ------------------------------------------------------------------------
+
+	/*pp*/ CallStackEventRing registerRing(AsyncCallStackListener owner, Thread producerThread) {
+		CallStackEventRing ring = new CallStackEventRing(streamIdGenerator.incrementAndGet(),
+				producerThread, owner, ringCapacity);
+		for (;;) {
+			CallStackEventRing h = ringsHead;
+			ring.next = h;
+			if (ringsHeadAccessor.compareAndSwap(this, h, ring)) {
+				return ring;
+			}
+		}
+	}
+
+	/*pp*/ void fireOnEvent(CallStackEventListener[] listeners, CallStackEvent event) {
+		for (CallStackEventListener listener : listeners) {
+			try {
+				listener.onEvent(event);
+			} catch(Exception ex) {
+				listenerErrorLogger.onError("Failed to dispatch event onEvent()", ex);
+			}
+		}
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	private void runConsumer() {
+		for (;;) {
+			boolean stopping = consumerThread.isStopRequested();
+			int count = dispatchPass();
+			if (count == 0) {
+				if (stopping) {
+					return;
+				}
+				LockSupport.parkNanos(idleParkNanos);
+			}
+		}
+	}
+
+	/**
+	 * dispatch up to batchSize events of each ring
+	 * @return count of dispatched events
+	 */
+	private int dispatchPass() {
+		CallStackEventListener[] currListeners = listeners;
+		int res = 0;
+		CallStackEventRing prev = null;
+		for (CallStackEventRing ring = ringsHead; ring != null; ring = ring.next) {
+			res += ring.drainTo(event, currListeners, this, batchSize);
+			if (!isDeadRing(ring) || !unlink(prev, ring)) {
+				prev = ring;
+			}
+		}
+		if (res != 0) {
+			dispatchedEventCount += res; // single writer
+			for (CallStackEventListener listener : currListeners) {
+				try {
+					listener.onBatchEnd();
+				} catch(Exception ex) {
+					listenerErrorLogger.onError("Failed to dispatch event onBatchEnd()", ex);
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return true when ring is (or was already) marked removed: fully consumed, and its owner garbage collected or its thread terminated
+	 * <BR/>
+	 * a producer switching thread first sets its thread, then checks isRemoved() (see AsyncCallStackListener):
+	 * so the producer thread is checked again after marking, and the mark is reverted if it changed meanwhile
+	 */
+	private boolean isDeadRing(CallStackEventRing ring) {
+		if (ring.isRemoved()) {
+			return true; // previous unlink failed, retry
+		}
+		if (!(ring.isOwnerCollected() || ring.isProducerThreadTerminated()) || ring.size() != 0) {
+			return false;
+		}
+		ring.setRemoved(true);
+		if (!ring.isOwnerCollected() && (!ring.isProducerThreadTerminated() || ring.size() != 0)) {
+			ring.setRemoved(false);
+			return false;
+		}
+		removedRingsDroppedCount += ring.getDroppedCount(); // single writer
+		return true;
+	}
+
+	/**
+	 * unlink <code>ring</code> after <code>prev</code> (or head), by the single consumer
+	 * @return false when ring is head and a ring was registered meanwhile (left linked, unlinked on a next pass)
+	 */
+	private boolean unlink(CallStackEventRing prev, CallStackEventRing ring) {
+		if (prev == null) {
+			return ringsHeadAccessor.compareAndSwap(this, ring, ring.next);
+		}
+		prev.next = ring.next;
+		return true;
+	}
+
+}
@@ -0,0 +1,111 @@
+package org.perflogstacktrace4j.dispatch;
+
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.CallStackElt;
+import org.perflogstacktrace4j.spi.CallStackListener;
+import org.perflogstacktrace4j.utils.ThreadTimeUtils;
+
+/**
+ * CallStackListener copying push/pop/progress events into a ring buffer, consumed by AsyncCallStackDispatcher
+ *
+ * Implementation note: one listener instance is attached per CallStack (so per thread, not multi-thread safe),
+ * and is the single producer of its ring (created on first event).
+ * When the CallStack is used from another thread (pooled CallStack, see ScopedCallStack), the ring producer thread is updated,
+ * and a new ring is registered if the previous one was removed (after its previous thread terminated).
+ * Log and attach/detach events are not dispatched.
+ */
+public final class AsyncCallStackListener extends CallStackListener {
+
+	private final AsyncCallStackDispatcher dispatcher;
+
+	private CallStackEventRing ring;
+	/** thread of last published event */
+	private Thread thread;
+
+	// ------------------------------------------------------------------------
+
+	/*pp*/ AsyncCallStackListener(AsyncCallStackDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	// ------------------------------------------------------------------------
+
+	public AsyncCallStackDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
+	@Override
+	public void onPush(CallStackElt stackElt) {
+		publish(CallStackEventRing.TYPE_PUSH, stackElt.getStackEltIndex(), stackElt.getCallSiteId(),
+				stackElt.getStartTime(), 0, 0, stackElt.getSampleWeight());
+	}
+
+	@Override
+	public void onPop(CallStackElt stackElt) {
+		long cpuTime = (stackElt.isCpuTimeMeasured())?
+				stackElt.getThreadCpuEndTime() - stackElt.getThreadCpuStartTime() : -1;
+		publish(CallStackEventRing.TYPE_POP, stackElt.getStackEltIndex(), stackElt.getCallSiteId(),
+				stackElt.getStartTime(), stackElt.getEndTime(), cpuTime, stackElt.getSampleWeight());
+	}
+
+	@Override
+	public void onProgressStep(CallStackElt stackElt, int incr, String progressMessage) {
+		publish(CallStackEventRing.TYPE_PROGRESS, stackElt.getStackEltIndex(), stackElt.getCallSiteId(),
+				stackElt.getStartTime(), ThreadTimeUtils.getTime(), stackElt.getProgressIndex(), stackElt.getSampleWeight());
+	}
+
+	@Override
+	public void onLog(String msg, Map<String, Object> namedValues) {
+		// do nothing
+	}
+
+	@Override
+	public void onAttachCallStackToThread(CallStack stack, Thread thread) {
+		// do nothing
+	}
+
+	@Override
+	public void onDetachCallStackFromThread(CallStack stack, Thread thread) {
+		// do nothing
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	private void publish(int type, int stackEltIndex, int callSiteId, long startTime, long endTime, long value, int sampleWeight) {
+		Thread currThread = Thread.currentThread();
+		CallStackEventRing r = ring;
+		if (currThread != thread) {
+			this.thread = currThread;
+			if (r != null) {
+				r.setProducerThread(currThread);
+				if (r.isRemoved()) {
+					r = null;
+				}
+			}
+			if (r == null) {
+				r = ring = dispatcher.registerRing(this, currThread);
+			}
+		}
+		long threadId = currThread.getId();
+		if (r.offer(type, stackEltIndex, callSiteId, startTime, endTime, value, sampleWeight, threadId)) {
+			return;
+		}
+		// ring full
+		long maxWaitNanos = dispatcher.getOverflowMaxWaitNanos();
+		if (dispatcher.getOverflowPolicy() == AsyncCallStackDispatcher.OverflowPolicy.WAIT_THEN_DROP && maxWaitNanos > 0) {
+			long waitEnd = System.nanoTime() + maxWaitNanos;
+			do {
+				LockSupport.parkNanos(AsyncCallStackDispatcher.OVERFLOW_WAIT_PARK_NANOS);
+				if (r.offer(type, stackEltIndex, callSiteId, startTime, endTime, value, sampleWeight, threadId)) {
+					return;
+				}
+			} while (System.nanoTime() < waitEnd);
+		}
+		r.incrDroppedCount();
+	}
+
+}
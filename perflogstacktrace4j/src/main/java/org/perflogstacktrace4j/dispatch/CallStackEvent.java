@@ -0,0 +1,113 @@
+package org.perflogstacktrace4j.dispatch;
+
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+
+/**
+ * push/pop/progress event of a CallStack, dispatched asynchronously to CallStackEventListener(s)
+ * (see AsyncCallStackDispatcher)
+ * <BR/>
+ * Instances are reused flyweights, only valid during CallStackEventListener.onEvent(): values must be copied to be kept.
+ */
+public final class CallStackEvent {
+
+	public static enum Type {
+		PUSH, POP, PROGRESS
+	}
+
+	private Type type;
+	private int streamId;
+	private long threadId;
+	private int stackEltIndex;
+	private int callSiteId;
+	private long startTime;
+	private long endTime;
+	private long value;
+	private int sampleWeight;
+
+	// ------------------------------------------------------------------------
+
+	/*pp*/ CallStackEvent() {
+	}
+
+	/*pp*/ void set(Type type, int streamId, long threadId, int stackEltIndex, int callSiteId,
+			long startTime, long endTime, long value, int sampleWeight) {
+		this.type = type;
+		this.streamId = streamId;
+		this.threadId = threadId;
+		this.stackEltIndex = stackEltIndex;
+		this.callSiteId = callSiteId;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.value = value;
+		this.sampleWeight = sampleWeight;
+	}
+
+	// ------------------------------------------------------------------------
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return id of the producer CallStack: events of a same stream are dispatched in order,
+	 * so listeners can keep per-stream state (like a current path) indexed by stream id
+	 */
+	public int getStreamId() {
+		return streamId;
+	}
+
+	/** @return id of the thread of the CallStack, when it produced this event */
+	public long getThreadId() {
+		return threadId;
+	}
+
+	public int getStackEltIndex() {
+		return stackEltIndex;
+	}
+
+	public int getCallSiteId() {
+		return callSiteId;
+	}
+
+	public CallSite getCallSite() {
+		return CallSiteRegistry.getById(callSiteId);
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/** @return end time for POP, time of event for PROGRESS, 0 for PUSH */
+	public long getEndTime() {
+		return endTime;
+	}
+
+	/** @return elapsed time, for POP events */
+	public long getElapsedTime() {
+		return endTime - startTime;
+	}
+
+	/** @return thread cpu time elapsed for POP events (-1 if not measured) */
+	public long getThreadCpuTime() {
+		return (type == Type.POP)? value : -1;
+	}
+
+	/** @return progress index for PROGRESS events */
+	public int getProgressIndex() {
+		return (type == Type.PROGRESS)? (int) value : 0;
+	}
+
+	/** @return count of calls represented by this element (see CallStackElt.getSampleWeight()) */
+	public int getSampleWeight() {
+		return sampleWeight;
+	}
+
+	// ------------------------------------------------------------------------
+
+	@Override
+	public String toString() {
+		return "CallStackEvent[" + type + " stream:" + streamId + " " + stackEltIndex + " site:" + callSiteId + "]";
+	}
+
+}
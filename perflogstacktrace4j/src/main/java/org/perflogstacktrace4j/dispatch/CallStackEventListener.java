@@ -0,0 +1,21 @@
+package org.perflogstacktrace4j.dispatch;
+
+/**
+ * Listener of CallStack events dispatched asynchronously, by the AsyncCallStackDispatcher consumer thread
+ * (so implementations do not need to be multi-thread safe, and may be slow without adding latency to applicative threads)
+ */
+public abstract class CallStackEventListener {
+
+	/**
+	 * @param event reused flyweight, only valid during this call
+	 */
+	public abstract void onEvent(CallStackEvent event);
+
+	/**
+	 * called after each dispatched batch of events, for example for flushing buffered output
+	 */
+	public void onBatchEnd() {
+		// do nothing
+	}
+
+}
@@ -0,0 +1,229 @@
+package org.perflogstacktrace4j.dispatch;
+
+import java.lang.ref.WeakReference;
+
+import org.perflogstacktrace4j.utils.UnsafeUtils;
+import org.perflogstacktrace4j.utils.UnsafeUtils.LongVolatileFieldAccessor;
+
+/**
+ * bounded single-producer single-consumer ring of fixed-length events, encoded in a long[]
+ * <BR/>
+ * The producer (thread of a CallStack) only writes slots and publishes its tail with an ordered write,
+ * it reads the consumer head only when the ring looks full (cached head): no lock, no CAS, no allocation.
+ * <PRE>
+ * event: type | stackEltIndex << 8 | callSiteId << 32,  startTime,  endTime,  value,  sampleWeight,  threadId
+ * </PRE>
+ *
+ * The slots array is sized lazily: it starts small, and is doubled by the producer when full, up to maxCapacity.
+ * On growth, not yet consumed events are copied into the new array, which is published before the tail:
+ * so the consumer (reading tail, then slots) always finds its events, in the old or the new array.
+ * <BR/>
+ * Rings are linked in a list of their AsyncCallStackDispatcher (see next), and removed by the consumer once fully consumed,
+ * when their owner was garbage collected or their producer thread terminated.
+ * As a pooled CallStack may move to another thread, the producer thread is updated when it changes (see setProducerThread()),
+ * and a producer switching thread re-registers a new ring if this one was removed meanwhile.
+ */
+final class CallStackEventRing {
+
+	private static final LongVolatileFieldAccessor<CallStackEventRing> headAccessor =
+			UnsafeUtils.longVolatileFieldAccessor(CallStackEventRing.class, "head");
+	private static final LongVolatileFieldAccessor<CallStackEventRing> tailAccessor =
+			UnsafeUtils.longVolatileFieldAccessor(CallStackEventRing.class, "tail");
+	private static final LongVolatileFieldAccessor<CallStackEventRing> droppedCountAccessor =
+			UnsafeUtils.longVolatileFieldAccessor(CallStackEventRing.class, "droppedCount");
+
+	static final int EVENT_LEN = 6;
+
+	static final int INITIAL_CAPACITY = 16;
+
+	static final int TYPE_PUSH = 1;
+	static final int TYPE_POP = 2;
+	static final int TYPE_PROGRESS = 3;
+
+	private final int streamId;
+	private final WeakReference<Object> owner;
+	private final int maxCapacity;
+
+	/** slots and mask, replaced (never modified afterward) on growth */
+	private volatile Slots slots;
+
+	/** thread of last produced events, updated by producer when it changes */
+	private volatile WeakReference<Thread> producerThread;
+
+	/** set by the consumer when unlinked from the dispatcher, see AsyncCallStackDispatcher */
+	private volatile boolean removed;
+
+	/** next ring in list of dispatcher, modified only by consumer (except for the list head) */
+	/*pp*/ volatile CallStackEventRing next;
+
+	// consumer fields
+	private long head;
+	@SuppressWarnings("unused")
+	private long p01, p02, p03, p04, p05, p06, p07; // padding, to avoid false sharing of head and tail
+
+	// producer fields
+	private long tail;
+	private long cachedHead;
+	private long droppedCount;
+
+	private static final class Slots {
+		final long[] values;
+		final int mask;
+
+		Slots(int len) {
+			this.values = new long[len * EVENT_LEN];
+			this.mask = len - 1;
+		}
+	}
+
+	// ------------------------------------------------------------------------
+
+	/**
+	 * @param maxCapacity max count of events, rounded up to a power of 2
+	 */
+	CallStackEventRing(int streamId, Thread producerThread, Object owner, int maxCapacity) {
+		this.streamId = streamId;
+		this.producerThread = new WeakReference<Thread>(producerThread);
+		this.owner = new WeakReference<Object>(owner);
+		this.maxCapacity = powerOf2(maxCapacity);
+		this.slots = new Slots(Math.min(INITIAL_CAPACITY, this.maxCapacity));
+	}
+
+	private static int powerOf2(int capacity) {
+		return Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+	}
+
+	// ------------------------------------------------------------------------
+
+	int getStreamId() {
+		return streamId;
+	}
+
+	/** @return id of the thread of last produced events, or -1 when garbage collected */
+	long getThreadId() {
+		Thread thread = producerThread.get();
+		return (thread != null)? thread.getId() : -1;
+	}
+
+	/** @return current count of allocated events (grows up to getMaxCapacity()) */
+	int getCapacity() {
+		return slots.mask + 1;
+	}
+
+	int getMaxCapacity() {
+		return maxCapacity;
+	}
+
+	/** @return true when the producer was garbage collected */
+	boolean isOwnerCollected() {
+		return owner.get() == null;
+	}
+
+	/** @return true when the producer thread terminated (or was garbage collected) */
+	boolean isProducerThreadTerminated() {
+		Thread thread = producerThread.get();
+		return thread == null || !thread.isAlive();
+	}
+
+	boolean isRemoved() {
+		return removed;
+	}
+
+	/*pp*/ void setRemoved(boolean removed) {
+		this.removed = removed;
+	}
+
+	long getDroppedCount() {
+		return droppedCountAccessor.get(this);
+	}
+
+	/** @return approximate count of events not yet consumed */
+	int size() {
+		return (int) (tailAccessor.get(this) - headAccessor.get(this));
+	}
+
+	// producer side
+	// ------------------------------------------------------------------------
+
+	/**
+	 * to be called by the producer before its first event in a new thread (volatile write, before reading isRemoved())
+	 */
+	void setProducerThread(Thread thread) {
+		this.producerThread = new WeakReference<Thread>(thread);
+	}
+
+	/**
+	 * @return false if ring is full (event not added)
+	 */
+	boolean offer(int type, int stackEltIndex, int callSiteId, long startTime, long endTime, long value, int sampleWeight, long threadId) {
+		long t = tail;
+		Slots s = slots;
+		if (t - cachedHead > s.mask) {
+			cachedHead = headAccessor.get(this);
+			if (t - cachedHead > s.mask) {
+				if (s.mask + 1 >= maxCapacity) {
+					return false;
+				}
+				s = grow(s, t);
+			}
+		}
+		final long[] values = s.values;
+		int i = (int) (t & s.mask) * EVENT_LEN;
+		values[i] = type | ((stackEltIndex & 0xFFFFFFL) << 8) | ((long) callSiteId << 32);
+		values[i + 1] = startTime;
+		values[i + 2] = endTime;
+		values[i + 3] = value;
+		values[i + 4] = sampleWeight;
+		values[i + 5] = threadId;
+		tailAccessor.setOrdered(this, t + 1);
+		return true;
+	}
+
+	void incrDroppedCount() {
+		droppedCountAccessor.setOrdered(this, droppedCount + 1);
+	}
+
+	/** double slots, copying events from cachedHead to tail <code>t</code> (the consumer only reads them meanwhile) */
+	private Slots grow(Slots prev, long t) {
+		Slots res = new Slots((prev.mask + 1) * 2);
+		for (long n = cachedHead; n < t; n++) {
+			System.arraycopy(prev.values, (int) (n & prev.mask) * EVENT_LEN, res.values, (int) (n & res.mask) * EVENT_LEN, EVENT_LEN);
+		}
+		this.slots = res; // published before tail
+		return res;
+	}
+
+	// consumer side
+	// ------------------------------------------------------------------------
+
+	/**
+	 * dispatch up to maxCount events to listeners
+	 * @return count of dispatched events
+	 */
+	int drainTo(CallStackEvent event, CallStackEventListener[] listeners, AsyncCallStackDispatcher dispatcher, int maxCount) {
+		long h = head;
+		long t = tailAccessor.get(this);
+		int count = (int) Math.min(t - h, maxCount);
+		if (count == 0) {
+			return 0;
+		}
+		final Slots s = slots; // read after tail
+		final long[] values = s.values;
+		for (int n = 0; n < count; n++) {
+			int i = (int) ((h + n) & s.mask) * EVENT_LEN;
+			long header = values[i];
+			CallStackEvent.Type type;
+			switch((int) (header & 0xFF)) {
+			case TYPE_PUSH: type = CallStackEvent.Type.PUSH; break;
+			case TYPE_POP: type = CallStackEvent.Type.POP; break;
+			default: type = CallStackEvent.Type.PROGRESS; break;
+			}
+			event.set(type, streamId, values[i + 5], (int) ((header >>> 8) & 0xFFFFFF), (int) (header >>> 32),
+					values[i + 1], values[i + 2], values[i + 3], (int) values[i + 4]);
+			dispatcher.fireOnEvent(listeners, event);
+		}
+		headAccessor.setOrdered(this, h + count);
+		return count;
+	}
+
+}
@@ -0,0 +1,292 @@
+package org.perflogstacktrace4j.dto.binary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.perflogstacktrace4j.dto.tree.AppCallTreeDTO;
+import org.perflogstacktrace4j.dto.tree.AppCallTreeNodeDTO;
+import org.perflogstacktrace4j.model.stats.LongStatsHistogram;
+import org.perflogstacktrace4j.model.stats.LongStatsHistogramLayout;
+import org.perflogstacktrace4j.model.stats.PerfTimeStats;
+
+/**
+ * streaming decoder of AppCallTreeDTO, from the compact binary format described in AppCallTreeBinaryFormat
+ * (see AppCallTreeBinaryEncoder)
+ *
+ * This class is not multi-thread safe, but can be reused for decoding several trees from the same input.
+ * Trees are read iteratively (explicit stack, no recursion), so deep trees do not overflow the thread stack.
+ */
+public final class AppCallTreeBinaryDecoder {
+
+    private static final int DEFAULT_BUFFER_LEN = 8192;
+
+    /** initial allocation for reading a string from an InputStream, grown while bytes are read (length is not trusted) */
+    private static final int STRING_CHUNK_LEN = 1024;
+
+    private final InputStream in;
+
+    private final ByteBuffer inBuffer;
+
+    private final byte[] buffer;
+    private int pos;
+    private int limit;
+
+    /** string table of current tree, by index */
+    private final ArrayList<String> strings = new ArrayList<String>();
+
+    private LongStatsHistogramLayout currLayout;
+
+    private long baseTime;
+
+    /** reused slot counts, for decoding histograms */
+    private int[] tmpSlotCounts = new int[0];
+
+    /** reused explicit stack of nodes being read, with their count of children remaining to read, indexed by depth */
+    private final ArrayList<AppCallTreeNodeDTO> nodeStack = new ArrayList<AppCallTreeNodeDTO>();
+    private int[] remainingChildCountStack = new int[16];
+
+    // ------------------------------------------------------------------------
+
+    public AppCallTreeBinaryDecoder(InputStream in) {
+        this.in = in;
+        this.inBuffer = null;
+        this.buffer = new byte[DEFAULT_BUFFER_LEN];
+    }
+
+    public AppCallTreeBinaryDecoder(ByteBuffer in) {
+        this.in = null;
+        this.inBuffer = in;
+        this.buffer = null;
+    }
+
+    public static AppCallTreeDTO decode(byte[] data) {
+        try {
+            return new AppCallTreeBinaryDecoder(ByteBuffer.wrap(data)).read();
+        } catch(IOException ex) {
+            throw new IllegalArgumentException("Failed to decode AppCallTree", ex);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    public AppCallTreeDTO read() throws IOException {
+        strings.clear();
+        currLayout = null;
+        for (byte b : AppCallTreeBinaryFormat.MAGIC) {
+            if (readByte() != b) {
+                throw new IOException("invalid format, expecting AppCallTree binary magic header");
+            }
+        }
+        int version = readVarInt();
+        if (version != AppCallTreeBinaryFormat.VERSION) {
+            throw new IOException("unsupported AppCallTree binary format version " + version);
+        }
+        AppCallTreeDTO res = new AppCallTreeDTO();
+        res.setName(readString());
+        long fromTime = readZigZagLong();
+        long toTime = fromTime + readZigZagLong();
+        baseTime = toTime;
+        res.setFromSnapshotDate(toDate(fromTime));
+        res.setToSnapshotDate(toDate(toTime));
+
+        AppCallTreeNodeDTO rootNode = new AppCallTreeNodeDTO(readStringRef());
+        readSubTreeContent(rootNode);
+        res.setRootNode(rootNode);
+        return res;
+    }
+
+    // internal
+    // ------------------------------------------------------------------------
+
+    /** read content of node, then its sub-tree in pre-order */
+    private void readSubTreeContent(AppCallTreeNodeDTO root) throws IOException {
+        ArrayList<AppCallTreeNodeDTO> stack = nodeStack;
+        try {
+            pushNode(root, readNodeContent(root));
+            while (!stack.isEmpty()) {
+                int top = stack.size() - 1;
+                int remaining = remainingChildCountStack[top];
+                if (remaining == 0) {
+                    stack.remove(top);
+                    continue;
+                }
+                remainingChildCountStack[top] = remaining - 1;
+                AppCallTreeNodeDTO child = stack.get(top).findOrCreateChild(readStringRef());
+                pushNode(child, readNodeContent(child));
+            }
+        } finally {
+            stack.clear();
+        }
+    }
+
+    private void pushNode(AppCallTreeNodeDTO node, int childCount) throws IOException {
+        if (childCount < 0) {
+            throw new IOException("invalid format, child count " + childCount);
+        }
+        int depth = nodeStack.size();
+        if (depth == remainingChildCountStack.length) {
+            remainingChildCountStack = Arrays.copyOf(remainingChildCountStack, depth * 2);
+        }
+        nodeStack.add(node);
+        remainingChildCountStack[depth] = childCount;
+    }
+
+    /** @return count of children to read */
+    private int readNodeContent(AppCallTreeNodeDTO node) throws IOException {
+        readPerfStats(node);
+        return readVarInt();
+    }
+
+    private void readPerfStats(AppCallTreeNodeDTO node) throws IOException {
+        int timingModeMask = readVarInt();
+        int pendingCount = readZigZagInt();
+        long pendingSumStartTime = 0, pendingSumStartCpuTime = 0;
+        if (pendingCount != 0) {
+            pendingSumStartTime = readZigZagLong();
+            pendingSumStartCpuTime = readZigZagLong();
+        }
+        // stats are created with layout of first histogram
+        LongStatsHistogramLayout elapsedLayout = readLayout();
+        PerfTimeStats stats = new PerfTimeStats(elapsedLayout);
+        stats.setTimingModeMask(timingModeMask);
+        stats.getPendingCounts().set(pendingCount, pendingSumStartTime, pendingSumStartCpuTime);
+        readHistogramContent(stats.getElapsedTimeStats(), elapsedLayout);
+        readHistogramContent(stats.getThreadUserTimeStats(), readLayout());
+        readHistogramContent(stats.getThreadCpuTimeStats(), readLayout());
+        node.setPerfTimeStats(stats);
+    }
+
+    private LongStatsHistogramLayout readLayout() throws IOException {
+        int layoutChange = readVarInt();
+        if (layoutChange != 0) {
+            int unitShift = readVarInt();
+            int subBucketBits = readVarInt();
+            int maxValueBits = readVarInt();
+            currLayout = new LongStatsHistogramLayout(unitShift, subBucketBits, maxValueBits);
+            if (currLayout.equals(LongStatsHistogramLayout.getDefault())) {
+                currLayout = LongStatsHistogramLayout.getDefault();
+            }
+        } else if (currLayout == null) {
+            throw new IOException("invalid format, missing histogram layout");
+        }
+        return currLayout;
+    }
+
+    private void readHistogramContent(LongStatsHistogram histo, LongStatsHistogramLayout layout) throws IOException {
+        int nonEmptyCount = readVarInt();
+        if (nonEmptyCount == 0) {
+            return;
+        }
+        int slotLen = layout.getSlotLen();
+        if (tmpSlotCounts.length < slotLen) {
+            tmpSlotCounts = new int[slotLen];
+        }
+        int[] slotCounts = tmpSlotCounts;
+        try {
+            int index = 0;
+            for (int i = 0; i < nonEmptyCount; i++) {
+                index += readVarInt();
+                if (index < 0 || index >= slotLen) {
+                    throw new IOException("invalid format, histogram slot index " + index);
+                }
+                slotCounts[index] = readVarInt();
+            }
+            long sum = readZigZagLong();
+            long minValue = readZigZagLong();
+            long maxValue = minValue + readVarLong();
+            long timeReachingMaxValue = baseTime + readZigZagLong();
+            histo.set(layout, slotCounts, sum, minValue, maxValue, timeReachingMaxValue);
+        } finally {
+            // also on failure, so that a reused decoder does not start with stale counts
+            Arrays.fill(slotCounts, 0, slotLen, 0);
+        }
+    }
+
+    private String readStringRef() throws IOException {
+        int ref = readVarInt();
+        if (ref != 0) {
+            if (ref > strings.size()) {
+                throw new IOException("invalid format, string ref " + ref);
+            }
+            return strings.get(ref - 1);
+        }
+        String res = readString();
+        strings.add(res);
+        return res;
+    }
+
+    private String readString() throws IOException {
+        int lenPlus1 = readVarInt();
+        if (lenPlus1 == 0) {
+            return null;
+        }
+        int len = lenPlus1 - 1;
+        if (len < 0 || (inBuffer != null && len > inBuffer.remaining())) {
+            throw new IOException("invalid format, string length " + len);
+        }
+        // length read from input: allocate while reading, so a corrupted length fails on EOF before a huge allocation
+        byte[] bytes = new byte[(inBuffer != null)? len : Math.min(len, STRING_CHUNK_LEN)];
+        for (int i = 0; i < len; i++) {
+            if (i == bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) Math.min(len, bytes.length * 2L));
+            }
+            bytes[i] = readByte();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readZigZagInt() throws IOException {
+        int v = readVarInt();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private long readZigZagLong() throws IOException {
+        long v = readVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private int readVarInt() throws IOException {
+        return (int) readVarLong();
+    }
+
+    private long readVarLong() throws IOException {
+        long res = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            res |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return res;
+            }
+        }
+        throw new IOException("invalid format, varint too long");
+    }
+
+    private byte readByte() throws IOException {
+        if (inBuffer != null) {
+            if (!inBuffer.hasRemaining()) {
+                throw new EOFException();
+            }
+            return inBuffer.get();
+        }
+        if (pos == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                throw new EOFException();
+            }
+        }
+        return buffer[pos++];
+    }
+
+    private static Date toDate(long time) {
+        return (time != 0)? new Date(time) : null;
+    }
+
+}
@@ -0,0 +1,382 @@
+package org.perflogstacktrace4j.dto.binary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.perflogstacktrace4j.dto.tree.AppCallTreeDTO;
+import org.perflogstacktrace4j.dto.tree.AppCallTreeNodeDTO;
+import org.perflogstacktrace4j.model.stats.LongStatsHistogram;
+import org.perflogstacktrace4j.model.stats.LongStatsHistogramLayout;
+import org.perflogstacktrace4j.model.stats.PendingPerfCount;
+import org.perflogstacktrace4j.model.stats.PerfTimeStats;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+
+/**
+ * streaming encoder of AppCallTreeDTO, or directly of a live AppCallTree (without intermediate DTO tree),
+ * into the compact binary format described in AppCallTreeBinaryFormat
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * AppCallTreeBinaryEncoder encoder = new AppCallTreeBinaryEncoder(outputStream);
+ * encoder.write(appCallTree.snapshotAndReset());
+ * encoder.flush();
+ * </PRE>
+ *
+ * This class is not multi-thread safe, but can be reused for encoding several trees.
+ * Trees are walked iteratively (explicit stack, no recursion), so deep trees do not overflow the thread stack.
+ */
+public final class AppCallTreeBinaryEncoder {
+
+    private static final int DEFAULT_BUFFER_LEN = 8192;
+
+    /** max length of a varint long */
+    private static final int MAX_VARLONG_LEN = 10;
+
+    private final OutputStream out;
+    private final ByteBuffer outBuffer;
+
+    private final byte[] buffer;
+    private int pos;
+
+    /** string table of current tree: index by string */
+    private final HashMap<String,Integer> stringIndexes = new HashMap<String,Integer>();
+
+    /** histogram layout of last written histogram */
+    private LongStatsHistogramLayout currLayout;
+
+    /** base time for encoding times reaching max, as delta */
+    private long baseTime;
+
+    /** reused slot counts, for encoding histograms */
+    private int[] tmpSlotCounts = new int[0];
+
+    /** reused for copying live node stats (see write(AppCallTree)) */
+    private PerfTimeStats tmpNodeStats;
+
+    /** reused explicit stacks of children remaining to write, indexed by depth */
+    private final ArrayList<Iterator<AppCallTreeNodeDTO>> childIteratorStack = new ArrayList<Iterator<AppCallTreeNodeDTO>>();
+    private final ArrayList<AppCallTreeNode> nextChildStack = new ArrayList<AppCallTreeNode>();
+    private int[] remainingChildCountStack = new int[16];
+
+    // ------------------------------------------------------------------------
+
+    public AppCallTreeBinaryEncoder(OutputStream out) {
+        this.out = out;
+        this.outBuffer = null;
+        this.buffer = new byte[DEFAULT_BUFFER_LEN];
+    }
+
+    /**
+     * encoder writing into a ByteBuffer
+     * a java.nio.BufferOverflowException is thrown if the ByteBuffer is too small
+     */
+    public AppCallTreeBinaryEncoder(ByteBuffer out) {
+        this.out = null;
+        this.outBuffer = out;
+        this.buffer = new byte[DEFAULT_BUFFER_LEN];
+    }
+
+    /** @return encoded tree */
+    public static byte[] encode(AppCallTreeDTO tree) {
+        ByteArrayOutput out = new ByteArrayOutput();
+        AppCallTreeBinaryEncoder encoder = new AppCallTreeBinaryEncoder(out);
+        try {
+            encoder.write(tree);
+            encoder.flush();
+        } catch(IOException ex) {
+            throw new IllegalStateException("should not occur", ex);
+        }
+        return out.toByteArray();
+    }
+
+    // ------------------------------------------------------------------------
+
+    public void write(AppCallTreeDTO tree) throws IOException {
+        long fromTime = toTime(tree.getFromSnapshotDate());
+        long toTime = toTime(tree.getToSnapshotDate());
+        writeHeader(tree.getName(), fromTime, toTime);
+        writeSubTree(tree.getRootNode());
+    }
+
+    /**
+     * write current stats of a live tree (without reset, see AppCallTree.copyToDTO()),
+     * without creating intermediate DTO objects
+     */
+    public void write(AppCallTree tree) throws IOException {
+        writeHeader(tree.getName(), tree.getFromSnapshotTime(), System.currentTimeMillis());
+        writeSubTree(tree.getRootNode());
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    // internal
+    // ------------------------------------------------------------------------
+
+    private void writeHeader(String name, long fromTime, long toTime) throws IOException {
+        stringIndexes.clear();
+        currLayout = null;
+        baseTime = toTime;
+        ensureAvailable(AppCallTreeBinaryFormat.MAGIC.length);
+        for (byte b : AppCallTreeBinaryFormat.MAGIC) {
+            buffer[pos++] = b;
+        }
+        writeVarInt(AppCallTreeBinaryFormat.VERSION);
+        writeString(name);
+        writeZigZagLong(fromTime);
+        writeZigZagLong(toTime - fromTime);
+    }
+
+    /** write node and its sub-tree in pre-order */
+    private void writeSubTree(AppCallTreeNodeDTO root) throws IOException {
+        ArrayList<Iterator<AppCallTreeNodeDTO>> stack = childIteratorStack;
+        try {
+            writeNode(root);
+            stack.add(root.getChildList().iterator());
+            while (!stack.isEmpty()) {
+                Iterator<AppCallTreeNodeDTO> childIter = stack.get(stack.size() - 1);
+                if (childIter.hasNext()) {
+                    AppCallTreeNodeDTO child = childIter.next();
+                    writeNode(child);
+                    stack.add(child.getChildList().iterator());
+                } else {
+                    stack.remove(stack.size() - 1);
+                }
+            }
+        } finally {
+            stack.clear();
+        }
+    }
+
+    private void writeNode(AppCallTreeNodeDTO node) throws IOException {
+        writeStringRef(node.getName());
+        writePerfStats(node.getPerfTimeStats());
+        writeVarInt(node.getChildCount());
+    }
+
+    /** write live node and its sub-tree in pre-order */
+    private void writeSubTree(AppCallTreeNode root) throws IOException {
+        ArrayList<AppCallTreeNode> nextChilds = nextChildStack;
+        try {
+            pushChildren(root, writeNode(root));
+            while (!nextChilds.isEmpty()) {
+                int top = nextChilds.size() - 1;
+                int remaining = remainingChildCountStack[top];
+                if (remaining == 0) {
+                    nextChilds.remove(top);
+                    continue;
+                }
+                AppCallTreeNode child = nextChilds.get(top);
+                nextChilds.set(top, child.getNextSibling());
+                remainingChildCountStack[top] = remaining - 1;
+                pushChildren(child, writeNode(child));
+            }
+        } finally {
+            nextChilds.clear();
+        }
+    }
+
+    private void pushChildren(AppCallTreeNode node, int childCount) {
+        int depth = nextChildStack.size();
+        if (depth == remainingChildCountStack.length) {
+            remainingChildCountStack = Arrays.copyOf(remainingChildCountStack, depth * 2);
+        }
+        nextChildStack.add(node.getFirstChild());
+        remainingChildCountStack[depth] = childCount;
+    }
+
+    /** @return count of children written in node header */
+    private int writeNode(AppCallTreeNode node) throws IOException {
+        writeStringRef(node.getChildName());
+        if (tmpNodeStats == null) {
+            tmpNodeStats = new PerfTimeStats();
+        }
+        node.copyTimeStatsTo(tmpNodeStats);
+        writePerfStats(tmpNodeStats);
+        // children may be added concurrently (at end of sibling list): write only those counted
+        int childCount = 0;
+        for (AppCallTreeNode child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            childCount++;
+        }
+        writeVarInt(childCount);
+        return childCount;
+    }
+
+    private void writePerfStats(PerfTimeStats stats) throws IOException {
+        writeVarInt(stats.getTimingModeMask());
+        PendingPerfCount pending = stats.getPendingCounts();
+        int pendingCount = pending.getPendingCount();
+        writeZigZagInt(pendingCount);
+        if (pendingCount != 0) {
+            writeZigZagLong(pending.getPendingSumStartTime());
+            writeZigZagLong(pending.getPendingSumStartCpuTime());
+        }
+        writeHistogram(stats.getElapsedTimeStats());
+        writeHistogram(stats.getThreadUserTimeStats());
+        writeHistogram(stats.getThreadCpuTimeStats());
+    }
+
+    private void writeHistogram(LongStatsHistogram histo) throws IOException {
+        LongStatsHistogramLayout layout = histo.getLayout();
+        if (layout.equals(currLayout)) {
+            writeVarInt(0);
+        } else {
+            writeVarInt(1);
+            writeVarInt(layout.getUnitShift());
+            writeVarInt(layout.getSubBucketBits());
+            writeVarInt(layout.getMaxValueBits());
+            currLayout = layout;
+        }
+        int slotLen = layout.getSlotLen();
+        if (tmpSlotCounts.length < slotLen) {
+            tmpSlotCounts = new int[slotLen];
+        }
+        int[] slotCounts = tmpSlotCounts;
+        long minValue = histo.getMinValue();
+        long maxValue = histo.getMaxValue();
+        int nonEmptyCount = 0;
+        int fromIndex = 0;
+        if (minValue <= maxValue) {
+            // values are in [min, max]: skip reading other slots
+            fromIndex = layout.valueToSlotIndex(minValue);
+            nonEmptyCount = histo.copyCountsTo(slotCounts, fromIndex, layout.valueToSlotIndex(maxValue) + 1);
+        }
+        writeVarInt(nonEmptyCount);
+        if (nonEmptyCount == 0) {
+            return;
+        }
+        int prevIndex = 0;
+        for (int i = fromIndex, written = 0; written < nonEmptyCount; i++) {
+            int count = slotCounts[i];
+            if (count != 0) {
+                writeVarInt(i - prevIndex);
+                writeVarInt(count);
+                prevIndex = i;
+                written++;
+            }
+        }
+        writeZigZagLong(histo.getSum());
+        writeZigZagLong(minValue);
+        writeVarLong(maxValue - minValue);
+        writeZigZagLong(histo.getTimeReachingMaxValue() - baseTime);
+    }
+
+    private void writeStringRef(String value) throws IOException {
+        Integer index = stringIndexes.get(value);
+        if (index != null) {
+            writeVarInt(index.intValue() + 1);
+        } else {
+            writeVarInt(0);
+            writeString(value);
+            stringIndexes.put(value, stringIndexes.size());
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length + 1);
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (pos == buffer.length) {
+                flushBuffer();
+            }
+            int len = Math.min(buffer.length - pos, bytes.length - offset);
+            System.arraycopy(bytes, offset, buffer, pos, len);
+            pos += len;
+            offset += len;
+        }
+    }
+
+    private void writeZigZagInt(int value) throws IOException {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    private void writeZigZagLong(long value) throws IOException {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        ensureAvailable(MAX_VARLONG_LEN);
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+    }
+
+    private void ensureAvailable(int len) throws IOException {
+        if (pos + len > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos == 0) {
+            return;
+        }
+        if (out != null) {
+            out.write(buffer, 0, pos);
+        } else {
+            outBuffer.put(buffer, 0, pos);
+        }
+        pos = 0;
+    }
+
+    private static long toTime(Date date) {
+        return (date != null)? date.getTime() : 0;
+    }
+
+    /** ByteArrayOutputStream, without synchronized methods */
+    private static final class ByteArrayOutput extends OutputStream {
+        private byte[] buf = new byte[DEFAULT_BUFFER_LEN];
+        private int count;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        private void ensureCapacity(int len) {
+            if (len > buf.length) {
+                byte[] tmp = new byte[Math.max(len, buf.length << 1)];
+                System.arraycopy(buf, 0, tmp, 0, count);
+                buf = tmp;
+            }
+        }
+
+        byte[] toByteArray() {
+            byte[] res = new byte[count];
+            System.arraycopy(buf, 0, res, 0, count);
+            return res;
+        }
+    }
+
+}
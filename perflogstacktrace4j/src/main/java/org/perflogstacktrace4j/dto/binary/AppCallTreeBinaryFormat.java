@@ -0,0 +1,30 @@
+package org.perflogstacktrace4j.dto.binary;
+
+/**
+ * constants of the compact binary format for AppCallTree(DTO) snapshots
+ * (see AppCallTreeBinaryEncoder, AppCallTreeBinaryDecoder)
+ * <BR/>
+ * All integers are varints (unsigned LEB128, 7 bits per byte), signed values are zigzag encoded.
+ * <PRE>
+ * tree:      MAGIC(4 bytes) VERSION name:string fromTime:zlong toTime-fromTime:zlong node
+ * node:      name:stringRef perfStats childCount child-node*   (pre-order)
+ * stringRef: index+1 of a previously written string, or 0 followed by string (appended to the string table)
+ * string:    utf8Length+1 utf8Bytes, or 0 for null
+ * perfStats: timingModeMask pendingCount:zint [pendingSumStartTime:zlong pendingSumStartCpuTime:zlong]
+ *            histogram(elapsed) histogram(threadUser) histogram(threadCpu)
+ * histogram: layoutChange [unitShift subBucketBits maxValueBits] nonEmptySlotCount (slotIndexDelta count)*
+ *            [sum:zlong minValue:zlong maxValue-minValue:long timeReachingMax-toTime:zlong]   (when nonEmptySlotCount != 0)
+ * </PRE>
+ * The string table and current histogram layout are reset for each tree.
+ * Exemplars of max values are not encoded.
+ */
+public final class AppCallTreeBinaryFormat {
+
+    public static final byte[] MAGIC = new byte[] { 'P', 'L', 'S', 'T' };
+
+    public static final int VERSION = 1;
+
+    /* private to force all static */
+    private AppCallTreeBinaryFormat() {}
+
+}
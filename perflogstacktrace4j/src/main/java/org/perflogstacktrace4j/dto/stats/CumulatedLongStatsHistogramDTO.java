@@ -1,61 +1,61 @@
 package org.perflogstacktrace4j.dto.stats;
 
 import org.perflogstacktrace4j.model.stats.LongStatsHistogram;
+import org.perflogstacktrace4j.model.stats.LongStatsHistogramLayout;
 import org.perflogstacktrace4j.utils.ThreadTimeUtils;
 
 
 /**
  * DTO for LongStatsHistogram
  * <br/>
- * values are slightly transformed, by applying partial cumulated sums, and converting nanos to millis
+ * values are slightly transformed, by applying partial cumulated sums, and converting sum from nanos to millis
  * <br/>
  * for total count, use cumulated[N]
- * cumulated[i] = sum for all calls faster than i-th slot
+ * cumulated[i] = sum for all calls faster than i-th slot
  * 
- * cumulated[0] = src.count[0]
- * cumulated[1] = src.count[1] + cumulated[0]
- * cumulated[2] = src.count[2] + cumulated[1]  = src.count[0] + src.count[1] + src.count[2]
+ * cumulated[0] = src.count[0]
+ * cumulated[1] = src.count[1] + cumulated[0]
+ * cumulated[2] = src.count[2] + cumulated[1]  = src.count[0] + src.count[1] + src.count[2]
  * ..
- * cumulated[N] = src.count[N] + cumulated[N-1]
+ * cumulated[N] = src.count[N] + cumulated[N-1]
  * 
+ * slots are defined by the layout of the source histogram (see LongStatsHistogramLayout), 
+ * min/max values and percentiles are in source unit (nanos for time stats)
  * 
- * see BasicTimeStatsLogHistogram
+ * see LongStatsHistogram
  */
 public final class CumulatedLongStatsHistogramDTO {
 
-	/**
-	 * slot count
-	 */
-	public static final int SLOT_LEN = 10;
-	public static final int MAX_SLOT_INDEX = SLOT_LEN - 1;
-	
+	private LongStatsHistogramLayout layout;
 
 	/**
 	 * cumulated occurrence count per elapsed time using histogram slots
-	 * cumulated[0] = src.count[0]
-	 * cumulated[1] = src.count[1] + cumulated[0]
-	 * cumulated[2] = src.count[2] + cumulated[1]  = src.count[0] + src.count[1] + src.count[2]
+	 * cumulated[0] = src.count[0]
+	 * cumulated[1] = src.count[1] + cumulated[0]
+	 * cumulated[2] = src.count[2] + cumulated[1]  = src.count[0] + src.count[1] + src.count[2]
 	 * ..
-	 * cumulated[N] = src.count[N] + cumulated[N-1]
+	 * cumulated[N] = src.count[N] + cumulated[N-1]
 	 */
-	private int[] cumulatedCountSlots = new int[SLOT_LEN];
+	private int[] cumulatedCountSlots;
 
 	/**
-	 * cumulated sum of elapsed time in millis using histogram slots
-	 * 
-	 * cumulated[0] = src.count[0]
-	 * cumulated[1] = src.count[1] + cumulated[0]
-	 * cumulated[2] = src.count[2] + cumulated[1]  = src.count[0] + src.count[1] + src.count[2]
-	 * ..
-	 * cumulated[N] = src.count[N] + cumulated[N-1]
-	 * 
+	 * total sum of elapsed time in millis
 	 */
-	private long[] cumulatedSumSlots = new long[SLOT_LEN];
+	private long totalSum;
+	
+	private long minValue = Long.MAX_VALUE;
 	
+	private long maxValue = Long.MIN_VALUE;
 	
 	// ------------------------------------------------------------------------
 
 	public CumulatedLongStatsHistogramDTO() {
+		this(LongStatsHistogramLayout.getDefault());
+	}
+
+	public CumulatedLongStatsHistogramDTO(LongStatsHistogramLayout layout) {
+		this.layout = layout;
+		this.cumulatedCountSlots = new int[layout.getSlotLen()];
 	}
 
 	public CumulatedLongStatsHistogramDTO(CumulatedLongStatsHistogramDTO src) {
@@ -63,23 +63,24 @@ public final class CumulatedLongStatsHistogramDTO {
 	}
 
 	public CumulatedLongStatsHistogramDTO(LongStatsHistogram src) {
+		this(src.getLayout());
 		incr(src);
 	}
 
 	// ------------------------------------------------------------------------
 
-	/** @return sum of values in all slots */
+	public LongStatsHistogramLayout getLayout() {
+		return layout;
+	}
+
+	/** @return sum of values in all slots, in millis */
 	public long totalSum() {
-		return cumulatedSumSlots[MAX_SLOT_INDEX];
+		return totalSum;
 	}
 
 	/** @return sum of counts in all slots */
 	public int totalCount() {
-		return cumulatedCountSlots[MAX_SLOT_INDEX];
-	}
-
-	public long cumulatedSumAt(int i) {
-		return cumulatedSumSlots[i];
+		return cumulatedCountSlots[cumulatedCountSlots.length - 1];
 	}
 
 	public int cumulatedCountAt(int i) {
@@ -90,26 +91,122 @@ public final class CumulatedLongStatsHistogramDTO {
 		return cumulatedCountSlots;
 	}
 
+	/**
+	 * @deprecated sums are not kept per slot any more (only totalSum()):
+	 * estimated from slot counts and slot middle values, in millis
+	 */
+	@Deprecated
+	public long cumulatedSumAt(int i) {
+		long res = 0;
+		int prevCumulCount = 0;
+		for (int slot = 0; slot <= i; slot++) {
+			int cumulCount = cumulatedCountSlots[slot];
+			res += (cumulCount - prevCumulCount) * layout.slotMidValue(slot);
+			prevCumulCount = cumulCount;
+		}
+		return ThreadTimeUtils.nanosToMillis(res);
+	}
+
+	/** @deprecated see cumulatedSumAt() */
+	@Deprecated
 	public long[] getCumulatedSumSlots() {
-		return cumulatedSumSlots;
+		long[] res = new long[cumulatedCountSlots.length];
+		long cumulSum = 0;
+		int prevCumulCount = 0;
+		for (int slot = 0; slot < res.length; slot++) {
+			int cumulCount = cumulatedCountSlots[slot];
+			cumulSum += (cumulCount - prevCumulCount) * layout.slotMidValue(slot);
+			prevCumulCount = cumulCount;
+			res[slot] = ThreadTimeUtils.nanosToMillis(cumulSum);
+		}
+		return res;
 	}
-	
+
+	public long getMinValue() {
+		return minValue;
+	}
+
+	public long getMaxValue() {
+		return maxValue;
+	}
+
+	/**
+	 * @param percentile in [0, 100]
+	 * @return upper bound of the slot containing the value at percentile (bounded by max value), or 0 when empty
+	 */
+	public long getValueAtPercentile(double percentile) {
+		int total = totalCount();
+		if (total == 0) {
+			return 0;
+		}
+		double p = Math.min(100.0, Math.max(0.0, percentile));
+		long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+		int index = cumulatedCountSlots.length - 1;
+		for (int i = 0; i < cumulatedCountSlots.length; i++) {
+			if (cumulatedCountSlots[i] >= rank) {
+				index = i;
+				break;
+			}
+		}
+		return Math.min(layout.slotTo(index), maxValue);
+	}
+
+	public long getP50() {
+		return getValueAtPercentile(50.0);
+	}
+
+	public long getP90() {
+		return getValueAtPercentile(90.0);
+	}
+
+	public long getP99() {
+		return getValueAtPercentile(99.0);
+	}
+
+	public long getP999() {
+		return getValueAtPercentile(99.9);
+	}
+
+	/**
+	 * add counts of <code>src</code>
+	 * when layouts differ, src slots are re-bucketed using their lowest value
+	 */
 	public void incr(LongStatsHistogram src) {
-		int cumulCount = 0;
-		long cumulSum = 0;
-		for (int i = 0; i < SLOT_LEN; i++) {
-			cumulCount += src.getCount(i);
-			cumulSum += ThreadTimeUtils.nanosToMillis(src.getSum(i));
-			cumulatedCountSlots[i] = cumulCount;
-			cumulatedSumSlots[i] = cumulSum;
+		LongStatsHistogramLayout srcLayout = src.getLayout();
+		boolean sameLayout = layout.equals(srcLayout);
+		int srcSlotLen = srcLayout.getSlotLen();
+		int srcIndex = 0;
+		int srcCumulCount = 0;
+		for (int i = 0; i < cumulatedCountSlots.length; i++) {
+			while (srcIndex < srcSlotLen 
+					&& (sameLayout? srcIndex : layout.valueToSlotIndex(srcLayout.slotFrom(srcIndex))) <= i) {
+				srcCumulCount += src.getCount(srcIndex);
+				srcIndex++;
+			}
+			cumulatedCountSlots[i] += srcCumulCount;
 		}
+		totalSum += ThreadTimeUtils.nanosToMillis(src.getSum());
+		minValue = Math.min(minValue, src.getMinValue());
+		maxValue = Math.max(maxValue, src.getMaxValue());
 	}
 
 	public void incr(CumulatedLongStatsHistogramDTO src) {
-		for (int i = 0; i < SLOT_LEN; i++) {
-			cumulatedCountSlots[i] += src.cumulatedCountSlots[i];
-			cumulatedSumSlots[i] += src.cumulatedSumSlots[i];
+		LongStatsHistogramLayout srcLayout = src.layout;
+		boolean sameLayout = layout.equals(srcLayout);
+		int srcSlotLen = srcLayout.getSlotLen();
+		int srcIndex = 0;
+		int srcCumulCount = 0;
+		for (int i = 0; i < cumulatedCountSlots.length; i++) {
+			while (srcIndex < srcSlotLen 
+					&& (sameLayout? srcIndex : layout.valueToSlotIndex(srcLayout.slotFrom(srcIndex))) <= i) {
+				srcCumulCount = src.cumulatedCountSlots[srcIndex];
+				srcIndex++;
+			}
+			cumulatedCountSlots[i] += srcCumulCount;
 		}
+		totalSum += src.totalSum;
+		minValue = Math.min(minValue, src.minValue);
+		maxValue = Math.max(maxValue, src.maxValue);
 	}
 
 	@Override /* java.lang.Object */
@@ -122,8 +219,11 @@ public final class CumulatedLongStatsHistogramDTO {
 	}
 
 	public void set(CumulatedLongStatsHistogramDTO src) {
-		System.arraycopy(src.cumulatedCountSlots, 0, cumulatedCountSlots, 0, SLOT_LEN);
-		System.arraycopy(src.cumulatedSumSlots, 0, cumulatedSumSlots, 0, SLOT_LEN);
+		layout = src.layout;
+		cumulatedCountSlots = src.cumulatedCountSlots.clone();
+		totalSum = src.totalSum;
+		minValue = src.minValue;
+		maxValue = src.maxValue;
 	}
 
 	public boolean compareHasChangeCount(CumulatedLongStatsHistogramDTO cmp) {
@@ -138,6 +238,7 @@ public final class CumulatedLongStatsHistogramDTO {
 		return "CumulatedPerfStatsHistogram ["
 				+ "total count:" + totalCount
 				+ ", avg:" + avg
+				+ ((totalCount != 0)? ", p50:" + getP50() + ", p99:" + getP99() + ", max:" + maxValue : "")
 				+ "]";
 	}
 
@@ -1,5 +1,6 @@
 package org.perflogstacktrace4j.dto.stats;
 
+import org.perflogstacktrace4j.model.stats.LongStatsHistogramLayout;
 import org.perflogstacktrace4j.model.stats.PerfTimeStats;
 
 /**
@@ -13,6 +14,9 @@ public final class PerfStatsDTO {
 	private CumulatedLongStatsHistogramDTO threadUserTimeStats = new CumulatedLongStatsHistogramDTO();
 	private CumulatedLongStatsHistogramDTO threadCpuTimeStats = new CumulatedLongStatsHistogramDTO();
 	
+	/** cf PerfTimeStats.getTimingModeMask() */
+	private int timingModeMask;
+	
 	// ------------------------------------------------------------------------
 
 	public PerfStatsDTO() {
@@ -23,6 +27,10 @@ public final class PerfStatsDTO {
 	}
 
 	public PerfStatsDTO(PerfTimeStats src) {
+		LongStatsHistogramLayout layout = src.getLayout();
+		elapsedTimeStats = new CumulatedLongStatsHistogramDTO(layout);
+		threadUserTimeStats = new CumulatedLongStatsHistogramDTO(layout);
+		threadCpuTimeStats = new CumulatedLongStatsHistogramDTO(layout);
 		incr(src);
 	}
 
@@ -52,10 +60,19 @@ public final class PerfStatsDTO {
 		return pendingCounts.getPendingSumStartTime();
 	}
 
+	public int getTimingModeMask() {
+		return timingModeMask;
+	}
+
+	public void setTimingModeMask(int p) {
+		this.timingModeMask = p;
+	}
+
 	public void set(PerfStatsDTO src) {
 		elapsedTimeStats.set(src.elapsedTimeStats);
 		threadUserTimeStats.set(src.threadUserTimeStats);
 		threadCpuTimeStats.set(src.threadCpuTimeStats);
+		timingModeMask = src.timingModeMask;
 
 		pendingCounts.set(src.pendingCounts);
 	}
@@ -64,6 +81,7 @@ public final class PerfStatsDTO {
 		elapsedTimeStats.incr(src.getElapsedTimeStats());
 		threadUserTimeStats.incr(src.getThreadUserTimeStats());
 		threadCpuTimeStats.incr(src.getThreadCpuTimeStats());
+		timingModeMask |= src.getTimingModeMask();
 
 		pendingCounts.incr(src.getPendingCounts());
 	}
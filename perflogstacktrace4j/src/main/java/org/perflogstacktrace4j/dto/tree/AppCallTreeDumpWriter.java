@@ -0,0 +1,378 @@
+package org.perflogstacktrace4j.dto.tree;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.perflogstacktrace4j.model.stats.LongStatsHistogram;
+import org.perflogstacktrace4j.model.stats.PerfTimeStats;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+import org.perflogstacktrace4j.utils.JsonUtils;
+
+/**
+ * streaming dump of a tree (AppCallTreeNodeDTO, or live AppCallTreeNode without DTO copy), in CSV or JSON,
+ * written node by node to an Appendable (Writer, StringBuilder..)
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * AppCallTreeDumpWriter dumpWriter = new AppCallTreeDumpWriter(writer, AppCallTreeDumpWriter.Format.JSON);
+ * dumpWriter.setMinTotalTime(TimeUnit.MILLISECONDS.toNanos(100));
+ * dumpWriter.setMaxChildCount(20);
+ * dumpWriter.write(appCallTree);
+ * </PRE>
+ *
+ * The tree is walked iteratively (explicit stack of frames, no recursion), so deep trees do not overflow the thread stack.
+ * <BR/>
+ * Pruning options: a pruned node is not written, neither its sub-tree
+ * <UL>
+ * <LI>minCount, minTotalTime: nodes with less calls or less total elapsed time are pruned
+ *   (as total time of a child is included in its parent, minTotalTime prunes exactly)</LI>
+ * <LI>maxChildCount: only the top-N children by total elapsed time are written (sorted by decreasing total time), others are pruned</LI>
+ * <LI>maxDepth: children deeper than maxDepth levels below the dumped node are not written (-1 for unlimited)</LI>
+ * </UL>
+ *
+ * CSV format is the same as recursiveToStringDump() (';' separated, see CSV_HEADER), lines of nodes without calls are skipped.
+ * JSON format is a nested object per node: <code>{"name":..,"path":..,"count":..,"sum":..,"avg":..,"max":..,"children":[..]}</code>
+ */
+public class AppCallTreeDumpWriter {
+
+    public static enum Format {
+        CSV,
+        JSON
+    }
+
+    public static final String CSV_HEADER = "Indent;Path;Name"
+            + ";count;SumTime"
+            + ";AvgTime;AvgThreadUserTime;AvgThreadCpuTime"
+            + ";Max;DateReachingMax;StackReachingMax"
+            + "\n";
+
+    private static final int CSV_INDENT_INCR = 4;
+
+    private final Appendable out;
+    private final Format format;
+
+    private int minCount;
+    private long minTotalTime;
+    private int maxChildCount = -1;
+    private int maxDepth = -1;
+
+    private long writtenNodeCount;
+    private long prunedNodeCount;
+
+    // reused buffers
+    private final StringBuilder path = new StringBuilder();
+    private final StringBuilder numberBuffer = new StringBuilder(32);
+    private final PerfTimeStats tmpStats = new PerfTimeStats();
+
+    /** frames of nodes being written, indexed by depth */
+    private final ArrayList<Frame> frames = new ArrayList<Frame>();
+
+    /**
+     * node being written, with its selected children to write
+     */
+    private static final class Frame {
+        Object[] children = new Object[8];
+        long[] childSums = new long[8];
+        int childCount;
+        int nextChild;
+        int parentPathLen;
+
+        void add(int index, Object child, long sum) {
+            if (childCount == children.length) {
+                children = Arrays.copyOf(children, childCount * 2);
+                childSums = Arrays.copyOf(childSums, childCount * 2);
+            }
+            System.arraycopy(children, index, children, index + 1, childCount - index);
+            System.arraycopy(childSums, index, childSums, index + 1, childCount - index);
+            children[index] = child;
+            childSums[index] = sum;
+            childCount++;
+        }
+
+        void clear() {
+            Arrays.fill(children, 0, childCount, null);
+            childCount = 0;
+            nextChild = 0;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    public AppCallTreeDumpWriter(Appendable out, Format format) {
+        this.out = out;
+        this.format = format;
+    }
+
+    // ------------------------------------------------------------------------
+
+    public int getMinCount() {
+        return minCount;
+    }
+
+    public void setMinCount(int minCount) {
+        this.minCount = minCount;
+    }
+
+    public long getMinTotalTime() {
+        return minTotalTime;
+    }
+
+    /** @param minTotalTime min sum of elapsed time, in nanos */
+    public void setMinTotalTime(long minTotalTime) {
+        this.minTotalTime = minTotalTime;
+    }
+
+    public int getMaxChildCount() {
+        return maxChildCount;
+    }
+
+    /** @param maxChildCount max count of children written per node (top-N by total time), or -1 for all */
+    public void setMaxChildCount(int maxChildCount) {
+        this.maxChildCount = maxChildCount;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /** @param maxDepth max levels of children below the dumped node, or -1 for unlimited */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /** @return count of nodes written (including CSV nodes without calls, not having a line) */
+    public long getWrittenNodeCount() {
+        return writtenNodeCount;
+    }
+
+    /** @return count of pruned nodes (not counting nodes of their sub-trees) */
+    public long getPrunedNodeCount() {
+        return prunedNodeCount;
+    }
+
+    /** write CSV header line (nothing for JSON) */
+    public void writeHeader() throws IOException {
+        if (format == Format.CSV) {
+            out.append(CSV_HEADER);
+        }
+    }
+
+    /** write root node of live tree and its sub-tree */
+    public void write(AppCallTree tree) throws IOException {
+        writeNode(tree.getRootNode(), null, 0);
+    }
+
+    /** write live node and its sub-tree, reading stats directly from the node (no AppCallTreeNodeDTO copy) */
+    public void write(AppCallTreeNode node) throws IOException {
+        writeNode(node, null, 0);
+    }
+
+    public void write(AppCallTreeNodeDTO node) throws IOException {
+        writeNode(node, null, 0);
+    }
+
+    /**
+     * @param node AppCallTreeNodeDTO or AppCallTreeNode
+     * @param parentPath path prefix of node, or null
+     * @param indent CSV indent of node
+     */
+    /*pp*/ void writeNode(Object node, String parentPath, int indent) throws IOException {
+        path.setLength(0);
+        if (parentPath != null) {
+            path.append(parentPath);
+        }
+        int depth = 0;
+        visitNode(node, 0, indent);
+        while (depth >= 0) {
+            Frame frame = frames.get(depth);
+            if (frame.nextChild < frame.childCount) {
+                Object child = frame.children[frame.nextChild++];
+                if (format == Format.JSON && frame.nextChild > 1) {
+                    out.append(',');
+                }
+                depth++;
+                visitNode(child, depth, indent + depth * CSV_INDENT_INCR);
+            } else {
+                if (format == Format.JSON) {
+                    out.append("]}");
+                }
+                path.setLength(frame.parentPathLen);
+                frame.clear();
+                depth--;
+            }
+        }
+        if (format == Format.JSON) {
+            out.append('\n');
+        }
+    }
+
+    // internal
+    // ------------------------------------------------------------------------
+
+    /**
+     * write node, then select its children to write in frame of depth
+     */
+    private void visitNode(Object node, int depth, int indent) throws IOException {
+        String name = nameOf(node);
+        int parentPathLen = path.length();
+        if (parentPathLen != 0) {
+            path.append('/');
+        }
+        path.append(name);
+
+        if (frames.size() == depth) {
+            frames.add(new Frame());
+        }
+        Frame frame = frames.get(depth);
+        frame.parentPathLen = parentPathLen;
+
+        PerfTimeStats stats = statsOf(node);
+        if (format == Format.CSV) {
+            writeCsvLine(name, stats, indent);
+        } else {
+            writeJsonNodeStart(name, stats);
+        }
+        writtenNodeCount++;
+
+        if (maxDepth == -1 || depth < maxDepth) {
+            if (node instanceof AppCallTreeNodeDTO) {
+                for (AppCallTreeNodeDTO child : ((AppCallTreeNodeDTO) node).getChildList()) {
+                    selectChild(frame, child, child.getPerfTimeStats());
+                }
+            } else {
+                for (AppCallTreeNode child = ((AppCallTreeNode) node).getFirstChild(); child != null; child = child.getNextSibling()) {
+                    child.copyTimeStatsTo(tmpStats);
+                    selectChild(frame, child, tmpStats);
+                }
+            }
+        }
+    }
+
+    /**
+     * add child to frame, unless pruned by minCount / minTotalTime / maxChildCount
+     */
+    private void selectChild(Frame frame, Object child, PerfTimeStats childStats) {
+        LongStatsHistogram elapsedStats = childStats.getElapsedTimeStats();
+        long sum = elapsedStats.getSum();
+        if (sum < minTotalTime || (minCount > 0 && elapsedStats.getCount() < minCount)) {
+            prunedNodeCount++;
+            return;
+        }
+        if (maxChildCount < 0) {
+            frame.add(frame.childCount, child, sum);
+            return;
+        }
+        // keep top-N children sorted by decreasing sum
+        int count = frame.childCount;
+        if (count == maxChildCount) {
+            if (count == 0 || sum <= frame.childSums[count - 1]) {
+                prunedNodeCount++;
+                return;
+            }
+            frame.children[count - 1] = null;
+            frame.childCount = --count;
+            prunedNodeCount++;
+        }
+        int index = count;
+        while (index > 0 && frame.childSums[index - 1] < sum) {
+            index--;
+        }
+        frame.add(index, child, sum);
+    }
+
+    private static String nameOf(Object node) {
+        return (node instanceof AppCallTreeNodeDTO)? ((AppCallTreeNodeDTO) node).getName() : ((AppCallTreeNode) node).getChildName();
+    }
+
+    private PerfTimeStats statsOf(Object node) {
+        if (node instanceof AppCallTreeNodeDTO) {
+            return ((AppCallTreeNodeDTO) node).getPerfTimeStats();
+        }
+        ((AppCallTreeNode) node).copyTimeStatsTo(tmpStats);
+        return tmpStats;
+    }
+
+    private void writeCsvLine(String name, PerfTimeStats stats, int indent) throws IOException {
+        LongStatsHistogram timeStats = stats.getElapsedTimeStats();
+        long count = timeStats.getCount();
+        if (count == 0) {
+            return;
+        }
+        for (int i = 0; i < indent; i++) {
+            out.append(' ');
+        }
+        out.append(";\"").append(path).append('"');
+        out.append(";\"").append(name).append('"');
+        out.append(';');
+        appendNumber(count);
+        out.append(';');
+        appendNumber(timeStats.getSum());
+        out.append(';');
+        appendNumber(timeStats.getAverage());
+        out.append(';');
+        appendNumber(stats.getThreadUserTimeStats().getAverage());
+        out.append(';');
+        appendNumber(stats.getThreadCpuTimeStats().getAverage());
+        out.append(';');
+        appendNumber(timeStats.getMaxValue());
+        out.append(';').append(new Date(timeStats.getTimeReachingMaxValue()).toString());
+        out.append(";\"").append(String.valueOf(timeStats.getStackReachingMaxValue())).append('"');
+        out.append('\n');
+    }
+
+    private void writeJsonNodeStart(String name, PerfTimeStats stats) throws IOException {
+        LongStatsHistogram timeStats = stats.getElapsedTimeStats();
+        long count = timeStats.getCount();
+        out.append("{\"name\":");
+        JsonUtils.appendJsonString(out, name);
+        out.append(",\"path\":");
+        JsonUtils.appendJsonString(out, path);
+        out.append(",\"count\":");
+        appendNumber(count);
+        if (count != 0) {
+            out.append(",\"sum\":");
+            appendNumber(timeStats.getSum());
+            out.append(",\"avg\":");
+            appendNumber(timeStats.getAverage());
+            LongStatsHistogram userTimeStats = stats.getThreadUserTimeStats();
+            LongStatsHistogram cpuTimeStats = stats.getThreadCpuTimeStats();
+            if (cpuTimeStats.getMinValue() <= cpuTimeStats.getMaxValue()) {
+                out.append(",\"avgUser\":");
+                appendNumber(userTimeStats.getAverage());
+                out.append(",\"avgCpu\":");
+                appendNumber(cpuTimeStats.getAverage());
+            }
+            out.append(",\"max\":");
+            appendNumber(timeStats.getMaxValue());
+            out.append(",\"timeReachingMax\":");
+            appendNumber(timeStats.getTimeReachingMaxValue());
+            String stackReachingMax = timeStats.getStackReachingMaxValue();
+            if (stackReachingMax != null) {
+                out.append(",\"stackReachingMax\":");
+                JsonUtils.appendJsonString(out, stackReachingMax);
+            }
+        }
+        int pendingCount = stats.getPendingCount();
+        if (pendingCount != 0) {
+            out.append(",\"pending\":");
+            appendNumber(pendingCount);
+        }
+        out.append(",\"children\":[");
+    }
+
+    private void appendNumber(long value) throws IOException {
+        numberBuffer.setLength(0);
+        numberBuffer.append(value);
+        out.append(numberBuffer);
+    }
+
+    private void appendNumber(double value) throws IOException {
+        numberBuffer.setLength(0);
+        numberBuffer.append(value);
+        out.append(numberBuffer);
+    }
+
+}
@@ -0,0 +1,216 @@
+package org.perflogstacktrace4j.dto.tree;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * parallel merge of many AppCallTreeDTO snapshots (typically from many JVMs), using fork-join
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * AppCallTreeDTO merged = new AppCallTreeMerger().merge(snapshots);
+ * </PRE>
+ *
+ * Trees are reduced pairwise (tree of merges, each half reduced in a fork-join task),
+ * and the merge of 2 trees is itself split in sub-tree tasks for the first levels (see setForkDepth()).
+ * Leaf tasks merge a chunk of trees sequentially into a new tree (a few chunks per pool thread):
+ * merging pairs of input trees into new intermediate trees would double the work, and allocate a lot.
+ * Below, sub-trees are merged iteratively (explicit stack, no recursion), so deep trees do not overflow the thread stack.
+ * <BR/>
+ * Node stats are merged with PerfTimeStats.incr(): pending counts, histograms counts, sums, min and max.
+ * Input trees are not modified.
+ */
+public class AppCallTreeMerger {
+
+    public static final int DEFAULT_FORK_DEPTH = 1;
+
+    /** count of leaf reduce tasks per pool thread, see TreeReduceTask */
+    private static final int LEAF_TASKS_PER_THREAD = 4;
+
+    /** min count of children of a node, to merge them in parallel tasks */
+    public static final int DEFAULT_MIN_FORK_CHILD_COUNT = 4;
+
+    private final ForkJoinPool pool;
+
+    private int forkDepth = DEFAULT_FORK_DEPTH;
+    private int minForkChildCount = DEFAULT_MIN_FORK_CHILD_COUNT;
+
+    // ------------------------------------------------------------------------
+
+    public AppCallTreeMerger() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public AppCallTreeMerger(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // ------------------------------------------------------------------------
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public int getForkDepth() {
+        return forkDepth;
+    }
+
+    /** @param forkDepth count of node levels merged using 1 task per child, 0 for merging each pair of trees in a single task */
+    public void setForkDepth(int forkDepth) {
+        this.forkDepth = forkDepth;
+    }
+
+    public int getMinForkChildCount() {
+        return minForkChildCount;
+    }
+
+    public void setMinForkChildCount(int minForkChildCount) {
+        this.minForkChildCount = minForkChildCount;
+    }
+
+    /**
+     * @return new tree, merge of <code>trees</code>: name of first tree, from/to snapshot dates as min/max of trees dates
+     */
+    public AppCallTreeDTO merge(List<AppCallTreeDTO> trees) {
+        AppCallTreeDTO res = new AppCallTreeDTO();
+        if (trees.isEmpty()) {
+            res.setRootNode(new AppCallTreeNodeDTO(""));
+            return res;
+        }
+        AppCallTreeNodeDTO[] roots = new AppCallTreeNodeDTO[trees.size()];
+        Date fromDate = null, toDate = null;
+        for (int i = 0; i < roots.length; i++) {
+            AppCallTreeDTO tree = trees.get(i);
+            roots[i] = tree.getRootNode();
+            Date treeFromDate = tree.getFromSnapshotDate();
+            if (treeFromDate != null && (fromDate == null || treeFromDate.before(fromDate))) {
+                fromDate = treeFromDate;
+            }
+            Date treeToDate = tree.getToSnapshotDate();
+            if (treeToDate != null && (toDate == null || treeToDate.after(toDate))) {
+                toDate = treeToDate;
+            }
+        }
+        res.setName(trees.get(0).getName());
+        res.setFromSnapshotDate(fromDate);
+        res.setToSnapshotDate(toDate);
+        res.setRootNode(pool.invoke(new TreeReduceTask(roots, 0, roots.length, leafTreeCount(roots.length))));
+        return res;
+    }
+
+    /**
+     * @return new node, merge of <code>nodes</code> and their sub-trees
+     */
+    public AppCallTreeNodeDTO mergeNodes(List<AppCallTreeNodeDTO> nodes) {
+        AppCallTreeNodeDTO[] array = nodes.toArray(new AppCallTreeNodeDTO[nodes.size()]);
+        if (array.length == 0) {
+            return new AppCallTreeNodeDTO("");
+        }
+        return pool.invoke(new TreeReduceTask(array, 0, array.length, leafTreeCount(array.length)));
+    }
+
+    /**
+     * merge (add) <code>src</code> sub-tree into <code>dest</code>, sequentially in current thread, without recursion
+     */
+    public static void mergeInto(AppCallTreeNodeDTO dest, AppCallTreeNodeDTO src) {
+        ArrayList<AppCallTreeNodeDTO> stack = new ArrayList<AppCallTreeNodeDTO>();
+        stack.add(dest);
+        stack.add(src);
+        while (!stack.isEmpty()) {
+            AppCallTreeNodeDTO currSrc = stack.remove(stack.size() - 1);
+            AppCallTreeNodeDTO currDest = stack.remove(stack.size() - 1);
+            currDest.getPerfTimeStats().incr(currSrc.getPerfTimeStats());
+            if (currSrc.getChildCount() != 0) {
+                for (AppCallTreeNodeDTO srcChild : currSrc.getChildList()) {
+                    stack.add(currDest.findOrCreateChild(srcChild.getName()));
+                    stack.add(srcChild);
+                }
+            }
+        }
+    }
+
+    // internal
+    // ------------------------------------------------------------------------
+
+    private int leafTreeCount(int treeCount) {
+        int leafTaskCount = pool.getParallelism() * LEAF_TASKS_PER_THREAD;
+        return Math.max(1, (treeCount + leafTaskCount - 1) / leafTaskCount);
+    }
+
+    /**
+     * pairwise reduction of roots[from, to), returning a new node
+     */
+    private class TreeReduceTask extends RecursiveTask<AppCallTreeNodeDTO> {
+        private static final long serialVersionUID = 1L;
+
+        private final AppCallTreeNodeDTO[] roots;
+        private final int from;
+        private final int to;
+        private final int leafTreeCount;
+
+        TreeReduceTask(AppCallTreeNodeDTO[] roots, int from, int to, int leafTreeCount) {
+            this.roots = roots;
+            this.from = from;
+            this.to = to;
+            this.leafTreeCount = leafTreeCount;
+        }
+
+        @Override
+        protected AppCallTreeNodeDTO compute() {
+            if (to - from <= leafTreeCount) {
+                AppCallTreeNodeDTO res = new AppCallTreeNodeDTO(roots[from].getName());
+                for (int i = from; i < to; i++) {
+                    new NodeMergeTask(res, roots[i], 0).compute();
+                }
+                return res;
+            }
+            int mid = (from + to) >>> 1;
+            TreeReduceTask leftTask = new TreeReduceTask(roots, from, mid, leafTreeCount);
+            leftTask.fork();
+            AppCallTreeNodeDTO right = new TreeReduceTask(roots, mid, to, leafTreeCount).compute();
+            AppCallTreeNodeDTO left = leftTask.join();
+            // left and right are new nodes (not inputs): merge right into left
+            new NodeMergeTask(left, right, 0).compute();
+            return left;
+        }
+    }
+
+    /**
+     * merge src sub-tree into dest, forking 1 task per child on first levels
+     */
+    private class NodeMergeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final AppCallTreeNodeDTO dest;
+        private final AppCallTreeNodeDTO src;
+        private final int depth;
+
+        NodeMergeTask(AppCallTreeNodeDTO dest, AppCallTreeNodeDTO src, int depth) {
+            this.dest = dest;
+            this.src = src;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            int childCount = src.getChildCount();
+            if (depth >= forkDepth || childCount < minForkChildCount) {
+                mergeInto(dest, src);
+                return;
+            }
+            dest.getPerfTimeStats().incr(src.getPerfTimeStats());
+            // find or create dest children sequentially (childMap is not thread-safe), then merge each child in a task
+            NodeMergeTask[] childTasks = new NodeMergeTask[childCount];
+            int i = 0;
+            for (AppCallTreeNodeDTO srcChild : src.getChildList()) {
+                childTasks[i++] = new NodeMergeTask(dest.findOrCreateChild(srcChild.getName()), srcChild, depth + 1);
+            }
+            invokeAll(childTasks);
+        }
+    }
+
+}
@@ -1,13 +1,12 @@
 package org.perflogstacktrace4j.dto.tree;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 
-import org.perflogstacktrace4j.model.stats.LongStatsHistogram;
 import org.perflogstacktrace4j.model.stats.PerfTimeStats;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
@@ -90,13 +89,11 @@ public class AppCallTreeNodeDTO implements Serializable {
     }
     
 
+    /**
+     * add stats of src sub-tree, iteratively (see AppCallTreeMerger for merging many trees in parallel)
+     */
     public void addRecursive(AppCallTreeNodeDTO src) {
-        perfTimeStats.incr(src.perfTimeStats);
-
-        for(AppCallTreeNodeDTO srcChild : src.childMap.values()) {
-            AppCallTreeNodeDTO child = findOrCreateChild(srcChild.name);
-            child.addRecursive(srcChild);
-        }
+        AppCallTreeMerger.mergeInto(this, src);
     }
 
     // delegate getter ...
@@ -130,52 +127,19 @@ public class AppCallTreeNodeDTO implements Serializable {
     }
 
     public static void dumpHeaderLine(StringBuilder sb) {
-        sb.append("Indent;Path;Name" 
-                + ";count;SumTime" 
-                + ";AvgTime;AvgThreadUserTime;AvgThreadCpuTime" 
-                + ";Max;DateReachingMax;StackReachingMax"
-                + "\n"
-                );
+        sb.append(AppCallTreeDumpWriter.CSV_HEADER);
     }
     
+    /**
+     * dump as CSV lines, see AppCallTreeDumpWriter for streaming dumps to a Writer, in CSV or JSON, with pruning options
+     */
     public void recursiveToStringDump(StringBuilder sb, String parentPath, int indent, int maxRecurseLevel) {
-    	LongStatsHistogram timeStats = perfTimeStats.getElapsedTimeStats();
-    	LongStatsHistogram threadUserTimeStats = perfTimeStats.getThreadUserTimeStats();
-    	LongStatsHistogram threadCpuTimeStats = perfTimeStats.getThreadCpuTimeStats();
-        String currPath = ((parentPath != null && parentPath.length() != 0)? parentPath + "/" : "") + name; 
-
-        long count = timeStats.getCount();
-        if (count != 0) {
-            printIndent(sb, indent);
-            sb.append(";\"" + currPath + "\""
-                    + ";\"" + name + "\""
-                    
-                    + ";" + count
-                    + ";" + timeStats.getSum()
-                    
-                    + ";" + timeStats.getAverage()
-                    + ";" + threadUserTimeStats.getAverage()
-                    + ";" + threadCpuTimeStats.getAverage()
-                    
-                    + ";" + timeStats.getMaxValue()
-                    + ";" + new Date(timeStats.getTimeReachingMaxValue())
-                    + ";\"" + timeStats.getStackReachingMaxValue() + "\""
-                    
-                    + "\n");
-        }
-        
-        if (maxRecurseLevel == -1 || maxRecurseLevel > 0) {
-            int childMaxRecurseLevel = (maxRecurseLevel == -1)? -1 : (maxRecurseLevel-1);
-            int childIndent = indent + 4;
-            for(AppCallTreeNodeDTO child : childMap.values()) {
-                child.recursiveToStringDump(sb, currPath, childIndent, childMaxRecurseLevel); // *** recurse ***
-            }
-        }
-    }
-
-    private static void printIndent(StringBuilder sb, int indent) {
-        for(int i = 0; i < indent; i++) {
-            sb.append(' ');
+        AppCallTreeDumpWriter dumpWriter = new AppCallTreeDumpWriter(sb, AppCallTreeDumpWriter.Format.CSV);
+        dumpWriter.setMaxDepth(maxRecurseLevel);
+        try {
+            dumpWriter.writeNode(this, parentPath, indent);
+        } catch(IOException ex) {
+            throw new IllegalStateException("can not occur with StringBuilder", ex);
         }
     }
 
@@ -0,0 +1,210 @@
+package org.perflogstacktrace4j.live;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.perflogstacktrace4j.model.CallStackSnapshot;
+
+/**
+ * applicative thread dump: snapshots of all live CallStacks of a LiveCallStackRegistry, grouped by identical stack path
+ * (like a jstack dump, but with application elements, their elapsed time, params and inherited props)
+ * <BR/>
+ * sample usage, to triage thread pool exhaustion:
+ * <PRE>
+ * AppStackDump dump = AppStackDump.capture(registry, true);
+ * new AppStackDumpWriter(writer, AppStackDumpWriter.Format.TEXT).write(dump);
+ * </PRE>
+ *
+ * Stacks are read with CallStack.snapshot(): no safepoint, no Thread.getAllStackTraces(), applicative threads are never blocked,
+ * so capturing thousands of threads takes a few milliseconds.
+ * Groups are sorted by decreasing thread count, and threads of a group by decreasing elapsed time of their deepest timed element.
+ */
+public final class AppStackDump {
+
+	private final long dumpTimeMillis;
+	private final long captureNanos;
+	private final int threadCount;
+	private final List<Group> groups;
+
+	/**
+	 * snapshots having the same path (same className:name elements, from depth 1)
+	 */
+	public static final class Group {
+		private final List<CallStackSnapshot> snapshots = new ArrayList<CallStackSnapshot>();
+
+		/*pp*/ Group() {
+		}
+
+		/** @return count of threads (or unbound CallStacks) */
+		public int getCount() {
+			return snapshots.size();
+		}
+
+		/** @return snapshots, sorted by decreasing elapsed time (see AppStackDump.getElapsedTime()) */
+		public List<CallStackSnapshot> getSnapshots() {
+			return Collections.unmodifiableList(snapshots);
+		}
+
+		/** @return snapshot of first thread, giving the path (element class names and names) of the group */
+		public CallStackSnapshot getFirst() {
+			return snapshots.get(0);
+		}
+
+		public String getPathString() {
+			return getFirst().getPathString();
+		}
+
+		/** @return max elapsed time of deepest timed element, in nanos, -1 if none timed */
+		public long getMaxElapsedTime() {
+			return getElapsedTime(getFirst());
+		}
+
+		@Override
+		public String toString() {
+			return "Group[" + snapshots.size() + " " + getPathString() + "]";
+		}
+	}
+
+	/**
+	 * key of snapshot path for grouping: compare element class names and names, without building path strings
+	 */
+	private static final class PathKey {
+		private final CallStackSnapshot snapshot;
+		private final int hash;
+
+		PathKey(CallStackSnapshot snapshot) {
+			this.snapshot = snapshot;
+			int h = 1;
+			for (int i = 0, depth = snapshot.getDepth(); i < depth; i++) {
+				CallStackSnapshot.Elt elt = snapshot.getEltAt(i);
+				h = 31 * (31 * h + elt.getClassName().hashCode()) + elt.getName().hashCode();
+			}
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof PathKey)) {
+				return false;
+			}
+			PathKey other = (PathKey) obj;
+			int depth = snapshot.getDepth();
+			if (hash != other.hash || depth != other.snapshot.getDepth()) {
+				return false;
+			}
+			for (int i = 0; i < depth; i++) {
+				CallStackSnapshot.Elt elt = snapshot.getEltAt(i);
+				CallStackSnapshot.Elt otherElt = other.snapshot.getEltAt(i);
+				if (!elt.getName().equals(otherElt.getName()) || !elt.getClassName().equals(otherElt.getClassName())) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final Comparator<CallStackSnapshot> DECREASING_ELAPSED_COMPARATOR = new Comparator<CallStackSnapshot>() {
+		@Override
+		public int compare(CallStackSnapshot o1, CallStackSnapshot o2) {
+			return Long.compare(getElapsedTime(o2), getElapsedTime(o1));
+		}
+	};
+
+	private static final Comparator<Group> DECREASING_COUNT_COMPARATOR = new Comparator<Group>() {
+		@Override
+		public int compare(Group o1, Group o2) {
+			int res = Integer.compare(o2.getCount(), o1.getCount());
+			if (res == 0) {
+				res = Long.compare(o2.getMaxElapsedTime(), o1.getMaxElapsedTime());
+			}
+			return res;
+		}
+	};
+
+	// ------------------------------------------------------------------------
+
+	/*pp*/ AppStackDump(long dumpTimeMillis, long captureNanos, int threadCount, List<Group> groups) {
+		this.dumpTimeMillis = dumpTimeMillis;
+		this.captureNanos = captureNanos;
+		this.threadCount = threadCount;
+		this.groups = groups;
+	}
+
+	/**
+	 * snapshot non empty live CallStacks of <code>registry</code>, and group them by path
+	 * @param withParams true to copy also params and inheritable props of elements
+	 */
+	public static AppStackDump capture(LiveCallStackRegistry registry, boolean withParams) {
+		long dumpTimeMillis = System.currentTimeMillis();
+		long startNanos = System.nanoTime();
+		List<CallStackSnapshot> snapshots = registry.snapshotAll(withParams);
+		long captureNanos = System.nanoTime() - startNanos;
+		return group(dumpTimeMillis, captureNanos, snapshots);
+	}
+
+	/** group snapshots by path */
+	public static AppStackDump group(long dumpTimeMillis, long captureNanos, List<CallStackSnapshot> snapshots) {
+		Map<PathKey, Group> groupByPath = new HashMap<PathKey, Group>();
+		List<Group> groups = new ArrayList<Group>();
+		for (CallStackSnapshot snapshot : snapshots) {
+			PathKey key = new PathKey(snapshot);
+			Group group = groupByPath.get(key);
+			if (group == null) {
+				group = new Group();
+				groupByPath.put(key, group);
+				groups.add(group);
+			}
+			group.snapshots.add(snapshot);
+		}
+		for (Group group : groups) {
+			Collections.sort(group.snapshots, DECREASING_ELAPSED_COMPARATOR);
+		}
+		Collections.sort(groups, DECREASING_COUNT_COMPARATOR);
+		return new AppStackDump(dumpTimeMillis, captureNanos, snapshots.size(), Collections.unmodifiableList(groups));
+	}
+
+	// ------------------------------------------------------------------------
+
+	public long getDumpTimeMillis() {
+		return dumpTimeMillis;
+	}
+
+	/** @return time spent to snapshot live CallStacks, in nanos */
+	public long getCaptureNanos() {
+		return captureNanos;
+	}
+
+	/** @return count of snapshots (threads or unbound CallStacks having a non empty stack) */
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public List<Group> getGroups() {
+		return groups;
+	}
+
+	/** @return elapsed time of the deepest timed element of <code>snapshot</code>, in nanos, -1 if none timed */
+	public static long getElapsedTime(CallStackSnapshot snapshot) {
+		for (int i = snapshot.getDepth() - 1; i >= 0; i--) {
+			if (snapshot.getEltAt(i).isTimed()) {
+				return snapshot.getElapsedTimeAt(i);
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		return "AppStackDump[" + threadCount + " threads, " + groups.size() + " paths]";
+	}
+
+}
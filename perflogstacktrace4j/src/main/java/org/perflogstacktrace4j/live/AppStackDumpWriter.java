@@ -0,0 +1,300 @@
+package org.perflogstacktrace4j.live;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.perflogstacktrace4j.model.CallStackSnapshot;
+import org.perflogstacktrace4j.utils.JsonUtils;
+
+/**
+ * writer of AppStackDump, in text (jstack like) or JSON, to an Appendable (Writer, StringBuilder..)
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * AppStackDumpWriter dumpWriter = new AppStackDumpWriter(writer, AppStackDumpWriter.Format.JSON);
+ * dumpWriter.setMaxThreadsPerGroup(5);
+ * dumpWriter.write(AppStackDump.capture(registry, true));
+ * </PRE>
+ *
+ * For each group: thread count, path, then details of the first maxThreadsPerGroup threads (slowest first),
+ * with elements from deepest to depth 1 (elapsed time, progress, params) and props inherited by the deepest element.
+ * <BR/>
+ * TEXT elapsed times are in millis, JSON elapsed times are in nanos (-1 when not timed).
+ * JSON format: <code>{"time":..,"threadCount":..,"groups":[{"count":..,"path":..,"maxElapsed":..,"threads":[{"thread":..,"elapsed":..,"props":{..},"elts":[{"className":..,"name":..,"elapsed":..,"params":{..}},..]},..]},..]}</code>
+ */
+public class AppStackDumpWriter {
+
+	public static enum Format {
+		TEXT,
+		JSON
+	}
+
+	public static final int DEFAULT_MAX_THREADS_PER_GROUP = 20;
+
+	private final Appendable out;
+	private final Format format;
+
+	private int maxThreadsPerGroup = DEFAULT_MAX_THREADS_PER_GROUP;
+
+	// reused buffer
+	private final StringBuilder numberBuffer = new StringBuilder(32);
+
+	// ------------------------------------------------------------------------
+
+	public AppStackDumpWriter(Appendable out, Format format) {
+		this.out = out;
+		this.format = format;
+	}
+
+	// ------------------------------------------------------------------------
+
+	public int getMaxThreadsPerGroup() {
+		return maxThreadsPerGroup;
+	}
+
+	/** @param maxThreadsPerGroup max count of threads written with details per group (slowest first), or -1 for all */
+	public void setMaxThreadsPerGroup(int maxThreadsPerGroup) {
+		this.maxThreadsPerGroup = maxThreadsPerGroup;
+	}
+
+	public void write(AppStackDump dump) throws IOException {
+		if (format == Format.TEXT) {
+			writeText(dump);
+		} else {
+			writeJson(dump);
+		}
+	}
+
+	/** @return dump in text format, with all threads details */
+	public static String toText(AppStackDump dump) {
+		StringBuilder sb = new StringBuilder();
+		AppStackDumpWriter dumpWriter = new AppStackDumpWriter(sb, Format.TEXT);
+		dumpWriter.setMaxThreadsPerGroup(-1);
+		try {
+			dumpWriter.write(dump);
+		} catch(IOException ex) {
+			throw new IllegalStateException("should not occur", ex);
+		}
+		return sb.toString();
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	private int detailCount(AppStackDump.Group group) {
+		int count = group.getCount();
+		return (maxThreadsPerGroup < 0)? count : Math.min(count, maxThreadsPerGroup);
+	}
+
+	private void writeText(AppStackDump dump) throws IOException {
+		out.append("Application stack dump ").append(new Date(dump.getDumpTimeMillis()).toString());
+		out.append(": ");
+		appendNumber(dump.getThreadCount());
+		out.append(" threads, ");
+		appendNumber(dump.getGroups().size());
+		out.append(" distinct stacks (captured in ");
+		appendNumber(TimeUnit.NANOSECONDS.toMicros(dump.getCaptureNanos()));
+		out.append(" us)\n");
+		for (AppStackDump.Group group : dump.getGroups()) {
+			out.append("\n--- ");
+			appendNumber(group.getCount());
+			out.append(" threads");
+			long maxElapsed = group.getMaxElapsedTime();
+			if (maxElapsed >= 0) {
+				out.append(", max elapsed ");
+				appendNumber(TimeUnit.NANOSECONDS.toMillis(maxElapsed));
+				out.append(" ms");
+			}
+			out.append(": ").append(group.getPathString()).append('\n');
+			List<CallStackSnapshot> snapshots = group.getSnapshots();
+			int detailCount = detailCount(group);
+			for (int i = 0; i < detailCount; i++) {
+				writeTextThread(snapshots.get(i));
+			}
+			if (detailCount < snapshots.size()) {
+				out.append("\t... ");
+				appendNumber(snapshots.size() - detailCount);
+				out.append(" more threads\n");
+			}
+		}
+	}
+
+	private void writeTextThread(CallStackSnapshot snapshot) throws IOException {
+		out.append('"').append(threadNameOf(snapshot)).append('"');
+		int depth = snapshot.getDepth();
+		Map<String,Object> props = snapshot.getInheritedPropsAt(depth - 1);
+		if (!props.isEmpty()) {
+			out.append(" props ");
+			appendTextMap(props);
+		}
+		out.append('\n');
+		for (int i = depth - 1; i >= 0; i--) {
+			CallStackSnapshot.Elt elt = snapshot.getEltAt(i);
+			out.append("\tat ").append(elt.getClassName()).append(':').append(elt.getName());
+			if (elt.isTimed()) {
+				out.append(" (");
+				appendNumber(TimeUnit.NANOSECONDS.toMillis(snapshot.getElapsedTimeAt(i)));
+				out.append(" ms)");
+			} else if (elt.isRestored()) {
+				out.append(" (restored)");
+			}
+			if (elt.getProgressExpectedCount() != 0 || elt.getProgressMessage() != null) {
+				out.append(" progress ");
+				appendNumber(elt.getProgressIndex());
+				if (elt.getProgressExpectedCount() > 0) {
+					out.append('/');
+					appendNumber(elt.getProgressExpectedCount());
+				}
+				if (elt.getProgressMessage() != null) {
+					out.append(" '").append(elt.getProgressMessage()).append('\'');
+				}
+			}
+			Map<String,Object> params = elt.getParams();
+			if (!params.isEmpty()) {
+				out.append(' ');
+				appendTextMap(params);
+			}
+			out.append('\n');
+		}
+	}
+
+	private void appendTextMap(Map<String,Object> map) throws IOException {
+		out.append('{');
+		boolean first = true;
+		for (Map.Entry<String,Object> e : map.entrySet()) {
+			if (!first) {
+				out.append(", ");
+			}
+			first = false;
+			out.append(e.getKey()).append('=').append(valueToString(e.getValue()));
+		}
+		out.append('}');
+	}
+
+	private void writeJson(AppStackDump dump) throws IOException {
+		out.append("{\"time\":");
+		appendNumber(dump.getDumpTimeMillis());
+		out.append(",\"captureNanos\":");
+		appendNumber(dump.getCaptureNanos());
+		out.append(",\"threadCount\":");
+		appendNumber(dump.getThreadCount());
+		out.append(",\"groups\":[");
+		boolean firstGroup = true;
+		for (AppStackDump.Group group : dump.getGroups()) {
+			if (!firstGroup) {
+				out.append(',');
+			}
+			firstGroup = false;
+			out.append("\n{\"count\":");
+			appendNumber(group.getCount());
+			out.append(",\"path\":");
+			JsonUtils.appendJsonString(out, group.getPathString());
+			out.append(",\"maxElapsed\":");
+			appendNumber(group.getMaxElapsedTime());
+			out.append(",\"threads\":[");
+			List<CallStackSnapshot> snapshots = group.getSnapshots();
+			int detailCount = detailCount(group);
+			for (int i = 0; i < detailCount; i++) {
+				if (i != 0) {
+					out.append(',');
+				}
+				writeJsonThread(snapshots.get(i));
+			}
+			out.append("]}");
+		}
+		out.append("]}\n");
+	}
+
+	private void writeJsonThread(CallStackSnapshot snapshot) throws IOException {
+		out.append("{\"thread\":");
+		JsonUtils.appendJsonString(out, threadNameOf(snapshot));
+		out.append(",\"elapsed\":");
+		appendNumber(AppStackDump.getElapsedTime(snapshot));
+		int depth = snapshot.getDepth();
+		Map<String,Object> props = snapshot.getInheritedPropsAt(depth - 1);
+		if (!props.isEmpty()) {
+			out.append(",\"props\":");
+			appendJsonMap(props);
+		}
+		out.append(",\"elts\":[");
+		for (int i = depth - 1; i >= 0; i--) {
+			CallStackSnapshot.Elt elt = snapshot.getEltAt(i);
+			if (i != depth - 1) {
+				out.append(',');
+			}
+			out.append("{\"className\":");
+			JsonUtils.appendJsonString(out, elt.getClassName());
+			out.append(",\"name\":");
+			JsonUtils.appendJsonString(out, elt.getName());
+			out.append(",\"elapsed\":");
+			appendNumber((elt.isTimed())? snapshot.getElapsedTimeAt(i) : -1);
+			if (elt.isRestored()) {
+				out.append(",\"restored\":true");
+			}
+			if (elt.getProgressExpectedCount() != 0 || elt.getProgressMessage() != null) {
+				out.append(",\"progressIndex\":");
+				appendNumber(elt.getProgressIndex());
+				out.append(",\"progressExpectedCount\":");
+				appendNumber(elt.getProgressExpectedCount());
+				if (elt.getProgressMessage() != null) {
+					out.append(",\"progressMessage\":");
+					JsonUtils.appendJsonString(out, elt.getProgressMessage());
+				}
+			}
+			Map<String,Object> params = elt.getParams();
+			if (!params.isEmpty()) {
+				out.append(",\"params\":");
+				appendJsonMap(params);
+			}
+			out.append('}');
+		}
+		out.append("]}");
+	}
+
+	private void appendJsonMap(Map<String,Object> map) throws IOException {
+		out.append('{');
+		boolean first = true;
+		for (Map.Entry<String,Object> e : map.entrySet()) {
+			if (!first) {
+				out.append(',');
+			}
+			first = false;
+			JsonUtils.appendJsonString(out, e.getKey());
+			out.append(':');
+			Object value = e.getValue();
+			if (value == null) {
+				out.append("null");
+			} else if (value instanceof Boolean || value instanceof Long || value instanceof Integer
+					|| (value instanceof Double && !((Double) value).isNaN() && !((Double) value).isInfinite())) {
+				out.append(value.toString());
+			} else {
+				JsonUtils.appendJsonString(out, valueToString(value));
+			}
+		}
+		out.append('}');
+	}
+
+	private static String threadNameOf(CallStackSnapshot snapshot) {
+		Thread thread = snapshot.getThread();
+		return (thread != null)? thread.getName() : "-";
+	}
+
+	/** @return String.valueOf(value), without failing on a buggy toString() of an applicative param */
+	private static String valueToString(Object value) {
+		try {
+			return String.valueOf(value);
+		} catch(RuntimeException ex) {
+			return "<" + value.getClass().getName() + ".toString() failed: " + ex + ">";
+		}
+	}
+
+	private void appendNumber(long value) throws IOException {
+		numberBuffer.setLength(0);
+		numberBuffer.append(value);
+		out.append(numberBuffer);
+	}
+
+}
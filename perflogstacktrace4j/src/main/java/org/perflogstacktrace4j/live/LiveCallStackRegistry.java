@@ -0,0 +1,142 @@
+package org.perflogstacktrace4j.live;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.CallStackSnapshot;
+import org.perflogstacktrace4j.spi.CallStackListener;
+import org.perflogstacktrace4j.spi.CallStackListenerFactory;
+import org.perflogstacktrace4j.utils.UnsafeUtils;
+import org.perflogstacktrace4j.utils.UnsafeUtils.ObjectVolatileFieldAccessor;
+
+/**
+ * registry of live CallStacks, to see what all threads are doing at the applicative level (see snapshotAll(), StuckSpanWatchdog)
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * LiveCallStackRegistry registry = new LiveCallStackRegistry();
+ * ThreadLocalCallStack.addCallStackListenerFactory(registry.getCallStackListenerFactory());
+ * </PRE>
+ *
+ * CallStacks are registered on creation (the factory adds no listener, so push/pop are not slowed down),
+ * in a lock-free linked list of weak references: registering is a CAS on the list head,
+ * and entries of garbage collected CallStacks are unlinked while iterating.
+ * CallStacks of terminated owner threads are skipped but kept registered, as a pooled CallStack (see ScopedCallStack)
+ * may be bound to a new thread at any time.
+ */
+public class LiveCallStackRegistry {
+
+	private static final ObjectVolatileFieldAccessor<LiveCallStackRegistry, Entry> headAccessor =
+			UnsafeUtils.objectVolatileFieldAccessor(LiveCallStackRegistry.class, "head");
+
+	private volatile Entry head;
+
+	private static final class Entry extends WeakReference<CallStack> {
+		volatile Entry next;
+
+		Entry(CallStack stack, Entry next) {
+			super(stack);
+			this.next = next;
+		}
+
+	}
+
+	private final CallStackListenerFactory callStackListenerFactory = new CallStackListenerFactory() {
+		@Override
+		public CallStackListener createListener(CallStack stack) {
+			register(stack);
+			return null;
+		}
+	};
+
+	// ------------------------------------------------------------------------
+
+	public LiveCallStackRegistry() {
+	}
+
+	// ------------------------------------------------------------------------
+
+	/** @return factory registering new CallStacks, see ThreadLocalCallStack.addCallStackListenerFactory() */
+	public CallStackListenerFactory getCallStackListenerFactory() {
+		return callStackListenerFactory;
+	}
+
+	public void register(CallStack stack) {
+		Entry entry = new Entry(stack, null);
+		for (;;) {
+			Entry h = head;
+			entry.next = h;
+			if (headAccessor.compareAndSwap(this, h, entry)) {
+				return;
+			}
+		}
+	}
+
+	/** @return live CallStacks (owner thread alive, or not bound yet), unlinking entries of garbage collected CallStacks */
+	public List<CallStack> getLiveCallStacks() {
+		List<CallStack> res = new ArrayList<CallStack>();
+		Entry prev = null;
+		for (Entry e = head; e != null; e = e.next) {
+			CallStack stack = e.get();
+			if (stack != null) {
+				Thread thread = stack.getOwnerThread();
+				if (thread == null || thread.isAlive()) {
+					res.add(stack);
+				}
+				prev = e;
+			} else {
+				unlink(prev, e);
+			}
+		}
+		return res;
+	}
+
+	/** @return count of live CallStacks */
+	public int size() {
+		return getLiveCallStacks().size();
+	}
+
+	/**
+	 * @return snapshots of non empty live CallStacks (stacks concurrently modified during too many read attempts are skipped)
+	 */
+	public List<CallStackSnapshot> snapshotAll() {
+		return snapshotAll(false);
+	}
+
+	/**
+	 * @param withParams true to copy also params and inheritable props of elements
+	 * @see #snapshotAll()
+	 */
+	public List<CallStackSnapshot> snapshotAll(boolean withParams) {
+		List<CallStackSnapshot> res = new ArrayList<CallStackSnapshot>();
+		for (CallStack stack : getLiveCallStacks()) {
+			if (stack.curr().getStackEltIndex() == 0) {
+				continue;
+			}
+			CallStackSnapshot snapshot = stack.snapshot(CallStack.DEFAULT_SNAPSHOT_MAX_ATTEMPTS, withParams);
+			if (snapshot != null && snapshot.getDepth() != 0) {
+				res.add(snapshot);
+			}
+		}
+		return res;
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	/**
+	 * unlink cleared entry <code>e</code> after <code>prev</code> (or head)
+	 * concurrent unlinks may leave a cleared entry linked (removed on a next iteration), 
+	 * but never unlink a live entry, as a cleared reference is never set again
+	 */
+	private void unlink(Entry prev, Entry e) {
+		if (prev == null) {
+			headAccessor.compareAndSwap(this, e, e.next); // may fail when a stack was registered meanwhile
+		} else {
+			prev.next = e.next;
+		}
+	}
+
+}
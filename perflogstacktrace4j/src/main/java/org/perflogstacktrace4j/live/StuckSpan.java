@@ -0,0 +1,69 @@
+package org.perflogstacktrace4j.live;
+
+import org.perflogstacktrace4j.model.CallStackSnapshot;
+
+/**
+ * span running longer than its threshold, detected by StuckSpanWatchdog
+ */
+public final class StuckSpan {
+
+	private final CallStackSnapshot snapshot;
+	private final int pathIndex;
+	private final long thresholdNanos;
+
+	// ------------------------------------------------------------------------
+
+	/*pp*/ StuckSpan(CallStackSnapshot snapshot, int pathIndex, long thresholdNanos) {
+		this.snapshot = snapshot;
+		this.pathIndex = pathIndex;
+		this.thresholdNanos = thresholdNanos;
+	}
+
+	// ------------------------------------------------------------------------
+
+	/** @return snapshot of the stack of the span */
+	public CallStackSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/** @return index of the stuck element in snapshot (0 for depth 1) */
+	public int getPathIndex() {
+		return pathIndex;
+	}
+
+	public CallStackSnapshot.Elt getElt() {
+		return snapshot.getEltAt(pathIndex);
+	}
+
+	public Thread getThread() {
+		return snapshot.getThread();
+	}
+
+	/** @return elapsed time of span, at snapshot time */
+	public long getElapsedNanos() {
+		return snapshot.getElapsedTimeAt(pathIndex);
+	}
+
+	public long getThresholdNanos() {
+		return thresholdNanos;
+	}
+
+	@Override
+	public String toString() {
+		CallStackSnapshot.Elt elt = getElt();
+		Thread thread = getThread();
+		StringBuilder sb = new StringBuilder();
+		sb.append("stuck span ").append(elt).append(" running for ").append(getElapsedNanos() / 1000000).append(" ms");
+		sb.append(" (threshold ").append(thresholdNanos / 1000000).append(" ms)");
+		if (elt.getProgressExpectedCount() != 0 || elt.getProgressIndex() != 0) {
+			sb.append(", progress ").append(elt.getProgressIndex()).append("/").append(elt.getProgressExpectedCount());
+		}
+		if (elt.getProgressMessage() != null) {
+			sb.append(" '").append(elt.getProgressMessage()).append("'");
+		}
+		sb.append(", thread ").append((thread != null)? thread.getName() : "-");
+		sb.append(", path ").append(snapshot.getPathString());
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,11 @@
+package org.perflogstacktrace4j.live;
+
+/**
+ * listener of stuck spans, called by the StuckSpanWatchdog thread
+ */
+public abstract class StuckSpanListener {
+
+	/** called once per stuck span (for its deepest stuck element) */
+	public abstract void onStuckSpan(StuckSpan span);
+
+}
@@ -0,0 +1,242 @@
+package org.perflogstacktrace4j.live;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.CallStackSnapshot;
+import org.perflogstacktrace4j.utils.DaemonLoopThread;
+import org.perflogstacktrace4j.utils.ThrottledErrorLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * background watchdog, periodically scanning live CallStacks of a LiveCallStackRegistry,
+ * and reporting spans running longer than a threshold (per CallSite, or default)
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * StuckSpanWatchdog watchdog = new StuckSpanWatchdog(registry);
+ * watchdog.setThresholdNanos(SQL_CALL_SITE, TimeUnit.SECONDS.toNanos(30));
+ * watchdog.addListener(listener); // else stuck spans are only logged
+ * watchdog.start();
+ * </PRE>
+ *
+ * Stacks are read with CallStack.snapshot(): applicative threads are never blocked.
+ * For each stack, the deepest timed element exceeding its threshold is reported once (with its progress index and message),
+ * then again only when another element becomes the deepest stuck one.
+ */
+public class StuckSpanWatchdog implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StuckSpanWatchdog.class);
+
+	public static final long DEFAULT_SCAN_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+	public static final long DEFAULT_THRESHOLD_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	private final LiveCallStackRegistry registry;
+
+	private volatile long scanPeriodNanos = DEFAULT_SCAN_PERIOD_NANOS;
+	private volatile long defaultThresholdNanos = DEFAULT_THRESHOLD_NANOS;
+	private volatile boolean logStuckSpans = true;
+
+	private final Object lock = new Object();
+
+	/** thresholds by CallSite id, 0 for default, copy on write */
+	private volatile long[] thresholdNanosBySiteId = new long[0];
+
+	// copy on write
+	private volatile StuckSpanListener[] listeners = new StuckSpanListener[0];
+
+	/** last reported (path index, start time) per stack, guarded by scanLock */
+	private final Map<CallStack, long[]> reportedByStack = new WeakHashMap<CallStack, long[]>();
+	private final Object scanLock = new Object();
+
+	private volatile long stuckSpanCount;
+
+	private final ThrottledErrorLogger listenerErrorLogger = new ThrottledErrorLogger(LOG);
+
+	private final DaemonLoopThread scanThread = new DaemonLoopThread("perflogstacktrace4j-stuck-span-watchdog");
+
+	// ------------------------------------------------------------------------
+
+	public StuckSpanWatchdog(LiveCallStackRegistry registry) {
+		this.registry = registry;
+	}
+
+	// ------------------------------------------------------------------------
+
+	public LiveCallStackRegistry getRegistry() {
+		return registry;
+	}
+
+	public long getScanPeriodNanos() {
+		return scanPeriodNanos;
+	}
+
+	public void setScanPeriodNanos(long scanPeriodNanos) {
+		this.scanPeriodNanos = scanPeriodNanos;
+	}
+
+	public long getDefaultThresholdNanos() {
+		return defaultThresholdNanos;
+	}
+
+	public void setDefaultThresholdNanos(long defaultThresholdNanos) {
+		this.defaultThresholdNanos = defaultThresholdNanos;
+	}
+
+	/** @return threshold of <code>callSite</code>, or default threshold */
+	public long getThresholdNanos(CallSite callSite) {
+		long[] thresholds = thresholdNanosBySiteId;
+		int id = callSite.getId();
+		long res = (id < thresholds.length)? thresholds[id] : 0;
+		return (res != 0)? res : defaultThresholdNanos;
+	}
+
+	/** set threshold of <code>callSite</code>, 0 for default threshold, Long.MAX_VALUE to never report it */
+	public void setThresholdNanos(CallSite callSite, long thresholdNanos) {
+		int id = callSite.getId();
+		synchronized(lock) {
+			long[] prev = thresholdNanosBySiteId;
+			long[] chg = Arrays.copyOf(prev, Math.max(prev.length, id + 1));
+			chg[id] = thresholdNanos;
+			this.thresholdNanosBySiteId = chg;
+		}
+	}
+
+	public boolean isLogStuckSpans() {
+		return logStuckSpans;
+	}
+
+	/** log stuck spans at WARN level (default true) */
+	public void setLogStuckSpans(boolean logStuckSpans) {
+		this.logStuckSpans = logStuckSpans;
+	}
+
+	public void addListener(StuckSpanListener l) {
+		synchronized(lock) {
+			StuckSpanListener[] prev = listeners;
+			StuckSpanListener[] chg = Arrays.copyOf(prev, prev.length + 1);
+			chg[prev.length] = l;
+			this.listeners = chg;
+		}
+	}
+
+	public void removeListener(StuckSpanListener l) {
+		synchronized(lock) {
+			List<StuckSpanListener> ls = new ArrayList<>(Arrays.asList(listeners));
+			ls.remove(l);
+			this.listeners = ls.toArray(new StuckSpanListener[ls.size()]);
+		}
+	}
+
+	/** @return count of reported stuck spans */
+	public long getStuckSpanCount() {
+		return stuckSpanCount;
+	}
+
+	/** @return count of exceptions thrown by listeners (logged, not rethrown) */
+	public long getListenerErrorCount() {
+		return listenerErrorLogger.getErrorCount();
+	}
+
+	/** start (once) the daemon scan thread */
+	public void start() {
+		scanThread.start(new Runnable() {
+			@Override
+			public void run() {
+				runScanLoop();
+			}
+		});
+	}
+
+	/** stop scan thread */
+	@Override
+	public void close() {
+		scanThread.stopAndJoin();
+	}
+
+	/**
+	 * scan live stacks once (in current thread), and report new stuck spans to listeners
+	 * @return new stuck spans
+	 */
+	public List<StuckSpan> scan() {
+		List<StuckSpan> res = new ArrayList<StuckSpan>();
+		synchronized(scanLock) {
+			for (CallStackSnapshot snapshot : registry.snapshotAll()) {
+				StuckSpan stuckSpan = findDeepestStuckSpan(snapshot);
+				if (stuckSpan == null) {
+					reportedByStack.remove(snapshot.getStack());
+					continue;
+				}
+				long startTime = stuckSpan.getElt().getStartTime();
+				long[] reported = reportedByStack.get(snapshot.getStack());
+				if (reported != null && reported[0] == stuckSpan.getPathIndex() && reported[1] == startTime) {
+					continue; // already reported
+				}
+				reportedByStack.put(snapshot.getStack(), new long[] { stuckSpan.getPathIndex(), startTime });
+				res.add(stuckSpan);
+			}
+			if (!res.isEmpty()) {
+				stuckSpanCount += res.size(); // guarded by scanLock
+				fireOnStuckSpans(res);
+			}
+		}
+		return res;
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	private void runScanLoop() {
+		while (!scanThread.isStopRequested()) {
+			LockSupport.parkNanos(scanPeriodNanos);
+			if (scanThread.isStopRequested()) {
+				return;
+			}
+			try {
+				scan();
+			} catch(Exception ex) {
+				LOG.error("Failed to scan live CallStacks ! .. ignore, no rethrow", ex);
+			}
+		}
+	}
+
+	private StuckSpan findDeepestStuckSpan(CallStackSnapshot snapshot) {
+		for (int i = snapshot.getDepth() - 1; i >= 0; i--) {
+			CallStackSnapshot.Elt elt = snapshot.getEltAt(i);
+			if (!elt.isTimed()) {
+				continue;
+			}
+			long threshold = getThresholdNanos(elt.getCallSite());
+			if (snapshot.getElapsedTimeAt(i) > threshold) {
+				return new StuckSpan(snapshot, i, threshold);
+			}
+		}
+		return null;
+	}
+
+	private void fireOnStuckSpans(List<StuckSpan> stuckSpans) {
+		StuckSpanListener[] currListeners = listeners;
+		for (StuckSpan stuckSpan : stuckSpans) {
+			if (logStuckSpans) {
+				LOG.warn(stuckSpan.toString());
+			}
+			for (StuckSpanListener listener : currListeners) {
+				try {
+					listener.onStuckSpan(stuckSpan);
+				} catch(Exception ex) {
+					listenerErrorLogger.onError("Failed to call onStuckSpan()", ex);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+package org.perflogstacktrace4j.model;
+
+import java.util.concurrent.TimeUnit;
+
+import org.perflogstacktrace4j.ThreadLocalCallStack;
+import org.perflogstacktrace4j.utils.UnsafeUtils;
+import org.perflogstacktrace4j.utils.UnsafeUtils.LongVolatileFieldAccessor;
+
+/**
+ * Pre-registered handle for a call site (className + name), with an interned int id
+ * 
+ * Handles are obtained from CallSiteRegistry (or CallStackTracer.site()), and should be kept in static final fields,
+ * so that pushing does not need any String work (no getName(), no hashing):
+ * <PRE>
+ * private static final CallStackTracer TRACER = CallStackTracer.getTracer(SomeClass.class);
+ * private static final CallSite SITE_someMethod = TRACER.site("someMethod");
+ * 
+ * try (StackPopper pop = SITE_someMethod.push()) {
+ *   ..
+ * }
+ * </PRE>
+ * 
+ * Downstream aggregators (tree, exporters) can key on <code>getId()</code> instead of <code>className + name</code>
+ * 
+ * For very hot inner methods, span sampling can be enabled per call site (see setSpanSamplingRate(), setAdaptiveSpanSampling()):
+ * only 1 push out of N is timed and fired to listeners, carrying a sample weight so that counts stay exact 
+ * and sums are extrapolated (see PerfTimeStats.incrAndRemovePending()).
+ * Unsampled pushes do not read any clock, and do not fire listeners. 
+ * Elements pushed under an unsampled element are also unsampled, and the weight of an element is multiplied by the weight
+ * of its parent: calls of children skipped with their parent are carried by the children of the next sampled parent call,
+ * so counts of nested call sites stay exact too (assuming the parent calls have similar children).
+ * Sample weights are counted per thread and per call site: when a call site is called from several paths,
+ * skipped calls are attributed to the path of the next sampled call on the same thread.
+ */
+public final class CallSite {
+
+	private static final LongVolatileFieldAccessor<CallSite> adaptiveWindowCountAccessor = 
+			UnsafeUtils.longVolatileFieldAccessor(CallSite.class, "adaptiveWindowCount");
+	private static final LongVolatileFieldAccessor<CallSite> adaptiveWindowStartTimeAccessor = 
+			UnsafeUtils.longVolatileFieldAccessor(CallSite.class, "adaptiveWindowStartTime");
+
+	private static final long ADAPTIVE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private static final int MAX_SPAN_SAMPLING_RATE = 1 << 20;
+
+	private final int id;
+	private final String className;
+	private final String name;
+	
+	/** precomputed <code>className + ":" + name</code> */
+	private final String displayName;
+
+	/** optional timing policy for this call site, null for TimingPolicy.getDefault() */
+	private TimingPolicy timingPolicy;
+
+	/** time 1 span out of spanSamplingRate, 1 for no sampling (default) */
+	private volatile int spanSamplingRate = 1;
+
+	/** for adaptive span sampling: target count of sampled spans per second, 0 when disabled */
+	private volatile int targetSampledSpansPerSecond;
+	private long adaptiveWindowCount;
+	private long adaptiveWindowStartTime;
+
+	// ------------------------------------------------------------------------
+
+	/*pp*/ CallSite(int id, String className, String name, String displayName) {
+		this.id = id;
+		this.className = className;
+		this.name = name;
+		this.displayName = displayName;
+	}
+
+	// ------------------------------------------------------------------------
+
+	/** alias for <code>ThreadLocalCallStack.meth(this)</code> */
+	public StackPusher meth() {
+		return ThreadLocalCallStack.meth(this);
+	}
+
+	/** alias for <code>ThreadLocalCallStack.push(this)</code> */
+	public StackPopper push() {
+		return ThreadLocalCallStack.push(this);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return true if registered in CallSiteRegistry, false for names not registered once the registry cap is reached
+	 * (having the id of CallSiteRegistry.OVERFLOW_SITE), or for names scoped to a tree
+	 */
+	public boolean isRegistered() {
+		return CallSiteRegistry.getById(id) == this;
+	}
+
+	public String getClassName() {
+		return className;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getDisplayName() {
+		return displayName;
+	}
+
+	public TimingPolicy getTimingPolicy() {
+		return timingPolicy;
+	}
+
+	/** set timing policy for this call site, to be called at initialisation (before push()) */
+	public void setTimingPolicy(TimingPolicy timingPolicy) {
+		this.timingPolicy = timingPolicy;
+	}
+
+	public int getSpanSamplingRate() {
+		return spanSamplingRate;
+	}
+
+	/** 
+	 * set fixed span sampling rate: time only 1 push out of <code>rate</code> (1 to disable sampling)
+	 * disable adaptive sampling if previously set 
+	 */
+	public void setSpanSamplingRate(int rate) {
+		this.targetSampledSpansPerSecond = 0;
+		this.spanSamplingRate = Math.max(1, Math.min(MAX_SPAN_SAMPLING_RATE, rate));
+	}
+
+	public int getTargetSampledSpansPerSecond() {
+		return targetSampledSpansPerSecond;
+	}
+
+	/**
+	 * enable adaptive span sampling: the sampling rate is re-evaluated every second, 
+	 * so that about <code>targetSampledSpansPerSecond</code> spans per second are timed for this call site
+	 */
+	public void setAdaptiveSpanSampling(int targetSampledSpansPerSecond) {
+		adaptiveWindowCountAccessor.set(this, 0);
+		adaptiveWindowStartTimeAccessor.set(this, System.nanoTime());
+		this.targetSampledSpansPerSecond = Math.max(0, targetSampledSpansPerSecond);
+	}
+
+	/**
+	 * called on each sampled push, with the count of calls it represents
+	 * (only sampled pushes update shared fields, so contention is divided by the sampling rate)
+	 */
+	/*pp*/ void onSampledSpan(int sampleWeight) {
+		int target = targetSampledSpansPerSecond;
+		if (target <= 0) {
+			return;
+		}
+		adaptiveWindowCountAccessor.add(this, sampleWeight);
+		long now = System.nanoTime();
+		long windowStart = adaptiveWindowStartTimeAccessor.get(this);
+		long windowNanos = now - windowStart;
+		if (windowNanos >= ADAPTIVE_WINDOW_NANOS 
+				&& adaptiveWindowStartTimeAccessor.compareAndSwap(this, windowStart, now)) {
+			long windowCount = adaptiveWindowCountAccessor.set(this, 0);
+			double callsPerSecond = windowCount * 1e9 / windowNanos;
+			long rate = (long) Math.ceil(callsPerSecond / target);
+			this.spanSamplingRate = (int) Math.max(1, Math.min(MAX_SPAN_SAMPLING_RATE, rate));
+		}
+	}
+
+	// ------------------------------------------------------------------------
+
+	@Override
+	public String toString() {
+		return "CallSite[" + id + ": " + displayName + "]";
+	}
+
+}
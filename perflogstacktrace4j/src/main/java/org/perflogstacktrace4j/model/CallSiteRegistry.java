@@ -0,0 +1,148 @@
+package org.perflogstacktrace4j.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of CallSite, interning a unique int id per <code>className + ":" + name</code>
+ * 
+ * ids are allocated sequentially from 0, so they can be used as index in arrays. 
+ * <BR/>
+ * <BR/>
+ * Registered CallSites are never removed: to bound memory when pushing dynamic names (sql text, url with ids..),
+ * the registry is capped (see setMaxSiteCount()). Once the cap is reached, new names are not registered:
+ * they resolve to a new unregistered CallSite keeping the name, with the id of OVERFLOW_SITE "__other__" 
+ * (so id-indexed consumers, like recorders, see them as "__other__"). 
+ * An AppCallTree resolves unregistered CallSites by name, against its own limits (see AppCallTreeNode.findOrCreateChild()),
+ * so names pushed after the cap are still distinct nodes (or folded names) in each tree.
+ * <BR/>
+ * This class is multi-thread safe: lookup is lock-free, registering a new CallSite uses a lock
+ */
+public final class CallSiteRegistry {
+
+	private static final Object lock = new Object();
+
+	private static final ConcurrentHashMap<String, CallSite> siteByDisplayName = new ConcurrentHashMap<String, CallSite>();
+
+	/** copy on write (grow only), indexed by CallSite id */
+	private static volatile CallSite[] sitesById = new CallSite[256];
+	
+	private static volatile int siteCount;
+
+	public static final int DEFAULT_MAX_SITE_COUNT = 65536;
+
+	private static volatile int maxSiteCount = DEFAULT_MAX_SITE_COUNT;
+
+	public static final String OVERFLOW_SITE_NAME = "__other__";
+
+	/** shared CallSite (and id) of names not registered because maxSiteCount was reached */
+	public static final CallSite OVERFLOW_SITE = register(null, OVERFLOW_SITE_NAME, OVERFLOW_SITE_NAME);
+
+	/* private to force all static */
+	private CallSiteRegistry() {}
+
+	// ------------------------------------------------------------------------
+
+	public static String toDisplayName(String className, String name) {
+		return (className != null)? className + ":" + name : name;
+	}
+
+	/**
+	 * find or register CallSite for className + name
+	 * (this method does String concatenation + hashing, result should be kept in a static final field)
+	 * @return registered CallSite, or unregistered one with the id of OVERFLOW_SITE when maxSiteCount is reached
+	 */
+	public static CallSite getOrRegister(String className, String name) {
+		String displayName = toDisplayName(className, name);
+		CallSite res = siteByDisplayName.get(displayName);
+		if (res == null) {
+			res = (siteCount < maxSiteCount)? register(className, name, displayName) : overflow(className, name, displayName);
+		}
+		return res;
+	}
+
+	/**
+	 * find or register CallSite for a display name (as used in AppCallTreeNodeDTO names)
+	 * the display name is split on the last ':' to retrieve className and name
+	 */
+	public static CallSite getOrRegister(String displayName) {
+		CallSite res = siteByDisplayName.get(displayName);
+		if (res == null) {
+			int sep = displayName.lastIndexOf(':');
+			String className = (sep != -1)? displayName.substring(0, sep) : null;
+			String name = (sep != -1)? displayName.substring(sep + 1) : displayName;
+			res = (siteCount < maxSiteCount)? register(className, name, displayName) : overflow(className, name, displayName);
+		}
+		return res;
+	}
+
+	/** @return registered CallSite for display name, or null (lock-free, never registers) */
+	public static CallSite find(String displayName) {
+		return siteByDisplayName.get(displayName);
+	}
+
+	/** @return CallSite for id, or null if not registered */
+	public static CallSite getById(int id) {
+		CallSite[] sites = sitesById;
+		return (id >= 0 && id < sites.length)? sites[id] : null;
+	}
+
+	/** @return count of registered CallSite, ids are in range [0, count) */
+	public static int getSiteCount() {
+		return siteCount;
+	}
+
+	public static int getMaxSiteCount() {
+		return maxSiteCount;
+	}
+
+	/**
+	 * set the cap of registered CallSites. Already registered CallSites are kept when lowering the cap.
+	 */
+	public static void setMaxSiteCount(int maxSiteCount) {
+		CallSiteRegistry.maxSiteCount = maxSiteCount;
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	/** @return new unregistered CallSite keeping the name, with the id of OVERFLOW_SITE */
+	private static CallSite overflow(String className, String name, String displayName) {
+		return new CallSite(OVERFLOW_SITE.getId(), className, name, displayName);
+	}
+
+	/**
+	 * @return new unregistered CallSite, with a caller-defined id (negative, not to collide with registered ids),
+	 * for names scoped to a tree (see AppCallTreeNameIndex)
+	 */
+	public static CallSite newUnregistered(int id, String displayName) {
+		int sep = displayName.lastIndexOf(':');
+		String className = (sep != -1)? displayName.substring(0, sep) : null;
+		String name = (sep != -1)? displayName.substring(sep + 1) : displayName;
+		return new CallSite(id, className, name, displayName);
+	}
+
+	private static CallSite register(String className, String name, String displayName) {
+		synchronized(lock) {
+			CallSite res = siteByDisplayName.get(displayName);
+			if (res == null) {
+				int id = siteCount;
+				if (id >= maxSiteCount && OVERFLOW_SITE != null) {
+					return overflow(className, name, displayName);
+				}
+				CallSite[] sites = sitesById;
+				if (id == sites.length) {
+					CallSite[] newSites = new CallSite[sites.length * 2];
+					System.arraycopy(sites, 0, newSites, 0, sites.length);
+					sites = newSites;
+				}
+				res = new CallSite(id, className, name, displayName);
+				sites[id] = res;
+				sitesById = sites;
+				siteCount = id + 1;
+				siteByDisplayName.put(displayName, res);
+			}
+			return res;
+		}
+	}
+
+}
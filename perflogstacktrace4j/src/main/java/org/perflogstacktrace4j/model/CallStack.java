@@ -1,7 +1,12 @@
 package org.perflogstacktrace4j.model;
 
+import java.util.Map;
+
 import org.perflogstacktrace4j.spi.CallStackListener;
 import org.perflogstacktrace4j.spi.CallStackListenerSupport;
+import org.perflogstacktrace4j.utils.ThreadTimeUtils;
+import org.perflogstacktrace4j.utils.UnsafeUtils;
+import org.perflogstacktrace4j.utils.UnsafeUtils.IntVolatileFieldAccessor;
 
 /**
  * Applicative CallStack (~ StackTrace) = push/pop Stack of CallStack Element (~java.lang.StackTraceElement) 
@@ -29,21 +34,82 @@ import org.perflogstacktrace4j.spi.CallStackListenerSupport;
  */
 public class CallStack {
 
+	private static final IntVolatileFieldAccessor<CallStack> versionAccessor =
+			UnsafeUtils.intVolatileFieldAccessor(CallStack.class, "version");
+
+	/** default count of read attempts of snapshot(), when the stack is concurrently modified */
+	public static final int DEFAULT_SNAPSHOT_MAX_ATTEMPTS = 8;
+
 	private static final int DEFAULT_ALLOC_INCR_STACK_LEN = 5;
+
+	/** initial length of a compact stack: root element + 1 element */
+	private static final int COMPACT_INITIAL_STACK_LEN = 2;
+
+	/** count of elements kept by a compact stack when it becomes empty, deeper elements are returned to CallStackEltPool */
+	private static final int COMPACT_RETAINED_STACK_LEN = CallStackEltPool.MIN_CHAIN_LEN;
+
+	/** see createCompact() */
+	private final boolean compact;
 	
 	private CallStackElt curr;
 	private CallStackElt[] stackElts;
 	
 	private final CallStackListenerSupport callStackListeners = new CallStackListenerSupport(); 
 
+	/** per-thread counter, for TimingMode.WALL_AND_SAMPLED_CPU */
+	private int cpuTimeSampleCounter;
+
+	/** per-thread counters of pushes skipped by span sampling, indexed by CallSite id */
+	private int[] spanSkipCountBySiteId;
+
+	/** count of elements restored by attachContext(), 0 when not attached */
+	private int attachedDepth;
+
+	/**
+	 * seqlock version, for snapshot() from other threads: odd while the chain of elements (curr, start times),
+	 * or params and progress of a pushed element, are modified,
+	 * incremented by the owner thread only (ordered writes, no lock, no CAS)
+	 */
+	private int version;
+
+	/** thread using this stack, set by ThreadLocalCallStack / ScopedCallStack, null if unknown or unbound */
+	private volatile Thread ownerThread;
+
 	// ------------------------------------------------------------------------
 	
 	public CallStack() {
+		this(false);
+	}
+
+	private CallStack(boolean compact) {
+		this.compact = compact;
 		this.stackElts = new CallStackElt[1];
 		this.stackElts[0] = new CallStackElt(this, 0, null);
-		reallocStackEltArray(10);
+		reallocStackEltArray(compact? COMPACT_INITIAL_STACK_LEN : 10);
 		this.curr = stackElts[0];
 	}
+
+	/**
+	 * @return new compact CallStack, for short-lived threads (typically virtual threads):
+	 * it starts with 2 elements (instead of 10) and grows geometrically, taking elements from a pool shared by compact stacks,
+	 * and returns its deeper elements to the pool when it becomes empty
+	 * <BR/>
+	 * As for all stacks, StackPusher / StackPopper / CallStackElt references must not be kept after pop():
+	 * elements of compact stacks may then be re-used by another stack.
+	 */
+	public static CallStack createCompact() {
+		return new CallStack(true);
+	}
+
+	/** @return count of elements in the pool shared by compact CallStacks */
+	public static int getPooledEltCount() {
+		return CallStackEltPool.getPooledCount();
+	}
+
+	/** set max count of elements in the pool shared by compact CallStacks (default 4096), 0 to disable pooling */
+	public static void setMaxPooledEltCount(int maxPooledCount) {
+		CallStackEltPool.setMaxPooledCount(maxPooledCount);
+	}
 	
 
 	// ------------------------------------------------------------------------
@@ -51,6 +117,63 @@ public class CallStack {
 	public CallStackElt curr() {
 		return curr;
 	}
+
+	public boolean isCompact() {
+		return compact;
+	}
+
+	public Thread getOwnerThread() {
+		return ownerThread;
+	}
+
+	public void setOwnerThread(Thread ownerThread) {
+		this.ownerThread = ownerThread;
+	}
+
+	/**
+	 * @return consistent copy of the elements of this stack, readable from any thread, 
+	 * or null if the stack was modified during each of <code>maxAttempts</code> reads
+	 * <BR/>
+	 * The owner thread is never blocked: elements are read optimistically, then the read is validated (seqlock),
+	 * and retried if a push/pop, a progress step or a param change (StackPopper.withParamValue()) occurred meanwhile.
+	 */
+	public CallStackSnapshot snapshot(int maxAttempts) {
+		return snapshot(maxAttempts, false);
+	}
+
+	/**
+	 * @param withParams true to copy also params and inheritable props of elements (allocating)
+	 * @see #snapshot(int)
+	 */
+	public CallStackSnapshot snapshot(int maxAttempts, boolean withParams) {
+		for (int attempt = 0; attempt < maxAttempts; attempt++) {
+			int v1 = versionAccessor.get(this);
+			if ((v1 & 1) != 0) {
+				Thread.yield();
+				continue;
+			}
+			CallStackSnapshot res;
+			try {
+				res = readSnapshot(withParams);
+			} catch(RuntimeException ex) {
+				res = null; // element concurrently modified (then popped)
+			}
+			UnsafeUtils.loadFence();
+			if (res != null && versionAccessor.get(this) == v1) {
+				return res;
+			}
+		}
+		return null;
+	}
+
+	public CallStackSnapshot snapshot() {
+		return snapshot(DEFAULT_SNAPSHOT_MAX_ATTEMPTS);
+	}
+
+	/** @return count of allocated elements, including root element */
+	public int getCapacity() {
+		return stackElts.length;
+	}
 	
 	public void addCallStackListener(CallStackListener l) {
 		callStackListeners.addListener(l);
@@ -60,60 +183,275 @@ public class CallStack {
 		callStackListeners.removeListener(l);
 	}
 
+	/** @return current listeners (must not be modified) */
+	public CallStackListener[] getCallStackListeners() {
+		return callStackListeners.getListeners();
+	}
+
+	/**
+	 * restore a context captured in another thread (see CallStackContext.capture()) on this empty CallStack,
+	 * then fire onAttachCallStackToThread() to listeners, so that next pushes are children of the captured path
+	 * <BR/>
+	 * restored elements are not timed, and not fired as push()/pop() to listeners.
+	 * must be called from the thread of this CallStack, and followed by detachContext() 
+	 * @return false (and do nothing) when this CallStack is not empty or already attached
+	 */
+	public boolean attachContext(CallStackContext context) {
+		if (curr.getStackEltIndex() != 0) {
+			return false;
+		}
+		int depth = context.getDepth();
+		if (depth + 1 >= stackElts.length) { // restored top element must have a pusher
+			reallocStackEltArray(depth + DEFAULT_ALLOC_INCR_STACK_LEN);
+		}
+		beginModification();
+		for (int i = 0; i < depth; i++) {
+			CallStackElt elt = stackElts[i + 1];
+			context.restoreTo(elt, i);
+			this.curr = elt;
+		}
+		this.attachedDepth = depth;
+		endModification();
+		onAttachToThread(Thread.currentThread());
+		return true;
+	}
+
+	/**
+	 * fire onDetachCallStackFromThread() to listeners, then remove elements restored by attachContext()
+	 * elements pushed after attachContext() should have been popped
+	 */
+	public void detachContext() {
+		onDetachFromThread(Thread.currentThread());
+		for (int i = attachedDepth; i > 0; i--) {
+			CallStackElt elt = stackElts[i];
+			elt.onPopClearParams();
+		}
+		beginModification();
+		this.curr = stackElts[0];
+		this.attachedDepth = 0;
+		endModification();
+		if (compact) {
+			releaseDeepElts();
+		}
+	}
+
 	// ------------------------------------------------------------------------
 	
 	/*pp*/ void onAttachToThread(Thread thread) {
 		callStackListeners.fireOnAttachToThread(this, thread);
 	}
 
-	/*pp*/ void onAttachFromThread(Thread thread) {
+	/*pp*/ void onDetachFromThread(Thread thread) {
 		callStackListeners.fireOnDetachFromThread(this, thread);
 	}
 
 	// internal
 	// ------------------------------------------------------------------------
+
+	/** @return true once every <code>samplingRate</code> calls */
+	/*pp*/ boolean nextCpuTimeSample(int samplingRate) {
+		if (++cpuTimeSampleCounter >= samplingRate) {
+			cpuTimeSampleCounter = 0;
+			return true;
+		}
+		return false;
+	}
 	
 	private void reallocStackEltArray(int stackLen) {
 		CallStackElt[] prevStackElts = stackElts;
 		CallStackElt[] newStackElts = new CallStackElt[stackLen];
 		System.arraycopy(prevStackElts, 0, newStackElts, 0, prevStackElts.length);
-		for(int i = prevStackElts.length; i < stackLen; i++) {
-			newStackElts[i] = new CallStackElt(this, i, newStackElts[i-1]);
-			newStackElts[i - 1].pusher = new StackPusher(newStackElts[i]);
+		int i = prevStackElts.length;
+		while (i < stackLen) {
+			// compact stacks grow by doubling: take a pooled chain of elements [i, 2 * i), linked by their pushers
+			StackPusher pooledPusher = (compact && stackLen >= 2 * i)? CallStackEltPool.poll(i) : null;
+			if (pooledPusher != null) {
+				newStackElts[i - 1].pusher = pooledPusher;
+				for (int to = 2 * i; i < to; i++) {
+					CallStackElt elt = newStackElts[i - 1].pusher.getPushedElt();
+					elt.reinit(this, i, newStackElts[i - 1]);
+					newStackElts[i] = elt;
+				}
+			} else {
+				newStackElts[i] = new CallStackElt(this, i, newStackElts[i-1]);
+				newStackElts[i - 1].pusher = new StackPusher(newStackElts[i]);
+				i++;
+			}
 		}
 		this.stackElts = newStackElts;
 	}
 
+	/** seqlock write begin (owner thread only): odd version, ordered before next writes */
+	/*pp*/ void beginModification() {
+		versionAccessor.setOrdered(this, version + 1);
+		UnsafeUtils.storeFence();
+	}
+
+	/** seqlock write end: even version, ordered after previous writes */
+	/*pp*/ void endModification() {
+		versionAccessor.setOrdered(this, version + 1);
+	}
+
+	/** 
+	 * read elements from curr, without lock: result to validate by caller (seqlock version unchanged)
+	 * @return copy of elements, or null if inconsistent
+	 */
+	private CallStackSnapshot readSnapshot(boolean withParams) {
+		Thread thread = ownerThread;
+		long now = ThreadTimeUtils.getTime();
+		CallStackElt e = curr;
+		int depth = e.getStackEltIndex();
+		int restoredDepth = attachedDepth;
+		CallStackSnapshot.Elt[] elts = new CallStackSnapshot.Elt[depth];
+		for (int i = depth; i > 0; i--, e = e.getParentCallStackElt()) {
+			if (e == null || e.getStackEltIndex() != i) {
+				return null; // concurrently modified
+			}
+			Map<String,Object> params = null;
+			Map<String,Object> inheritableProps = null;
+			if (withParams) {
+				params = e.copyParamsFromOtherThread();
+				inheritableProps = e.copyInheritablePropsFromOtherThread();
+				if (params == null || inheritableProps == null) {
+					return null; // concurrently modified
+				}
+			}
+			elts[i - 1] = new CallStackSnapshot.Elt(e.className, e.name, e.callSite, e.getStartTime(), e.sampled, i <= restoredDepth,
+					e.progressExpectedCount, e.getProgressIndex(), e.getProgressMessage(), params, inheritableProps);
+		}
+		return new CallStackSnapshot(this, thread, now, elts);
+	}
+
+	/** @return next length for growing stack: geometric for compact stacks */
+	private int nextStackLen() {
+		int len = stackElts.length;
+		return (compact)? len * 2 : len + DEFAULT_ALLOC_INCR_STACK_LEN;
+	}
+
+	/**
+	 * for compact stacks, when empty: return elements beyond COMPACT_RETAINED_STACK_LEN to the pool,
+	 * as chains of the elements added by each growth (without lock)
+	 */
+	private void releaseDeepElts() {
+		CallStackElt[] elts = stackElts;
+		int len = elts.length;
+		if (len <= COMPACT_RETAINED_STACK_LEN || curr != elts[0]) {
+			return;
+		}
+		CallStackEltPool.release(elts, COMPACT_RETAINED_STACK_LEN, len);
+		CallStackElt[] newElts = new CallStackElt[COMPACT_RETAINED_STACK_LEN];
+		System.arraycopy(elts, 0, newElts, 0, COMPACT_RETAINED_STACK_LEN);
+		this.stackElts = newElts;
+	}
+
 
 	/*pp*/ StackPopper doPush(CallStackElt pushedElt) {
 		if (pushedElt.pusher == null) {
-			reallocStackEltArray(this.stackElts.length + DEFAULT_ALLOC_INCR_STACK_LEN);
+			reallocStackEltArray(nextStackLen());
 		}
+		beginModification();
 		this.curr = pushedElt;
+		if (!sampleSpan(pushedElt)) {
+			endModification();
+			return pushedElt.popper;
+		}
 		pushedElt.onPushSetStartTime();
+		endModification();
 		callStackListeners.fireOnPush(pushedElt);
 		return pushedElt.popper;
 	}
 
    /*pp*/ StackPopper doPushWithParentStartTime(CallStackElt pushedElt) {
         if (pushedElt.pusher == null) {
-            reallocStackEltArray(this.stackElts.length + DEFAULT_ALLOC_INCR_STACK_LEN);
+            reallocStackEltArray(nextStackLen());
         }
+        beginModification();
         this.curr = pushedElt;
+        CallStackElt parentElt = pushedElt.getParentCallStackElt();
+        pushedElt.sampleWeight = parentElt.sampleWeight;
+        pushedElt.sampled = parentElt.sampled;
+        if (!pushedElt.sampled) {
+        	endModification();
+        	return pushedElt.popper;
+        }
         pushedElt.onPushSetParentStartTime();
+        endModification();
 		callStackListeners.fireOnPush(pushedElt);
         return pushedElt.popper;
     }
 
 	/*pp*/ void doPop(CallStackElt poppedElt) {
+		beginModification();
 		this.curr = poppedElt.getParentCallStackElt();
-		poppedElt.onPopSetEndTime();
-		callStackListeners.fireOnPop(poppedElt);
+		endModification();
+		if (poppedElt.sampled) {
+			poppedElt.onPopSetEndTime();
+			callStackListeners.fireOnPop(poppedElt);
+		}
+		poppedElt.onPopClearParams();
+		if (compact && attachedDepth == 0) {
+			releaseDeepElts();
+		}
 	}
 
 	/*pp*/ void doProgressStep(CallStackElt currElt, int incr, String progressMessage) {
 		//assert currElt == this.curr;
-		callStackListeners.fireOnProgressStep(currElt, incr, progressMessage);
+		if (currElt.sampled) {
+			callStackListeners.fireOnProgressStep(currElt, incr, progressMessage);
+		}
+	}
+
+	/**
+	 * decide if pushed element is sampled (timed + fired to listeners), depending on its CallSite span sampling rate
+	 * @return true if sampled, and set element sampleWeight to the count of calls it represents:
+	 * weight of parent element (calls skipped with the parent are carried by its sampled calls) x count of own skipped calls + 1
+	 */
+	private boolean sampleSpan(CallStackElt pushedElt) {
+		CallStackElt parentElt = pushedElt.getParentCallStackElt();
+		int parentWeight = parentElt.sampleWeight;
+		pushedElt.sampleWeight = parentWeight;
+		if (!parentElt.sampled) {
+			// skipped with parent: accounted in the weight of the next sampled parent, not in own skip count
+			pushedElt.sampled = false;
+			return false;
+		}
+		pushedElt.sampled = true;
+		CallSite site = pushedElt.callSite;
+		if (site == null
+				// callSite may be a cached one from a previous push by name
+				|| site.getName() != pushedElt.name || site.getClassName() != pushedElt.className) {
+			return true;
+		}
+		int rate = site.getSpanSamplingRate();
+		if (rate <= 1 && site.getTargetSampledSpansPerSecond() <= 0) {
+			return true;
+		}
+		int id = site.getId();
+		int[] skipCounts = spanSkipCountBySiteId;
+		if (skipCounts == null || id >= skipCounts.length) {
+			skipCounts = reallocSpanSkipCounts(id);
+		}
+		int count = skipCounts[id] + 1;
+		if (count < rate) {
+			skipCounts[id] = count;
+			pushedElt.sampled = false;
+			return false;
+		}
+		skipCounts[id] = 0;
+		pushedElt.sampleWeight = (int) Math.min(Integer.MAX_VALUE, (long) parentWeight * count);
+		site.onSampledSpan(count);
+		return true;
+	}
+
+	private int[] reallocSpanSkipCounts(int siteId) {
+		int[] prev = spanSkipCountBySiteId;
+		int len = Math.max(siteId + 1, CallSiteRegistry.getSiteCount()) + 16;
+		int[] res = new int[len];
+		if (prev != null) {
+			System.arraycopy(prev, 0, res, 0, prev.length);
+		}
+		this.spanSkipCountBySiteId = res;
+		return res;
 	}
 
 }
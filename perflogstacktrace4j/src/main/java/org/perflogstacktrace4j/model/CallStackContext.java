@@ -0,0 +1,137 @@
+package org.perflogstacktrace4j.model;
+
+import java.util.Map;
+
+/**
+ * immutable capture of the applicative context of a CallStackElt: path of CallSites and inheritable props,
+ * to restore it in another thread (see CallStack.attachContext()), typically for tasks submitted to a thread pool
+ * <BR/>
+ * The capture is cheap: one CallSite array for the path, and flat arrays of inheritable props only if some are set
+ * (props values are not copied, and maps are not allocated).
+ */
+public final class CallStackContext {
+
+	private static final CallSite[] EMPTY_PATH = new CallSite[0];
+
+	public static final CallStackContext EMPTY = new CallStackContext(EMPTY_PATH, null, null, null);
+
+	/** CallSites of captured elements, from depth 1 (root element excluded) */
+	private final CallSite[] path;
+
+	/** inheritable props, as flat arrays of (path index, name, value), null when none */
+	private final int[] propPathIndexes;
+	private final String[] propNames;
+	private final Object[] propValues;
+
+	// ------------------------------------------------------------------------
+
+	private CallStackContext(CallSite[] path, int[] propPathIndexes, String[] propNames, Object[] propValues) {
+		this.path = path;
+		this.propPathIndexes = propPathIndexes;
+		this.propNames = propNames;
+		this.propValues = propValues;
+	}
+
+	/**
+	 * @return capture of path and inheritable props of <code>elt</code> (typically ThreadLocalCallStack.currStackElt())
+	 */
+	public static CallStackContext capture(CallStackElt elt) {
+		return capture(elt, null);
+	}
+
+	/**
+	 * @return capture of path and inheritable props of <code>elt</code>, with an extra child <code>childCallSite</code> if not null
+	 * (typically for an AsyncSpan started under elt)
+	 */
+	public static CallStackContext capture(CallStackElt elt, CallSite childCallSite) {
+		int depth = elt.getStackEltIndex();
+		if (depth == 0 && childCallSite == null) {
+			return EMPTY;
+		}
+		CallSite[] path = new CallSite[(childCallSite != null)? depth + 1 : depth];
+		if (childCallSite != null) {
+			path[depth] = childCallSite;
+		}
+		int propCount = 0;
+		CallStackElt e = elt;
+		for (int i = depth - 1; i >= 0; i--, e = e.getParentCallStackElt()) {
+			path[i] = e.getCallSite();
+			propCount += e.getInheritableProps().size();
+		}
+		if (propCount == 0) {
+			return new CallStackContext(path, null, null, null);
+		}
+		int[] propPathIndexes = new int[propCount];
+		String[] propNames = new String[propCount];
+		Object[] propValues = new Object[propCount];
+		int p = 0;
+		e = elt;
+		for (int i = depth - 1; i >= 0; i--, e = e.getParentCallStackElt()) {
+			Map<String,Object> props = e.getInheritableProps();
+			if (props.isEmpty()) {
+				continue;
+			}
+			for (Map.Entry<String,Object> prop : props.entrySet()) {
+				propPathIndexes[p] = i;
+				propNames[p] = prop.getKey();
+				propValues[p] = prop.getValue();
+				p++;
+			}
+		}
+		return new CallStackContext(path, propPathIndexes, propNames, propValues);
+	}
+
+	/** @return new context, with same path and props, and an extra child <code>childCallSite</code> */
+	public CallStackContext withChild(CallSite childCallSite) {
+		CallSite[] childPath = new CallSite[path.length + 1];
+		System.arraycopy(path, 0, childPath, 0, path.length);
+		childPath[path.length] = childCallSite;
+		return new CallStackContext(childPath, propPathIndexes, propNames, propValues);
+	}
+
+	// ------------------------------------------------------------------------
+
+	/** @return count of captured elements (stack depth, excluding root element) */
+	public int getDepth() {
+		return path.length;
+	}
+
+	public CallSite getCallSiteAt(int pathIndex) {
+		return path[pathIndex];
+	}
+
+	public int getPropCount() {
+		return (propNames != null)? propNames.length : 0;
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	/** set className, name, CallSite and inheritable props of restored element */
+	/*pp*/ void restoreTo(CallStackElt elt, int pathIndex) {
+		CallSite callSite = path[pathIndex];
+		elt.callSite = callSite;
+		elt.className = callSite.getClassName();
+		elt.name = callSite.getName();
+		elt.timingPolicy = null;
+		elt.sampled = true;
+		elt.sampleWeight = 1;
+		if (propNames != null) {
+			for (int p = 0; p < propNames.length; p++) {
+				if (propPathIndexes[p] == pathIndex) {
+					elt.putInheritableProp(propNames[p], propValues[p]);
+				}
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("CallStackContext[");
+		for (int i = 0; i < path.length; i++) {
+			sb.append('/').append(path[i].getDisplayName());
+		}
+		return sb.append("]").toString();
+	}
+
+}
@@ -2,6 +2,7 @@ package org.perflogstacktrace4j.model;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.perflogstacktrace4j.utils.ThreadTimeUtils;
@@ -43,15 +44,30 @@ import org.perflogstacktrace4j.utils.ThreadTimeUtils;
  */
 public final class CallStackElt {
 
-	/*pp*/ final CallStack ownerStack;
-	private final CallStackElt parentCallStackElt;
-	private final int stackEltIndex;
+	/** not final: re-assigned when a pooled element is re-used by a compact CallStack, see CallStackEltPool */
+	/*pp*/ CallStack ownerStack;
+	private CallStackElt parentCallStackElt;
+	private int stackEltIndex;
 	
-	// TODO
 	/*pp*/ String className;
 	/*pp*/ String name;
+	
+	/** set when pushed using a pre-registered CallSite, else lazily resolved from className + name */
+	/*pp*/ CallSite callSite;
 
-	private Map<String,Object> params;
+	/**
+	 * params stored in flat key/value slot arrays, lazily allocated then re-used, reset on pop()
+	 * primitive values are stored unboxed in paramPrimValues (double as raw long bits)
+	 */
+	private int paramCount;
+	private String[] paramNames;
+	private ParamType[] paramTypes;
+	private long[] paramPrimValues;
+	private Object[] paramObjValues;
+	
+	/* lazily materialized from param slots, only when getParams() is called */
+	private Map<String,Object> paramsMapView;
+	
 	private Map<String,Object> inheritableProps;
 	
 	/* lazily computed from inheritableProps + parentCallStackElt...  **/
@@ -60,6 +76,16 @@ public final class CallStackElt {
 	/*pp*/ StackPusher pusher;
 	/*pp*/ StackPopper popper;
 
+	/** explicit timing policy for this push, null for TimingPolicy.getDefault() */
+	/*pp*/ TimingPolicy timingPolicy;
+	private TimingMode timingMode;
+	private boolean cpuTimeMeasured;
+	
+	/** false when push was skipped by span sampling (no time measured, no listener fired), see CallSite.setSpanSamplingRate() */
+	/*pp*/ boolean sampled = true;
+	/** count of calls represented by this sampled push (1 when not sampling), including calls skipped with parent elements */
+	/*pp*/ int sampleWeight = 1;
+	
 	private long startTime;
 	private long threadCpuStartTime;
 	private long threadUserStartTime;
@@ -72,6 +98,15 @@ public final class CallStackElt {
 	private int progressIndex;
 	private String progressMessage;
 	
+	private static final int DEFAULT_PARAM_SLOT_LEN = 4;
+
+	/**
+	 * type of param value stored in slot
+	 */
+	public static enum ParamType {
+		OBJECT, LONG, INT, DOUBLE, BOOLEAN
+	}
+	
 	// ------------------------------------------------------------------------
 	
 	public CallStackElt(CallStack ownerStack, int stackEltIndex, CallStackElt parentCallStackElt) {
@@ -83,35 +118,97 @@ public final class CallStackElt {
 		this.popper = new StackPopper(this);
 	}	
 	
+	/** re-init a pooled element for its new owner stack (params and props already cleared on pop) */
+	/*pp*/ void reinit(CallStack ownerStack, int stackEltIndex, CallStackElt parentCallStackElt) {
+		this.ownerStack = ownerStack;
+		this.stackEltIndex = stackEltIndex;
+		this.parentCallStackElt = parentCallStackElt;
+		this.callSite = null;
+		this.className = null;
+		this.name = null;
+		this.timingPolicy = null;
+		this.sampled = true;
+		this.sampleWeight = 1;
+		this.progressMessage = null;
+	}
+
 	// ------------------------------------------------------------------------
 	
 	public StackPusher pusher(String className, String name) {
 		return pusher.withName(className, name);
 	}
 
+	public StackPusher pusher(CallSite callSite) {
+		return pusher.withCallSite(callSite);
+	}
+
 	/*pp*/ void onPushSetStartTime() {
-		this.startTime = ThreadTimeUtils.getTime();
-		this.threadUserStartTime = ThreadTimeUtils.getCurrentThreadUserTime();
-		this.threadCpuStartTime = ThreadTimeUtils.getCurrentThreadCpuTime();
+		TimingPolicy policy = (timingPolicy != null)? timingPolicy : TimingPolicy.getDefault();
+		TimingMode mode = policy.getMode();
+		this.timingMode = mode;
+		switch(mode) {
+		case WALL_ONLY: 
+		case COARSE_WALL:
+			this.cpuTimeMeasured = false; 
+			break;
+		case WALL_AND_SAMPLED_CPU: 
+			this.cpuTimeMeasured = ownerStack.nextCpuTimeSample(policy.getCpuSamplingRate()); 
+			break;
+		case WALL_AND_ROOT_CPU: 
+			this.cpuTimeMeasured = (stackEltIndex == 1); 
+			break;
+		default: 
+			this.cpuTimeMeasured = true;
+		}
+		this.startTime = (mode != TimingMode.COARSE_WALL)? ThreadTimeUtils.getTime() : ThreadTimeUtils.getCoarseTime();
+		if (cpuTimeMeasured) {
+			this.threadUserStartTime = ThreadTimeUtils.getCurrentThreadUserTime();
+			this.threadCpuStartTime = ThreadTimeUtils.getCurrentThreadCpuTime();
+		} else {
+			this.threadUserStartTime = 0;
+			this.threadCpuStartTime = 0;
+		}
 	}
 
     /*pp*/ void onPushSetParentStartTime() {
         CallStackElt parent = parentCallStackElt;
+        this.timingMode = parent.timingMode;
+        this.cpuTimeMeasured = parent.cpuTimeMeasured;
         this.startTime = parent.startTime;
         this.threadUserStartTime = parent.threadUserStartTime;
         this.threadCpuStartTime = parent.threadCpuStartTime;
     }
 	   
 	/*pp*/ void onPopSetEndTime() {
-		this.threadCpuEndTime = ThreadTimeUtils.getCurrentThreadCpuTime();
-		this.threadUserEndTime = ThreadTimeUtils.getCurrentThreadUserTime();
-		this.endTime = ThreadTimeUtils.getTime();
+		if (cpuTimeMeasured) {
+			this.threadCpuEndTime = ThreadTimeUtils.getCurrentThreadCpuTime();
+			this.threadUserEndTime = ThreadTimeUtils.getCurrentThreadUserTime();
+		} else {
+			this.threadCpuEndTime = 0;
+			this.threadUserEndTime = 0;
+		}
+		this.endTime = (timingMode != TimingMode.COARSE_WALL)? ThreadTimeUtils.getTime() : ThreadTimeUtils.getCoarseTime();
 		
 		this.progressExpectedCount = 0;
 		this.progressIndex = 0;
 		this.progressMessage = null;		
 	}
 
+	/*pp*/ void onPopClearParams() {
+		if (paramCount != 0) {
+			for (int i = 0; i < paramCount; i++) {
+				paramNames[i] = null;
+				paramObjValues[i] = null;
+			}
+			paramCount = 0;
+		}
+		paramsMapView = null;
+		if (inheritableProps != null && !inheritableProps.isEmpty()) {
+			inheritableProps.clear();
+		}
+		inheritedProps = null;
+	}
+
 	/*pp*/ void onProgressStep(int incr, String progressMessage) {
 		this.progressIndex += incr;
 		this.progressMessage = progressMessage;
@@ -141,6 +238,24 @@ public final class CallStackElt {
 		return name;
 	}
 
+	/**
+	 * @return CallSite of this element: 
+	 * the pre-registered one when pushed using <code>CallSite.push()</code>, 
+	 * else resolved (once per distinct className + name) from CallSiteRegistry 
+	 */
+	public CallSite getCallSite() {
+		CallSite res = callSite;
+		if (res == null || res.getClassName() != className || res.getName() != name) {
+			res = CallSiteRegistry.getOrRegister(className, name);
+			this.callSite = res;
+		}
+		return res;
+	}
+
+	public int getCallSiteId() {
+		return getCallSite().getId();
+	}
+
 	public String[] getPath() {
 		String[] res = new String[stackEltIndex+1];
 		CallStackElt curr = this;
@@ -150,10 +265,58 @@ public final class CallStackElt {
 		return res;
 	}
 	
-	// return pointer, should return unmodifiable ref
+	/**
+	 * @return unmodifiable map view of params, materialized lazily (allocating)
+	 * for allocation-free access, prefer getParamCount() + getParamName(i) / getParamLongValue(i) ..
+	 */
 	public Map<String, Object> getParams() {
-		if (params == null) return Collections.emptyMap();
-		return params;
+		if (paramCount == 0) return Collections.emptyMap();
+		if (paramsMapView == null) {
+			Map<String,Object> tmpres = new LinkedHashMap<String,Object>(paramCount * 2);
+			for (int i = 0; i < paramCount; i++) {
+				tmpres.put(paramNames[i], getParamValue(i));
+			}
+			paramsMapView = Collections.unmodifiableMap(tmpres);
+		}
+		return paramsMapView;
+	}
+
+	public int getParamCount() {
+		return paramCount;
+	}
+
+	public String getParamName(int i) {
+		return paramNames[i];
+	}
+
+	public ParamType getParamType(int i) {
+		return paramTypes[i];
+	}
+
+	/** @return param value, boxed when stored as primitive */
+	public Object getParamValue(int i) {
+		switch(paramTypes[i]) {
+		case LONG: return Long.valueOf(paramPrimValues[i]);
+		case INT: return Integer.valueOf((int) paramPrimValues[i]);
+		case DOUBLE: return Double.valueOf(Double.longBitsToDouble(paramPrimValues[i]));
+		case BOOLEAN: return Boolean.valueOf(paramPrimValues[i] != 0);
+		default: return paramObjValues[i];
+		}
+	}
+
+	/** @return primitive param value, for LONG or INT param types */
+	public long getParamLongValue(int i) {
+		return paramPrimValues[i];
+	}
+
+	/** @return primitive param value, for DOUBLE param type */
+	public double getParamDoubleValue(int i) {
+		return Double.longBitsToDouble(paramPrimValues[i]);
+	}
+
+	/** @return primitive param value, for BOOLEAN param type */
+	public boolean getParamBooleanValue(int i) {
+		return paramPrimValues[i] != 0;
 	}
 	
 	public Map<String, Object> getInheritableProps() {
@@ -175,6 +338,25 @@ public final class CallStackElt {
 		return inheritedProps;
 	}
 	
+	/** @return false when push was skipped by span sampling: element times are not measured, and listeners were not fired */
+	public boolean isSampled() {
+		return sampled;
+	}
+
+	/** @return count of calls represented by this element (1 when span sampling is not enabled for its CallSite and its parents) */
+	public int getSampleWeight() {
+		return sampleWeight;
+	}
+
+	public TimingMode getTimingMode() {
+		return timingMode;
+	}
+
+	/** @return true if thread cpu/user times were measured for this push, depending on TimingMode (and sampling) */
+	public boolean isCpuTimeMeasured() {
+		return cpuTimeMeasured;
+	}
+
 	public long getStartTime() {
 		return startTime;
 	}
@@ -223,14 +405,78 @@ public final class CallStackElt {
 
 	/** called from Pusher */
 	void putParam(String paramName, Object value) {
-		if (params == null) params = new HashMap<String,Object>();
-		params.put(paramName, value);
+		int i = paramSlotFor(paramName);
+		paramTypes[i] = ParamType.OBJECT;
+		paramObjValues[i] = value;
+	}
+
+	/** called from Pusher */
+	void putParam(String paramName, long value) {
+		putPrimParam(paramName, ParamType.LONG, value);
+	}
+
+	/** called from Pusher */
+	void putParam(String paramName, int value) {
+		putPrimParam(paramName, ParamType.INT, value);
+	}
+
+	/** called from Pusher */
+	void putParam(String paramName, double value) {
+		putPrimParam(paramName, ParamType.DOUBLE, Double.doubleToRawLongBits(value));
+	}
+
+	/** called from Pusher */
+	void putParam(String paramName, boolean value) {
+		putPrimParam(paramName, ParamType.BOOLEAN, (value)? 1 : 0);
 	}
 
 	/** called from Pusher */
 	void putAllParams(Map<String,Object> p) {
-		if (params == null) params = new HashMap<String,Object>();
-		params.putAll(p);
+		for(Map.Entry<String,Object> e : p.entrySet()) {
+			putParam(e.getKey(), e.getValue());
+		}
+	}
+
+	private void putPrimParam(String paramName, ParamType type, long value) {
+		int i = paramSlotFor(paramName);
+		paramTypes[i] = type;
+		paramPrimValues[i] = value;
+		paramObjValues[i] = null;
+	}
+
+	/** @return slot index for param name, re-using existing slot if already set, else adding a new slot */
+	private int paramSlotFor(String paramName) {
+		paramsMapView = null;
+		for (int i = 0; i < paramCount; i++) {
+			if (paramName.equals(paramNames[i])) {
+				return i;
+			}
+		}
+		if (paramNames == null) {
+			reallocParamSlots(DEFAULT_PARAM_SLOT_LEN);
+		} else if (paramCount == paramNames.length) {
+			reallocParamSlots(paramCount * 2);
+		}
+		int i = paramCount++;
+		paramNames[i] = paramName;
+		return i;
+	}
+
+	private void reallocParamSlots(int len) {
+		String[] newParamNames = new String[len];
+		ParamType[] newParamTypes = new ParamType[len];
+		long[] newParamPrimValues = new long[len];
+		Object[] newParamObjValues = new Object[len];
+		if (paramCount != 0) {
+			System.arraycopy(paramNames, 0, newParamNames, 0, paramCount);
+			System.arraycopy(paramTypes, 0, newParamTypes, 0, paramCount);
+			System.arraycopy(paramPrimValues, 0, newParamPrimValues, 0, paramCount);
+			System.arraycopy(paramObjValues, 0, newParamObjValues, 0, paramCount);
+		}
+		this.paramNames = newParamNames;
+		this.paramTypes = newParamTypes;
+		this.paramPrimValues = newParamPrimValues;
+		this.paramObjValues = newParamObjValues;
 	}
 
 	/** called from Pusher */
@@ -239,6 +485,51 @@ public final class CallStackElt {
 		inheritableProps.put(paramName, value);
 	}
 
+	/**
+	 * @return copy of params, read from another thread (see CallStack.snapshot()): may be inconsistent, to validate by caller,
+	 * or null when concurrently modified while copying
+	 */
+	/*pp*/ Map<String,Object> copyParamsFromOtherThread() {
+		int count = paramCount;
+		if (count == 0) {
+			return Collections.emptyMap();
+		}
+		try {
+			String[] names = paramNames;
+			ParamType[] types = paramTypes;
+			long[] primValues = paramPrimValues;
+			Object[] objValues = paramObjValues;
+			Map<String,Object> res = new LinkedHashMap<String,Object>(count * 2);
+			for (int i = 0; i < count; i++) {
+				Object value;
+				switch(types[i]) {
+				case LONG: value = Long.valueOf(primValues[i]); break;
+				case INT: value = Integer.valueOf((int) primValues[i]); break;
+				case DOUBLE: value = Double.valueOf(Double.longBitsToDouble(primValues[i])); break;
+				case BOOLEAN: value = Boolean.valueOf(primValues[i] != 0); break;
+				default: value = objValues[i];
+				}
+				res.put(names[i], value);
+			}
+			return res;
+		} catch(RuntimeException ex) {
+			return null; // slots reallocated or cleared meanwhile (NullPointerException, ArrayIndexOutOfBoundsException..)
+		}
+	}
+
+	/** @return copy of inheritable props, read from another thread, see copyParamsFromOtherThread() */
+	/*pp*/ Map<String,Object> copyInheritablePropsFromOtherThread() {
+		Map<String,Object> props = inheritableProps;
+		if (props == null || props.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		try {
+			return new LinkedHashMap<String,Object>(props);
+		} catch(RuntimeException ex) {
+			return null; // HashMap modified meanwhile (ConcurrentModificationException..)
+		}
+	}
+
 	/** called from Pusher */
 	void putAllInheritableProps(Map<String,Object> p) {
 		if (inheritableProps == null) inheritableProps = new HashMap<String,Object>();
@@ -0,0 +1,166 @@
+package org.perflogstacktrace4j.model;
+
+import org.perflogstacktrace4j.utils.UnsafeUtils;
+
+/**
+ * bounded pool of CallStackElt, shared by all compact CallStacks (see CallStack.createCompact())
+ * <BR/>
+ * A compact CallStack takes elements from the pool when it grows, and returns its deeper elements when it becomes empty,
+ * so short-lived threads (typically virtual threads) do not allocate new elements for each deep call.
+ * Elements are pooled with the StackPusher pointing to them (assigned to their parent element on re-use),
+ * with their lazily allocated param slots and props map, so re-used elements do not allocate either.
+ * <BR/>
+ * Compact stacks grow by doubling their length, so elements are pooled as chains of the elements added by one growth:
+ * <code>[len, 2 * len)</code>, linked by their pushers. There is one level of slots per chain length
+ * (MIN_CHAIN_LEN, doubled at each level), so growing takes 1 chain, and becoming empty returns 1 chain per growth.
+ * <BR/>
+ * The pool is lock-free and striped by thread (as the pool of ScopedCallStack): a thread takes and returns chains by CAS
+ * in the slots of its stripe (or of the next stripe), so concurrent stacks on different carrier threads rarely contend.
+ */
+/*pp*/ final class CallStackEltPool {
+
+	/*pp*/ static final int DEFAULT_MAX_POOLED_COUNT = 4096;
+
+	/** length of chains of level 0, equals to the length retained by an empty compact stack */
+	/*pp*/ static final int MIN_CHAIN_LEN = 4;
+
+	/** count of chain levels: chains of 4 to 64 elements, deeper elements (of stacks deeper than 128) are left to GC */
+	private static final int LEVEL_COUNT = 5;
+
+	/** count of pool stripes (power of 2): a thread uses the stripe of its id, then the next one */
+	private static final int STRIPE_COUNT = Integer.highestOneBit(Math.min(64, 2 * Runtime.getRuntime().availableProcessors() - 1)) * 2;
+
+	private static final class Pool {
+		/**
+		 * by level, STRIPE_COUNT stripes of <code>stripeLenByLevel[level]</code> slots,
+		 * holding the StackPusher of the first element of a chain, taken and put by CAS
+		 */
+		final Object[][] slotsByLevel = new Object[LEVEL_COUNT][];
+		final int[] stripeLenByLevel = new int[LEVEL_COUNT];
+
+		/** each level has the same budget of <code>maxPooledCount / LEVEL_COUNT</code> elements */
+		Pool(int maxPooledCount) {
+			int levelEltCount = Math.max(0, maxPooledCount) / LEVEL_COUNT;
+			for (int level = 0; level < LEVEL_COUNT; level++) {
+				int chainCount = levelEltCount / (MIN_CHAIN_LEN << level);
+				int stripeLen = (chainCount + STRIPE_COUNT - 1) / STRIPE_COUNT;
+				stripeLenByLevel[level] = stripeLen;
+				slotsByLevel[level] = new Object[stripeLen * STRIPE_COUNT];
+			}
+		}
+	}
+
+	/** replaced (emptied) on setMaxPooledCount() */
+	private static volatile Pool pool = new Pool(DEFAULT_MAX_POOLED_COUNT);
+
+	private CallStackEltPool() {
+	}
+
+	// ------------------------------------------------------------------------
+
+	/** @return count of pooled elements (scan of the pool, approximate when concurrently used) */
+	/*pp*/ static int getPooledCount() {
+		Pool p = pool;
+		int res = 0;
+		for (int level = 0; level < LEVEL_COUNT; level++) {
+			Object[] slots = p.slotsByLevel[level];
+			for (int i = 0; i < slots.length; i++) {
+				if (UnsafeUtils.getObjectVolatileAt(slots, i) != null) {
+					res += MIN_CHAIN_LEN << level;
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * set max count of pooled elements (rounded up to multiples of chain lengths and stripe count),
+	 * currently pooled elements are dropped
+	 */
+	/*pp*/ static void setMaxPooledCount(int maxPooledCount) {
+		pool = new Pool(maxPooledCount);
+	}
+
+	/**
+	 * @return pusher of the first element of a pooled chain of <code>chainLen</code> elements linked by their pushers
+	 * (to re-init with CallStackElt.reinit()), the last element having no pusher,
+	 * or null when no chain is pooled for this length
+	 */
+	/*pp*/ static StackPusher poll(int chainLen) {
+		int level = levelOf(chainLen);
+		if (level < 0) {
+			return null;
+		}
+		Pool p = pool;
+		Object[] slots = p.slotsByLevel[level];
+		int stripeLen = p.stripeLenByLevel[level];
+		int stripe = threadStripe();
+		for (int k = 0; k < 2; k++) {
+			int from = ((stripe + k) & (STRIPE_COUNT - 1)) * stripeLen;
+			for (int i = from, to = from + stripeLen; i < to; i++) {
+				Object slot = UnsafeUtils.getObjectVolatileAt(slots, i);
+				if (slot != null && UnsafeUtils.compareAndSwapObjectAt(slots, i, slot, null)) {
+					return (StackPusher) slot;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * return to the pool the elements <code>elts</code> [from, to) (already popped and cleared), as chains [c, 2 * c)
+	 * (<code>from</code> being MIN_CHAIN_LEN), with their pushers held by their parent elements:
+	 * chains are unlinked (elts[from - 1] becomes the last element) before being published.
+	 * Chains not fitting in the slots of their level, or not complete (stack not grown by doubling) are left to GC
+	 */
+	/*pp*/ static void release(CallStackElt[] elts, int from, int to) {
+		Pool p = pool;
+		int stripe = threadStripe();
+		// from last chain to first: the last element of a chain is unlinked from the next chain before it is published
+		int c = from;
+		while (c * 2 <= to) {
+			c *= 2;
+		}
+		for (; c >= from; c /= 2) {
+			StackPusher chain = elts[c - 1].pusher;
+			elts[c - 1].pusher = null;
+			int level = levelOf(c);
+			if (level < 0 || c * 2 > to) {
+				continue;
+			}
+			Object[] slots = p.slotsByLevel[level];
+			int stripeLen = p.stripeLenByLevel[level];
+			publish:
+			for (int k = 0; k < 2; k++) {
+				int slotFrom = ((stripe + k) & (STRIPE_COUNT - 1)) * stripeLen;
+				for (int i = slotFrom, slotTo = slotFrom + stripeLen; i < slotTo; i++) {
+					if (UnsafeUtils.getObjectVolatileAt(slots, i) == null
+							&& UnsafeUtils.compareAndSwapObjectAt(slots, i, null, chain)) {
+						break publish;
+					}
+				}
+			}
+			// else level stripes full: drop
+		}
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	/** @return level of chains of <code>chainLen</code> elements, or -1 if not pooled */
+	private static int levelOf(int chainLen) {
+		if (chainLen < MIN_CHAIN_LEN || Integer.bitCount(chainLen) != 1) {
+			return -1;
+		}
+		int level = Integer.numberOfTrailingZeros(chainLen / MIN_CHAIN_LEN);
+		return (level < LEVEL_COUNT)? level : -1;
+	}
+
+	/** @return stripe of current thread (ids are spread by fibonacci hashing, as consecutive threads often run concurrently) */
+	private static int threadStripe() {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (STRIPE_COUNT - 1);
+	}
+
+}
@@ -0,0 +1,183 @@
+package org.perflogstacktrace4j.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.perflogstacktrace4j.utils.ThreadTimeUtils;
+
+/**
+ * immutable consistent copy of the elements of a CallStack, read from another thread (see CallStack.snapshot())
+ */
+public final class CallStackSnapshot {
+
+	private final CallStack stack;
+	private final Thread thread;
+	private final long snapshotTime;
+
+	/** elements from depth 1 (root element excluded) to current element */
+	private final Elt[] elts;
+
+	/**
+	 * copy of a CallStackElt
+	 */
+	public static final class Elt {
+		private final String className;
+		private final String name;
+		/** pre-registered CallSite if pushed with it, else null (resolved lazily from className + name) */
+		private CallSite callSite;
+		private final long startTime;
+		private final boolean sampled;
+		private final boolean restored;
+		private final int progressExpectedCount;
+		private final int progressIndex;
+		private final String progressMessage;
+		/** null when not copied */
+		private final Map<String,Object> params;
+		private final Map<String,Object> inheritableProps;
+
+		/*pp*/ Elt(String className, String name, CallSite callSite, long startTime, boolean sampled, boolean restored,
+				int progressExpectedCount, int progressIndex, String progressMessage,
+				Map<String,Object> params, Map<String,Object> inheritableProps) {
+			this.className = className;
+			this.name = name;
+			this.callSite = callSite;
+			this.startTime = startTime;
+			this.sampled = sampled;
+			this.restored = restored;
+			this.progressExpectedCount = progressExpectedCount;
+			this.progressIndex = progressIndex;
+			this.progressMessage = progressMessage;
+			this.params = params;
+			this.inheritableProps = inheritableProps;
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public CallSite getCallSite() {
+			CallSite res = callSite;
+			if (res == null || res.getClassName() != className || res.getName() != name) {
+				res = CallSiteRegistry.getOrRegister(className, name);
+				this.callSite = res;
+			}
+			return res;
+		}
+
+		public long getStartTime() {
+			return startTime;
+		}
+
+		/** @return true when start time is measured: element sampled (see CallSite.setSpanSamplingRate()), and not restored */
+		public boolean isTimed() {
+			return sampled && !restored;
+		}
+
+		/** @return true for an element restored by CallStack.attachContext() (started in another thread, no start time) */
+		public boolean isRestored() {
+			return restored;
+		}
+
+		public int getProgressExpectedCount() {
+			return progressExpectedCount;
+		}
+
+		public int getProgressIndex() {
+			return progressIndex;
+		}
+
+		public String getProgressMessage() {
+			return progressMessage;
+		}
+
+		/** @return params, empty when not copied (see CallStack.snapshot(maxAttempts, withParams)) */
+		public Map<String, Object> getParams() {
+			return (params != null)? params : Collections.<String,Object>emptyMap();
+		}
+
+		/** @return inheritable props, empty when not copied */
+		public Map<String, Object> getInheritableProps() {
+			return (inheritableProps != null)? inheritableProps : Collections.<String,Object>emptyMap();
+		}
+
+		@Override
+		public String toString() {
+			return className + ":" + name;
+		}
+	}
+
+	// ------------------------------------------------------------------------
+
+	/*pp*/ CallStackSnapshot(CallStack stack, Thread thread, long snapshotTime, Elt[] elts) {
+		this.stack = stack;
+		this.thread = thread;
+		this.snapshotTime = snapshotTime;
+		this.elts = elts;
+	}
+
+	// ------------------------------------------------------------------------
+
+	public CallStack getStack() {
+		return stack;
+	}
+
+	/** @return owner thread of stack when snapshot was taken, null if unknown */
+	public Thread getThread() {
+		return thread;
+	}
+
+	/** @return time of snapshot, in the time base of ThreadTimeUtils.getTime() */
+	public long getSnapshotTime() {
+		return snapshotTime;
+	}
+
+	/** @return count of elements (stack depth, excluding root element) */
+	public int getDepth() {
+		return elts.length;
+	}
+
+	/** @return element at <code>pathIndex</code>, 0 for depth 1 */
+	public Elt getEltAt(int pathIndex) {
+		return elts[pathIndex];
+	}
+
+	/** @return elapsed time of timed element at <code>pathIndex</code>, at snapshot time */
+	public long getElapsedTimeAt(int pathIndex) {
+		return snapshotTime - elts[pathIndex].startTime;
+	}
+
+	/** @return props inherited by element at <code>pathIndex</code>: inheritable props of elements from depth 1 to it */
+	public Map<String,Object> getInheritedPropsAt(int pathIndex) {
+		Map<String,Object> res = null;
+		for (int i = 0; i <= pathIndex; i++) {
+			Map<String,Object> props = elts[i].inheritableProps;
+			if (props != null && !props.isEmpty()) {
+				if (res == null) {
+					res = new LinkedHashMap<String,Object>();
+				}
+				res.putAll(props);
+			}
+		}
+		return (res != null)? res : Collections.<String,Object>emptyMap();
+	}
+
+	public String getPathString() {
+		StringBuilder sb = new StringBuilder();
+		for (Elt elt : elts) {
+			sb.append('/').append(elt.className).append(':').append(elt.name);
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "CallStackSnapshot[" + ((thread != null)? thread.getName() : "-") + " " + getPathString()
+				+ " at " + ThreadTimeUtils.nanosToApproxMillis(snapshotTime) + "]";
+	}
+
+}
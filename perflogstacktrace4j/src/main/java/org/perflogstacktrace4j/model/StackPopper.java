@@ -23,13 +23,55 @@ public final class StackPopper implements Closeable {
 	}
 
 	public StackPopper progressStep(int incr, String progressMessage) {
+		CallStack stack = callStackElt.ownerStack;
+		stack.beginModification(); // for snapshot() from other threads
 		callStackElt.onProgressStep(incr, progressMessage);
-		callStackElt.ownerStack.doProgressStep(callStackElt, incr, progressMessage);
+		stack.endModification();
+		stack.doProgressStep(callStackElt, incr, progressMessage);
 		return this;
 	}
 
 	public StackPopper withParamValue(String paramName, Object value) {
+		CallStack stack = callStackElt.ownerStack;
+		stack.beginModification(); // for snapshot() from other threads
 		callStackElt.putParam(paramName, value);
+		stack.endModification();
+		return this;
+	}
+
+	/** idem withParamValue(String,Object) with primitive value to avoid boxing/unboxing */
+	public StackPopper withParamValue(String paramName, long value) {
+		CallStack stack = callStackElt.ownerStack;
+		stack.beginModification();
+		callStackElt.putParam(paramName, value);
+		stack.endModification();
+		return this;
+	}
+
+	/** idem withParamValue(String,Object) with primitive value to avoid boxing/unboxing */
+	public StackPopper withParamValue(String paramName, int value) {
+		CallStack stack = callStackElt.ownerStack;
+		stack.beginModification();
+		callStackElt.putParam(paramName, value);
+		stack.endModification();
+		return this;
+	}
+
+	/** idem withParamValue(String,Object) with primitive value to avoid boxing/unboxing */
+	public StackPopper withParamValue(String paramName, double value) {
+		CallStack stack = callStackElt.ownerStack;
+		stack.beginModification();
+		callStackElt.putParam(paramName, value);
+		stack.endModification();
+		return this;
+	}
+
+	/** idem withParamValue(String,Object) with primitive value to avoid boxing/unboxing */
+	public StackPopper withParamValue(String paramName, boolean value) {
+		CallStack stack = callStackElt.ownerStack;
+		stack.beginModification();
+		callStackElt.putParam(paramName, value);
+		stack.endModification();
 		return this;
 	}
 
@@ -60,12 +102,20 @@ public final class StackPopper implements Closeable {
 	
 	/** idem returnValue(Object) with primitive value to avoid boxing/unboxing*/
 	public int returnValue(int value) {
-		return returnParamValue("return", value);
+		withParamValue("return", value);
+		return value;
 	}
 	
 	/** idem returnValue(Object) with primitive value to avoid boxing/unboxing*/
 	public long returnValue(long value) {
-		return returnParamValue("return", value);
+		withParamValue("return", value);
+		return value;
+	}
+
+	/** idem returnValue(Object) with primitive value to avoid boxing/unboxing*/
+	public double returnValue(double value) {
+		withParamValue("return", value);
+		return value;
 	}
 
 
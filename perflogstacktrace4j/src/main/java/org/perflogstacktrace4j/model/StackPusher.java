@@ -17,6 +17,10 @@ public final class StackPusher {
 	/*pp*/ StackPusher(CallStackElt pushedElt) {
 		this.pushedElt = pushedElt;
 	}
+
+	/*pp*/ CallStackElt getPushedElt() {
+		return pushedElt;
+	}
 	
 	public StackPopper push() {
 		return pushedElt.ownerStack.doPush(pushedElt);
@@ -29,6 +33,21 @@ public final class StackPusher {
 	public StackPusher withName(String className, String name) {
 		pushedElt.className = className;
 		pushedElt.name = name;
+		pushedElt.timingPolicy = null;
+		return this;
+	}
+
+	public StackPusher withCallSite(CallSite callSite) {
+		pushedElt.callSite = callSite;
+		pushedElt.className = callSite.getClassName();
+		pushedElt.name = callSite.getName();
+		pushedElt.timingPolicy = callSite.getTimingPolicy();
+		return this;
+	}
+
+	/** override timing policy for this push (default to TimingPolicy.getDefault()) */
+	public StackPusher withTimingPolicy(TimingPolicy p) {
+		pushedElt.timingPolicy = p;
 		return this;
 	}
 	
@@ -37,11 +56,55 @@ public final class StackPusher {
 		return withParam(paramName, value);
 	}
 
+	/** alias for withParam(), with primitive value to avoid boxing/unboxing */
+	public StackPusher p(String paramName, long value) {
+		return withParam(paramName, value);
+	}
+
+	/** alias for withParam(), with primitive value to avoid boxing/unboxing */
+	public StackPusher p(String paramName, int value) {
+		return withParam(paramName, value);
+	}
+
+	/** alias for withParam(), with primitive value to avoid boxing/unboxing */
+	public StackPusher p(String paramName, double value) {
+		return withParam(paramName, value);
+	}
+
+	/** alias for withParam(), with primitive value to avoid boxing/unboxing */
+	public StackPusher p(String paramName, boolean value) {
+		return withParam(paramName, value);
+	}
+
 	public StackPusher withParam(String paramName, Object value) {
 		pushedElt.putParam(paramName, value);
 		return this;
 	}
 
+	/** idem withParam(String,Object) with primitive value to avoid boxing/unboxing */
+	public StackPusher withParam(String paramName, long value) {
+		pushedElt.putParam(paramName, value);
+		return this;
+	}
+
+	/** idem withParam(String,Object) with primitive value to avoid boxing/unboxing */
+	public StackPusher withParam(String paramName, int value) {
+		pushedElt.putParam(paramName, value);
+		return this;
+	}
+
+	/** idem withParam(String,Object) with primitive value to avoid boxing/unboxing */
+	public StackPusher withParam(String paramName, double value) {
+		pushedElt.putParam(paramName, value);
+		return this;
+	}
+
+	/** idem withParam(String,Object) with primitive value to avoid boxing/unboxing */
+	public StackPusher withParam(String paramName, boolean value) {
+		pushedElt.putParam(paramName, value);
+		return this;
+	}
+
 	public StackPusher withParams(Map<String,Object> p) {
 		pushedElt.putAllParams(p);
 		return this;
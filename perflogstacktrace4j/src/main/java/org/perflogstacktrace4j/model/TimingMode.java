@@ -0,0 +1,29 @@
+package org.perflogstacktrace4j.model;
+
+/**
+ * clock source(s) used to measure push()/pop() times of a CallStackElt
+ * 
+ * see TimingPolicy
+ */
+public enum TimingMode {
+
+	/** wall-clock (System.nanoTime()) + thread cpu/user time on every push()/pop() (default) */
+	WALL_AND_CPU,
+	
+	/** wall-clock only, no thread cpu/user time */
+	WALL_ONLY,
+	
+	/** wall-clock, and thread cpu/user time measured only on 1 span out of N (per thread) */
+	WALL_AND_SAMPLED_CPU,
+	
+	/** wall-clock, and thread cpu/user time measured only for root spans (first element pushed on thread stack) */
+	WALL_AND_ROOT_CPU,
+	
+	/** coarse cached wall-clock, updated by a background ticker thread, no thread cpu/user time. For ultra-hot spans */
+	COARSE_WALL;
+
+	public int mask() {
+		return 1 << ordinal();
+	}
+
+}
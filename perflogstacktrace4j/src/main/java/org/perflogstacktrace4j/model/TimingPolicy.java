@@ -0,0 +1,86 @@
+package org.perflogstacktrace4j.model;
+
+import org.perflogstacktrace4j.utils.ThreadTimeUtils;
+
+/**
+ * immutable configuration of the clock sources used to measure push()/pop() times
+ * 
+ * configurable globally (see setDefault()), per CallStackTracer, per CallSite, or per push using StackPusher.withTimingPolicy()
+ * <PRE>
+ * TimingPolicy.setDefault(TimingPolicy.sampledCpu(100)); // measure cpu time on 1 span out of 100
+ * </PRE>
+ */
+public final class TimingPolicy {
+
+	private static final TimingPolicy WALL_AND_CPU = new TimingPolicy(TimingMode.WALL_AND_CPU, 1);
+	private static final TimingPolicy WALL_ONLY = new TimingPolicy(TimingMode.WALL_ONLY, 0);
+	private static final TimingPolicy WALL_AND_ROOT_CPU = new TimingPolicy(TimingMode.WALL_AND_ROOT_CPU, 0);
+	
+	private static volatile TimingPolicy defaultPolicy = WALL_AND_CPU;
+	
+	private final TimingMode mode;
+	
+	/** for WALL_AND_SAMPLED_CPU: measure cpu time on 1 span out of cpuSamplingRate */
+	private final int cpuSamplingRate;
+
+	// ------------------------------------------------------------------------
+
+	private TimingPolicy(TimingMode mode, int cpuSamplingRate) {
+		this.mode = mode;
+		this.cpuSamplingRate = cpuSamplingRate;
+	}
+
+	public static TimingPolicy wallAndCpu() {
+		return WALL_AND_CPU;
+	}
+
+	public static TimingPolicy wallOnly() {
+		return WALL_ONLY;
+	}
+
+	public static TimingPolicy rootCpu() {
+		return WALL_AND_ROOT_CPU;
+	}
+
+	public static TimingPolicy sampledCpu(int cpuSamplingRate) {
+		if (cpuSamplingRate <= 1) {
+			return WALL_AND_CPU;
+		}
+		return new TimingPolicy(TimingMode.WALL_AND_SAMPLED_CPU, cpuSamplingRate);
+	}
+
+	/** coarse wall-clock, implicitly starting the background ticker thread (see ThreadTimeUtils.startCoarseClockTicker()) */
+	public static TimingPolicy coarseWall() {
+		ThreadTimeUtils.startCoarseClockTicker();
+		return new TimingPolicy(TimingMode.COARSE_WALL, 0);
+	}
+
+	public static TimingPolicy getDefault() {
+		return defaultPolicy;
+	}
+
+	public static void setDefault(TimingPolicy p) {
+		if (p == null) throw new IllegalArgumentException();
+		defaultPolicy = p;
+	}
+
+	// ------------------------------------------------------------------------
+
+	public TimingMode getMode() {
+		return mode;
+	}
+
+	public int getCpuSamplingRate() {
+		return cpuSamplingRate;
+	}
+
+	// ------------------------------------------------------------------------
+
+	@Override
+	public String toString() {
+		return "TimingPolicy[" + mode 
+				+ ((mode == TimingMode.WALL_AND_SAMPLED_CPU)? " 1/" + cpuSamplingRate : "") 
+				+ "]";
+	}
+
+}
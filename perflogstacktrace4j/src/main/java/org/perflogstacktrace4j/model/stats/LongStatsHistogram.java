@@ -1,71 +1,64 @@
 package org.perflogstacktrace4j.model.stats;
 
+import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
-import org.perflogstacktrace4j.utils.ExUtils;
+import org.perflogstacktrace4j.model.CallStackElt;
 import org.perflogstacktrace4j.utils.UnsafeUtils;
-import org.perflogstacktrace4j.utils.UnsafeUtils.IntArrayVolatileFieldAccessor;
-import org.perflogstacktrace4j.utils.UnsafeUtils.LongArrayVolatileFieldAccessor;
 import org.perflogstacktrace4j.utils.UnsafeUtils.LongVolatileFieldAccessor;
 
 
 /**
- * statistics histogram on Long values, using Logarithmic-based for basic performance ranges
+ * statistics histogram on Long values, using log-linear slots (see LongStatsHistogramLayout)
  * <BR/>
  * This class is multi-thread safe, and lock FREE !!
  * <BR/>
  * 
- * Ranges are hard-coded with 10 buckets, using this logarithmic range: 
- * <ul>
- * <li> [0]: 0           millis</li>
- * <li> [1]: 1    - 31   millis</li>
- * <li> [2]: 32   - 63   millis</li>
- * <li> [3]: 64   - 127  millis</li>
- * <li> [4]: 128  - 255  millis</li>
- * <li> [5]: 256  - 511  millis</li>
- * <li> [6]: 512  - 1023 millis</li>
- * <li> [7]: 1024 - 2047 millis</li>
- * <li> [8]: 2048 - 4095 millis</li>
- * <li> [9]: more than 4096 millis</li>
- * </ul> 
+ * Slots are defined by a LongStatsHistogramLayout (default: LongStatsHistogramLayout.getDefault(), for nanos),
+ * with bounded relative error, so percentiles (see getValueAtPercentile()) can be computed from slot counts.
+ * Count slots are allocated lazily on first incr(), so unused histograms stay small.
+ * Only the total sum is kept (not a sum per slot), for memory.
+ * 
+ * For hot values updated from many threads, striping can be enabled (see enableStriping()):
+ * incr() then updates count/sum slots in a cell selected per thread (similar to java.util.concurrent.atomic.LongAdder),
+ * and cells are merged only when reading counts/sums.
  */
 public final class LongStatsHistogram {
 
-	private static final IntArrayVolatileFieldAccessor<LongStatsHistogram> countSlotsAccessor = 
-			UnsafeUtils.intArrayVolatileFieldAccessor(LongStatsHistogram.class, "countSlots");
-	private static final LongArrayVolatileFieldAccessor<LongStatsHistogram> sumSlotsAccessor = 
-			UnsafeUtils.longArrayVolatileFieldAccessor(LongStatsHistogram.class, "sumSlots");
-
+	private static final LongVolatileFieldAccessor<LongStatsHistogram> sumAccessor = 
+			UnsafeUtils.longVolatileFieldAccessor(LongStatsHistogram.class, "sum");
 	private static final LongVolatileFieldAccessor<LongStatsHistogram> minValueAccessor = 
 			UnsafeUtils.longVolatileFieldAccessor(LongStatsHistogram.class, "minValue");
 	private static final LongVolatileFieldAccessor<LongStatsHistogram> maxValueAccessor = 
 			UnsafeUtils.longVolatileFieldAccessor(LongStatsHistogram.class, "maxValue");
 	private static final LongVolatileFieldAccessor<LongStatsHistogram> timeReachingMaxValueAccessor = 
 			UnsafeUtils.longVolatileFieldAccessor(LongStatsHistogram.class, "timeReachingMaxValue");
+	private static final LongVolatileFieldAccessor<LongStatsHistogram> lastExemplarCaptureTimeAccessor = 
+			UnsafeUtils.longVolatileFieldAccessor(LongStatsHistogram.class, "lastExemplarCaptureTime");
+
+	/** min interval between 2 captures of MaxValueExemplar, per histogram */
+	private static volatile long maxValueExemplarMinIntervalMillis = 1000;
 	
-	/**
-	 * slot count
-	 */
-	public static final int SLOT_LEN = 10;
+	/** capture java stack (new Throwable()) in MaxValueExemplar .. default false, as it is much more costly than applicative path */
+	private static volatile boolean maxValueExemplarJavaStackEnabled = false;
 	
+	private final LongStatsHistogramLayout layout;
 
 	/**
-	 * occurrence count per elapsed time using histogram slots
+	 * occurrence count per value using histogram slots, null until first incr()
 	 * 
 	 * (values updated atomically using code similar to AtomicIntegerArray using UNSAFE.getAndAddInt() / .getIntVolatile()
 	 * but optimized: without using wrapper class + extra array index bound checking
 	 * )
 	 */
-	private int[] countSlots = new int[SLOT_LEN];
+	private volatile int[] countSlots;
 
 	/**
-	 * sum of calls elapsed time in nanos, using histogram slots
-	 * 
-	 * (values updated atomically using code similar to AtomicLongArray using UNSAFE.getAndAddLong() / .getLongVolatile() 
-	 * but optimized: without using wrapper class + extra array index bound checking
-	 * )
+	 * sum of values (elapsed time in nanos for PerfTimeStats)
 	 */
-	private long[] sumSlots = new long[SLOT_LEN];
+	private long sum;
 	
 	/**
 	 * min value
@@ -83,30 +76,123 @@ public final class LongStatsHistogram {
 	private long timeReachingMaxValue;
 
 	/**
-     * StackTrace when value has reached max value
+     * exemplar of call having reached max value (rate-limited, so may correspond to a previous max value)
      */
-	private String stackReachingMaxValue;
+	private volatile MaxValueExemplar maxValueExemplar;
+
+	/** time of last capture of maxValueExemplar, for rate-limiting */
+	private long lastExemplarCaptureTime;
+
+	/**
+	 * optional striped cells for count/sum slots, null when not striped (default)
+	 * length is a power of 2
+	 */
+	private volatile Cell[] cells;
 
 	
 	// ------------------------------------------------------------------------
 
 	public LongStatsHistogram() {
+		this(LongStatsHistogramLayout.getDefault());
+	}
+
+	public LongStatsHistogram(LongStatsHistogramLayout layout) {
+		if (layout == null) throw new IllegalArgumentException();
+		this.layout = layout;
 	}
 
 	public LongStatsHistogram(LongStatsHistogram src) {
+		this.layout = src.layout;
 		set(src);
 	}
 	
 	// ------------------------------------------------------------------------
 
+	public LongStatsHistogramLayout getLayout() {
+		return layout;
+	}
+
+	public int getSlotLen() {
+		return layout.getSlotLen();
+	}
+
 	public int getCount(int index) {
-		assert index >= 0 && index < SLOT_LEN;
-		return countSlotsAccessor.getAt(this, index);
+		assert index >= 0 && index < layout.getSlotLen();
+		int[] slots = countSlots;
+		int res = (slots != null)? UnsafeUtils.getIntVolatileAt(slots, index) : 0;
+		Cell[] cs = cells;
+		if (cs != null) {
+			for (Cell c : cs) {
+				res += c.getCount(index);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * copy counts of all slots into dest (of length >= getSlotLen()), faster than getCount(index) for each slot
+	 * @return number of non-empty slots
+	 */
+	public int copyCountsTo(int[] dest) {
+		return copyCountsTo(dest, 0, layout.getSlotLen());
+	}
+
+	/**
+	 * copy counts of slots in [fromIndex, toIndex) into dest, other slots of dest are set to 0
+	 * typically with fromIndex/toIndex from the slots of min/max values, to skip reading slots known to be empty
+	 * @return number of non-empty slots
+	 */
+	public int copyCountsTo(int[] dest, int fromIndex, int toIndex) {
+		int slotLen = layout.getSlotLen();
+		Arrays.fill(dest, 0, fromIndex, 0);
+		Arrays.fill(dest, toIndex, slotLen, 0);
+		int[] slots = countSlots;
+		Cell[] cs = cells;
+		if (slots == null && cs == null) {
+			Arrays.fill(dest, fromIndex, toIndex, 0);
+			return 0;
+		}
+		int nonEmptyCount = 0;
+		for (int i = fromIndex; i < toIndex; i++) {
+			int count = (slots != null)? UnsafeUtils.getIntVolatileAt(slots, i) : 0;
+			if (cs != null) {
+				for (Cell c : cs) {
+					count += c.getCount(i);
+				}
+			}
+			dest[i] = count;
+			if (count != 0) {
+				nonEmptyCount++;
+			}
+		}
+		return nonEmptyCount;
 	}
 	
+	/** @return sum of values in all slots */
+	public long getSum() {
+		long res = sumAccessor.get(this);
+		Cell[] cs = cells;
+		if (cs != null) {
+			for (Cell c : cs) {
+				res += c.getSum();
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @deprecated sums are not kept per slot any more (only the total sum, see getSum()):
+	 * estimated from the slot count and the slot middle value
+	 */
+	@Deprecated
 	public long getSum(int index) {
-		assert index >= 0 && index < SLOT_LEN;
-		return sumSlotsAccessor.getAt(this, index);
+		return getCount(index) * layout.slotMidValue(index);
+	}
+
+	/** @deprecated slots depend on the layout, use getLayout().valueToSlotIndex() */
+	@Deprecated
+	public static int valueToSlotIndex(long value) {
+		return LongStatsHistogramLayout.getDefault().valueToSlotIndex(value);
 	}
 
 	public long getMinValue() {
@@ -121,74 +207,253 @@ public final class LongStatsHistogram {
 		return timeReachingMaxValueAccessor.get(this);
 	}
 
+	public MaxValueExemplar getMaxValueExemplar() {
+		return maxValueExemplar;
+	}
+
+	/** @return description of the call having reached max value (cf getMaxValueExemplar()), or null */
 	public String getStackReachingMaxValue() {
-		return stackReachingMaxValue;
+		MaxValueExemplar exemplar = maxValueExemplar;
+		return (exemplar != null)? exemplar.toString() : null;
+	}
+
+	public static long getMaxValueExemplarMinIntervalMillis() {
+		return maxValueExemplarMinIntervalMillis;
+	}
+
+	public static void setMaxValueExemplarMinIntervalMillis(long p) {
+		maxValueExemplarMinIntervalMillis = p;
+	}
+
+	public static boolean isMaxValueExemplarJavaStackEnabled() {
+		return maxValueExemplarJavaStackEnabled;
+	}
+
+	public static void setMaxValueExemplarJavaStackEnabled(boolean p) {
+		maxValueExemplarJavaStackEnabled = p;
+	}
+
+	public boolean isStriped() {
+		return cells != null;
+	}
+
+	/** alias for <code>enableStriping(defaultStripeCount())</code> */
+	public void enableStriping() {
+		enableStriping(defaultStripeCount());
+	}
+
+	/**
+	 * enable striped count/sum cells, to avoid contention (cache-line ping-pong) when many threads call incr()
+	 * this is a one-way switch: striping can not be disabled afterwards
+	 * @param stripeCount rounded to a power of 2
+	 */
+	public void enableStriping(int stripeCount) {
+		if (cells != null) {
+			return;
+		}
+		int len = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+		Cell[] cs = new Cell[len];
+		for (int i = 0; i < len; i++) {
+			cs[i] = new Cell(layout.getSlotLen());
+		}
+		synchronized(this) {
+			if (cells == null) {
+				cells = cs;
+			}
+		}
+	}
+
+	/** @return nearest power of 2 greater or equal to available processors */
+	public static int defaultStripeCount() {
+		int procs = Runtime.getRuntime().availableProcessors();
+		return (procs <= 1)? 1 : Integer.highestOneBit(procs - 1) << 1;
 	}
 	
 	// --------------------------------------------------------------------------------------------
 
+
 	public void clear() {
-		for (int i = 0; i < SLOT_LEN; i++) {
-			countSlotsAccessor.setAt(this, i, 0);
-			sumSlotsAccessor.setAt(this, i, 0);
+		int[] slots = countSlots;
+		if (slots != null) {
+			for (int i = 0; i < slots.length; i++) {
+				if (UnsafeUtils.getIntVolatileAt(slots, i) != 0) {
+					UnsafeUtils.getAndSetIntAt(slots, i, 0);
+				}
+			}
 		}
+		sumAccessor.set(this, 0);
+		clearCells();
 		minValueAccessor.set(this, Long.MAX_VALUE);
 		maxValueAccessor.set(this, Long.MIN_VALUE);
 		timeReachingMaxValueAccessor.set(this, 0);
-		stackReachingMaxValue = null;
+		lastExemplarCaptureTimeAccessor.set(this, 0);
+		maxValueExemplar = null;
 	}
 
 
 	public void incr(long value) {
-		int index = valueToSlotIndex(value);
-		countSlotsAccessor.addAt(this, index, 1);
-		sumSlotsAccessor.addAt(this, index, value);
+		incr(value, 1);
+	}
+
+	/**
+	 * incr count by <code>weight</code> and sum by <code>value * weight</code>,
+	 * for extrapolating a value measured on 1 sampled call out of <code>weight</code> calls 
+	 */
+	public void incr(long value, int weight) {
+		incr(value, weight, null);
+	}
+
+	/**
+	 * idem incr(value, weight), and capture a MaxValueExemplar from <code>elt</code> when reaching a new max value 
+	 * (rate-limited per histogram, see setMaxValueExemplarMinIntervalMillis())
+	 */
+	public void incr(long value, int weight, CallStackElt elt) {
+		int index = layout.valueToSlotIndex(value);
+		long weightedValue = (weight == 1)? value : value * weight;
+		Cell[] cs = cells;
+		if (cs == null) {
+			UnsafeUtils.getAndAddIntAt(countSlots(), index, weight);
+			sumAccessor.add(this, weightedValue);
+		} else {
+			Cell c = cs[threadProbe() & (cs.length - 1)];
+			c.countSlots.getAndAdd(Cell.PAD + index, weight);
+			c.sum.getAndAdd(Cell.PAD, weightedValue);
+		}
 		
+		updateMinValue(value);
+		long prevMax = maxValueAccessor.get(this);
+		while (value > prevMax) {
+			if (maxValueAccessor.compareAndSwap(this, prevMax, value)) {
+				onNewMaxValue(value, elt);
+				break;
+			}
+			prevMax = maxValueAccessor.get(this);
+		}
+	}
+
+	/** 
+	 * @return slot index for src slot, using its lowest value, within slots of min/max values
+	 * (so that all counts are within [slot(min), slot(max)], see copyCountsTo())
+	 */
+	private int rebucketSlotIndex(LongStatsHistogramLayout srcLayout, int srcIndex, long minValue, long maxValue) {
+		int index = layout.valueToSlotIndex(srcLayout.slotFrom(srcIndex));
+		if (minValue <= maxValue) {
+			index = Math.max(index, layout.valueToSlotIndex(minValue));
+			index = Math.min(index, layout.valueToSlotIndex(maxValue));
+		}
+		return index;
+	}
+
+	private void updateMinValue(long value) {
 		long prevMin = minValueAccessor.get(this);
-		if (value < prevMin) {
-			minValueAccessor.compareAndSwap(this, prevMin, value);
-			timeReachingMaxValueAccessor.set(this, System.currentTimeMillis());
-			stackReachingMaxValue = ExUtils.currentStackTraceShortPath();
+		while (value < prevMin) {
+			if (minValueAccessor.compareAndSwap(this, prevMin, value)) {
+				break;
+			}
+			prevMin = minValueAccessor.get(this);
 		}
-		long prevMax = maxValueAccessor.get(this);
-		if (value > prevMax) {
-			maxValueAccessor.compareAndSwap(this, prevMax, value);
+	}
+
+	private void onNewMaxValue(long value, CallStackElt elt) {
+		long now = System.currentTimeMillis();
+		timeReachingMaxValueAccessor.set(this, now);
+		if (elt == null) {
+			return;
+		}
+		long lastCaptureTime = lastExemplarCaptureTimeAccessor.get(this);
+		if (now - lastCaptureTime >= maxValueExemplarMinIntervalMillis
+				&& lastExemplarCaptureTimeAccessor.compareAndSwap(this, lastCaptureTime, now)) {
+			maxValueExemplar = MaxValueExemplar.capture(value, now, elt, maxValueExemplarJavaStackEnabled);
 		}
 	}
 
+	/**
+	 * merge counts, sum, min and max of <code>src</code> into this
+	 * when layouts differ, src slots are re-bucketed using their lowest value
+	 */
 	public void incr(LongStatsHistogram src) {
-		for (int i = 0; i < SLOT_LEN; i++) {
-			countSlotsAccessor.addAt(this, i, src.getCount(i));
-			sumSlotsAccessor.addAt(this, i, src.getSum(i));
+		boolean sameLayout = layout.equals(src.layout);
+		int[] slots = null;
+		// read src arrays once (instead of src.getCount(i) per slot), and only slots within [slot(min), slot(max)] (see copyCountsTo())
+		int[] srcSlots = src.countSlots;
+		Cell[] srcCells = src.cells;
+		long srcMin = src.getMinValue();
+		long srcMax = src.getMaxValue();
+		int fromIndex = 0, toIndex = 0;
+		if (srcMin <= srcMax && (srcSlots != null || srcCells != null)) {
+			fromIndex = src.layout.valueToSlotIndex(srcMin);
+			toIndex = src.layout.valueToSlotIndex(srcMax) + 1;
+		}
+		for (int i = fromIndex; i < toIndex; i++) {
+			int count = (srcSlots != null)? UnsafeUtils.getIntVolatileAt(srcSlots, i) : 0;
+			if (srcCells != null) {
+				for (Cell c : srcCells) {
+					count += c.getCount(i);
+				}
+			}
+			if (count == 0) {
+				continue;
+			}
+			if (slots == null) {
+				slots = countSlots();
+			}
+			int index = (sameLayout)? i : rebucketSlotIndex(src.layout, i, srcMin, srcMax);
+			UnsafeUtils.getAndAddIntAt(slots, index, count);
+		}
+		sumAccessor.add(this, src.getSum());
+		
+		updateMinValue(srcMin);
+		long prevMax = maxValueAccessor.get(this);
+		while (srcMax > prevMax) {
+			if (maxValueAccessor.compareAndSwap(this, prevMax, srcMax)) {
+				timeReachingMaxValueAccessor.set(this, src.getTimeReachingMaxValue());
+				maxValueExemplar = src.getMaxValueExemplar();
+				break;
+			}
+			prevMax = maxValueAccessor.get(this);
 		}
 	}
 
-	public void set(LongStatsHistogram src) {
-		for (int i = 0; i < SLOT_LEN; i++) {
-			countSlotsAccessor.setAt(this, i, src.getCount(i));
-			sumSlotsAccessor.setAt(this, i, src.getSum(i));
+	/**
+	 * set raw values, typically decoded from a serialized form
+	 * @param srcLayout layout of <code>slotCounts</code>, re-bucketed using their lowest value when different from this layout
+	 */
+	public void set(LongStatsHistogramLayout srcLayout, int[] slotCounts, 
+			long sum, long minValue, long maxValue, long timeReachingMaxValue) {
+		clear();
+		boolean sameLayout = layout.equals(srcLayout);
+		int[] slots = null;
+		for (int i = 0; i < slotCounts.length; i++) {
+			int count = slotCounts[i];
+			if (count == 0) {
+				continue;
+			}
+			if (slots == null) {
+				slots = countSlots();
+			}
+			int index = (sameLayout)? i : rebucketSlotIndex(srcLayout, i, minValue, maxValue);
+			UnsafeUtils.getAndAddIntAt(slots, index, count);
 		}
-		minValueAccessor.set(this, src.getMinValue());
-		maxValueAccessor.set(this, src.getMaxValue());
+		sumAccessor.set(this, sum);
+		minValueAccessor.set(this, minValue);
+		maxValueAccessor.set(this, maxValue);
+		timeReachingMaxValueAccessor.set(this, timeReachingMaxValue);
+	}
+
+	public void set(LongStatsHistogram src) {
+		clear();
+		incr(src);
 		timeReachingMaxValueAccessor.set(this, src.getTimeReachingMaxValue());
-		stackReachingMaxValue  = src.getStackReachingMaxValue();
+		maxValueExemplar = src.getMaxValueExemplar();
 	}
 	
 	// ------------------------------------------------------------------------
 
-	/** @return sum of values in all slots */
-	public long getSum() {
-		long res = 0;
-		for (int i = 0; i < SLOT_LEN; i++) {
-			res += getSum(i);
-		}
-		return res;
-	}
-
 	/** @return sum of counts in all slots */
 	public int getCount() {
 		int res = 0;
-		for (int i = 0; i < SLOT_LEN; i++) {
+		int slotLen = layout.getSlotLen();
+		for (int i = 0; i < slotLen; i++) {
 			res += getCount(i);
 		}
 		return res;
@@ -201,21 +466,61 @@ public final class LongStatsHistogram {
 		return (double)sum / count;
 	}
 
+	/**
+	 * @param percentile in [0, 100]
+	 * @return upper bound of the slot containing the value at percentile (bounded by max value), or 0 when empty
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = getCount();
+		if (total == 0) {
+			return 0;
+		}
+		double p = Math.min(100.0, Math.max(0.0, percentile));
+		long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+		// walk slots in place (no copy): counts concurrently incremented meanwhile may shift the result by one slot
+		int slotLen = layout.getSlotLen();
+		long cumul = 0;
+		int index = slotLen - 1;
+		for (int i = 0; i < slotLen; i++) {
+			cumul += getCount(i);
+			if (cumul >= rank) {
+				index = i;
+				break;
+			}
+		}
+		return Math.min(layout.slotTo(index), getMaxValue());
+	}
+
+	public long getP50() {
+		return getValueAtPercentile(50.0);
+	}
+
+	public long getP90() {
+		return getValueAtPercentile(90.0);
+	}
+
+	public long getP99() {
+		return getValueAtPercentile(99.0);
+	}
+
+	public long getP999() {
+		return getValueAtPercentile(99.9);
+	}
+
 	/** @return copy of all slots */
 	public LongStatsHistogramSlotInfo[] getSlotInfoCopy() {
-		LongStatsHistogramSlotInfo[] res = new LongStatsHistogramSlotInfo[SLOT_LEN];
-		for (int i = 0; i < SLOT_LEN; i++) {
-			LongStatsHistogramSlotInfo slotInfo = SLOT_INFOS[i];
-			res[i] = new LongStatsHistogramSlotInfo(slotInfo.getFrom(), slotInfo.getTo(), getCount(i), getSum(i));
+		int slotLen = layout.getSlotLen();
+		LongStatsHistogramSlotInfo[] res = new LongStatsHistogramSlotInfo[slotLen];
+		for (int i = 0; i < slotLen; i++) {
+			res[i] = getSlotInfoCopyAt(i);
 		}
 		return res;
 	}
 
 	/** @return copy of nth-slot */
 	public LongStatsHistogramSlotInfo getSlotInfoCopyAt(int i) {
-		if (i < 0 || i >= SLOT_LEN) throw new ArrayIndexOutOfBoundsException();
-		LongStatsHistogramSlotInfo slotInfo = SLOT_INFOS[i];
-		return new LongStatsHistogramSlotInfo(slotInfo.getFrom(), slotInfo.getTo(), getCount(i), getSum(i));
+		if (i < 0 || i >= layout.getSlotLen()) throw new ArrayIndexOutOfBoundsException();
+		return new LongStatsHistogramSlotInfo(layout.slotFrom(i), layout.slotTo(i), getCount(i));
 	}
 	
 	@Override /* java.lang.Object */
@@ -228,7 +533,11 @@ public final class LongStatsHistogram {
 	}
 
 	public boolean compareHasChangeCount(LongStatsHistogram cmp) {
-		for (int i = 0; i < SLOT_LEN; i++) {
+		int slotLen = layout.getSlotLen();
+		if (cmp.layout.getSlotLen() != slotLen) {
+			return true;
+		}
+		for (int i = 0; i < slotLen; i++) {
 			if (getCount(i) != cmp.getCount(i)) {
 				return true;
 			}
@@ -245,81 +554,85 @@ public final class LongStatsHistogram {
 		StringBuilder sb = new StringBuilder();
 		long avg = (count != 0)? getSum()/count : 0;
 		sb.append("PerfStatsHistogram["
-				+ "cumul count:" + count + ", avg:" + avg + "\n");
-		for(int i = 0; i < SLOT_LEN; i++) {
-			sb.append("slot[" + i+ "]: { count:" + countSlots[i] + ", sum:" + sumSlots[i] + "}\n");
+				+ "cumul count:" + count + ", avg:" + avg 
+				+ ", p50:" + getP50() + ", p90:" + getP90() + ", p99:" + getP99() + ", p99.9:" + getP999() + "\n");
+		int slotLen = layout.getSlotLen();
+		for(int i = 0; i < slotLen; i++) {
+			int slotCount = getCount(i);
+			if (slotCount != 0) {
+				sb.append("slot[" + i + "] " + layout.slotFrom(i) + "-" + layout.slotTo(i) + ": { count:" + slotCount + "}\n");
+			}
 		}
-		sb.append("minValue:" + minValue + ", maxValue:" + maxValue 
-				+ " at " + new Date(timeReachingMaxValue)
-				+ " stackReachingMaxValue: " + stackReachingMaxValue);
+		sb.append("minValue:" + getMinValue() + ", maxValue:" + getMaxValue() 
+				+ " at " + new Date(getTimeReachingMaxValue())
+				+ " maxValueExemplar: " + maxValueExemplar);
 		sb.append("]");
 		return sb.toString();
 	}
 	
-	// internal utilities for log-based index
+	// internal
 	// ------------------------------------------------------------------------
 
-	private static final LongStatsHistogramSlotInfo[] SLOT_INFOS;
-	private static final int MAX_SLOT_VALUE = 4096;
-	private static final int[] VALUE_DIV32_TO_SLOT_INDEX; 
-
-	static {
-		int[] breaks = new int[] { 
-				1, 32, 64, 128, 256, 512, 1024, 2048, 4096 
-		};
-
-		LongStatsHistogramSlotInfo[] tmp = new LongStatsHistogramSlotInfo[SLOT_LEN];
-		int[] tmpValueToSlotIndex = new int[MAX_SLOT_VALUE/32];
-		
-		tmp[0] = new LongStatsHistogramSlotInfo(-Long.MAX_VALUE, 0, 0, 0);
-		int index = 1;
-		int from = 1;
-		for(int i = 1; i <= MAX_SLOT_VALUE; i++) {
-			if (breaks[index] == i) {
-				tmp[index] = new LongStatsHistogramSlotInfo(from, i-1, 0, 0);
-				index++;
-				from = i;
+	/** @return count slots, allocated on first use */
+	private int[] countSlots() {
+		int[] res = countSlots;
+		if (res == null) {
+			synchronized(this) {
+				res = countSlots;
+				if (res == null) {
+					res = new int[layout.getSlotLen()];
+					countSlots = res;
+				}
 			}
-			if (i == MAX_SLOT_VALUE) break;
-			int iDiv32 = i >>> 5;
-			tmpValueToSlotIndex[iDiv32] = index;
 		}
-		tmp[SLOT_LEN-1] = new LongStatsHistogramSlotInfo(from, Long.MAX_VALUE, 0, 0);
-		
-		SLOT_INFOS = tmp;
-		VALUE_DIV32_TO_SLOT_INDEX = tmpValueToSlotIndex;
-		
-		// check..
-		if (1 != valueToSlotIndex(30)) throw new IllegalStateException();
-		if (1 != valueToSlotIndex(31)) throw new IllegalStateException();
-		if (2 != valueToSlotIndex(32)) throw new IllegalStateException();
-		if (2 != valueToSlotIndex(33)) throw new IllegalStateException();
-		
-		if (SLOT_LEN-2 != valueToSlotIndex(4095)) throw new IllegalStateException();
-		if (SLOT_LEN-1 != valueToSlotIndex(4096)) throw new IllegalStateException();
-		
-		index = 1;
-		for(int i = 1; i < MAX_SLOT_VALUE; i++) {
-			if (breaks[index] == i) {
-				index++;
-			}
-			int checkSlot = valueToSlotIndex(i);
-			if (checkSlot != index) {
-				throw new IllegalStateException("ERROR " + i + " => " + checkSlot + " != " + index);
+		return res;
+	}
+
+	private void clearCells() {
+		Cell[] cs = cells;
+		if (cs != null) {
+			for (Cell c : cs) {
+				c.clear();
 			}
 		}
-		
 	}
-	
+
+	private static int threadProbe() {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9; // fibonacci hashing, to spread consecutive thread ids
+		return h ^ (h >>> 16);
+	}
+
 	/**
-	 * index using logarithm / linear by parts 
+	 * striped cell of count slots + sum
+	 * slots are padded on both sides, to avoid false sharing with neighbour objects in memory
 	 */
-	public static int valueToSlotIndex(long value) {
-		if (value <= 0) return 0;
-		else if (value >= MAX_SLOT_VALUE) return SLOT_LEN-1;
-		int v = (int) value;
-		if (v < 32) return 1;
-		else return VALUE_DIV32_TO_SLOT_INDEX[v >>> 5];
+	private static final class Cell {
+		/** padding, in array elements, ~ 64 bytes cache line */
+		private static final int PAD = 16;
+		
+		private final AtomicIntegerArray countSlots;
+		private final AtomicLongArray sum = new AtomicLongArray(PAD + 1 + PAD);
+
+		Cell(int slotLen) {
+			this.countSlots = new AtomicIntegerArray(PAD + slotLen + PAD);
+		}
+		
+		int getCount(int index) {
+			return countSlots.get(PAD + index);
+		}
+
+		long getSum() {
+			return sum.get(PAD);
+		}
+
+		void clear() {
+			int len = countSlots.length() - PAD;
+			for (int i = PAD; i < len; i++) {
+				countSlots.set(i, 0);
+			}
+			sum.set(PAD, 0);
+		}
 	}
 
 }
@@ -0,0 +1,153 @@
+package org.perflogstacktrace4j.model.stats;
+
+import java.io.Serializable;
+
+/**
+ * immutable layout of LongStatsHistogram slots, using a log-linear scale (similar to HdrHistogram)
+ * <BR/>
+ * values are first divided by <code>2^unitShift</code> (unit), then:
+ * <ul>
+ * <li>values below <code>2^subBucketBits</code> units have a slot per unit (linear)</li>
+ * <li>each following power of 2 range is split in <code>2^subBucketBits</code> linear sub-buckets, 
+ * so the relative error (slot width / value) is bounded by <code>1 / 2^subBucketBits</code></li>
+ * <li>values above <code>2^maxValueBits</code> units are all counted in the last slot</li>
+ * </ul>
+ * 
+ * Default layout (see getDefault()) is for elapsed times in nanos, from 1 micro-second to ~73 minutes,
+ * with 12.5% relative error, using 240 slots.
+ */
+public final class LongStatsHistogramLayout implements Serializable {
+
+	/** for java.io.Serializable */
+	private static final long serialVersionUID = 1L;
+
+	/** nanos: unit=1024 ns (~1 micros), 8 sub-buckets per power of 2 (12.5% error), up to 2^42 ns (~73 minutes) */
+	public static final LongStatsHistogramLayout DEFAULT_NANOS = new LongStatsHistogramLayout(10, 3, 32);
+	
+	private static volatile LongStatsHistogramLayout defaultLayout = DEFAULT_NANOS;
+	
+	private final int unitShift;
+	private final int subBucketBits;
+	private final int maxValueBits;
+	
+	// derived values
+	private final transient int subBucketCount;
+	private final transient int subBucketMask;
+	private final transient int slotLen;
+	
+	// ------------------------------------------------------------------------
+
+	public LongStatsHistogramLayout(int unitShift, int subBucketBits, int maxValueBits) {
+		if (unitShift < 0 || subBucketBits < 0 || subBucketBits > 10 
+				|| maxValueBits <= subBucketBits || unitShift + maxValueBits > 62) {
+			throw new IllegalArgumentException("invalid layout unitShift:" + unitShift 
+					+ ", subBucketBits:" + subBucketBits + ", maxValueBits:" + maxValueBits);
+		}
+		this.unitShift = unitShift;
+		this.subBucketBits = subBucketBits;
+		this.maxValueBits = maxValueBits;
+		this.subBucketCount = 1 << subBucketBits;
+		this.subBucketMask = subBucketCount - 1;
+		this.slotLen = (maxValueBits - subBucketBits + 1) << subBucketBits;
+	}
+
+	private Object readResolve() {
+		return new LongStatsHistogramLayout(unitShift, subBucketBits, maxValueBits);
+	}
+	
+	public static LongStatsHistogramLayout getDefault() {
+		return defaultLayout;
+	}
+
+	/** set default layout, for histograms created afterwards */
+	public static void setDefault(LongStatsHistogramLayout p) {
+		if (p == null) throw new IllegalArgumentException();
+		defaultLayout = p;
+	}
+
+	// ------------------------------------------------------------------------
+
+	public int getUnitShift() {
+		return unitShift;
+	}
+
+	public int getSubBucketBits() {
+		return subBucketBits;
+	}
+
+	public int getMaxValueBits() {
+		return maxValueBits;
+	}
+
+	public int getSlotLen() {
+		return slotLen;
+	}
+
+	/**
+	 * index using log-linear scale
+	 */
+	public int valueToSlotIndex(long value) {
+		if (value <= 0) return 0;
+		long v = value >>> unitShift;
+		if (v < subBucketCount) return (int) v;
+		int exp = 63 - Long.numberOfLeadingZeros(v);
+		if (exp >= maxValueBits) return slotLen - 1;
+		int shift = exp - subBucketBits;
+		return ((shift + 1) << subBucketBits) + (int) ((v >>> shift) & subBucketMask);
+	}
+
+	/** @return lowest value counted in slot */
+	public long slotFrom(int index) {
+		if (index < subBucketCount) {
+			return ((long) index) << unitShift;
+		}
+		int shift = (index >>> subBucketBits) - 1;
+		long v = ((long) (subBucketCount + (index & subBucketMask))) << shift;
+		return v << unitShift;
+	}
+
+	/** @return highest value counted in slot */
+	public long slotTo(int index) {
+		if (index >= slotLen - 1) {
+			return Long.MAX_VALUE;
+		}
+		return slotFrom(index + 1) - 1;
+	}
+
+	/** @return middle value of slot (lowest value for the last, unbounded, slot), to estimate sums of values per slot */
+	public long slotMidValue(int index) {
+		long from = slotFrom(index);
+		if (index >= slotLen - 1) {
+			return from;
+		}
+		return from + (slotTo(index) - from) / 2;
+	}
+
+	// ------------------------------------------------------------------------
+
+	@Override
+	public int hashCode() {
+		return (unitShift * 31 + subBucketBits) * 31 + maxValueBits;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		LongStatsHistogramLayout other = (LongStatsHistogramLayout) obj;
+		return unitShift == other.unitShift 
+				&& subBucketBits == other.subBucketBits 
+				&& maxValueBits == other.maxValueBits;
+	}
+
+	@Override
+	public String toString() {
+		return "LongStatsHistogramLayout[unitShift:" + unitShift 
+				+ ", subBucketBits:" + subBucketBits 
+				+ ", maxValueBits:" + maxValueBits 
+				+ ", slots:" + slotLen + "]";
+	}
+
+}
@@ -11,15 +11,25 @@ public class LongStatsHistogramSlotInfo implements Serializable {
 	private long to;
 	
 	private int count;
+
+	/** @deprecated sums are not kept per slot any more, estimated from count and slot middle value */
+	@Deprecated
 	private long sum;
 	
 	// ------------------------------------------------------------------------
 	
-	public LongStatsHistogramSlotInfo(long from, long to, int count, long sum) {
+	public LongStatsHistogramSlotInfo(long from, long to, int count) {
 		super();
 		this.from = from;
 		this.to = to;
 		this.count = count;
+		this.sum = count * ((to != Long.MAX_VALUE)? from + (to - from) / 2 : from);
+	}
+
+	/** @deprecated sums are not kept per slot any more, use LongStatsHistogramSlotInfo(from, to, count) */
+	@Deprecated
+	public LongStatsHistogramSlotInfo(long from, long to, int count, long sum) {
+		this(from, to, count);
 		this.sum = sum;
 	}
 	
@@ -50,14 +60,20 @@ public class LongStatsHistogramSlotInfo implements Serializable {
 		this.count = count;
 	}
 
+	/** @deprecated sums are not kept per slot any more: estimated from count and slot middle value */
+	@Deprecated
 	public long getSum() {
 		return sum;
 	}
 
+	/** @deprecated sums are not kept per slot any more */
+	@Deprecated
 	public void setSum(long sum) {
 		this.sum = sum;
 	}
 
+	/** @deprecated sums are not kept per slot any more: estimated slot middle value */
+	@Deprecated
 	public double average() {
 		return ((double)sum) / ((count != 0)? count : 1);
 	}
@@ -67,7 +83,7 @@ public class LongStatsHistogramSlotInfo implements Serializable {
 	@Override
 	public String toString() {
 		return "SlotInfo[range=" + from + "-" + to
-				+ ", count=" + count + ", sum=" + sum + "]";
+				+ ", count=" + count + "]";
 	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,131 @@
+package org.perflogstacktrace4j.model.stats;
+
+import java.util.Date;
+
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStackElt;
+import org.perflogstacktrace4j.utils.ExUtils;
+
+/**
+ * immutable exemplar of the call that reached the max value of a LongStatsHistogram
+ * 
+ * captured cheaply from the applicative CallStackElt: path of CallSite ids + first few params (as String).
+ * Java stack capture is optional (see LongStatsHistogram.setMaxValueExemplarJavaStackEnabled()), 
+ * and its formatting as String is deferred until read.
+ */
+public final class MaxValueExemplar {
+
+	public static final int MAX_PARAMS = 4;
+	
+	private final long value;
+	
+	private final long timeMillis;
+	
+	/** CallSite ids, from first pushed element (index 0) to the element reaching max value */ 
+	private final int[] callSiteIdPath;
+	
+	private final String[] paramNames;
+	private final String[] paramValues;
+	
+	/** optional, not formatted until getJavaStackTrace() is called */
+	private final Throwable javaStack;
+	
+	// ------------------------------------------------------------------------
+
+	public MaxValueExemplar(long value, long timeMillis, int[] callSiteIdPath, 
+			String[] paramNames, String[] paramValues, Throwable javaStack) {
+		this.value = value;
+		this.timeMillis = timeMillis;
+		this.callSiteIdPath = callSiteIdPath;
+		this.paramNames = paramNames;
+		this.paramValues = paramValues;
+		this.javaStack = javaStack;
+	}
+
+	public static MaxValueExemplar capture(long value, long timeMillis, CallStackElt elt, boolean captureJavaStack) {
+		int depth = elt.getStackEltIndex();
+		int[] path = new int[depth];
+		CallStackElt curr = elt;
+		for (int i = depth - 1; i >= 0; i--, curr = curr.getParentCallStackElt()) {
+			path[i] = curr.getCallSiteId();
+		}
+		int paramCount = Math.min(MAX_PARAMS, elt.getParamCount());
+		String[] paramNames = new String[paramCount];
+		String[] paramValues = new String[paramCount];
+		for (int i = 0; i < paramCount; i++) {
+			paramNames[i] = elt.getParamName(i);
+			paramValues[i] = String.valueOf(elt.getParamValue(i));
+		}
+		Throwable javaStack = (captureJavaStack)? new Throwable("stack reaching max value") : null;
+		return new MaxValueExemplar(value, timeMillis, path, paramNames, paramValues, javaStack);
+	}
+
+	// ------------------------------------------------------------------------
+
+	public long getValue() {
+		return value;
+	}
+
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	public int[] getCallSiteIdPath() {
+		return callSiteIdPath.clone();
+	}
+
+	public int getParamCount() {
+		return paramNames.length;
+	}
+	
+	public String getParamName(int i) {
+		return paramNames[i];
+	}
+
+	public String getParamValue(int i) {
+		return paramValues[i];
+	}
+
+	public boolean hasJavaStack() {
+		return javaStack != null;
+	}
+
+	/** @return formatted java stack trace if captured, else null */
+	public String getJavaStackTrace() {
+		return (javaStack != null)? ExUtils.stackTraceToString(javaStack) : null;
+	}
+
+	/** @return path of CallSite display names, resolved from ids */
+	public String getPathString() {
+		StringBuilder sb = new StringBuilder();
+		for (int id : callSiteIdPath) {
+			CallSite site = CallSiteRegistry.getById(id);
+			sb.append('/');
+			sb.append((site != null)? site.getDisplayName() : "#" + id);
+		}
+		return sb.toString();
+	}
+
+	// ------------------------------------------------------------------------
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(getPathString());
+		if (paramNames.length != 0) {
+			sb.append(" {");
+			for (int i = 0; i < paramNames.length; i++) {
+				if (i != 0) sb.append(", ");
+				sb.append(paramNames[i]).append(':').append(paramValues[i]);
+			}
+			sb.append('}');
+		}
+		sb.append(" value:").append(value).append(" at ").append(new Date(timeMillis));
+		if (javaStack != null) {
+			sb.append('\n').append(getJavaStackTrace());
+		}
+		return sb.toString();
+	}
+
+}
@@ -94,6 +94,12 @@ public class PendingPerfCount {
 		this.pendingSumStartCpuTime = src.getPendingSumStartCpuTime();
 	}
 
+	public void set(int pendingCount, long pendingSumStartTime, long pendingSumStartCpuTime) {
+		pendingCountFieldAccessor.set(this, pendingCount);
+		pendingSumStartTimeFieldAccessor.set(this, pendingSumStartTime);
+		pendingSumStartCpuTimeFieldAccessor.set(this, pendingSumStartCpuTime);
+	}
+
 	public void clear() {
 		pendingCountFieldAccessor.set(this, 0);
 		pendingSumStartTimeFieldAccessor.set(this, 0L);
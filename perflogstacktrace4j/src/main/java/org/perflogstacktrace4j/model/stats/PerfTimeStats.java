@@ -1,6 +1,9 @@
 package org.perflogstacktrace4j.model.stats;
 
 import org.perflogstacktrace4j.model.CallStackElt;
+import org.perflogstacktrace4j.model.TimingMode;
+import org.perflogstacktrace4j.utils.UnsafeUtils;
+import org.perflogstacktrace4j.utils.UnsafeUtils.IntVolatileFieldAccessor;
 
 /**
  * class for aggregating PendingPerfCount + BasicTimeStatsLogHistogram (elapsed,threadUser,threadCpu)
@@ -9,18 +12,36 @@ import org.perflogstacktrace4j.model.CallStackElt;
  */
 public final class PerfTimeStats {
 	
+	private static final IntVolatileFieldAccessor<PerfTimeStats> timingModeMaskAccessor = 
+			UnsafeUtils.intVolatileFieldAccessor(PerfTimeStats.class, "timingModeMask");
+
 	private PendingPerfCount pendingCounts = new PendingPerfCount();
 	
-	private LongStatsHistogram elapsedTimeStats = new LongStatsHistogram();
-	private LongStatsHistogram threadUserTimeStats = new LongStatsHistogram();
-	private LongStatsHistogram threadCpuTimeStats = new LongStatsHistogram();
+	private final LongStatsHistogram elapsedTimeStats;
+	private final LongStatsHistogram threadUserTimeStats;
+	private final LongStatsHistogram threadCpuTimeStats;
+	
+	/**
+	 * bit mask of TimingMode(s) that produced the values (see TimingMode.mask())
+	 * when thread cpu time is sampled, threadUser/CpuTimeStats count only sampled values (so averages stay correct), 
+	 * and may have a lower count than elapsedTimeStats
+	 */
+	private int timingModeMask;
 	
 	// ------------------------------------------------------------------------
 
 	public PerfTimeStats() {
+		this(LongStatsHistogramLayout.getDefault());
+	}
+
+	public PerfTimeStats(LongStatsHistogramLayout layout) {
+		this.elapsedTimeStats = new LongStatsHistogram(layout);
+		this.threadUserTimeStats = new LongStatsHistogram(layout);
+		this.threadCpuTimeStats = new LongStatsHistogram(layout);
 	}
 
 	public PerfTimeStats(PerfTimeStats src) {
+		this(src.elapsedTimeStats.getLayout());
 		set(src);
 	}
 
@@ -42,14 +63,51 @@ public final class PerfTimeStats {
 		return threadCpuTimeStats;
 	}
 
+	public LongStatsHistogramLayout getLayout() {
+		return elapsedTimeStats.getLayout();
+	}
+
 	public int getPendingCount() {
 		return pendingCounts.getPendingCount();
 	}
 
+	public int getTimingModeMask() {
+		return timingModeMaskAccessor.get(this);
+	}
+
+	public void setTimingModeMask(int p) {
+		timingModeMaskAccessor.set(this, p);
+	}
+
+	public boolean hasTimingMode(TimingMode mode) {
+		return 0 != (getTimingModeMask() & mode.mask());
+	}
+
+	/** 
+	 * @return estimated sum of thread cpu time, extrapolated from (possibly sampled) cpu time average and elapsed count
+	 */
+	public double getThreadCpuTimeSumEstimate() {
+		return threadCpuTimeStats.getAverage() * elapsedTimeStats.getCount();
+	}
+
 	public long getPendingSumStartTime() {
 		return pendingCounts.getPendingSumStartTime();
 	}
 
+	public boolean isStriped() {
+		return elapsedTimeStats.isStriped();
+	}
+
+	/**
+	 * enable striped counters on elapsed/user/cpu histograms, for hot stats updated concurrently by many threads
+	 * see LongStatsHistogram.enableStriping()
+	 */
+	public void enableStriping(int stripeCount) {
+		elapsedTimeStats.enableStriping(stripeCount);
+		threadUserTimeStats.enableStriping(stripeCount);
+		threadCpuTimeStats.enableStriping(stripeCount);
+	}
+
 	@Override /* java.lang.Object */
 	public PerfTimeStats clone() {
 		return copy();
@@ -65,12 +123,17 @@ public final class PerfTimeStats {
 		this.elapsedTimeStats.clear();
 		this.threadUserTimeStats.clear();
 		this.threadCpuTimeStats.clear();
+		timingModeMaskAccessor.set(this, 0);
 
 		this.pendingCounts.clear();
 	}
 
+	/**
+	 * copy to dest then clear.. 
+	 * this is not atomic: values incremented concurrently between copy and clear are lost
+	 * (see AppCallTree.snapshotAndReset() for exact interval snapshots, using double-buffered stats)
+	 */
 	public void clearAndCopyTo(PerfTimeStats dest) {
-		// TODO
 		dest.set(this);
 		clear();
 	}
@@ -83,6 +146,7 @@ public final class PerfTimeStats {
 		this.elapsedTimeStats.set(src.elapsedTimeStats);
 		this.threadUserTimeStats.set(src.threadUserTimeStats);
 		this.threadCpuTimeStats.set(src.threadCpuTimeStats);
+		timingModeMaskAccessor.set(this, src.getTimingModeMask());
 
 		this.pendingCounts.set(src.pendingCounts);		
 	}
@@ -109,11 +173,20 @@ public final class PerfTimeStats {
 		threadCpuTimeStats.incr(elapsedThreadCpuTime);
 	}
 
+	/**
+	 * incr elapsed time stats only (thread cpu/user times not measured), for example for a span ended in another thread
+	 */
+	public void incrElapsedTime(long elapsedTime) {
+		elapsedTimeStats.incr(elapsedTime);
+		addTimingModeMask(TimingMode.WALL_ONLY.mask());
+	}
+
 	public void incr(PerfTimeStats src) {
 		pendingCounts.incr(src.pendingCounts);
 		elapsedTimeStats.incr(src.elapsedTimeStats);
 		threadUserTimeStats.incr(src.threadUserTimeStats);
 		threadCpuTimeStats.incr(src.threadCpuTimeStats);
+		addTimingModeMask(src.getTimingModeMask());
 	}
 	
 	// Helper method using StackElt start/end times
@@ -123,15 +196,43 @@ public final class PerfTimeStats {
 		pendingCounts.addPending(stackElt);
 	}
 
+	/**
+	 * incr stats from popped element times
+	 * when span sampling is enabled (see CallSite.setSpanSamplingRate()), counts are incremented by the element sample weight,
+	 * and sums are extrapolated from the sampled element times 
+	 */
 	public void incrAndRemovePending(CallStackElt stackElt) {
-		long elapsedTime = stackElt.getEndTime() - stackElt.getStartTime();
-		long elapsedThreadUserTime = stackElt.getThreadUserEndTime() - stackElt.getThreadUserStartTime();
-		long elapsedThreadCpuTime = stackElt.getThreadCpuEndTime() - stackElt.getThreadCpuStartTime();
-		incr(elapsedTime, elapsedThreadUserTime, elapsedThreadCpuTime);
-
+		incr(stackElt);
 		pendingCounts.removePending(stackElt);		
 	}
 
+	/**
+	 * incr stats from popped element times, without updating pending counts
+	 * see incrAndRemovePending()
+	 */
+	public void incr(CallStackElt stackElt) {
+		int weight = stackElt.getSampleWeight();
+		long elapsedTime = stackElt.getEndTime() - stackElt.getStartTime();
+		elapsedTimeStats.incr(elapsedTime, weight, stackElt);
+		if (stackElt.isCpuTimeMeasured()) {
+			long elapsedThreadUserTime = stackElt.getThreadUserEndTime() - stackElt.getThreadUserStartTime();
+			long elapsedThreadCpuTime = stackElt.getThreadCpuEndTime() - stackElt.getThreadCpuStartTime();
+			threadUserTimeStats.incr(elapsedThreadUserTime, weight, stackElt);
+			threadCpuTimeStats.incr(elapsedThreadCpuTime, weight, stackElt);
+		}
+		addTimingModeMask(stackElt.getTimingMode().mask());
+	}
+
+	private void addTimingModeMask(int mask) {
+		int prev = timingModeMaskAccessor.get(this);
+		while ((prev | mask) != prev) { // usually already set => read only
+			if (timingModeMaskAccessor.compareAndSwap(this, prev, prev | mask)) {
+				break;
+			}
+			prev = timingModeMaskAccessor.get(this);
+		}
+	}
+
 	// ------------------------------------------------------------------------
 	
 	@Override
@@ -141,6 +242,7 @@ public final class PerfTimeStats {
 				+ ((pendingCount != 0)? "pending:" + pendingCount + ", ": "")
 				+ "count:" + elapsedTimeStats.getCount()
 				+ ", cumulated ms elapsed: " + elapsedTimeStats.getSum()
+				+ ", p99:" + elapsedTimeStats.getP99()
 				+ ", cpu:" + threadCpuTimeStats.getSum()
 				+ ", user:" + threadUserTimeStats.getSum()
 				+ "]";
@@ -0,0 +1,121 @@
+package org.perflogstacktrace4j.model.stats;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import org.perflogstacktrace4j.model.CallStackElt;
+import org.perflogstacktrace4j.utils.ThreadTimeUtils;
+
+/**
+ * elapsed time statistics over rolling time windows (last 1 minute, 5 minutes, 15 minutes..),
+ * using one or more rings of time-bucketed histograms of different resolutions (see RollingWindowHistogram)
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * node.enableRollingTimeWindows(); // default: 60 x 1s + 15 x 1min
+ * ..
+ * RollingWindowSnapshot last5m = node.getRollingTimeWindows().getLast5Minutes();
+ * last5m.getRatePerSecond(); last5m.getP99();
+ * </PRE>
+ * 
+ * A value is recorded in every ring, and a query uses the finest ring spanning the requested window
+ * (or the widest ring, when none spans it).
+ * Memory is bounded by the total bucket count (75 histograms by default, count slots allocated on first incr of a bucket).
+ */
+public final class RollingTimeWindowStats {
+
+	public static final long ONE_MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+	/** rings sorted by increasing time span */
+	private final RollingWindowHistogram[] rings;
+
+	/** time of creation or clear(), bounding covered durations */
+	private volatile long startTime = ThreadTimeUtils.getTime();
+
+	// ------------------------------------------------------------------------
+
+	public RollingTimeWindowStats(RollingWindowHistogram... rings) {
+		if (rings.length == 0) throw new IllegalArgumentException();
+		this.rings = rings.clone();
+		Arrays.sort(this.rings, new Comparator<RollingWindowHistogram>() {
+			@Override
+			public int compare(RollingWindowHistogram o1, RollingWindowHistogram o2) {
+				return Long.compare(o1.getWindowNanos(), o2.getWindowNanos());
+			}
+		});
+	}
+
+	/** @return new stats with rings of 60 x 1 second and 15 x 1 minute */
+	public static RollingTimeWindowStats createDefault() {
+		return createDefault(LongStatsHistogramLayout.getDefault());
+	}
+
+	public static RollingTimeWindowStats createDefault(LongStatsHistogramLayout layout) {
+		return new RollingTimeWindowStats(
+				new RollingWindowHistogram(60, TimeUnit.SECONDS.toNanos(1), layout),
+				new RollingWindowHistogram(15, ONE_MINUTE_NANOS, layout));
+	}
+
+	// ------------------------------------------------------------------------
+
+	public RollingWindowHistogram[] getRings() {
+		return rings.clone();
+	}
+
+	/** incr with time and elapsed time of popped element */
+	public void incr(CallStackElt stackElt) {
+		long time = stackElt.getEndTime();
+		long elapsedTime = time - stackElt.getStartTime();
+		int weight = stackElt.getSampleWeight();
+		for (RollingWindowHistogram ring : rings) {
+			ring.incr(time, elapsedTime, weight);
+		}
+	}
+
+	/** incr at current time (see ThreadTimeUtils.getTime()) */
+	public void incr(long elapsedTime) {
+		long time = ThreadTimeUtils.getTime();
+		for (RollingWindowHistogram ring : rings) {
+			ring.incr(time, elapsedTime, 1);
+		}
+	}
+
+	/**
+	 * @return stats of the last <code>windowNanos</code> (rounded up to buckets of the selected ring, current bucket being partial)
+	 */
+	public RollingWindowSnapshot getLast(long windowNanos) {
+		long now = ThreadTimeUtils.getTime();
+		RollingWindowHistogram ring = rings[rings.length - 1];
+		for (RollingWindowHistogram r : rings) {
+			if (r.getWindowNanos() >= windowNanos) {
+				ring = r;
+				break;
+			}
+		}
+		LongStatsHistogram histogram = new LongStatsHistogram(ring.getLayout());
+		long coveredNanos = ring.mergeLastTo(histogram, now, windowNanos);
+		coveredNanos = Math.min(coveredNanos, now - startTime);
+		return new RollingWindowSnapshot(windowNanos, coveredNanos, histogram);
+	}
+
+	public RollingWindowSnapshot getLastMinute() {
+		return getLast(ONE_MINUTE_NANOS);
+	}
+
+	public RollingWindowSnapshot getLast5Minutes() {
+		return getLast(5 * ONE_MINUTE_NANOS);
+	}
+
+	public RollingWindowSnapshot getLast15Minutes() {
+		return getLast(15 * ONE_MINUTE_NANOS);
+	}
+
+	public void clear() {
+		for (RollingWindowHistogram ring : rings) {
+			ring.clear();
+		}
+		startTime = ThreadTimeUtils.getTime();
+	}
+
+}
@@ -0,0 +1,165 @@
+package org.perflogstacktrace4j.model.stats;
+
+import org.perflogstacktrace4j.utils.UnsafeUtils;
+import org.perflogstacktrace4j.utils.UnsafeUtils.LongVolatileFieldAccessor;
+
+/**
+ * ring of <code>bucketCount</code> histograms, each one for a time bucket of <code>bucketNanos</code>
+ * (for example 60 x 1s), for statistics on a rolling time window (for example the last minute)
+ * <BR/>
+ * There is no timer thread: the ring is rotated lazily by the recording thread, on the first incr() of a new bucket.
+ * The bucket at index <code>(time / bucketNanos) % bucketCount</code> is reset when it holds an older epoch:
+ * the thread winning a CAS on the bucket epoch stamp clears its histogram in place (no allocation on rotation),
+ * once in-flight writers of the older epoch are done, while concurrent writers of the new epoch wait for the reset.
+ * Stale buckets are simply skipped by queries.
+ * Memory is bounded by <code>bucketCount</code> histograms (count slots allocated lazily, see LongStatsHistogram).
+ * <BR/>
+ * Times are in the time base of ThreadTimeUtils.getTime() (as CallStackElt start / end times).
+ * This class is multi-thread safe, and lock FREE.
+ */
+public final class RollingWindowHistogram {
+
+	private final LongStatsHistogramLayout layout;
+
+	private final long bucketNanos;
+
+	/** ring of buckets, by (epoch % length) */
+	private final Bucket[] buckets;
+
+	private static final LongVolatileFieldAccessor<Bucket> stampAccessor =
+			UnsafeUtils.longVolatileFieldAccessor(Bucket.class, "stamp");
+
+	/** stamp of a bucket never written */
+	private static final long EMPTY_STAMP = Long.MIN_VALUE;
+
+	private static final int EPOCH_SHIFT = 16;
+	/** stamp bit set while the histogram is being reset for the epoch of the stamp */
+	private static final long RESETTING = 1L << (EPOCH_SHIFT - 1);
+	/** stamp bits counting writers in-flight in the histogram, for the epoch of the stamp */
+	private static final long WRITER_COUNT_MASK = RESETTING - 1;
+	private static final long EMPTY_EPOCH = EMPTY_STAMP >> EPOCH_SHIFT;
+
+	/**
+	 * histogram of a time bucket, reset in place on rotation
+	 * (not before in-flight writers of the previous epoch are done, so they can not pollute the new epoch)
+	 */
+	private static final class Bucket {
+		/** <code>epoch << EPOCH_SHIFT</code>, with RESETTING bit, and count of in-flight writers in low bits */
+		long stamp = EMPTY_STAMP;
+		final LongStatsHistogram histogram;
+
+		Bucket(LongStatsHistogramLayout layout) {
+			this.histogram = new LongStatsHistogram(layout);
+		}
+	}
+
+	// ------------------------------------------------------------------------
+
+	public RollingWindowHistogram(int bucketCount, long bucketNanos) {
+		this(bucketCount, bucketNanos, LongStatsHistogramLayout.getDefault());
+	}
+
+	public RollingWindowHistogram(int bucketCount, long bucketNanos, LongStatsHistogramLayout layout) {
+		if (bucketCount <= 0 || bucketNanos <= 0 || layout == null) throw new IllegalArgumentException();
+		this.layout = layout;
+		this.bucketNanos = bucketNanos;
+		this.buckets = new Bucket[bucketCount];
+		for (int i = 0; i < bucketCount; i++) {
+			buckets[i] = new Bucket(layout);
+		}
+	}
+
+	// ------------------------------------------------------------------------
+
+	public LongStatsHistogramLayout getLayout() {
+		return layout;
+	}
+
+	public int getBucketCount() {
+		return buckets.length;
+	}
+
+	public long getBucketNanos() {
+		return bucketNanos;
+	}
+
+	/** @return time span of the ring */
+	public long getWindowNanos() {
+		return buckets.length * bucketNanos;
+	}
+
+	/**
+	 * incr histogram of the bucket for <code>time</code>, rotating the ring if needed
+	 * values older than the ring (time before a more recent bucket at same index) are ignored
+	 * <BR/>
+	 * No MaxValueExemplar is captured in buckets (kept on main stats only): a capture per new bucket would allocate on the hot path.
+	 */
+	public void incr(long time, long value, int weight) {
+		long epoch = Math.floorDiv(time, bucketNanos);
+		Bucket b = buckets[(int) Math.floorMod(epoch, (long) buckets.length)];
+		long stamp = epoch << EPOCH_SHIFT;
+		for (;;) {
+			long currStamp = stampAccessor.get(b);
+			long currEpoch = currStamp >> EPOCH_SHIFT;
+			if (currEpoch > epoch) {
+				return; // too old
+			} else if (currEpoch == epoch && (currStamp & RESETTING) == 0) {
+				if (stampAccessor.compareAndSwap(b, currStamp, currStamp + 1)) {
+					break; // writer in-flight
+				}
+			} else if ((currStamp & (RESETTING | WRITER_COUNT_MASK)) != 0) {
+				// reset in progress by another writer (clearing slots), or writers of the older epoch in-flight: wait for them
+				Thread.yield();
+			} else if (stampAccessor.compareAndSwap(b, currStamp, stamp | RESETTING)) {
+				b.histogram.clear();
+				stampAccessor.set(b, stamp);
+			}
+		}
+		try {
+			b.histogram.incr(value, weight, null);
+		} finally {
+			stampAccessor.add(b, -1);
+		}
+	}
+
+	/**
+	 * merge into <code>dest</code> the buckets of the last <code>windowNanos</code> (rounded up to buckets, at most the ring span),
+	 * the current bucket being partial
+	 * @return time covered by merged buckets, from start of first bucket to <code>now</code>
+	 */
+	public long mergeLastTo(LongStatsHistogram dest, long now, long windowNanos) {
+		long currEpoch = Math.floorDiv(now, bucketNanos);
+		long k = Math.min(buckets.length, Math.max(1, (windowNanos + bucketNanos - 1) / bucketNanos));
+		long fromEpoch = currEpoch - k + 1;
+		LongStatsHistogram tmp = null;
+		for (Bucket b : buckets) {
+			long stamp = stampAccessor.get(b);
+			long epoch = stamp >> EPOCH_SHIFT;
+			if (epoch != EMPTY_EPOCH && (stamp & RESETTING) == 0 && epoch >= fromEpoch && epoch <= currEpoch) {
+				// copy, then check the bucket was not reset for a newer epoch while copying
+				if (tmp == null) {
+					tmp = new LongStatsHistogram(layout);
+				}
+				tmp.set(b.histogram);
+				long stampAfter = stampAccessor.get(b);
+				if ((stampAfter >> EPOCH_SHIFT) == epoch && (stampAfter & RESETTING) == 0) {
+					dest.incr(tmp);
+				}
+			}
+		}
+		return now - fromEpoch * bucketNanos;
+	}
+
+	/** not atomic with respect to concurrent writers */
+	public void clear() {
+		for (Bucket b : buckets) {
+			// keep count of in-flight writers, decremented when they are done
+			long stamp;
+			do {
+				stamp = stampAccessor.get(b);
+			} while (!stampAccessor.compareAndSwap(b, stamp, EMPTY_STAMP | (stamp & WRITER_COUNT_MASK)));
+			b.histogram.clear();
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package org.perflogstacktrace4j.model.stats;
+
+/**
+ * statistics of a rolling time window, merged from RollingWindowHistogram buckets (see RollingTimeWindowStats)
+ */
+public final class RollingWindowSnapshot {
+
+	private final long windowNanos;
+
+	private final long coveredNanos;
+
+	private final LongStatsHistogram histogram;
+
+	// ------------------------------------------------------------------------
+
+	public RollingWindowSnapshot(long windowNanos, long coveredNanos, LongStatsHistogram histogram) {
+		this.windowNanos = windowNanos;
+		this.coveredNanos = coveredNanos;
+		this.histogram = histogram;
+	}
+
+	// ------------------------------------------------------------------------
+
+	/** @return requested window duration */
+	public long getWindowNanos() {
+		return windowNanos;
+	}
+
+	/** @return duration actually covered by merged buckets (rounded to buckets, bounded by time since enabled) */
+	public long getCoveredNanos() {
+		return coveredNanos;
+	}
+
+	public LongStatsHistogram getHistogram() {
+		return histogram;
+	}
+
+	public int getCount() {
+		return histogram.getCount();
+	}
+
+	/** @return count per second, over covered duration */
+	public double getRatePerSecond() {
+		return (coveredNanos > 0)? histogram.getCount() * 1e9 / coveredNanos : 0.0;
+	}
+
+	public double getAverage() {
+		return histogram.getAverage();
+	}
+
+	/** @return max value, or 0 when empty */
+	public long getMaxValue() {
+		return (histogram.getMinValue() <= histogram.getMaxValue())? histogram.getMaxValue() : 0;
+	}
+
+	/** see LongStatsHistogram.getValueAtPercentile() */
+	public long getValueAtPercentile(double percentile) {
+		return histogram.getValueAtPercentile(percentile);
+	}
+
+	public long getP50() {
+		return histogram.getP50();
+	}
+
+	public long getP99() {
+		return histogram.getP99();
+	}
+
+	@Override
+	public String toString() {
+		return "RollingWindowSnapshot [window:" + (windowNanos / 1000000) + "ms"
+				+ ", count:" + getCount()
+				+ ", rate:" + String.format("%.2f", getRatePerSecond()) + "/s"
+				+ ", p50:" + getP50() + ", p99:" + getP99() + ", max:" + getMaxValue()
+				+ "]";
+	}
+
+}
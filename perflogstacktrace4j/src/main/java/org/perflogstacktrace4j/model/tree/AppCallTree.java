@@ -0,0 +1,157 @@
+package org.perflogstacktrace4j.model.tree;
+
+import java.util.Date;
+
+import org.perflogstacktrace4j.dto.tree.AppCallTreeDTO;
+import org.perflogstacktrace4j.dto.tree.AppCallTreeNodeDTO;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.spi.CallStackListener;
+import org.perflogstacktrace4j.spi.CallStackListenerFactory;
+
+/**
+ * Tree of AppCallTreeNode statistics, aggregated per applicative call path from push()/pop() events
+ * 
+ * sample usage, to aggregate push()/pop() of all (new) threads:
+ * <PRE>
+ * AppCallTree appCallTree = new AppCallTree("app");
+ * ThreadLocalCallStack.addCallStackListenerFactory(appCallTree.getCallStackListenerFactory());
+ * ..
+ * AppCallTreeDTO dto = appCallTree.copyToDTO();
+ * // or, for periodic reporting of exact interval deltas:
+ * AppCallTreeDTO intervalDTO = appCallTree.snapshotAndReset();
+ * </PRE>
+ * 
+ * see AppCallTreeCallStackListener
+ * <BR/>
+ * To protect against call sites pushed with dynamic names (sql text, url with ids..), the tree size is limited
+ * (see setMaxChildCountPerNode(), setMaxNodeCount()): calls of children exceeding the limits are folded
+ * into an overflow child "__other__" of their parent node, see AppCallTreeNode.OVERFLOW_CHILD_NAME
+ */
+public class AppCallTree {
+
+    public static final int DEFAULT_MAX_CHILD_COUNT_PER_NODE = 2048;
+    public static final int DEFAULT_MAX_NODE_COUNT = 100000;
+
+    private final String name;
+
+    private final AppCallTreeNode rootNode = new AppCallTreeNode(null, "");
+
+    /** date of creation or last clear() / snapshotAndReset() */
+    private volatile long fromSnapshotTime = System.currentTimeMillis();
+
+    private final CallStackListenerFactory callStackListenerFactory = new CallStackListenerFactory() {
+        @Override
+        public CallStackListener createListener(CallStack stack) {
+            return createCallStackListener(stack);
+        }
+    };
+
+    // -------------------------------------------------------------------------
+
+    public AppCallTree(String name) {
+        this.name = name;
+    }
+
+    // -------------------------------------------------------------------------
+
+    public String getName() {
+        return name;
+    }
+
+    public AppCallTreeNode getRootNode() {
+        return rootNode;
+    }
+
+    /** @return time of creation or last clear() / snapshotAndReset() */
+    public long getFromSnapshotTime() {
+        return fromSnapshotTime;
+    }
+
+    public int getMaxChildCountPerNode() {
+        return rootNode.getLimits().getMaxChildCountPerNode();
+    }
+
+    /**
+     * max count of children per node (excluding overflow child), new children above it are folded into the overflow child
+     * existing children are kept when decreasing the limit
+     */
+    public void setMaxChildCountPerNode(int maxChildCountPerNode) {
+        rootNode.getLimits().setMaxChildCountPerNode(maxChildCountPerNode);
+    }
+
+    public int getMaxNodeCount() {
+        return rootNode.getLimits().getMaxNodeCount();
+    }
+
+    /**
+     * max count of nodes in tree (excluding root), new nodes above it are folded into the overflow child of their parent
+     * (overflow children are always created, so the node count may slightly exceed it)
+     * existing nodes are kept when decreasing the limit
+     */
+    public void setMaxNodeCount(int maxNodeCount) {
+        rootNode.getLimits().setMaxNodeCount(maxNodeCount);
+    }
+
+    /** @return count of nodes in tree, excluding root */
+    public int getNodeCount() {
+        return rootNode.getLimits().getNodeCount();
+    }
+
+    /** @return count of distinct call sites folded into overflow nodes since creation or clear() */
+    public int getFoldedNameCount() {
+        return rootNode.getLimits().getFoldedNameCount();
+    }
+
+    public CallStackListenerFactory getCallStackListenerFactory() {
+        return callStackListenerFactory;
+    }
+
+    /** create a listener to attach to <code>stack</code> (one listener per CallStack) */
+    public AppCallTreeCallStackListener createCallStackListener(CallStack stack) {
+        return new AppCallTreeCallStackListener(this);
+    }
+
+    public void clear() {
+        rootNode.clear();
+        fromSnapshotTime = System.currentTimeMillis();
+    }
+
+    /**
+     * atomically snapshot stats since previous snapshot (or creation / clear()), and reset them
+     * see AppCallTreeNode.snapshotAndResetTo()
+     * @return DTO with interval stats, from previous snapshot date to this snapshot date 
+     */
+    public AppCallTreeDTO snapshotAndReset() {
+        AppCallTreeDTO res = new AppCallTreeDTO();
+        res.setName(name);
+        AppCallTreeNodeDTO rootNodeDTO = new AppCallTreeNodeDTO(rootNode.getChildName());
+        synchronized(rootNode.getSnapshotLock()) {
+            long snapshotTime = System.currentTimeMillis();
+            res.setFromSnapshotDate(new Date(fromSnapshotTime));
+            res.setToSnapshotDate(new Date(snapshotTime));
+            fromSnapshotTime = snapshotTime;
+            rootNode.snapshotAndResetTo(rootNodeDTO);
+        }
+        res.setRootNode(rootNodeDTO);
+        return res;
+    }
+
+    public AppCallTreeDTO copyToDTO() {
+        AppCallTreeDTO res = new AppCallTreeDTO();
+        res.setName(name);
+        res.setFromSnapshotDate(new Date(fromSnapshotTime));
+        AppCallTreeNodeDTO rootNodeDTO = new AppCallTreeNodeDTO(rootNode.getChildName());
+        rootNode.copyTo(rootNodeDTO);
+        res.setRootNode(rootNodeDTO);
+        res.setToSnapshotDate(new Date());
+        return res;
+    }
+
+    // -------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return "AppCallTree[" + name + "]";
+    }
+
+}
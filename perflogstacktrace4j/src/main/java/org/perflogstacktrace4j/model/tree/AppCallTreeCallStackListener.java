@@ -0,0 +1,130 @@
+package org.perflogstacktrace4j.model.tree;
+
+import java.util.Map;
+
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.CallStackElt;
+import org.perflogstacktrace4j.spi.CallStackListener;
+
+/**
+ * CallStackListener for aggregating push()/pop() of a CallStack into an AppCallTree
+ * 
+ * Implementation note: one listener instance is attached per CallStack (so per thread, not multi-thread safe).
+ * It keeps a cursor array of tree nodes parallel to the CallStack elements, so that
+ * <ul>
+ * <li>onPush() is one child lookup from the parent element node</li>
+ * <li>onPop() updates the node PerfTimeStats directly, without rebuilding any path</li>
+ * </ul>
+ * 
+ * Elements already pushed before this listener was attached are ignored (together with their sub-elements).
+ * On onAttachCallStackToThread() (see CallStack.attachContext()), the cursor is set to the nodes of the restored path,
+ * so that stats of work executed in another thread are aggregated under the path of the submitting thread.
+ */
+public final class AppCallTreeCallStackListener extends CallStackListener {
+
+    private static final int DEFAULT_ALLOC_INCR_CURSOR_LEN = 8;
+
+    private final AppCallTree tree;
+
+    /** stripe of generation in-flight counters, for the thread of this CallStack (see AppCallTreeGeneration) */
+    private final int generationStripe = AppCallTreeGeneration.threadStripe();
+
+    /**
+     * tree node per CallStack element index, [0] being the tree root node (for the CallStack root element)
+     */
+    private AppCallTreeNode[] nodeCursor = new AppCallTreeNode[16];
+
+    // -------------------------------------------------------------------------
+
+    /*pp*/ AppCallTreeCallStackListener(AppCallTree tree) {
+        this.tree = tree;
+        this.nodeCursor[0] = tree.getRootNode();
+    }
+
+    // -------------------------------------------------------------------------
+
+    public AppCallTree getTree() {
+        return tree;
+    }
+
+    /** @return tree node for element at stack index, or null if unknown */
+    public AppCallTreeNode getNodeAt(int stackEltIndex) {
+        return (stackEltIndex < nodeCursor.length)? nodeCursor[stackEltIndex] : null;
+    }
+
+    @Override
+    public void onPush(CallStackElt stackElt) {
+        int index = stackElt.getStackEltIndex();
+        if (index >= nodeCursor.length) {
+            reallocNodeCursor(index + DEFAULT_ALLOC_INCR_CURSOR_LEN);
+        }
+        AppCallTreeNode parentNode = nodeCursor[index - 1];
+        if (parentNode == null) {
+            return; // parent pushed before listener was attached.. ignore
+        }
+        AppCallTreeNode node = parentNode.findOrCreateChild(stackElt.getCallSite());
+        nodeCursor[index] = node;
+        node.addPending(stackElt);
+    }
+
+    @Override
+    public void onPop(CallStackElt stackElt) {
+        int index = stackElt.getStackEltIndex();
+        if (index >= nodeCursor.length) {
+            return;
+        }
+        AppCallTreeNode node = nodeCursor[index];
+        if (node == null) {
+            return; // pushed before listener was attached.. ignore
+        }
+        nodeCursor[index] = null;
+        node.incrAndRemovePending(stackElt, generationStripe);
+    }
+
+    @Override
+    public void onProgressStep(CallStackElt stackElt, int incr, String progressMessage) {
+        // do nothing
+    }
+
+    @Override
+    public void onLog(String msg, Map<String, Object> namedValues) {
+        // do nothing
+    }
+
+    @Override
+    public void onAttachCallStackToThread(CallStack stack, Thread thread) {
+        CallStackElt curr = stack.curr();
+        int depth = curr.getStackEltIndex();
+        if (depth >= nodeCursor.length) {
+            reallocNodeCursor(depth + DEFAULT_ALLOC_INCR_CURSOR_LEN);
+        }
+        // restored elements were not fired as push: find or create their nodes (without stats), from root to curr
+        CallStackElt[] path = new CallStackElt[depth + 1];
+        for (CallStackElt elt = curr; elt != null; elt = elt.getParentCallStackElt()) {
+            path[elt.getStackEltIndex()] = elt;
+        }
+        AppCallTreeNode node = nodeCursor[0];
+        for (int i = 1; i <= depth; i++) {
+            node = node.findOrCreateChild(path[i].getCallSite());
+            nodeCursor[i] = node;
+        }
+    }
+
+    @Override
+    public void onDetachCallStackFromThread(CallStack stack, Thread thread) {
+        int depth = Math.min(stack.curr().getStackEltIndex(), nodeCursor.length - 1);
+        for (int i = depth; i > 0; i--) {
+            nodeCursor[i] = null;
+        }
+    }
+
+    // internal
+    // -------------------------------------------------------------------------
+
+    private void reallocNodeCursor(int len) {
+        AppCallTreeNode[] newNodeCursor = new AppCallTreeNode[len];
+        System.arraycopy(nodeCursor, 0, newNodeCursor, 0, nodeCursor.length);
+        this.nodeCursor = newNodeCursor;
+    }
+
+}
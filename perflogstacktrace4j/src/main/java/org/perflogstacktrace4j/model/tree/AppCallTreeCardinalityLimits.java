@@ -0,0 +1,119 @@
+package org.perflogstacktrace4j.model.tree;
+
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.utils.UnsafeUtils;
+import org.perflogstacktrace4j.utils.UnsafeUtils.IntVolatileFieldAccessor;
+
+/**
+ * limits of child count per node and node count, shared by all nodes of an AppCallTree
+ * <BR/>
+ * protects against unbounded growth of the tree when call sites are pushed with dynamic names (sql text, url with ids..):
+ * children exceeding a limit are not created, their calls are folded into the overflow child of the parent node
+ * (see AppCallTreeNode.OVERFLOW_CHILD_NAME), and the folded names are counted.
+ * Names not registered in CallSiteRegistry are resolved in a name index scoped to the tree (see AppCallTreeNameIndex),
+ * bounded to NAME_COUNT_PER_NODE_COUNT names per node: further names are folded as a single name.
+ * <BR/>
+ * Limits are enforced lock-free, by CAS reservation of a node slot before insertion.
+ * Overflow children are always created (at most 1 per node), so the node count may slightly exceed maxNodeCount.
+ */
+final class AppCallTreeCardinalityLimits {
+
+    private static final IntVolatileFieldAccessor<AppCallTreeCardinalityLimits> nodeCountAccessor =
+            UnsafeUtils.intVolatileFieldAccessor(AppCallTreeCardinalityLimits.class, "nodeCount");
+
+    static final CallSite OVERFLOW_CALL_SITE = CallSiteRegistry.OVERFLOW_SITE;
+
+    /** max count of unregistered names indexed by the tree, per maxNodeCount: names of nodes, and folded names */
+    static final int NAME_COUNT_PER_NODE_COUNT = 2;
+
+    private volatile int maxChildCountPerNode = AppCallTree.DEFAULT_MAX_CHILD_COUNT_PER_NODE;
+
+    private volatile int maxNodeCount = AppCallTree.DEFAULT_MAX_NODE_COUNT;
+
+    /** count of nodes (excluding root), including reserved slots of nodes being inserted */
+    private int nodeCount;
+
+    /** distinct names folded in any node, replaced on clear */
+    private volatile CallSiteBitSet foldedCallSites = new CallSiteBitSet();
+
+    /** unregistered names, replaced on clear */
+    private volatile AppCallTreeNameIndex nameIndex = new AppCallTreeNameIndex();
+
+    // -------------------------------------------------------------------------
+
+    AppCallTreeCardinalityLimits() {
+    }
+
+    // -------------------------------------------------------------------------
+
+    int getMaxChildCountPerNode() {
+        return maxChildCountPerNode;
+    }
+
+    void setMaxChildCountPerNode(int maxChildCountPerNode) {
+        this.maxChildCountPerNode = maxChildCountPerNode;
+    }
+
+    int getMaxNodeCount() {
+        return maxNodeCount;
+    }
+
+    void setMaxNodeCount(int maxNodeCount) {
+        this.maxNodeCount = maxNodeCount;
+    }
+
+    int getNodeCount() {
+        return nodeCountAccessor.get(this);
+    }
+
+    int getFoldedNameCount() {
+        return foldedCallSites.getCount();
+    }
+
+    /** @return CallSite of the tree for a name, or null (without allocation) */
+    CallSite findName(String displayName) {
+        return nameIndex.find(displayName);
+    }
+
+    /** @return CallSite of the tree for a name: registered, or indexed by the tree, or OVERFLOW_CALL_SITE when the index is full */
+    CallSite resolveName(String displayName) {
+        long maxNameCount = (long) maxNodeCount * NAME_COUNT_PER_NODE_COUNT;
+        return nameIndex.resolve(displayName, (int) Math.min(Integer.MAX_VALUE, maxNameCount));
+    }
+
+    /** @return true if a node slot was reserved, false if maxNodeCount is reached */
+    boolean tryReserveNode() {
+        int max = maxNodeCount;
+        for (;;) {
+            int count = nodeCountAccessor.get(this);
+            if (count >= max) {
+                return false;
+            }
+            if (nodeCountAccessor.compareAndSwap(this, count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** reserve a node slot without checking limit (for overflow nodes) */
+    void reserveNode() {
+        nodeCountAccessor.add(this, 1);
+    }
+
+    void releaseNodes(int count) {
+        nodeCountAccessor.add(this, -count);
+    }
+
+    void addFoldedCallSite(CallSite callSite) {
+        foldedCallSites.add(callSite);
+    }
+
+    /** reset node count, folded and indexed names, on clear of the root node */
+    void clear() {
+        nodeCountAccessor.set(this, 0);
+        foldedCallSites = new CallSiteBitSet();
+        nameIndex = new AppCallTreeNameIndex();
+    }
+
+}
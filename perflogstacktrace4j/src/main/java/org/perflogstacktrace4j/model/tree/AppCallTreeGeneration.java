@@ -0,0 +1,117 @@
+package org.perflogstacktrace4j.model.tree;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.perflogstacktrace4j.model.stats.LongStatsHistogram;
+
+/**
+ * generation (epoch) shared by all nodes of an AppCallTree, for double-buffered node stats
+ * <BR/>
+ * Recorders write into the stats buffer of the current generation parity (see AppCallTreeNode),
+ * between enter() and exit(), which only increment/decrement a striped in-flight counter: recorders never block.
+ * <BR/>
+ * A snapshot flips the generation (so new records go to the other buffer), then waits for in-flight recorders
+ * of the previous generation to drain, and then can read and clear the previous buffers without any concurrent writer.
+ * Snapshots are serialized using getSnapshotLock().
+ */
+final class AppCallTreeGeneration {
+
+    /** padding, in array elements, ~ 64 bytes cache line */
+    private static final int PAD = 16;
+
+    private static final int SPIN_YIELD_COUNT = 100;
+
+    private final Object snapshotLock = new Object();
+
+    private volatile int generation;
+
+    private final int stripeMask;
+
+    /**
+     * in-flight recorder count per generation parity and stripe, at index <code>((parity * stripeCount) + stripe + 1) * PAD</code>
+     */
+    private final AtomicIntegerArray inFlightCounts;
+
+    // -------------------------------------------------------------------------
+
+    AppCallTreeGeneration() {
+        int stripeCount = LongStatsHistogram.defaultStripeCount();
+        this.stripeMask = stripeCount - 1;
+        this.inFlightCounts = new AtomicIntegerArray((2 * stripeCount + 2) * PAD);
+    }
+
+    // -------------------------------------------------------------------------
+
+    Object getSnapshotLock() {
+        return snapshotLock;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    /** @return stripe for current thread, to be cached by per-thread recorders */
+    static int threadStripe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9; // fibonacci hashing, to spread consecutive thread ids
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * enter recording section
+     * @return generation to record into, to be passed to exit()
+     */
+    int enter(int stripe) {
+        for (;;) {
+            int g = generation;
+            int index = inFlightIndex(g & 1, stripe);
+            inFlightCounts.incrementAndGet(index);
+            if (generation == g) {
+                return g;
+            }
+            // concurrent flip: retry in new generation
+            inFlightCounts.decrementAndGet(index);
+        }
+    }
+
+    void exit(int g, int stripe) {
+        inFlightCounts.decrementAndGet(inFlightIndex(g & 1, stripe));
+    }
+
+    /**
+     * flip to next generation, and wait until recorders of previous generation have exited
+     * must be called holding getSnapshotLock()
+     * @return parity of previous generation, whose stats buffers can now be read and cleared
+     */
+    int flipAndDrain() {
+        int prev = generation;
+        generation = prev + 1;
+        int parity = prev & 1;
+        for (int spin = 0; hasInFlight(parity); spin++) {
+            if (spin < SPIN_YIELD_COUNT) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(1000);
+            }
+        }
+        return parity;
+    }
+
+    // internal
+    // -------------------------------------------------------------------------
+
+    private int inFlightIndex(int parity, int stripe) {
+        return ((parity * (stripeMask + 1)) + (stripe & stripeMask) + 1) * PAD;
+    }
+
+    private boolean hasInFlight(int parity) {
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            if (inFlightCounts.get(inFlightIndex(parity, stripe)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
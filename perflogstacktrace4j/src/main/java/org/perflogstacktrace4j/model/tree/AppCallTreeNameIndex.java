@@ -0,0 +1,83 @@
+package org.perflogstacktrace4j.model.tree;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.utils.UnsafeUtils;
+import org.perflogstacktrace4j.utils.UnsafeUtils.IntVolatileFieldAccessor;
+
+/**
+ * index of names not registered in CallSiteRegistry, scoped to an AppCallTree (see AppCallTreeCardinalityLimits)
+ * <BR/>
+ * names pushed after the registry cap is reached, or added by name (from DTOs of other JVMs) are resolved here
+ * to CallSites with negative ids, unique per name in the tree, so they are distinct nodes (or distinct folded names)
+ * without growing the JVM-wide registry. Names already registered resolve to their registered CallSite.
+ * <BR/>
+ * the index is bounded: once <code>maxNameCount</code> names are indexed, new names resolve to the overflow CallSite.
+ * Lookup is lock-free, replaced on clear of the tree.
+ */
+final class AppCallTreeNameIndex {
+
+    private static final IntVolatileFieldAccessor<AppCallTreeNameIndex> countAccessor =
+            UnsafeUtils.intVolatileFieldAccessor(AppCallTreeNameIndex.class, "count");
+    private static final IntVolatileFieldAccessor<AppCallTreeNameIndex> idCounterAccessor =
+            UnsafeUtils.intVolatileFieldAccessor(AppCallTreeNameIndex.class, "idCounter");
+
+    private final ConcurrentHashMap<String, CallSite> siteByName = new ConcurrentHashMap<String, CallSite>();
+
+    /** count of indexed names, including reserved slots of names being inserted */
+    private int count;
+
+    /** count of allocated ids (never decremented, so ids are not re-used after a lost insert race) */
+    private int idCounter;
+
+    // -------------------------------------------------------------------------
+
+    AppCallTreeNameIndex() {
+    }
+
+    // -------------------------------------------------------------------------
+
+    /** @return registered or indexed CallSite for name, or null (without allocation) */
+    CallSite find(String displayName) {
+        CallSite res = siteByName.get(displayName);
+        return (res != null)? res : CallSiteRegistry.find(displayName);
+    }
+
+    /** @return registered or indexed CallSite for name, indexed if absent, or the overflow CallSite when the index is full */
+    CallSite resolve(String displayName, int maxNameCount) {
+        CallSite res = find(displayName);
+        if (res != null) {
+            return res;
+        }
+        if (!tryReserve(maxNameCount)) {
+            return AppCallTreeCardinalityLimits.OVERFLOW_CALL_SITE;
+        }
+        int id = -1 - idCounterAccessor.add(this, 1);
+        CallSite newSite = CallSiteRegistry.newUnregistered(id, displayName);
+        res = siteByName.putIfAbsent(displayName, newSite);
+        if (res != null) {
+            // concurrently indexed by another thread: release slot
+            countAccessor.add(this, -1);
+            return res;
+        }
+        return newSite;
+    }
+
+    // internal
+    // -------------------------------------------------------------------------
+
+    private boolean tryReserve(int max) {
+        for (;;) {
+            int c = countAccessor.get(this);
+            if (c >= max) {
+                return false;
+            }
+            if (countAccessor.compareAndSwap(this, c, c + 1)) {
+                return true;
+            }
+        }
+    }
+
+}
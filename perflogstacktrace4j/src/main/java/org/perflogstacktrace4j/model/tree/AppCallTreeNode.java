@@ -6,7 +6,15 @@ import java.util.LinkedHashMap;
 import java.util.List;
 
 import org.perflogstacktrace4j.dto.tree.AppCallTreeNodeDTO;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStackElt;
+import org.perflogstacktrace4j.model.stats.LongStatsHistogram;
+import org.perflogstacktrace4j.model.stats.PendingPerfCount;
 import org.perflogstacktrace4j.model.stats.PerfTimeStats;
+import org.perflogstacktrace4j.model.stats.RollingTimeWindowStats;
+import org.perflogstacktrace4j.utils.UnsafeUtils;
+import org.perflogstacktrace4j.utils.UnsafeUtils.ObjectVolatileFieldAccessor;
 
 /**
  * Tree Node corresponding to statistics of similar AppCallElt(s)
@@ -14,24 +22,65 @@ import org.perflogstacktrace4j.model.stats.PerfTimeStats;
  */
 public class AppCallTreeNode {
 
+    /**
+     * name of the child absorbing calls of children exceeding the tree limits
+     * see AppCallTree.setMaxChildCountPerNode(), AppCallTree.setMaxNodeCount()
+     */
+    public static final String OVERFLOW_CHILD_NAME = CallSiteRegistry.OVERFLOW_SITE_NAME;
+
+    private static final ObjectVolatileFieldAccessor<AppCallTreeNode,AppCallTreeNode> nextSiblingAccessor =
+            UnsafeUtils.objectVolatileFieldAccessor(AppCallTreeNode.class, "nextSibling");
+
     private final AppCallTreeNode parent;
     private final String childName;
 
-    private Object childMapLock = new Object();
+    /** call site of this node, null for root node */
+    private final CallSite callSite;
+
+    /** lock-free index of children, keyed by CallSite (replaced on clear()) */
+    private volatile AppCallTreeNodeChildIndex childIndex = new AppCallTreeNodeChildIndex();
 
-    /** copy on write map (idem Commons collection FastHashMap..)
-     * read => multi-thread safe
-     * write => use childMapLock + clone + change pointer
+    /** next child of parent, in insertion order */
+    private AppCallTreeNode nextSibling;
+
+    /** generation shared by all nodes of the tree, selecting the timeStatsByParity buffer to record into */
+    private final AppCallTreeGeneration generation;
+
+    /** cardinality limits shared by all nodes of the tree */
+    private final AppCallTreeCardinalityLimits limits;
+
+    /**
+     * double-buffered time stats, indexed by generation parity (see AppCallTreeGeneration)
+     * pending counts are not used in these buffers (see pendingCounts)
      */
-    private LinkedHashMap<String, AppCallTreeNode> childMap = new LinkedHashMap<>();
+    private final PerfTimeStats[] timeStatsByParity = new PerfTimeStats[] { new PerfTimeStats(), new PerfTimeStats() };
+
+    /** pending counts, not double-buffered: added on push and removed on pop, possibly in different generations */
+    private final PendingPerfCount pendingCounts = new PendingPerfCount();
 
-    private PerfTimeStats timeStats = new PerfTimeStats();
+    /** optional elapsed time stats over rolling time windows, null when not enabled (default), not reset by snapshots */
+    private volatile RollingTimeWindowStats rollingTimeWindows;
 
     // -------------------------------------------------------------------------
 
+    /**
+     * @param childName call site display name (see CallSite.getDisplayName()), or "" for root node
+     * (resolved in the tree of parent, not registered in CallSiteRegistry, see findOrCreateChild(String))
+     */
     public AppCallTreeNode(AppCallTreeNode parent, String childName) {
+        this(parent, (parent != null)? parent.limits.resolveName(childName) : null, childName);
+    }
+
+    public AppCallTreeNode(AppCallTreeNode parent, CallSite callSite) {
+        this(parent, callSite, callSite.getDisplayName());
+    }
+
+    private AppCallTreeNode(AppCallTreeNode parent, CallSite callSite, String childName) {
         this.parent = parent;
+        this.callSite = callSite;
         this.childName = childName;
+        this.generation = (parent != null)? parent.generation : new AppCallTreeGeneration();
+        this.limits = (parent != null)? parent.limits : new AppCallTreeCardinalityLimits();
     }
 
     // -------------------------------------------------------------------------
@@ -68,96 +117,444 @@ public class AppCallTreeNode {
         return sb.toString();
     }
 
+    public CallSite getCallSite() {
+        return callSite;
+    }
+
+    /** @return copy of children, by name, in insertion order */
     public LinkedHashMap<String, AppCallTreeNode> getChildMap() {
-        return childMap; // unsafe... should use Unmodifiable Map?
+        LinkedHashMap<String, AppCallTreeNode> res = new LinkedHashMap<String, AppCallTreeNode>();
+        for (AppCallTreeNode child = getFirstChild(); child != null; child = child.getNextSibling()) {
+            res.put(child.childName, child);
+        }
+        return res;
+    }
+
+    /** @return copy of children, in insertion order */
+    public List<AppCallTreeNode> getChildList() {
+        List<AppCallTreeNode> res = new ArrayList<AppCallTreeNode>();
+        for (AppCallTreeNode child = getFirstChild(); child != null; child = child.getNextSibling()) {
+            res.add(child);
+        }
+        return res;
+    }
+
+    public int getChildCount() {
+        return childIndex.getChildCount();
+    }
+
+    /**
+     * @return count of distinct call sites folded into the overflow child of this node (not created, because of tree limits)
+     */
+    public int getFoldedNameCount() {
+        return childIndex.getFoldedCallSiteCount();
+    }
+
+    /** @return child absorbing calls of folded call sites, or null */
+    public AppCallTreeNode getOverflowChild() {
+        return childIndex.find(AppCallTreeCardinalityLimits.OVERFLOW_CALL_SITE);
+    }
+
+    /** 
+     * first child, for iterating without allocation on children (in insertion order) using getNextSibling()
+     * <code>for (AppCallTreeNode child = node.getFirstChild(); child != null; child = child.getNextSibling())</code> 
+     */
+    public AppCallTreeNode getFirstChild() {
+        return childIndex.getFirstChild();
     }
 
+    public AppCallTreeNode getNextSibling() {
+        return nextSiblingAccessor.get(this);
+    }
+
+    /*pp*/ boolean casNextSibling(AppCallTreeNode expected, AppCallTreeNode update) {
+        return nextSiblingAccessor.compareAndSwap(this, expected, update);
+    }
+
+    /**
+     * @return copy of time stats (both generation buffers + pending counts)
+     */
     public PerfTimeStats getTimeStats() {
-        return timeStats;
+        PerfTimeStats res = new PerfTimeStats(timeStatsByParity[0].getLayout());
+        copyTimeStatsTo(res);
+        return res;
+    }
+
+    public void copyTimeStatsTo(PerfTimeStats dest) {
+        dest.set(timeStatsByParity[0]);
+        dest.incr(timeStatsByParity[1]);
+        dest.getPendingCounts().incr(pendingCounts);
+    }
+
+    /**
+     * enable striped (contention-free) time stats counters for this node, 
+     * typically for hot nodes like an http entry point
+     * see LongStatsHistogram.enableStriping()
+     */
+    public void enableStripedTimeStats(int stripeCount) {
+        timeStatsByParity[0].enableStriping(stripeCount);
+        timeStatsByParity[1].enableStriping(stripeCount);
+    }
+
+    public void enableStripedTimeStats() {
+        enableStripedTimeStats(LongStatsHistogram.defaultStripeCount());
+    }
+
+    /**
+     * enable elapsed time stats over rolling time windows (last 1min, 5min, 15min), for live records (not for merged stats)
+     * see RollingTimeWindowStats.createDefault()
+     */
+    public void enableRollingTimeWindows() {
+        enableRollingTimeWindows(RollingTimeWindowStats.createDefault(timeStatsByParity[0].getLayout()));
     }
 
+    public void enableRollingTimeWindows(RollingTimeWindowStats rollingTimeWindows) {
+        this.rollingTimeWindows = rollingTimeWindows;
+    }
+
+    /** @return stats over rolling time windows, or null if not enabled */
+    public RollingTimeWindowStats getRollingTimeWindows() {
+        return rollingTimeWindows;
+    }
+
+    /**
+     * find or create child by name
+     * (slower than findOrCreateChild(CallSite): the CallSite is looked up by name)
+     * <BR/>
+     * names not registered in CallSiteRegistry (typically from DTOs of other JVMs) are not registered,
+     * but indexed by this tree, against its own limits (see AppCallTreeNameIndex)
+     */
     public AppCallTreeNode findOrCreateChild(String name) {
-        AppCallTreeNode res = childMap.get(name);
-        if (res == null) {
-            // redo find, double check with synchronized!
-            synchronized(childMapLock) {
-                res = childMap.get(name);
-                if (res == null) {
-                    // copy on write
-                    LinkedHashMap<String, AppCallTreeNode> newChildMap =
-                        new LinkedHashMap<String, AppCallTreeNode>(childMap);
-                    res = new AppCallTreeNode(this, name);
-                    newChildMap.put(name, res);
-                    this.childMap = newChildMap;
-                }
+        return childIndex.findOrCreate(this, limits.resolveName(name), limits);
+    }
+
+    /** @return child for callSite, or null (lock-free, without allocation) */
+    public AppCallTreeNode findChild(CallSite callSite) {
+        if (!callSite.isRegistered()) {
+            callSite = limits.findName(callSite.getDisplayName());
+            if (callSite == null) {
+                return null;
             }
         }
-        return res;
+        return childIndex.find(callSite);
+    }
+
+    /**
+     * find or create child for callSite
+     * when the child count of this node or the node count of the tree reach their limit, a new call site is not created
+     * but folded into the overflow child (see OVERFLOW_CHILD_NAME, getFoldedNameCount())
+     * <BR/>
+     * call sites not registered in CallSiteRegistry (pushed after its cap is reached, or from another tree)
+     * are resolved by name in this tree (see AppCallTreeNameIndex), so they are not merged with other names
+     */
+    public AppCallTreeNode findOrCreateChild(CallSite callSite) {
+        if (!callSite.isRegistered()) {
+            callSite = limits.resolveName(callSite.getDisplayName());
+        }
+        return childIndex.findOrCreate(this, callSite, limits);
+    }
+
+    public void addPending(CallStackElt stackElt) {
+        pendingCounts.addPending(stackElt);
+    }
+
+    /** add pending for a span started at <code>startTime</code> and ended in another thread (see AsyncSpan) */
+    public void addPending(long startTime) {
+        pendingCounts.addPending(startTime, 0);
+    }
+
+    /**
+     * incr elapsed time stats of current generation for a span ended in another thread, and remove its pending
+     * (thread cpu/user times are not measured)
+     */
+    public void incrAndRemovePending(long startTime, long endTime) {
+        pendingCounts.removePending(startTime, 0);
+        long elapsedTime = endTime - startTime;
+        int stripe = AppCallTreeGeneration.threadStripe();
+        int g = generation.enter(stripe);
+        try {
+            timeStatsByParity[g & 1].incrElapsedTime(elapsedTime);
+        } finally {
+            generation.exit(g, stripe);
+        }
+        RollingTimeWindowStats windows = rollingTimeWindows;
+        if (windows != null) {
+            windows.incr(elapsedTime);
+        }
+    }
+
+    /**
+     * incr time stats of current generation from popped element, and remove pending
+     * @param stripe see AppCallTreeGeneration.threadStripe(), cached per thread
+     */
+    /*pp*/ void incrAndRemovePending(CallStackElt stackElt, int stripe) {
+        pendingCounts.removePending(stackElt);
+        int g = generation.enter(stripe);
+        try {
+            timeStatsByParity[g & 1].incr(stackElt);
+        } finally {
+            generation.exit(g, stripe);
+        }
+        RollingTimeWindowStats windows = rollingTimeWindows;
+        if (windows != null) {
+            windows.incr(stackElt);
+        }
     }
 
     public void incrTimeStats(long time, long threadUserTime, long threadCpuTime) {
-        timeStats.incr(time, threadUserTime, threadCpuTime);
+        int stripe = AppCallTreeGeneration.threadStripe();
+        int g = generation.enter(stripe);
+        try {
+            timeStatsByParity[g & 1].incr(time, threadUserTime, threadCpuTime);
+        } finally {
+            generation.exit(g, stripe);
+        }
+        RollingTimeWindowStats windows = rollingTimeWindows;
+        if (windows != null) {
+            windows.incr(time);
+        }
     }
 
-    public void addRecursive(AppCallTreeNode src) {
-        timeStats.incr(src.timeStats);
+    public void incrTimeStats(PerfTimeStats src) {
+        int stripe = AppCallTreeGeneration.threadStripe();
+        int g = generation.enter(stripe);
+        try {
+            timeStatsByParity[g & 1].incr(src);
+        } finally {
+            generation.exit(g, stripe);
+        }
+    }
 
-        for(AppCallTreeNode srcChild : src.childMap.values()) {
-            AppCallTreeNode child = findOrCreateChild(srcChild.childName);
-            child.addRecursive(srcChild);
+    /**
+     * add stats of src sub-tree, iteratively (explicit stack, so deep trees do not overflow the thread stack)
+     * <BR/>
+     * as findOrCreateChild() and incrTimeStats() are thread-safe, several trees may be added concurrently from several threads
+     */
+    public void addRecursive(AppCallTreeNode src) {
+        ArrayList<AppCallTreeNode> stack = new ArrayList<AppCallTreeNode>();
+        stack.add(this);
+        stack.add(src);
+        while (!stack.isEmpty()) {
+            AppCallTreeNode currSrc = stack.remove(stack.size() - 1);
+            AppCallTreeNode currDest = stack.remove(stack.size() - 1);
+            currDest.incrTimeStats(currSrc.getTimeStats());
+            for (AppCallTreeNode srcChild = currSrc.getFirstChild(); srcChild != null; srcChild = srcChild.getNextSibling()) {
+                stack.add(currDest.findOrCreateChild(srcChild.callSite));
+                stack.add(srcChild);
+            }
         }
     }
 
+    /**
+     * add stats of src sub-tree, iteratively (see above)
+     * to add many snapshots, merge them first in parallel with AppCallTreeMerger, then add the result once
+     */
     public void addRecursive(AppCallTreeNodeDTO src) {
-        timeStats.incr(src.getPerfTimeStats());
-
-        for(AppCallTreeNodeDTO srcChild : src.getChildList()) {
-            AppCallTreeNode child = findOrCreateChild(srcChild.getName());
-            child.addRecursive(srcChild);
+        ArrayList<Object> stack = new ArrayList<Object>();
+        stack.add(this);
+        stack.add(src);
+        while (!stack.isEmpty()) {
+            AppCallTreeNodeDTO currSrc = (AppCallTreeNodeDTO) stack.remove(stack.size() - 1);
+            AppCallTreeNode currDest = (AppCallTreeNode) stack.remove(stack.size() - 1);
+            currDest.incrTimeStats(currSrc.getPerfTimeStats());
+            if (currSrc.getChildCount() != 0) {
+                for (AppCallTreeNodeDTO srcChild : currSrc.getChildList()) {
+                    stack.add(currDest.findOrCreateChild(srcChild.getName()));
+                    stack.add(srcChild);
+                }
+            }
         }
     }
 
+    /**
+     * clear stats and children
+     * this is not atomic with respect to concurrent recorders, see snapshotAndResetTo() 
+     */
     public void clear() {
-        timeStats.clear();
+        timeStatsByParity[0].clear();
+        timeStatsByParity[1].clear();
+        pendingCounts.clear();
+        RollingTimeWindowStats windows = rollingTimeWindows;
+        if (windows != null) {
+            windows.clear();
+        }
 
-        synchronized(childMapLock) {
-            childMap = new LinkedHashMap<String, AppCallTreeNode>();
+        int removedNodeCount = countSubTreeNodes() - 1;
+        childIndex = new AppCallTreeNodeChildIndex();
+        if (parent == null) {
+            limits.clear();
+        } else {
+            limits.releaseNodes(removedNodeCount);
         }
     }
 
+    /**
+     * move stats of this sub-tree to dest (see snapshotAndResetTo())
+     */
     public void clearAndCopyTo(AppCallTreeNode dest) {
-        timeStats.clearAndCopyTo(dest.timeStats);
+        synchronized(generation.getSnapshotLock()) {
+            int parity = generation.flipAndDrain();
+            carryOverOutsideSubTree(parity);
+            drainSubTreeTo(dest, parity);
+        }
+    }
+
+    /** alias for snapshotAndResetTo(dest) */
+    public void clearAndCopyTo(AppCallTreeNodeDTO dest) {
+        snapshotAndResetTo(dest);
+    }
 
-        for(AppCallTreeNode child : childMap.values()) {
-            AppCallTreeNode destChild = dest.findOrCreateChild(child.childName);
-            child.clearAndCopyTo(destChild);
+    /**
+     * atomically snapshot and reset stats of this sub-tree, into dest
+     * <BR/>
+     * the tree generation is flipped (new records go to the other stats buffers), 
+     * then in-flight records of the previous generation are drained, and previous buffers are moved to dest: 
+     * no increment is lost or counted twice, and recorders are never blocked.
+     * Children are kept (with empty stats), pending counts are copied (not reset)
+     * <BR/>
+     * As the generation is shared by the whole tree, when called on a non-root node, the previous buffers of nodes
+     * outside this sub-tree are carried over into their current buffers (so they are not reset, and do not mix intervals)
+     */
+    public void snapshotAndResetTo(AppCallTreeNodeDTO dest) {
+        synchronized(generation.getSnapshotLock()) {
+            int parity = generation.flipAndDrain();
+            carryOverOutsideSubTree(parity);
+            drainSubTreeTo(dest, parity);
         }
+    }
 
-        synchronized(childMapLock) {
-            this.childMap = new LinkedHashMap<String, AppCallTreeNode>();
+    /**
+     * copy stats of this sub-tree to dest, iteratively (see addRecursive())
+     */
+    public void copyTo(AppCallTreeNodeDTO dest) {
+        ArrayList<Object> stack = new ArrayList<Object>();
+        stack.add(dest);
+        stack.add(this);
+        while (!stack.isEmpty()) {
+            AppCallTreeNode currSrc = (AppCallTreeNode) stack.remove(stack.size() - 1);
+            AppCallTreeNodeDTO currDest = (AppCallTreeNodeDTO) stack.remove(stack.size() - 1);
+            currSrc.copyTimeStatsTo(currDest.getPerfTimeStats());
+            for (AppCallTreeNode child = currSrc.getFirstChild(); child != null; child = child.getNextSibling()) {
+                stack.add(currDest.findOrCreateChild(child.childName));
+                stack.add(child);
+            }
         }
     }
 
-    public void clearAndCopyTo(AppCallTreeNodeDTO dest) {
-        timeStats.clearAndCopyTo(dest.getPerfTimeStats());
+    /*pp*/ Object getSnapshotLock() {
+        return generation.getSnapshotLock();
+    }
 
-        for(AppCallTreeNode child : childMap.values()) {
-            AppCallTreeNodeDTO destChild = dest.findOrCreateChild(child.childName);
-            child.clearAndCopyTo(destChild);
+    /*pp*/ AppCallTreeCardinalityLimits getLimits() {
+        return limits;
+    }
+
+    // internal
+    // -------------------------------------------------------------------------
+
+    /** @return count of nodes of this sub-tree, including this node (iterative, without recursion) */
+    private int countSubTreeNodes() {
+        int res = 1;
+        AppCallTreeNode node = getFirstChild();
+        while (node != null) {
+            res++;
+            // next node: first child, or next sibling of node or of nearest ancestor below this node
+            AppCallTreeNode next = node.getFirstChild();
+            while (next == null && node != this) {
+                next = node.getNextSibling();
+                node = node.getParent();
+            }
+            node = next;
         }
+        return res;
+    }
 
-        synchronized(childMapLock) {
-            this.childMap = new LinkedHashMap<String, AppCallTreeNode>();
+    /**
+     * @return next node after <code>node</code> in pre-order of sub-tree of <code>subRoot</code>, or null
+     * @param skipChildren true to skip children of <code>node</code>
+     */
+    private static AppCallTreeNode nextInSubTree(AppCallTreeNode node, AppCallTreeNode subRoot, boolean skipChildren) {
+        AppCallTreeNode next = (skipChildren)? null : node.getFirstChild();
+        while (next == null && node != subRoot) {
+            next = node.getNextSibling();
+            node = node.getParent();
         }
+        return next;
     }
 
-    public void copyTo(AppCallTreeNodeDTO dest) {
-        timeStats.copyTo(dest.getPerfTimeStats());
+    /**
+     * move previous generation buffers of nodes outside this sub-tree into their current generation buffers
+     * must be called holding snapshot lock, after flipAndDrain()
+     */
+    private void carryOverOutsideSubTree(int parity) {
+        if (parent == null) {
+            return;
+        }
+        AppCallTreeNode root = this;
+        while (root.parent != null) {
+            root = root.parent;
+        }
+        for (AppCallTreeNode node = root; node != null; node = nextInSubTree(node, root, node == this)) {
+            if (node != this) {
+                PerfTimeStats prevStats = node.timeStatsByParity[parity];
+                node.timeStatsByParity[parity ^ 1].incr(prevStats);
+                prevStats.clear();
+            }
+        }
+    }
+
+    /**
+     * move previous generation buffers of this sub-tree to dest (AppCallTreeNodeDTO or AppCallTreeNode)
+     * iterative (without recursion), so deep trees do not overflow the thread stack
+     */
+    private void drainSubTreeTo(Object dest, int parity) {
+        // dest nodes of current node and its ancestors, indexed by depth below this
+        ArrayList<Object> destPath = new ArrayList<Object>();
+        destPath.add(dest);
+        drainNodeTo(this, dest, parity);
+        AppCallTreeNode node = this;
+        int depth = 0;
+        for (;;) {
+            AppCallTreeNode next = node.getFirstChild();
+            if (next != null) {
+                depth++;
+            } else {
+                while (node != this) {
+                    next = node.getNextSibling();
+                    if (next != null) {
+                        break;
+                    }
+                    node = node.parent;
+                    depth--;
+                }
+                if (next == null) {
+                    return;
+                }
+            }
+            Object parentDest = destPath.get(depth - 1);
+            Object nextDest = (parentDest instanceof AppCallTreeNodeDTO)
+                    ? ((AppCallTreeNodeDTO) parentDest).findOrCreateChild(next.childName)
+                    : ((AppCallTreeNode) parentDest).findOrCreateChild(next.callSite);
+            if (depth == destPath.size()) {
+                destPath.add(nextDest);
+            } else {
+                destPath.set(depth, nextDest);
+            }
+            drainNodeTo(next, nextDest, parity);
+            node = next;
+        }
+    }
 
-        for(AppCallTreeNode child : childMap.values()) {
-            AppCallTreeNodeDTO destChild = dest.findOrCreateChild(child.childName);
-            child.copyTo(destChild);
+    private static void drainNodeTo(AppCallTreeNode node, Object dest, int parity) {
+        PerfTimeStats prevStats = node.timeStatsByParity[parity];
+        if (dest instanceof AppCallTreeNodeDTO) {
+            PerfTimeStats destStats = ((AppCallTreeNodeDTO) dest).getPerfTimeStats();
+            destStats.set(prevStats);
+            destStats.getPendingCounts().incr(node.pendingCounts);
+        } else {
+            ((AppCallTreeNode) dest).incrTimeStats(prevStats);
         }
+        prevStats.clear();
     }
 
     // -------------------------------------------------------------------------
@@ -0,0 +1,325 @@
+package org.perflogstacktrace4j.model.tree;
+
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.utils.UnsafeUtils;
+import org.perflogstacktrace4j.utils.UnsafeUtils.IntVolatileFieldAccessor;
+import org.perflogstacktrace4j.utils.UnsafeUtils.ObjectVolatileFieldAccessor;
+
+/**
+ * concurrent index of the children of an AppCallTreeNode, keyed by CallSite (identity / id)
+ * <BR/>
+ * lookup is lock-free and allocation-free, insertion is lock-free (CAS), without copying existing entries:
+ * <ul>
+ * <li>the first SMALL_LEN children are stored in an inline array, scanned linearly (typical small fan-out)</li>
+ * <li>next children are stored in an open-addressing table (linear probing on CallSite id),
+ * resized under a lock when half full. During resize, free slots of the old table are replaced by a Forward marker,
+ * so concurrent lookups continue in the new table, and concurrent inserts wait for the resize</li>
+ * </ul>
+ * children are also linked in insertion order (AppCallTreeNode.nextSibling), for stable iteration in dumps
+ * <BR/>
+ * before inserting a new child, a slot is reserved by CAS against the per-node and tree limits (see AppCallTreeCardinalityLimits):
+ * when a limit is reached, the call site is folded into the overflow child, and counted in the folded call sites
+ */
+final class AppCallTreeNodeChildIndex {
+
+    private static final ObjectVolatileFieldAccessor<AppCallTreeNodeChildIndex,Object[]> smallChildrenAccessor =
+            UnsafeUtils.objectVolatileFieldAccessor(AppCallTreeNodeChildIndex.class, "smallChildren");
+    private static final ObjectVolatileFieldAccessor<AppCallTreeNodeChildIndex,Object[]> tableAccessor =
+            UnsafeUtils.objectVolatileFieldAccessor(AppCallTreeNodeChildIndex.class, "table");
+    private static final IntVolatileFieldAccessor<AppCallTreeNodeChildIndex> tableCountAccessor =
+            UnsafeUtils.intVolatileFieldAccessor(AppCallTreeNodeChildIndex.class, "tableCount");
+    private static final IntVolatileFieldAccessor<AppCallTreeNodeChildIndex> childCountAccessor =
+            UnsafeUtils.intVolatileFieldAccessor(AppCallTreeNodeChildIndex.class, "childCount");
+    private static final IntVolatileFieldAccessor<AppCallTreeNodeChildIndex> reservedCountAccessor =
+            UnsafeUtils.intVolatileFieldAccessor(AppCallTreeNodeChildIndex.class, "reservedCount");
+    private static final ObjectVolatileFieldAccessor<AppCallTreeNodeChildIndex,CallSiteBitSet> foldedCallSitesAccessor =
+            UnsafeUtils.objectVolatileFieldAccessor(AppCallTreeNodeChildIndex.class, "foldedCallSites");
+    private static final ObjectVolatileFieldAccessor<AppCallTreeNodeChildIndex,AppCallTreeNode> firstChildAccessor =
+            UnsafeUtils.objectVolatileFieldAccessor(AppCallTreeNodeChildIndex.class, "firstChild");
+    private static final ObjectVolatileFieldAccessor<AppCallTreeNodeChildIndex,AppCallTreeNode> lastChildAccessor =
+            UnsafeUtils.objectVolatileFieldAccessor(AppCallTreeNodeChildIndex.class, "lastChild");
+
+    /** inline array length, scanned linearly */
+    private static final int SMALL_LEN = 8;
+
+    private static final int INITIAL_TABLE_LEN = 32;
+
+    /** inline array of first children, allocated on first insert */
+    private Object[] smallChildren;
+
+    /** open-addressing table, allocated when smallChildren is full, length is a power of 2 */
+    private Object[] table;
+
+    /** count of children in table, to decide resize: incremented only by the insert CAS publishing a new child (not by resize copies) */
+    private int tableCount;
+
+    private int childCount;
+
+    /** count of children, including reserved slots of children being inserted (excluding overflow child) */
+    private int reservedCount;
+
+    /** distinct call sites folded into the overflow child, allocated on first fold */
+    private CallSiteBitSet foldedCallSites;
+
+    /** head and tail of children linked in insertion order */
+    private AppCallTreeNode firstChild;
+    private AppCallTreeNode lastChild;
+
+    private final Object resizeLock = new Object();
+
+    // -------------------------------------------------------------------------
+
+    AppCallTreeNodeChildIndex() {
+    }
+
+    // -------------------------------------------------------------------------
+
+    AppCallTreeNode getFirstChild() {
+        return firstChildAccessor.get(this);
+    }
+
+    int getChildCount() {
+        return childCountAccessor.get(this);
+    }
+
+    /** @return count of children in table (excluding inline array) */
+    int getTableCount() {
+        return tableCountAccessor.get(this);
+    }
+
+    int getFoldedCallSiteCount() {
+        CallSiteBitSet folded = foldedCallSitesAccessor.get(this);
+        return (folded != null)? folded.getCount() : 0;
+    }
+
+    AppCallTreeNode find(CallSite callSite) {
+        Object[] small = smallChildrenAccessor.get(this);
+        if (small == null) {
+            return null;
+        }
+        for (int i = 0; i < SMALL_LEN; i++) {
+            AppCallTreeNode child = (AppCallTreeNode) UnsafeUtils.getObjectVolatileAt(small, i);
+            if (child == null) {
+                return null;
+            } else if (child.getCallSite() == callSite) {
+                return child;
+            }
+        }
+        Object[] tab = tableAccessor.get(this);
+        while (tab != null) {
+            int mask = tab.length - 1;
+            int i = hash(callSite.getId()) & mask;
+            Object next = null;
+            for (int probe = 0; probe <= mask; probe++, i = (i + 1) & mask) {
+                Object e = UnsafeUtils.getObjectVolatileAt(tab, i);
+                if (e == null) {
+                    return null;
+                } else if (e instanceof Forward) {
+                    next = ((Forward) e).nextTable;
+                    break;
+                } else if (((AppCallTreeNode) e).getCallSite() == callSite) {
+                    return (AppCallTreeNode) e;
+                }
+            }
+            tab = (Object[]) next;
+        }
+        return null;
+    }
+
+    AppCallTreeNode findOrCreate(AppCallTreeNode parent, CallSite callSite, AppCallTreeCardinalityLimits limits) {
+        AppCallTreeNode res = find(callSite);
+        if (res != null) {
+            return res;
+        }
+        boolean overflow = callSite == AppCallTreeCardinalityLimits.OVERFLOW_CALL_SITE;
+        if (overflow) {
+            limits.reserveNode();
+        } else if (!tryReserveChild(limits.getMaxChildCountPerNode())) {
+            return fold(parent, callSite, limits);
+        } else if (!limits.tryReserveNode()) {
+            reservedCountAccessor.add(this, -1);
+            return fold(parent, callSite, limits);
+        }
+        AppCallTreeNode newChild = new AppCallTreeNode(parent, callSite);
+        res = insertIfAbsent(newChild);
+        if (res == newChild) {
+            childCountAccessor.add(this, 1);
+            appendSibling(newChild);
+        } else {
+            // concurrently inserted by another thread: release slots
+            if (!overflow) {
+                reservedCountAccessor.add(this, -1);
+            }
+            limits.releaseNodes(1);
+        }
+        return res;
+    }
+
+    // internal
+    // -------------------------------------------------------------------------
+
+    /** @return true if a child slot was reserved, false if maxChildCount is reached */
+    private boolean tryReserveChild(int maxChildCount) {
+        for (;;) {
+            int count = reservedCountAccessor.get(this);
+            if (count >= maxChildCount) {
+                return false;
+            }
+            if (reservedCountAccessor.compareAndSwap(this, count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** @return overflow child, after counting callSite as folded */
+    private AppCallTreeNode fold(AppCallTreeNode parent, CallSite callSite, AppCallTreeCardinalityLimits limits) {
+        CallSiteBitSet folded = foldedCallSitesAccessor.get(this);
+        if (folded == null) {
+            foldedCallSitesAccessor.compareAndSwap(this, null, new CallSiteBitSet());
+            folded = foldedCallSitesAccessor.get(this);
+        }
+        if (folded.add(callSite)) {
+            limits.addFoldedCallSite(callSite);
+        }
+        return findOrCreate(parent, AppCallTreeCardinalityLimits.OVERFLOW_CALL_SITE, limits);
+    }
+
+    /** @return existing child for same CallSite, or <code>newChild</code> when inserted */
+    private AppCallTreeNode insertIfAbsent(AppCallTreeNode newChild) {
+        CallSite callSite = newChild.getCallSite();
+        Object[] small = smallChildrenAccessor.get(this);
+        if (small == null) {
+            smallChildrenAccessor.compareAndSwap(this, null, new Object[SMALL_LEN]);
+            small = smallChildrenAccessor.get(this);
+        }
+        for (int i = 0; i < SMALL_LEN; i++) {
+            Object e = UnsafeUtils.getObjectVolatileAt(small, i);
+            if (e == null) {
+                if (UnsafeUtils.compareAndSwapObjectAt(small, i, null, newChild)) {
+                    return newChild;
+                }
+                e = UnsafeUtils.getObjectVolatileAt(small, i);
+            }
+            if (((AppCallTreeNode) e).getCallSite() == callSite) {
+                return (AppCallTreeNode) e;
+            }
+        }
+        // small array is full (and immutable from now on) => insert in table
+        Object[] tab = tableAccessor.get(this);
+        if (tab == null) {
+            tableAccessor.compareAndSwap(this, null, new Object[INITIAL_TABLE_LEN]);
+            tab = tableAccessor.get(this);
+        }
+        for (;;) {
+            Object res = insertInTable(tab, newChild);
+            if (res instanceof Forward || res == null) {
+                // table is being resized (or full): wait for resize, then retry in new table
+                tab = resize(tab);
+                continue;
+            }
+            if (res == newChild) {
+                // published by our CAS (exactly once, in the old or the new table: a resize copies it without counting it)
+                int count = tableCountAccessor.add(this, 1) + 1;
+                Object[] currTab = tableAccessor.get(this);
+                if (count * 2 > currTab.length) {
+                    resize(currTab);
+                }
+            }
+            return (AppCallTreeNode) res;
+        }
+    }
+
+    /** @return existing or inserted node, or Forward marker when table is being resized, or null when full */
+    private static Object insertInTable(Object[] tab, AppCallTreeNode newChild) {
+        CallSite callSite = newChild.getCallSite();
+        int mask = tab.length - 1;
+        int i = hash(callSite.getId()) & mask;
+        for (int probe = 0; probe <= mask; probe++, i = (i + 1) & mask) {
+            Object e = UnsafeUtils.getObjectVolatileAt(tab, i);
+            if (e == null) {
+                if (UnsafeUtils.compareAndSwapObjectAt(tab, i, null, newChild)) {
+                    return newChild;
+                }
+                e = UnsafeUtils.getObjectVolatileAt(tab, i);
+            }
+            if (e instanceof Forward) {
+                return e;
+            } else if (((AppCallTreeNode) e).getCallSite() == callSite) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * resize table (if still equals to <code>expectedTab</code>), copying entries to a new table of double size
+     * free slots are marked with a Forward marker, so concurrent lookups continue in the new table
+     * @return current table after resize
+     */
+    private Object[] resize(Object[] expectedTab) {
+        synchronized(resizeLock) {
+            Object[] tab = tableAccessor.get(this);
+            if (tab != expectedTab) {
+                return tab;
+            }
+            Object[] newTab = new Object[tab.length << 1];
+            Forward forward = new Forward(newTab);
+            for (int i = 0; i < tab.length; i++) {
+                Object e = UnsafeUtils.getObjectVolatileAt(tab, i);
+                if (e == null) {
+                    if (UnsafeUtils.compareAndSwapObjectAt(tab, i, null, forward)) {
+                        continue;
+                    }
+                    e = UnsafeUtils.getObjectVolatileAt(tab, i);
+                }
+                // entries are never removed or moved in old table: copy to new table (only written by this thread until published)
+                insertInTable(newTab, (AppCallTreeNode) e);
+            }
+            tableAccessor.set(this, newTab);
+            return newTab;
+        }
+    }
+
+    /** append to linked list of children (lock-free, similar to Michael-Scott queue) */
+    private void appendSibling(AppCallTreeNode node) {
+        for (;;) {
+            AppCallTreeNode tail = lastChildAccessor.get(this);
+            if (tail == null) {
+                if (firstChildAccessor.compareAndSwap(this, null, node)) {
+                    lastChildAccessor.compareAndSwap(this, null, node);
+                    return;
+                }
+                // help concurrent first append
+                lastChildAccessor.compareAndSwap(this, null, firstChildAccessor.get(this));
+                continue;
+            }
+            AppCallTreeNode next = tail.getNextSibling();
+            if (next != null) {
+                // help concurrent append
+                lastChildAccessor.compareAndSwap(this, tail, next);
+                continue;
+            }
+            if (tail.casNextSibling(null, node)) {
+                lastChildAccessor.compareAndSwap(this, tail, node);
+                return;
+            }
+        }
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9; // fibonacci hashing, to spread consecutive ids
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * marker for free slots of a resized table
+     */
+    private static final class Forward {
+        final Object[] nextTable;
+
+        Forward(Object[] nextTable) {
+            this.nextTable = nextTable;
+        }
+    }
+
+}
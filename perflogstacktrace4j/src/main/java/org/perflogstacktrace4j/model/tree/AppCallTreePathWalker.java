@@ -0,0 +1,117 @@
+package org.perflogstacktrace4j.model.tree;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+import org.perflogstacktrace4j.model.CallSite;
+
+/**
+ * iterative depth-first walk of a live AppCallTree (using parent / first child / next sibling links: no recursion, no DTO copy),
+ * maintaining the path of the visited node as bytes: <code>prefix name1/name2/..</code>
+ * <BR/>
+ * Node names are encoded once per CallSite by encodeName() (for example escaped as a label or tag value), and cached by CallSite id
+ * (or by CallSite, for names scoped to a tree, with negative ids).
+ * Used by exporters (prometheus, influxdb..): once buffers are grown, a walk does not allocate.
+ * <BR/>
+ * Not multi-thread safe.
+ */
+public abstract class AppCallTreePathWalker {
+
+    /** encoded names of CallSites, indexed by CallSite.getId() */
+    private byte[][] encodedNames = new byte[256][];
+
+    /** encoded names of CallSites scoped to a tree (negative ids), dropped with the nodes of cleared trees */
+    private final WeakHashMap<CallSite, byte[]> encodedUnregisteredNames = new WeakHashMap<CallSite, byte[]>();
+
+    private byte[] pathBuffer = new byte[1024];
+    private int[] pathLenStack = new int[64];
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * @return bytes of node name in path (cached per CallSite)
+     */
+    protected abstract byte[] encodeName(String name);
+
+    /**
+     * visit a node (root excluded)
+     * @param path path buffer, from 0 to pathLen, only valid during this call
+     */
+    protected abstract void visitNode(AppCallTreeNode node, byte[] path, int pathLen) throws IOException;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * visit all nodes of <code>tree</code> (except root), parents before children
+     * @param pathPrefix bytes prepended to path of all nodes (may be empty)
+     */
+    public void walk(AppCallTree tree, byte[] pathPrefix) throws IOException {
+        int depth = 0;
+        pathLenStack[0] = appendPath(0, pathPrefix, false);
+
+        AppCallTreeNode node = tree.getRootNode().getFirstChild();
+        while (node != null) {
+            depth++;
+            if (depth >= pathLenStack.length) {
+                pathLenStack = Arrays.copyOf(pathLenStack, depth * 2);
+            }
+            int pathLen = appendPath(pathLenStack[depth - 1], encodedNameOf(node), depth > 1);
+            pathLenStack[depth] = pathLen;
+
+            visitNode(node, pathBuffer, pathLen);
+
+            // next node: first child, or next sibling of node or of nearest ancestor
+            AppCallTreeNode next = node.getFirstChild();
+            if (next == null) {
+                for (;;) {
+                    next = node.getNextSibling();
+                    depth--;
+                    if (next != null || depth == 0) {
+                        break;
+                    }
+                    node = node.getParent();
+                }
+            }
+            node = next;
+        }
+    }
+
+    // internal
+    // ------------------------------------------------------------------------
+
+    private int appendPath(int pathLen, byte[] bytes, boolean withSeparator) {
+        int len = pathLen + bytes.length + 1;
+        if (len > pathBuffer.length) {
+            pathBuffer = Arrays.copyOf(pathBuffer, Math.max(len, pathBuffer.length * 2));
+        }
+        if (withSeparator) {
+            pathBuffer[pathLen++] = '/';
+        }
+        System.arraycopy(bytes, 0, pathBuffer, pathLen, bytes.length);
+        return pathLen + bytes.length;
+    }
+
+    private byte[] encodedNameOf(AppCallTreeNode node) {
+        CallSite callSite = node.getCallSite();
+        int id = callSite.getId();
+        if (id < 0) {
+            byte[] res = encodedUnregisteredNames.get(callSite);
+            if (res == null) {
+                res = encodeName(node.getChildName());
+                encodedUnregisteredNames.put(callSite, res);
+            }
+            return res;
+        }
+        if (id >= encodedNames.length) {
+            encodedNames = Arrays.copyOf(encodedNames, Math.max(id + 1, encodedNames.length * 2));
+        }
+        byte[] res = encodedNames[id];
+        if (res == null) {
+            res = encodeName(node.getChildName());
+            encodedNames[id] = res;
+        }
+        return res;
+    }
+
+}
@@ -0,0 +1,95 @@
+package org.perflogstacktrace4j.model.tree;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.utils.UnsafeUtils;
+import org.perflogstacktrace4j.utils.UnsafeUtils.IntVolatileFieldAccessor;
+
+/**
+ * grow-only concurrent set of CallSite ids, for counting distinct CallSites
+ * <BR/>
+ * bits are stored in chunks of CHUNK_BITS ids, allocated on first use:
+ * ids being allocated sequentially, the memory is at most 1 bit per registered CallSite.
+ * Negative ids (of names scoped to a tree, see AppCallTreeNameIndex) are interleaved with positive ones,
+ * as keys <code>2 * id</code> for registered CallSites, and <code>2 * (-1 - id) + 1</code> for negative ids.
+ * add() of an already present id is lock-free and allocation-free, setting a bit is a CAS,
+ * allocating a chunk uses a lock (once per CHUNK_BITS ids)
+ */
+final class CallSiteBitSet {
+
+    private static final IntVolatileFieldAccessor<CallSiteBitSet> countAccessor =
+            UnsafeUtils.intVolatileFieldAccessor(CallSiteBitSet.class, "count");
+
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_BITS = 1 << CHUNK_SHIFT;
+
+    /** chunks by (id >>> CHUNK_SHIFT), copy on write (grow only) */
+    private volatile AtomicLongArray[] chunks = new AtomicLongArray[4];
+
+    private int count;
+
+    private final Object lock = new Object();
+
+    // -------------------------------------------------------------------------
+
+    CallSiteBitSet() {
+    }
+
+    // -------------------------------------------------------------------------
+
+    /** @return count of distinct added ids */
+    int getCount() {
+        return countAccessor.get(this);
+    }
+
+    /** @return true if the id of callSite was added, false if already present */
+    boolean add(CallSite callSite) {
+        int id = callSite.getId();
+        return add((id >= 0)? id << 1 : ((-1 - id) << 1) | 1);
+    }
+
+    /** @return true if key was added, false if already present */
+    private boolean add(int id) {
+        int chunkIndex = id >>> CHUNK_SHIFT;
+        AtomicLongArray[] tab = chunks;
+        AtomicLongArray chunk = (chunkIndex < tab.length)? tab[chunkIndex] : null;
+        if (chunk == null) {
+            chunk = allocChunk(chunkIndex);
+        }
+        int wordIndex = (id & (CHUNK_BITS - 1)) >>> 6;
+        long bit = 1L << id;
+        for (;;) {
+            long word = chunk.get(wordIndex);
+            if ((word & bit) != 0) {
+                return false;
+            }
+            if (chunk.compareAndSet(wordIndex, word, word | bit)) {
+                countAccessor.add(this, 1);
+                return true;
+            }
+        }
+    }
+
+    // internal
+    // -------------------------------------------------------------------------
+
+    private AtomicLongArray allocChunk(int chunkIndex) {
+        synchronized(lock) {
+            AtomicLongArray[] tab = chunks;
+            if (chunkIndex >= tab.length) {
+                AtomicLongArray[] newTab = new AtomicLongArray[Math.max(chunkIndex + 1, tab.length * 2)];
+                System.arraycopy(tab, 0, newTab, 0, tab.length);
+                tab = newTab;
+            }
+            AtomicLongArray res = tab[chunkIndex];
+            if (res == null) {
+                res = new AtomicLongArray(CHUNK_BITS / 64);
+                tab[chunkIndex] = res;
+            }
+            chunks = tab;
+            return res;
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.perflogstacktrace4j.recorder;
+
+/**
+ * event decoded from a flight recorder file (see FlightRecordReader)
+ */
+public final class FlightRecordEvent {
+
+	public static enum Type {
+		/** value: sample weight */
+		PUSH,
+		/** value: thread cpu time elapsed, or -1 if not measured */
+		POP,
+		/** value: progress index */
+		PROGRESS,
+		/** value: thread id */
+		ATTACH,
+		/** value: thread id */
+		DETACH
+	}
+
+	private final Type type;
+	private final int depth;
+	private final int siteId;
+	private final String siteName;
+	private final long time;
+	private final long timeMillis;
+	private final long value;
+
+	// ------------------------------------------------------------------------
+
+	public FlightRecordEvent(Type type, int depth, int siteId, String siteName, long time, long timeMillis, long value) {
+		this.type = type;
+		this.depth = depth;
+		this.siteId = siteId;
+		this.siteName = siteName;
+		this.time = time;
+		this.timeMillis = timeMillis;
+		this.value = value;
+	}
+
+	// ------------------------------------------------------------------------
+
+	public Type getType() {
+		return type;
+	}
+
+	/** @return CallStack element index */
+	public int getDepth() {
+		return depth;
+	}
+
+	/** @return CallSite id, or -1 for attach/detach events */
+	public int getSiteId() {
+		return siteId;
+	}
+
+	/** @return CallSite display name, or "site#id" if missing from dictionary */
+	public String getSiteName() {
+		return siteName;
+	}
+
+	/** @return time in nanos, as recorded (see ThreadTimeUtils.getTime()) */
+	public long getTime() {
+		return time;
+	}
+
+	/** @return approximate date of event, in millis */
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	public long getValue() {
+		return value;
+	}
+
+	// ------------------------------------------------------------------------
+
+	@Override
+	public String toString() {
+		return "FlightRecordEvent[" + type + " " + depth + " " + siteName + " t:" + time + " v:" + value + "]";
+	}
+
+}
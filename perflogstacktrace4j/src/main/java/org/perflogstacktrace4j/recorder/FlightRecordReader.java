@@ -0,0 +1,199 @@
+package org.perflogstacktrace4j.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * offline decoder of a flight recorder file (see FlightRecorder), typically after a JVM crash
+ * <BR/>
+ * command line usage, to print last events and open call stack of each thread:
+ * <PRE>
+ * java -cp perflogstacktrace4j.jar org.perflogstacktrace4j.recorder.FlightRecordReader app-flight.rec [maxEventsPerThread]
+ * </PRE>
+ */
+public class FlightRecordReader {
+
+	private final ByteBuffer buffer;
+
+	private final int regionCount;
+	private final int regionLen;
+	private final int recordLen;
+	private final int regionsOffset;
+	private final long startTimeMillis;
+	private final long startTime;
+
+	private final Map<Integer,String> siteNames = new HashMap<Integer,String>();
+
+	// ------------------------------------------------------------------------
+
+	public FlightRecordReader(File file) throws IOException {
+		this(readFile(file));
+	}
+
+	public FlightRecordReader(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < FlightRecorderFormat.MAGIC.length; i++) {
+			if (this.buffer.get(i) != FlightRecorderFormat.MAGIC[i]) {
+				throw new IOException("invalid format, expecting flight recorder magic header");
+			}
+		}
+		int version = this.buffer.getInt(FlightRecorderFormat.HEADER_VERSION);
+		if (version != FlightRecorderFormat.VERSION) {
+			throw new IOException("unsupported flight recorder format version " + version);
+		}
+		this.regionCount = this.buffer.getInt(FlightRecorderFormat.HEADER_REGION_COUNT);
+		this.regionLen = this.buffer.getInt(FlightRecorderFormat.HEADER_REGION_LEN);
+		this.recordLen = this.buffer.getInt(FlightRecorderFormat.HEADER_RECORD_LEN);
+		this.startTimeMillis = this.buffer.getLong(FlightRecorderFormat.HEADER_START_TIME_MILLIS);
+		this.startTime = this.buffer.getLong(FlightRecorderFormat.HEADER_START_TIME);
+		int dictionaryLen = this.buffer.getInt(FlightRecorderFormat.HEADER_DICTIONARY_LEN);
+		this.regionsOffset = FlightRecorderFormat.HEADER_LEN + dictionaryLen;
+		readDictionary(Math.min(dictionaryLen, this.buffer.getInt(FlightRecorderFormat.HEADER_DICTIONARY_USED_LEN)));
+	}
+
+	private static ByteBuffer readFile(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+	}
+
+	// ------------------------------------------------------------------------
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: FlightRecordReader <file> [maxEventsPerThread]");
+			System.exit(1);
+		}
+		int maxEventsPerThread = (args.length > 1)? Integer.parseInt(args[1]) : 50;
+		new FlightRecordReader(new File(args[0])).print(System.out, maxEventsPerThread);
+	}
+
+	public long getStartTimeMillis() {
+		return startTimeMillis;
+	}
+
+	/** @return name of CallSite id, or "site#id" if missing from dictionary */
+	public String getSiteName(int siteId) {
+		String res = siteNames.get(siteId);
+		return (res != null)? res : "site#" + siteId;
+	}
+
+	/** @return recorded regions (with at least one event) */
+	public List<FlightRecordThread> readThreads() {
+		List<FlightRecordThread> res = new ArrayList<FlightRecordThread>();
+		int recordCapacity = (regionLen - FlightRecorderFormat.REGION_HEADER_LEN) / recordLen;
+		for (int r = 0; r < regionCount; r++) {
+			int regionOffset = regionsOffset + r * regionLen;
+			long writeCount = buffer.getLong(regionOffset + FlightRecorderFormat.REGION_WRITE_COUNT);
+			if (writeCount <= 0) {
+				continue;
+			}
+			long threadId = buffer.getLong(regionOffset + FlightRecorderFormat.REGION_THREAD_ID);
+			int nameLen = Math.min(buffer.getInt(regionOffset + FlightRecorderFormat.REGION_THREAD_NAME_LEN),
+					FlightRecorderFormat.REGION_THREAD_NAME_MAX_LEN);
+			String threadName = readUtf8(regionOffset + FlightRecorderFormat.REGION_THREAD_NAME, nameLen);
+
+			long first = Math.max(0, writeCount - recordCapacity);
+			List<FlightRecordEvent> events = new ArrayList<FlightRecordEvent>((int) (writeCount - first));
+			for (long i = first; i < writeCount; i++) {
+				int pos = regionOffset + FlightRecorderFormat.REGION_HEADER_LEN + (int) (i % recordCapacity) * recordLen;
+				FlightRecordEvent event = readRecord(pos);
+				if (event != null) {
+					events.add(event);
+				}
+			}
+			res.add(new FlightRecordThread(threadId, threadName, first, events));
+		}
+		return res;
+	}
+
+	public void print(PrintStream out, int maxEventsPerThread) {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		out.println("flight recording started at " + dateFormat.format(new Date(startTimeMillis)));
+		for (FlightRecordThread thread : readThreads()) {
+			List<FlightRecordEvent> events = thread.getEvents();
+			out.println();
+			out.println("thread " + thread.getThreadId() + " '" + thread.getThreadName() + "' : "
+					+ events.size() + " events" + ((thread.getLostEventCount() != 0)? " (" + thread.getLostEventCount() + " older lost)" : ""));
+			for (int i = Math.max(0, events.size() - maxEventsPerThread); i < events.size(); i++) {
+				FlightRecordEvent e = events.get(i);
+				out.println("  " + dateFormat.format(new Date(e.getTimeMillis())) + " " + indent(e.getDepth())
+						+ e.getType() + " " + ((e.getSiteId() != -1)? e.getSiteName() : "") + " " + e.getValue());
+			}
+			List<FlightRecordEvent> openStack = thread.getOpenStack();
+			if (!openStack.isEmpty()) {
+				out.println(" open stack:");
+				long lastTime = events.get(events.size() - 1).getTime();
+				for (FlightRecordEvent e : openStack) {
+					out.println("  " + indent(e.getDepth()) + e.getSiteName()
+							+ " (pushed " + ((lastTime - e.getTime()) / 1000000) + " ms before last event)");
+				}
+			}
+		}
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	private void readDictionary(int usedLen) {
+		int pos = FlightRecorderFormat.HEADER_LEN;
+		int end = pos + usedLen;
+		while (pos + 6 <= end) {
+			int siteId = buffer.getInt(pos);
+			int nameLen = buffer.getShort(pos + 4);
+			if (nameLen < 0 || pos + 6 + nameLen > end) {
+				break;
+			}
+			siteNames.put(siteId, readUtf8(pos + 6, nameLen));
+			pos += 6 + nameLen;
+		}
+	}
+
+	private FlightRecordEvent readRecord(int pos) {
+		FlightRecordEvent.Type type;
+		switch(buffer.get(pos + FlightRecorderFormat.RECORD_TYPE)) {
+		case FlightRecorderFormat.TYPE_PUSH: type = FlightRecordEvent.Type.PUSH; break;
+		case FlightRecorderFormat.TYPE_POP: type = FlightRecordEvent.Type.POP; break;
+		case FlightRecorderFormat.TYPE_PROGRESS: type = FlightRecordEvent.Type.PROGRESS; break;
+		case FlightRecorderFormat.TYPE_ATTACH: type = FlightRecordEvent.Type.ATTACH; break;
+		case FlightRecorderFormat.TYPE_DETACH: type = FlightRecordEvent.Type.DETACH; break;
+		default: return null; // unknown or corrupted
+		}
+		int depth = buffer.getShort(pos + FlightRecorderFormat.RECORD_DEPTH);
+		int siteId = buffer.getInt(pos + FlightRecorderFormat.RECORD_SITE_ID);
+		long time = buffer.getLong(pos + FlightRecorderFormat.RECORD_TIME);
+		long value = buffer.getLong(pos + FlightRecorderFormat.RECORD_VALUE);
+		long timeMillis = startTimeMillis + (time - startTime) / 1000000;
+		String siteName = (siteId != -1)? getSiteName(siteId) : null;
+		return new FlightRecordEvent(type, depth, siteId, siteName, time, timeMillis, value);
+	}
+
+	private String readUtf8(int pos, int len) {
+		byte[] bytes = new byte[len];
+		for (int i = 0; i < len; i++) {
+			bytes[i] = buffer.get(pos + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static String indent(int depth) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 1; i < depth; i++) {
+			sb.append("  ");
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,84 @@
+package org.perflogstacktrace4j.recorder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * events of a region (CallStack) decoded from a flight recorder file (see FlightRecordReader)
+ */
+public final class FlightRecordThread {
+
+	private final long threadId;
+	private final String threadName;
+
+	/** count of oldest events overwritten in ring buffer */
+	private final long lostEventCount;
+
+	/** last events, oldest first */
+	private final List<FlightRecordEvent> events;
+
+	// ------------------------------------------------------------------------
+
+	public FlightRecordThread(long threadId, String threadName, long lostEventCount, List<FlightRecordEvent> events) {
+		this.threadId = threadId;
+		this.threadName = threadName;
+		this.lostEventCount = lostEventCount;
+		this.events = Collections.unmodifiableList(events);
+	}
+
+	// ------------------------------------------------------------------------
+
+	public long getThreadId() {
+		return threadId;
+	}
+
+	public String getThreadName() {
+		return threadName;
+	}
+
+	public long getLostEventCount() {
+		return lostEventCount;
+	}
+
+	public List<FlightRecordEvent> getEvents() {
+		return events;
+	}
+
+	/**
+	 * @return push events not popped at end of recording (outermost first),
+	 * typically the CallStack of the thread when the JVM crashed.
+	 * Elements pushed before the oldest kept event are unknown, and missing.
+	 */
+	public List<FlightRecordEvent> getOpenStack() {
+		List<FlightRecordEvent> res = new ArrayList<FlightRecordEvent>();
+		for (FlightRecordEvent e : events) {
+			switch(e.getType()) {
+			case PUSH:
+				removeFromDepth(res, e.getDepth());
+				res.add(e);
+				break;
+			case POP:
+				removeFromDepth(res, e.getDepth());
+				break;
+			default:
+				break;
+			}
+		}
+		return res;
+	}
+
+	private static void removeFromDepth(List<FlightRecordEvent> stack, int depth) {
+		while (!stack.isEmpty() && stack.get(stack.size() - 1).getDepth() >= depth) {
+			stack.remove(stack.size() - 1);
+		}
+	}
+
+	// ------------------------------------------------------------------------
+
+	@Override
+	public String toString() {
+		return "FlightRecordThread[" + threadId + " '" + threadName + "', " + events.size() + " events]";
+	}
+
+}
@@ -0,0 +1,263 @@
+package org.perflogstacktrace4j.recorder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.spi.CallStackListener;
+import org.perflogstacktrace4j.spi.CallStackListenerFactory;
+import org.perflogstacktrace4j.utils.ThreadTimeUtils;
+
+/**
+ * Flight recorder of push/pop/progress events, into per-thread ring buffers of a memory-mapped file,
+ * so that the last events before a JVM crash can be decoded offline (see FlightRecordReader)
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * FlightRecorder recorder = new FlightRecorder(new File("app-flight.rec"));
+ * ThreadLocalCallStack.addCallStackListenerFactory(recorder.getCallStackListenerFactory());
+ * </PRE>
+ *
+ * Each CallStack listener claims a region of the file on its first event, and is its only writer:
+ * recording is allocation-free and lock-free, it only writes fixed-length records in the mapped buffer,
+ * writes to disk are done by the OS (from its page cache, even when the JVM crashes).
+ * <BR/>
+ * Regions of unreachable listeners (dead threads) are reused. When all regions are used, new CallStacks are not recorded.
+ * Names of CallSite ids are appended to a dictionary section of the file, when first recorded (only recorded ids are written).
+ *
+ * see FlightRecorderFormat for file layout
+ */
+public class FlightRecorder implements Closeable {
+
+	public static final int DEFAULT_REGION_COUNT = 256;
+	public static final int DEFAULT_REGION_LEN = 64 * 1024;
+	public static final int DEFAULT_DICTIONARY_LEN = 1024 * 1024;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer buffer;
+
+	private final int regionCount;
+	private final int regionLen;
+	private final int dictionaryLen;
+	private final int regionsOffset;
+
+	private final Object lock = new Object();
+
+	/** owner listener per region, null if never claimed */
+	private final WeakReference<?>[] regionOwners;
+
+	/**
+	 * bits of CallSite ids written in dictionary (or skipped when full), set under lock, copy on grow
+	 * read without lock: a bit not yet visible only means taking the lock to check again
+	 */
+	private volatile long[] dictionarySiteBits = new long[4];
+	private int dictionaryUsedLen;
+	private int dictionaryMissingSiteCount;
+
+	private int unrecordedStackCount;
+
+	private final CallStackListenerFactory callStackListenerFactory = new CallStackListenerFactory() {
+		@Override
+		public CallStackListener createListener(CallStack stack) {
+			return createCallStackListener(stack);
+		}
+	};
+
+	// ------------------------------------------------------------------------
+
+	public FlightRecorder(File file) throws IOException {
+		this(file, DEFAULT_REGION_COUNT, DEFAULT_REGION_LEN, DEFAULT_DICTIONARY_LEN);
+	}
+
+	/**
+	 * @param file file to (re-)create
+	 * @param regionCount max count of simultaneously recorded CallStacks (threads)
+	 * @param regionLen size of each region, in bytes, holding <code>(regionLen - 128) / 24</code> last records
+	 * @param dictionaryLen size of CallSite names dictionary, in bytes
+	 */
+	public FlightRecorder(File file, int regionCount, int regionLen, int dictionaryLen) throws IOException {
+		if (regionLen < FlightRecorderFormat.REGION_HEADER_LEN + FlightRecorderFormat.RECORD_LEN) {
+			throw new IllegalArgumentException("regionLen too small: " + regionLen);
+		}
+		long fileLen = (long) FlightRecorderFormat.HEADER_LEN + dictionaryLen + (long) regionCount * regionLen;
+		if (fileLen > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("file too large: " + fileLen + " bytes");
+		}
+		this.file = file;
+		this.regionCount = regionCount;
+		this.regionLen = regionLen;
+		this.dictionaryLen = dictionaryLen;
+		this.regionsOffset = FlightRecorderFormat.HEADER_LEN + dictionaryLen;
+		this.regionOwners = new WeakReference<?>[regionCount];
+
+		this.raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0); // clear previous content
+			raf.setLength(fileLen);
+			this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileLen);
+		} catch(IOException ex) {
+			raf.close();
+			throw ex;
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		for (int i = 0; i < FlightRecorderFormat.MAGIC.length; i++) {
+			buffer.put(i, FlightRecorderFormat.MAGIC[i]);
+		}
+		buffer.putInt(FlightRecorderFormat.HEADER_VERSION, FlightRecorderFormat.VERSION);
+		buffer.putInt(FlightRecorderFormat.HEADER_REGION_COUNT, regionCount);
+		buffer.putInt(FlightRecorderFormat.HEADER_REGION_LEN, regionLen);
+		buffer.putLong(FlightRecorderFormat.HEADER_START_TIME_MILLIS, System.currentTimeMillis());
+		buffer.putLong(FlightRecorderFormat.HEADER_START_TIME, ThreadTimeUtils.getTime());
+		buffer.putInt(FlightRecorderFormat.HEADER_DICTIONARY_LEN, dictionaryLen);
+		buffer.putInt(FlightRecorderFormat.HEADER_DICTIONARY_USED_LEN, 0);
+		buffer.putInt(FlightRecorderFormat.HEADER_RECORD_LEN, FlightRecorderFormat.RECORD_LEN);
+	}
+
+	// ------------------------------------------------------------------------
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getRegionCount() {
+		return regionCount;
+	}
+
+	/** @return count of last records kept per region */
+	public int getRegionRecordCapacity() {
+		return (regionLen - FlightRecorderFormat.REGION_HEADER_LEN) / FlightRecorderFormat.RECORD_LEN;
+	}
+
+	public CallStackListenerFactory getCallStackListenerFactory() {
+		return callStackListenerFactory;
+	}
+
+	/** create a listener to attach to <code>stack</code> (one listener per CallStack) */
+	public FlightRecorderCallStackListener createCallStackListener(CallStack stack) {
+		return new FlightRecorderCallStackListener(this);
+	}
+
+	/** @return count of CallStacks not recorded, because all regions were used */
+	public int getUnrecordedStackCount() {
+		synchronized(lock) {
+			return unrecordedStackCount;
+		}
+	}
+
+	/** @return count of CallSite names not written, because dictionary was full */
+	public int getDictionaryMissingSiteCount() {
+		synchronized(lock) {
+			return dictionaryMissingSiteCount;
+		}
+	}
+
+	/** force writing mapped buffer to disk (not needed for surviving a JVM crash, only for an OS crash) */
+	public void force() {
+		buffer.force();
+	}
+
+	/**
+	 * force and close file
+	 * listeners must not be used after close (the mapped buffer is unmapped only when garbage collected)
+	 */
+	@Override
+	public void close() throws IOException {
+		force();
+		raf.close();
+	}
+
+	// ------------------------------------------------------------------------
+
+	/*pp*/ MappedByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/** @return true if name of CallSite id was written in dictionary (or skipped when full) */
+	/*pp*/ boolean isSiteWritten(int siteId) {
+		long[] bits = dictionarySiteBits;
+		int wordIndex = siteId >>> 6;
+		return wordIndex < bits.length && (bits[wordIndex] & (1L << siteId)) != 0;
+	}
+
+	/**
+	 * claim a free region, or a region whose owner was garbage collected
+	 * @return region offset in buffer, or -1 if no region is free
+	 */
+	/*pp*/ int claimRegion(Object owner, Thread thread) {
+		synchronized(lock) {
+			for (int i = 0; i < regionCount; i++) {
+				WeakReference<?> ownerRef = regionOwners[i];
+				if (ownerRef == null || ownerRef.get() == null) {
+					regionOwners[i] = new WeakReference<Object>(owner);
+					int regionOffset = regionsOffset + i * regionLen;
+					buffer.putLong(regionOffset + FlightRecorderFormat.REGION_WRITE_COUNT, 0);
+					writeRegionThread(regionOffset, thread);
+					return regionOffset;
+				}
+			}
+			unrecordedStackCount++;
+			return -1;
+		}
+	}
+
+	/*pp*/ void writeRegionThread(int regionOffset, Thread thread) {
+		byte[] name = thread.getName().getBytes(StandardCharsets.UTF_8);
+		int nameLen = Math.min(name.length, FlightRecorderFormat.REGION_THREAD_NAME_MAX_LEN);
+		for (int i = 0; i < nameLen; i++) {
+			buffer.put(regionOffset + FlightRecorderFormat.REGION_THREAD_NAME + i, name[i]);
+		}
+		buffer.putInt(regionOffset + FlightRecorderFormat.REGION_THREAD_NAME_LEN, nameLen);
+		buffer.putLong(regionOffset + FlightRecorderFormat.REGION_THREAD_ID, thread.getId());
+	}
+
+	/** append name of CallSite id in dictionary, once per recorded id */
+	/*pp*/ void writeSiteName(int siteId) {
+		synchronized(lock) {
+			if (isSiteWritten(siteId)) {
+				return;
+			}
+			CallSite site = CallSiteRegistry.getById(siteId);
+			byte[] name = (site != null)? site.getDisplayName().getBytes(StandardCharsets.UTF_8) : new byte[0];
+			int nameLen = Math.min(name.length, Short.MAX_VALUE);
+			if (dictionaryUsedLen + 6 + nameLen > dictionaryLen) {
+				dictionaryMissingSiteCount++;
+			} else {
+				int pos = FlightRecorderFormat.HEADER_LEN + dictionaryUsedLen;
+				buffer.putInt(pos, siteId);
+				buffer.putShort(pos + 4, (short) nameLen);
+				for (int i = 0; i < nameLen; i++) {
+					buffer.put(pos + 6 + i, name[i]);
+				}
+				dictionaryUsedLen += 6 + nameLen;
+				buffer.putInt(FlightRecorderFormat.HEADER_DICTIONARY_USED_LEN, dictionaryUsedLen);
+			}
+			long[] bits = dictionarySiteBits;
+			int wordIndex = siteId >>> 6;
+			if (wordIndex >= bits.length) {
+				bits = Arrays.copyOf(bits, Math.max(wordIndex + 1, bits.length * 2));
+			}
+			bits[wordIndex] |= 1L << siteId;
+			dictionarySiteBits = bits;
+		}
+	}
+
+	// ------------------------------------------------------------------------
+
+	@Override
+	public String toString() {
+		return "FlightRecorder[" + file + "]";
+	}
+
+}
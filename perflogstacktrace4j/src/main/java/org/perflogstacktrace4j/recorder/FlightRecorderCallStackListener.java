@@ -0,0 +1,122 @@
+package org.perflogstacktrace4j.recorder;
+
+import java.nio.MappedByteBuffer;
+import java.util.Map;
+
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.CallStackElt;
+import org.perflogstacktrace4j.spi.CallStackListener;
+import org.perflogstacktrace4j.utils.ThreadTimeUtils;
+
+/**
+ * CallStackListener writing push/pop/progress/attach/detach records into a region of a FlightRecorder mapped file
+ *
+ * Implementation note: one listener instance is attached per CallStack (so per thread, not multi-thread safe).
+ * The region is claimed on first event, by the thread of the CallStack, then this listener is its only writer:
+ * no lock, no CAS, no allocation.
+ * The region write count is updated after each record, so a record is never decoded half-written.
+ * Progress messages and log events are not recorded.
+ */
+public final class FlightRecorderCallStackListener extends CallStackListener {
+
+	private final FlightRecorder recorder;
+	private final MappedByteBuffer buffer;
+	private final int recordCapacity;
+
+	/** region offset in buffer, -1 if not claimed yet, -2 if no region was available */
+	private int regionOffset = -1;
+
+	/** count of records written in region */
+	private long writeCount;
+
+	// ------------------------------------------------------------------------
+
+	/*pp*/ FlightRecorderCallStackListener(FlightRecorder recorder) {
+		this.recorder = recorder;
+		this.buffer = recorder.getBuffer();
+		this.recordCapacity = recorder.getRegionRecordCapacity();
+	}
+
+	// ------------------------------------------------------------------------
+
+	public FlightRecorder getRecorder() {
+		return recorder;
+	}
+
+	@Override
+	public void onPush(CallStackElt stackElt) {
+		writeRecord(FlightRecorderFormat.TYPE_PUSH, stackElt.getStackEltIndex(), stackElt.getCallSiteId(),
+				stackElt.getStartTime(), stackElt.getSampleWeight());
+	}
+
+	@Override
+	public void onPop(CallStackElt stackElt) {
+		long cpuTime = (stackElt.isCpuTimeMeasured())?
+				stackElt.getThreadCpuEndTime() - stackElt.getThreadCpuStartTime() : -1;
+		writeRecord(FlightRecorderFormat.TYPE_POP, stackElt.getStackEltIndex(), stackElt.getCallSiteId(),
+				stackElt.getEndTime(), cpuTime);
+	}
+
+	@Override
+	public void onProgressStep(CallStackElt stackElt, int incr, String progressMessage) {
+		writeRecord(FlightRecorderFormat.TYPE_PROGRESS, stackElt.getStackEltIndex(), stackElt.getCallSiteId(),
+				ThreadTimeUtils.getTime(), stackElt.getProgressIndex());
+	}
+
+	@Override
+	public void onLog(String msg, Map<String, Object> namedValues) {
+		// do nothing
+	}
+
+	@Override
+	public void onAttachCallStackToThread(CallStack stack, Thread thread) {
+		if (regionOffset >= 0) {
+			recorder.writeRegionThread(regionOffset, thread);
+		}
+		CallStackElt curr = stack.curr();
+		writeRecord(FlightRecorderFormat.TYPE_ATTACH, curr.getStackEltIndex(), -1, ThreadTimeUtils.getTime(), thread.getId());
+	}
+
+	@Override
+	public void onDetachCallStackFromThread(CallStack stack, Thread thread) {
+		CallStackElt curr = stack.curr();
+		writeRecord(FlightRecorderFormat.TYPE_DETACH, curr.getStackEltIndex(), -1, ThreadTimeUtils.getTime(), thread.getId());
+	}
+
+	// internal
+	// ------------------------------------------------------------------------
+
+	private void writeRecord(byte type, int depth, int siteId, long time, long value) {
+		int region = regionOffset;
+		if (region < 0) {
+			if (region == -2) {
+				return;
+			}
+			region = claimRegion();
+			if (region < 0) {
+				return;
+			}
+		}
+		if (siteId >= 0 && !recorder.isSiteWritten(siteId)) {
+			recorder.writeSiteName(siteId);
+		}
+		long count = writeCount;
+		int pos = region + FlightRecorderFormat.REGION_HEADER_LEN + (int) (count % recordCapacity) * FlightRecorderFormat.RECORD_LEN;
+		final MappedByteBuffer buffer = this.buffer;
+		buffer.put(pos + FlightRecorderFormat.RECORD_TYPE, type);
+		buffer.putShort(pos + FlightRecorderFormat.RECORD_DEPTH, (short) Math.min(depth, Short.MAX_VALUE));
+		buffer.putInt(pos + FlightRecorderFormat.RECORD_SITE_ID, siteId);
+		buffer.putLong(pos + FlightRecorderFormat.RECORD_TIME, time);
+		buffer.putLong(pos + FlightRecorderFormat.RECORD_VALUE, value);
+		writeCount = count + 1;
+		buffer.putLong(region + FlightRecorderFormat.REGION_WRITE_COUNT, count + 1);
+	}
+
+	private int claimRegion() {
+		int res = recorder.claimRegion(this, Thread.currentThread());
+		this.regionOffset = (res >= 0)? res : -2;
+		this.writeCount = 0;
+		return res;
+	}
+
+}
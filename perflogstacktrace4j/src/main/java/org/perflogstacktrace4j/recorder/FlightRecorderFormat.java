@@ -0,0 +1,64 @@
+package org.perflogstacktrace4j.recorder;
+
+/**
+ * constants of the memory-mapped flight recorder file (see FlightRecorder, FlightRecordReader)
+ * <BR/>
+ * All values are little-endian.
+ * <PRE>
+ * file:       header(HEADER_LEN) dictionary(dictionaryLen) region(regionLen)*regionCount
+ * header:     MAGIC(4 bytes) version:int regionCount:int regionLen:int startTimeMillis:long startTime:long
+ *             dictionaryLen:int dictionaryUsedLen:int recordLen:int
+ * dictionary: (siteId:int utf8Len:short utf8Bytes)*      append-only, names of CallSite ids
+ * region:     threadId:long writeCount:long threadNameLen:int threadNameUtf8Bytes   (REGION_HEADER_LEN)
+ *             record*      ring buffer, record i is at (i % capacity), last written record is (writeCount - 1)
+ * record:     type:byte 0:byte depth:short siteId:int time:long value:long          (RECORD_LEN)
+ * </PRE>
+ * times are in nanos (see ThreadTimeUtils.getTime()), header startTimeMillis/startTime allow converting them to dates.
+ */
+public final class FlightRecorderFormat {
+
+	public static final byte[] MAGIC = new byte[] { 'P', 'L', 'F', 'R' };
+
+	public static final int VERSION = 1;
+
+	public static final int HEADER_LEN = 4096;
+
+	public static final int REGION_HEADER_LEN = 128;
+	public static final int REGION_THREAD_NAME_MAX_LEN = REGION_HEADER_LEN - 20;
+
+	public static final int RECORD_LEN = 24;
+
+	// offsets in header
+	static final int HEADER_VERSION = 4;
+	static final int HEADER_REGION_COUNT = 8;
+	static final int HEADER_REGION_LEN = 12;
+	static final int HEADER_START_TIME_MILLIS = 16;
+	static final int HEADER_START_TIME = 24;
+	static final int HEADER_DICTIONARY_LEN = 32;
+	static final int HEADER_DICTIONARY_USED_LEN = 36;
+	static final int HEADER_RECORD_LEN = 40;
+
+	// offsets in region header
+	static final int REGION_THREAD_ID = 0;
+	static final int REGION_WRITE_COUNT = 8;
+	static final int REGION_THREAD_NAME_LEN = 16;
+	static final int REGION_THREAD_NAME = 20;
+
+	// offsets in record
+	static final int RECORD_TYPE = 0;
+	static final int RECORD_DEPTH = 2;
+	static final int RECORD_SITE_ID = 4;
+	static final int RECORD_TIME = 8;
+	static final int RECORD_VALUE = 16;
+
+	// record types, see FlightRecordEvent.Type
+	static final byte TYPE_PUSH = 1;
+	static final byte TYPE_POP = 2;
+	static final byte TYPE_PROGRESS = 3;
+	static final byte TYPE_ATTACH = 4;
+	static final byte TYPE_DETACH = 5;
+
+	/* private to force all static */
+	private FlightRecorderFormat() {}
+
+}
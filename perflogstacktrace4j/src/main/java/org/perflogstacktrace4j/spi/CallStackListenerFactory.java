@@ -0,0 +1,15 @@
+package org.perflogstacktrace4j.spi;
+
+import org.perflogstacktrace4j.model.CallStack;
+
+/**
+ * Factory for CallStackListener, to attach a listener to each new CallStack
+ * 
+ * see ThreadLocalCallStack.addCallStackListenerFactory()
+ */
+public abstract class CallStackListenerFactory {
+
+	/** @return listener to add to new <code>stack</code>, or null (for factories only observing CallStack creations) */
+	public abstract CallStackListener createListener(CallStack stack);
+
+}
@@ -40,6 +40,11 @@ public class CallStackListenerSupport {
 		}
 	}
 
+	/** @return current listeners (copy on write array, must not be modified) */
+	public CallStackListener[] getListeners() {
+		return callStackListeners;
+	}
+
 	public void fireOnPush(CallStackElt pushedElt) {
 		final CallStackListener[] listeners = callStackListeners;
 		if (listeners.length != 0) {
@@ -0,0 +1,87 @@
+package org.perflogstacktrace4j.utils;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * start/stop support of a background daemon thread running a loop (consumer, scanner, exporter..)
+ * <BR/>
+ * sample usage:
+ * <PRE>
+ * private final DaemonLoopThread loopThread = new DaemonLoopThread("my-exporter");
+ * public void start() { loopThread.start(new Runnable() { public void run() { runLoop(); } }); }
+ * private void runLoop() { while (!loopThread.isStopRequested()) { LockSupport.parkNanos(period); .. } }
+ * public void close() { loopThread.stopAndJoin(); }
+ * </PRE>
+ */
+public final class DaemonLoopThread {
+
+	private final String threadName;
+
+	private final Object lock = new Object();
+
+	private volatile Thread thread;
+	private volatile boolean stopRequested;
+
+	// ------------------------------------------------------------------------
+
+	public DaemonLoopThread(String threadName) {
+		this.threadName = threadName;
+	}
+
+	// ------------------------------------------------------------------------
+
+	/**
+	 * start (once) a daemon thread running <code>loop</code>
+	 * @return false when already started
+	 */
+	public boolean start(Runnable loop) {
+		synchronized(lock) {
+			if (thread != null) {
+				return false;
+			}
+			stopRequested = false;
+			Thread t = new Thread(loop, threadName);
+			t.setDaemon(true);
+			this.thread = t;
+			t.start();
+			return true;
+		}
+	}
+
+	public boolean isStarted() {
+		return thread != null;
+	}
+
+	/** @return true once stopAndJoin() was called, to be checked by the loop (after each park) */
+	public boolean isStopRequested() {
+		return stopRequested;
+	}
+
+	/**
+	 * request stop, unpark the thread and wait for its loop to return
+	 * @return false when not started
+	 */
+	public boolean stopAndJoin() {
+		Thread t;
+		synchronized(lock) {
+			t = thread;
+			if (t == null) {
+				return false;
+			}
+			stopRequested = true;
+		}
+		LockSupport.unpark(t);
+		try {
+			t.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized(lock) {
+			if (thread == t) {
+				this.thread = null;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,40 @@
+package org.perflogstacktrace4j.utils;
+
+import java.io.IOException;
+
+/**
+ * helpers for hand-written JSON, appended to an Appendable without intermediate String (see AppCallTreeDumpWriter, AppStackDumpWriter)
+ */
+public final class JsonUtils {
+
+	/* private to force all static */
+	private JsonUtils() {}
+
+	/**
+	 * append <code>text</code> as a JSON string: quoted, with quote, backslash and control chars escaped
+	 */
+	public static void appendJsonString(Appendable out, CharSequence text) throws IOException {
+		out.append('"');
+		int len = text.length();
+		for (int i = 0; i < len; i++) {
+			char c = text.charAt(i);
+			switch(c) {
+			case '"': out.append("\\\""); break;
+			case '\\': out.append("\\\\"); break;
+			case '\n': out.append("\\n"); break;
+			case '\r': out.append("\\r"); break;
+			case '\t': out.append("\\t"); break;
+			default:
+				if (c < 0x20) {
+					out.append("\\u00");
+					out.append(Character.forDigit(c >> 4, 16));
+					out.append(Character.forDigit(c & 0xF, 16));
+				} else {
+					out.append(c);
+				}
+			}
+		}
+		out.append('"');
+	}
+
+}
@@ -2,6 +2,8 @@ package org.perflogstacktrace4j.utils;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,11 +38,61 @@ public final class ThreadTimeUtils {
 	}
 
 	private static long TIME_OFFSET = System.nanoTime();
+
+	private static final DaemonLoopThread coarseClockTicker = new DaemonLoopThread("perflogstacktrace4j-coarse-clock");
+	private static volatile long coarseTime;
+	private static volatile long coarseClockTickNanos = TimeUnit.MILLISECONDS.toNanos(1);
 	
 	public static long getTime() {
 		return System.nanoTime() - TIME_OFFSET;	
 	}
 	
+	/**
+	 * @return coarse cached time (same time base as getTime()), updated by a background ticker thread
+	 * the ticker thread must have been started, see startCoarseClockTicker()
+	 */
+	public static long getCoarseTime() {
+		return coarseTime;
+	}
+
+	public static long getCoarseClockTickNanos() {
+		return coarseClockTickNanos;
+	}
+
+	/** set ticker period, to be called before startCoarseClockTicker() */
+	public static void setCoarseClockTickNanos(long p) {
+		coarseClockTickNanos = p;
+	}
+
+	/** start (once) the daemon ticker thread updating getCoarseTime() */
+	public static void startCoarseClockTicker() {
+		if (coarseClockTicker.isStarted()) {
+			return;
+		}
+		coarseTime = getTime();
+		coarseClockTicker.start(new Runnable() {
+			@Override
+			public void run() {
+				while (!coarseClockTicker.isStopRequested()) {
+					coarseTime = getTime();
+					LockSupport.parkNanos(coarseClockTickNanos);
+				}
+			}
+		});
+	}
+
+	/**
+	 * stop the ticker thread (for tests, or on undeploy of a webapp), getCoarseTime() is not updated until restarted
+	 * @return false when not started
+	 */
+	public static boolean stopCoarseClockTicker() {
+		return coarseClockTicker.stopAndJoin();
+	}
+
+	public static boolean isCoarseClockTickerStarted() {
+		return coarseClockTicker.isStarted();
+	}
+
 	public static long getCurrentThreadCpuTime() {
 		return threadMXBean.getCurrentThreadCpuTime();
 	}
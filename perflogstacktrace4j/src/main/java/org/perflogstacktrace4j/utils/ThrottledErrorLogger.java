@@ -0,0 +1,39 @@
+package org.perflogstacktrace4j.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+/**
+ * counter of ignored errors (of listeners, background loops..), logging only the 1, 2, 4, 8.. th errors
+ * so that a permanently failing listener does not flood logs
+ */
+public final class ThrottledErrorLogger {
+
+	private final Logger log;
+
+	private final AtomicLong errorCount = new AtomicLong();
+
+	// ------------------------------------------------------------------------
+
+	public ThrottledErrorLogger(Logger log) {
+		this.log = log;
+	}
+
+	// ------------------------------------------------------------------------
+
+	public long getErrorCount() {
+		return errorCount.get();
+	}
+
+	/**
+	 * count error, and log it as "<code>failedMessage</code> (error count: ..)! .. ignore, no rethrow" if count is a power of 2
+	 */
+	public void onError(String failedMessage, Throwable ex) {
+		long count = errorCount.incrementAndGet();
+		if ((count & (count - 1)) == 0) {
+			log.error(failedMessage + " (error count: " + count + ")! .. ignore, no rethrow", ex);
+		}
+	}
+
+}
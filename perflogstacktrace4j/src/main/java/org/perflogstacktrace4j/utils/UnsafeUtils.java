@@ -18,6 +18,8 @@ public class UnsafeUtils {
 	private static final long ARRAY_BASE_OFFSET = UNSAFE.arrayBaseOffset(byte[].class); // = 16...
 	private static final int IDX_SHIFT_INT_ARR; // = 2 ...
 	private static final int IDX_SHIFT_LONG_ARR;  // = 3 ...
+	private static final long OBJECT_ARRAY_BASE_OFFSET = UNSAFE.arrayBaseOffset(Object[].class);
+	private static final int IDX_SHIFT_OBJECT_ARR;  // = 2 with compressed oops, 3 otherwise
 
 	static {
 		int scaleInt = UNSAFE.arrayIndexScale(int[].class);  // =4... size of an "int" in an int[] array
@@ -25,6 +27,9 @@ public class UnsafeUtils {
         
         int scaleLong = UNSAFE.arrayIndexScale(long[].class); // =8... size of a "long" in a long[] array
         IDX_SHIFT_LONG_ARR = 31 - Integer.numberOfLeadingZeros(scaleLong);
+        
+        int scaleObject = UNSAFE.arrayIndexScale(Object[].class); // =4 or 8... size of a reference in an Object[] array
+        IDX_SHIFT_OBJECT_ARR = 31 - Integer.numberOfLeadingZeros(scaleObject);
 	}
 	
 	/*pp*/ static sun.misc.Unsafe getUnsafe() {
@@ -74,6 +79,10 @@ public class UnsafeUtils {
     	}
     	public int set(T object, int value) {
     		return UNSAFE.getAndSetInt(object, fieldOffset, value);
+    	}
+    	/** ordered (lazy) set: cheaper than a volatile set, visible to other threads after previous writes */
+    	public void setOrdered(T object, int value) {
+    		UNSAFE.putOrderedInt(object, fieldOffset, value);
     	}
 		public int add(T object, int incrValue) {
 			return UNSAFE.getAndAddInt(object, fieldOffset, incrValue);
@@ -95,6 +104,10 @@ public class UnsafeUtils {
     	}
     	public long set(T object, long value) {
     		return UNSAFE.getAndSetLong(object, fieldOffset, value);
+    	}
+    	/** ordered (lazy) set: cheaper than a volatile set, visible to other threads after previous writes */
+    	public void setOrdered(T object, long value) {
+    		UNSAFE.putOrderedLong(object, fieldOffset, value);
     	}
 		public long add(T object, long incrValue) {
 			return UNSAFE.getAndAddLong(object, fieldOffset, incrValue);
@@ -104,6 +117,25 @@ public class UnsafeUtils {
 		}
     }
 
+    public static final class ObjectVolatileFieldAccessor<T,V> {
+    	private final long fieldOffset;
+    	
+    	public ObjectVolatileFieldAccessor(long fieldOffset) {
+			this.fieldOffset = fieldOffset;
+		}
+		
+    	@SuppressWarnings("unchecked")
+		public V get(T object) {
+    		return (V) UNSAFE.getObjectVolatile(object, fieldOffset);
+    	}
+    	public void set(T object, V value) {
+    		UNSAFE.putObjectVolatile(object, fieldOffset, value);
+    	}
+		public boolean compareAndSwap(T object, V expected, V update) {
+			return UNSAFE.compareAndSwapObject(object, fieldOffset, expected, update);
+		}
+    }
+
     public static <T> IntVolatileFieldAccessor<T> intVolatileFieldAccessor(Class<T> clazz, String fieldName) {
     	long offset = objectFieldOffset(clazz, fieldName);
     	return new IntVolatileFieldAccessor<T>(offset); 
@@ -114,6 +146,11 @@ public class UnsafeUtils {
     	return new LongVolatileFieldAccessor<T>(offset); 
     }
 
+    public static <T,V> ObjectVolatileFieldAccessor<T,V> objectVolatileFieldAccessor(Class<T> clazz, String fieldName) {
+    	long offset = objectFieldOffset(clazz, fieldName);
+    	return new ObjectVolatileFieldAccessor<T,V>(offset); 
+    }
+
 	public static int fieldIntVolatile(Object obj, long fieldOffset) {
 		return UNSAFE.getIntVolatile(obj, fieldOffset);
 	}
@@ -122,6 +159,16 @@ public class UnsafeUtils {
 		return UNSAFE.getLongVolatile(obj, fieldOffset);
 	}
 
+	/** writes before the fence are not reordered with writes after it (see seqlock writers) */
+	public static void storeFence() {
+		UNSAFE.storeFence();
+	}
+
+	/** reads before the fence are not reordered with reads after it (see seqlock readers) */
+	public static void loadFence() {
+		UNSAFE.loadFence();
+	}
+
 
 	
     private static long intArrayElementOffset(int i) {
@@ -132,23 +179,58 @@ public class UnsafeUtils {
         return ((long) i << IDX_SHIFT_LONG_ARR) + ARRAY_BASE_OFFSET;
     }
 
+    private static long objectArrayElementOffset(int i) {
+        return ((long) i << IDX_SHIFT_OBJECT_ARR) + OBJECT_ARRAY_BASE_OFFSET;
+    }
+
+    /** idem AtomicReferenceArray.get(), without wrapper class + array index bound checking */
+    public static Object getObjectVolatileAt(Object[] array, int index) {
+    	return UNSAFE.getObjectVolatile(array, objectArrayElementOffset(index));
+    }
+
+    /** idem AtomicReferenceArray.set(), without wrapper class + array index bound checking */
+    public static void setObjectVolatileAt(Object[] array, int index, Object value) {
+    	UNSAFE.putObjectVolatile(array, objectArrayElementOffset(index), value);
+    }
+
+    /** idem AtomicReferenceArray.compareAndSet(), without wrapper class + array index bound checking */
+    public static boolean compareAndSwapObjectAt(Object[] array, int index, Object expected, Object update) {
+    	return UNSAFE.compareAndSwapObject(array, objectArrayElementOffset(index), expected, update);
+    }
+
+    /** idem AtomicIntegerArray.get(), without wrapper class + array index bound checking */
+    public static int getIntVolatileAt(int[] array, int index) {
+    	return UNSAFE.getIntVolatile(array, intArrayElementOffset(index));
+    }
+
+    /** idem AtomicIntegerArray.getAndSet(), without wrapper class + array index bound checking */
+    public static int getAndSetIntAt(int[] array, int index, int value) {
+    	return UNSAFE.getAndSetInt(array, intArrayElementOffset(index), value);
+    }
+
+    /** idem AtomicIntegerArray.getAndAdd(), without wrapper class + array index bound checking */
+    public static int getAndAddIntAt(int[] array, int index, int incrValue) {
+    	return UNSAFE.getAndAddInt(array, intArrayElementOffset(index), incrValue);
+    }
+
     public static final class IntArrayVolatileFieldAccessor<T> {
     	private final long fieldOffset;
     	
     	public IntArrayVolatileFieldAccessor(long fieldOffset) {
 			this.fieldOffset = fieldOffset;
 		}
-		private long offsetAt(int index) {
-			return fieldOffset + intArrayElementOffset(index);
+		/** @return the array referenced by the field (element offsets are relative to the array object, not the owner object) */
+		private Object array(T object) {
+			return UNSAFE.getObject(object, fieldOffset);
 		}
     	public int getAt(T object, int index) {
-    		return UNSAFE.getIntVolatile(object, offsetAt(index));
+    		return UNSAFE.getIntVolatile(array(object), intArrayElementOffset(index));
     	}
     	public int setAt(T object, int index, int value) {
-    		return UNSAFE.getAndSetInt(object, offsetAt(index), value);
+    		return UNSAFE.getAndSetInt(array(object), intArrayElementOffset(index), value);
     	}
 		public int addAt(T object, int index, int incrValue) {
-			return UNSAFE.getAndAddInt(object, offsetAt(index), incrValue);
+			return UNSAFE.getAndAddInt(array(object), intArrayElementOffset(index), incrValue);
 		}
     }
 
@@ -159,17 +241,18 @@ public class UnsafeUtils {
 			this.fieldOffset = fieldOffset;
 		}
 		
-		private long offsetAt(int index) {
-			return fieldOffset + longArrayElementOffset(index);
+		/** @return the array referenced by the field (element offsets are relative to the array object, not the owner object) */
+		private Object array(T object) {
+			return UNSAFE.getObject(object, fieldOffset);
 		}
     	public long getAt(T object, int index) {
-    		return UNSAFE.getLongVolatile(object, offsetAt(index));
+    		return UNSAFE.getLongVolatile(array(object), longArrayElementOffset(index));
     	}
     	public long setAt(T object, int index, long value) {
-    		return UNSAFE.getAndSetLong(object, offsetAt(index), value);
+    		return UNSAFE.getAndSetLong(array(object), longArrayElementOffset(index), value);
     	}
 		public long addAt(T object, int index, long incrValue) {
-			return UNSAFE.getAndAddLong(object, offsetAt(index), incrValue);
+			return UNSAFE.getAndAddLong(array(object), longArrayElementOffset(index), incrValue);
 		}
     }
 
@@ -0,0 +1,59 @@
+package org.perflogstacktrace4j;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStackElt;
+import org.perflogstacktrace4j.model.StackPopper;
+import org.perflogstacktrace4j.model.TimingPolicy;
+
+public class CallStackTracerTest {
+
+	private static final CallStackTracer TRACER = CallStackTracer.getTracer(CallStackTracerTest.class);
+	private static final CallSite SITE_handle = TRACER.site("handle");
+
+	@Test
+	public void testSiteHandle() {
+		String className = CallStackTracerTest.class.getName();
+		Assert.assertSame(SITE_handle, TRACER.site("handle"));
+		Assert.assertSame(SITE_handle, CallSiteRegistry.getOrRegister(className, "handle"));
+		Assert.assertSame(SITE_handle, CallSiteRegistry.getById(SITE_handle.getId()));
+		Assert.assertEquals(className, SITE_handle.getClassName());
+		Assert.assertEquals("handle", SITE_handle.getName());
+		Assert.assertEquals(className + ":handle", SITE_handle.getDisplayName());
+		Assert.assertNotEquals(SITE_handle.getId(), TRACER.site("other").getId());
+	}
+
+	@Test
+	public void testPushBySiteOrByName() {
+		StackPopper popper = SITE_handle.push();
+		try {
+			CallStackElt elt = ThreadLocalCallStack.currStackElt();
+			Assert.assertSame(SITE_handle, elt.getCallSite());
+			Assert.assertSame(SITE_handle.getName(), elt.getName());
+			Assert.assertEquals(SITE_handle.getId(), elt.getCallSiteId());
+		} finally {
+			popper.close();
+		}
+
+		popper = TRACER.push("handle");
+		try {
+			// resolved by name to the same handle
+			Assert.assertSame(SITE_handle, ThreadLocalCallStack.currStackElt().getCallSite());
+		} finally {
+			popper.close();
+		}
+		Assert.assertEquals(0, ThreadLocalCallStack.currStackElt().getStackEltIndex());
+	}
+
+	@Test
+	public void testTracerTimingPolicySetOnSite() {
+		TimingPolicy policy = TimingPolicy.wallOnly();
+		CallStackTracer tracer = CallStackTracer.getTracer(CallStackTracerTest.class, policy);
+		CallSite site = tracer.site("wallOnly");
+		Assert.assertSame(policy, site.getTimingPolicy());
+		Assert.assertNull(SITE_handle.getTimingPolicy());
+	}
+
+}
@@ -0,0 +1,146 @@
+package org.perflogstacktrace4j;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+
+public class ScopedCallStackTest {
+
+	private static final CallSite SITE_task = CallSiteRegistry.getOrRegister(ScopedCallStackTest.class.getName(), "task");
+
+	/** also runs each test in a new thread, without a CallStack left bound by other tests */
+	@Rule
+	public Timeout timeout = Timeout.seconds(60);
+
+	@Before
+	public void setUp() {
+		ScopedCallStack.setMaxPooledCount(ScopedCallStack.DEFAULT_MAX_POOLED_COUNT);
+	}
+
+	@Test
+	public void testStackBoundDuringScopeAndPooled() throws Exception {
+		final AtomicReference<CallStack> firstStack = new AtomicReference<CallStack>();
+		ScopedCallStack.run(new Runnable() {
+			@Override
+			public void run() {
+				firstStack.set(ThreadLocalCallStack.currCallStack());
+				ThreadLocalCallStack.push(SITE_task).close();
+				// nested scope: same stack
+				ScopedCallStack.run(new Runnable() {
+					@Override
+					public void run() {
+						Assert.assertSame(firstStack.get(), ThreadLocalCallStack.currCallStack());
+					}
+				});
+			}
+		});
+		Assert.assertNull(ThreadLocalCallStack.getBoundCallStack());
+		Assert.assertEquals(1, ScopedCallStack.getPooledCount());
+
+		CallStack secondStack = ScopedCallStack.call(new Callable<CallStack>() {
+			@Override
+			public CallStack call() {
+				return ThreadLocalCallStack.currCallStack();
+			}
+		});
+		Assert.assertSame(firstStack.get(), secondStack);
+		Assert.assertEquals(1, ScopedCallStack.getPooledCount());
+	}
+
+	@Test
+	public void testStackNotPooledWhenNotPopped() {
+		ScopedCallStack.run(new Runnable() {
+			@Override
+			public void run() {
+				ThreadLocalCallStack.push(SITE_task); // not popped
+			}
+		});
+		Assert.assertEquals(0, ScopedCallStack.getPooledCount());
+	}
+
+	@Test
+	public void testStaleStackDroppedOnListenerFactoryChange() throws Exception {
+		CallStack first = ScopedCallStack.call(currCallStackTask());
+		AppCallTree tree = new AppCallTree("test");
+		ThreadLocalCallStack.addCallStackListenerFactory(tree.getCallStackListenerFactory());
+		try {
+			CallStack second = ScopedCallStack.call(currCallStackTask());
+			Assert.assertNotSame(first, second);
+			Assert.assertSame(second, ScopedCallStack.call(currCallStackTask()));
+			ScopedCallStack.run(new Runnable() {
+				@Override
+				public void run() {
+					ThreadLocalCallStack.push(SITE_task).close();
+				}
+			});
+			Assert.assertNotNull(tree.getRootNode().findChild(SITE_task));
+		} finally {
+			ThreadLocalCallStack.removeCallStackListenerFactory(tree.getCallStackListenerFactory());
+		}
+	}
+
+	@Test
+	public void testMaxPooledCount() throws Exception {
+		ScopedCallStack.setMaxPooledCount(0);
+		CallStack first = ScopedCallStack.call(currCallStackTask());
+		Assert.assertNotSame(first, ScopedCallStack.call(currCallStackTask()));
+		Assert.assertEquals(0, ScopedCallStack.getPooledCount());
+	}
+
+	@Test
+	public void testConcurrentTasks() throws InterruptedException {
+		final int maxPooledCount = 64;
+		ScopedCallStack.setMaxPooledCount(maxPooledCount);
+		final AtomicInteger errorCount = new AtomicInteger();
+		final AtomicInteger taskCount = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 2000; i++) {
+						ScopedCallStack.run(new Runnable() {
+							@Override
+							public void run() {
+								CallStack stack = ThreadLocalCallStack.currCallStack();
+								if (stack.curr().getStackEltIndex() != 0) {
+									errorCount.incrementAndGet(); // stack shared with another task
+								}
+								ThreadLocalCallStack.push(SITE_task).close();
+								taskCount.incrementAndGet();
+							}
+						});
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(0, errorCount.get());
+		Assert.assertEquals(8 * 2000, taskCount.get());
+		int pooledCount = ScopedCallStack.getPooledCount();
+		Assert.assertTrue(pooledCount >= 1 && pooledCount <= maxPooledCount);
+	}
+
+	private static Callable<CallStack> currCallStackTask() {
+		return new Callable<CallStack>() {
+			@Override
+			public CallStack call() {
+				return ThreadLocalCallStack.currCallStack();
+			}
+		};
+	}
+
+}
@@ -0,0 +1,178 @@
+package org.perflogstacktrace4j.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.perflogstacktrace4j.ThreadLocalCallStack;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.StackPopper;
+import org.perflogstacktrace4j.model.TimingMode;
+import org.perflogstacktrace4j.model.stats.PerfTimeStats;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeCallStackListener;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+
+public class AsyncSpanTest {
+
+	private static final String CLASS_NAME = AsyncSpanTest.class.getName();
+	private static final CallSite SITE_request = CallSiteRegistry.getOrRegister(CLASS_NAME, "request");
+	private static final CallSite SITE_call = CallSiteRegistry.getOrRegister(CLASS_NAME, "call");
+	private static final CallSite SITE_load = CallSiteRegistry.getOrRegister(CLASS_NAME, "load");
+	private static final CallSite SITE_build = CallSiteRegistry.getOrRegister(CLASS_NAME, "build");
+	private static final CallSite SITE_query = CallSiteRegistry.getOrRegister(CLASS_NAME, "query");
+
+	private AppCallTree tree;
+	private AppCallTreeCallStackListener listener;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		tree = new AppCallTree("test");
+		// current thread CallStack may already exist, created before the factory is added
+		CallStack stack = ThreadLocalCallStack.currCallStack();
+		listener = tree.createCallStackListener(stack);
+		stack.addCallStackListener(listener);
+		// for CallStacks of worker threads, created after
+		ThreadLocalCallStack.addCallStackListenerFactory(tree.getCallStackListenerFactory());
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+		ThreadLocalCallStack.currCallStack().removeCallStackListener(listener);
+		ThreadLocalCallStack.removeCallStackListenerFactory(tree.getCallStackListenerFactory());
+	}
+
+	/** @return copy of node stats */
+	private PerfTimeStats statsAt(CallSite... path) {
+		AppCallTreeNode node = tree.getRootNode();
+		for (CallSite site : path) {
+			node = node.findChild(site);
+			Assert.assertNotNull(site.toString(), node);
+		}
+		return node.getTimeStats();
+	}
+
+	@Test
+	public void testPendingUntilEndedFromOtherThread() throws Exception {
+		final AsyncSpan span;
+		StackPopper request = ThreadLocalCallStack.push(SITE_request);
+		try {
+			span = AsyncSpan.start(SITE_call);
+		} finally {
+			request.close();
+		}
+		PerfTimeStats stats = statsAt(SITE_request, SITE_call);
+		Assert.assertEquals(1, stats.getPendingCount());
+		Assert.assertEquals(0, stats.getElapsedTimeStats().getCount());
+		Assert.assertFalse(span.isEnded());
+
+		boolean ended = executor.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return span.end();
+			}
+		}).get(10, TimeUnit.SECONDS);
+		Assert.assertTrue(ended);
+		Assert.assertTrue(span.isEnded());
+		Assert.assertFalse(span.end()); // idempotent
+		stats = statsAt(SITE_request, SITE_call);
+		Assert.assertEquals(0, stats.getPendingCount());
+		Assert.assertEquals(1, stats.getElapsedTimeStats().getCount());
+		Assert.assertEquals(0, stats.getThreadCpuTimeStats().getCount());
+		Assert.assertTrue(stats.hasTimingMode(TimingMode.WALL_ONLY));
+	}
+
+	@Test
+	public void testWrapRunsUnderSpan() throws Exception {
+		AsyncSpan span;
+		StackPopper request = ThreadLocalCallStack.push(SITE_request);
+		try {
+			span = AsyncSpan.start(SITE_call);
+		} finally {
+			request.close();
+		}
+		executor.submit(span.wrap(new Runnable() {
+			@Override
+			public void run() {
+				ThreadLocalCallStack.push(SITE_query).close();
+			}
+		})).get(10, TimeUnit.SECONDS);
+		span.end();
+		Assert.assertEquals(1, statsAt(SITE_request, SITE_call, SITE_query).getElapsedTimeStats().getCount());
+		Assert.assertEquals(1, statsAt(SITE_request, SITE_call).getElapsedTimeStats().getCount());
+		Assert.assertEquals(1, statsAt(SITE_request).getElapsedTimeStats().getCount()); // submitter only
+	}
+
+	@Test
+	public void testStagesTracedWhileInFlight() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<Integer> load;
+		CompletableFuture<String> build;
+		StackPopper request = ThreadLocalCallStack.push(SITE_request);
+		try {
+			load = AsyncSpans.supplyAsync(SITE_load, new Supplier<Integer>() {
+				@Override
+				public Integer get() {
+					ThreadLocalCallStack.push(SITE_query).close();
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException ex) {
+						// ignore
+					}
+					return 42;
+				}
+			}, executor);
+			build = AsyncSpans.thenApplyAsync(load, SITE_build, new Function<Integer, String>() {
+				@Override
+				public String apply(Integer value) {
+					return "v" + value;
+				}
+			}, executor);
+		} finally {
+			request.close();
+		}
+		Assert.assertEquals(1, statsAt(SITE_request, SITE_load).getPendingCount());
+		Assert.assertNull(tree.getRootNode().findChild(SITE_request).findChild(SITE_build)); // not started yet
+
+		release.countDown();
+		Assert.assertEquals("v42", build.get(10, TimeUnit.SECONDS));
+		PerfTimeStats loadStats = statsAt(SITE_request, SITE_load);
+		Assert.assertEquals(0, loadStats.getPendingCount());
+		Assert.assertEquals(1, loadStats.getElapsedTimeStats().getCount());
+		Assert.assertEquals(1, statsAt(SITE_request, SITE_load, SITE_query).getElapsedTimeStats().getCount());
+		Assert.assertEquals(1, statsAt(SITE_request, SITE_build).getElapsedTimeStats().getCount());
+	}
+
+	@Test
+	public void testTraceFuture() throws Exception {
+		CompletableFuture<String> future = new CompletableFuture<String>();
+		StackPopper request = ThreadLocalCallStack.push(SITE_request);
+		try {
+			Assert.assertSame(future, AsyncSpans.trace(SITE_call, future));
+		} finally {
+			request.close();
+		}
+		PerfTimeStats stats = statsAt(SITE_request, SITE_call);
+		Assert.assertEquals(1, stats.getPendingCount());
+		future.completeExceptionally(new IllegalStateException("failed"));
+		stats = statsAt(SITE_request, SITE_call);
+		Assert.assertEquals(0, stats.getPendingCount());
+		Assert.assertEquals(1, stats.getElapsedTimeStats().getCount());
+	}
+
+}
@@ -0,0 +1,175 @@
+package org.perflogstacktrace4j.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.ThreadLocalCallStack;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.CallStackElt;
+import org.perflogstacktrace4j.model.StackPopper;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+import org.perflogstacktrace4j.spi.CallStackListener;
+import org.perflogstacktrace4j.spi.CallStackListenerFactory;
+
+public class ContextPropagatingExecutorServiceTest {
+
+	private static final String CLASS_NAME = ContextPropagatingExecutorServiceTest.class.getName();
+	private static final CallSite SITE_request = CallSiteRegistry.getOrRegister(CLASS_NAME, "request");
+	private static final CallSite SITE_query = CallSiteRegistry.getOrRegister(CLASS_NAME, "query");
+
+	private static final AtomicInteger attachCount = new AtomicInteger();
+	private static final AtomicInteger detachCount = new AtomicInteger();
+
+	private static final CallStackListenerFactory attachCountingFactory = new CallStackListenerFactory() {
+		@Override
+		public CallStackListener createListener(CallStack stack) {
+			return new CallStackListener() {
+				@Override
+				public void onPush(CallStackElt stackElt) {
+				}
+				@Override
+				public void onPop(CallStackElt stackElt) {
+				}
+				@Override
+				public void onProgressStep(CallStackElt stackElt, int incr, String progressMessage) {
+				}
+				@Override
+				public void onLog(String msg, Map<String, Object> namedValues) {
+				}
+				@Override
+				public void onAttachCallStackToThread(CallStack stack, Thread thread) {
+					// attached context is visible to listeners
+					if (stack.curr().getCallSite() == SITE_request) {
+						attachCount.incrementAndGet();
+					}
+				}
+				@Override
+				public void onDetachCallStackFromThread(CallStack stack, Thread thread) {
+					detachCount.incrementAndGet();
+				}
+			};
+		}
+	};
+
+	private static Callable<String> userPropTask() {
+		return new Callable<String>() {
+			@Override
+			public String call() {
+				CallStackElt elt = ThreadLocalCallStack.currStackElt();
+				Assert.assertSame(ContextPropagatingExecutorService.DEFAULT_TASK_CALL_SITE, elt.getCallSite());
+				Assert.assertSame(SITE_request, elt.getParentCallStackElt().getCallSite());
+				return (String) elt.getInheritedProps().get("user");
+			}
+		};
+	}
+
+	@Test
+	public void testTaskRunInSubmitterContext() throws Exception {
+		AppCallTree tree = new AppCallTree("test");
+		ThreadLocalCallStack.addCallStackListenerFactory(tree.getCallStackListenerFactory());
+		ThreadLocalCallStack.addCallStackListenerFactory(attachCountingFactory);
+		attachCount.set(0);
+		detachCount.set(0);
+		// worker threads created after factories are added, so their CallStacks have listeners
+		ExecutorService executor = new ContextPropagatingExecutorService(Executors.newFixedThreadPool(2));
+		try {
+			List<Future<String>> futures = new ArrayList<Future<String>>();
+			StackPopper request = ThreadLocalCallStack.meth(SITE_request).withInheritableProp("user", "u1").push();
+			try {
+				for (int i = 0; i < 10; i++) {
+					futures.add(executor.submit(userPropTask()));
+				}
+			} finally {
+				request.close();
+			}
+			for (Future<String> future : futures) {
+				Assert.assertEquals("u1", future.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+			ThreadLocalCallStack.removeCallStackListenerFactory(attachCountingFactory);
+			ThreadLocalCallStack.removeCallStackListenerFactory(tree.getCallStackListenerFactory());
+		}
+		Assert.assertEquals(10, attachCount.get());
+		Assert.assertEquals(10, detachCount.get());
+
+		// aggregated under submitter path, submitter node not counted by workers
+		AppCallTreeNode requestNode = tree.getRootNode().findChild(SITE_request);
+		Assert.assertNotNull(requestNode);
+		AppCallTreeNode taskNode = requestNode.findChild(ContextPropagatingExecutorService.DEFAULT_TASK_CALL_SITE);
+		Assert.assertEquals(10, taskNode.getTimeStats().getElapsedTimeStats().getCount());
+		Assert.assertEquals(0, taskNode.getTimeStats().getPendingCount());
+		Assert.assertEquals(0, requestNode.getTimeStats().getPendingCount());
+	}
+
+	@Test
+	public void testWorkerStackEmptyAfterTask() throws Exception {
+		ExecutorService executor = new ContextPropagatingExecutorService(Executors.newSingleThreadExecutor(), SITE_query);
+		try {
+			StackPopper request = ThreadLocalCallStack.push(SITE_request);
+			Future<?> future;
+			try {
+				future = executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						Assert.assertSame(SITE_query, ThreadLocalCallStack.currStackElt().getCallSite());
+						Assert.assertEquals(2, ThreadLocalCallStack.currStackElt().getStackEltIndex());
+					}
+				});
+			} finally {
+				request.close();
+			}
+			future.get(10, TimeUnit.SECONDS);
+			int depth = executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					// submitted from empty stack: only the task span
+					return ThreadLocalCallStack.currStackElt().getStackEltIndex();
+				}
+			}).get(10, TimeUnit.SECONDS);
+			Assert.assertEquals(1, depth);
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	public void testRunByCallerPushesUnderCurrentElt() {
+		ContextPropagatingExecutorService executor = new ContextPropagatingExecutorService(Executors.newSingleThreadExecutor(), SITE_query);
+		try {
+			final CallStackElt[] parent = new CallStackElt[1];
+			StackPopper request = ThreadLocalCallStack.push(SITE_request);
+			try {
+				Runnable task = executor.wrap(new Runnable() {
+					@Override
+					public void run() {
+						parent[0] = ThreadLocalCallStack.currStackElt().getParentCallStackElt();
+					}
+				});
+				CallStackElt curr = ThreadLocalCallStack.currStackElt();
+				task.run(); // as with CallerRunsPolicy: stack not empty, context not attached
+				Assert.assertSame(curr, parent[0]);
+				Assert.assertSame(curr, ThreadLocalCallStack.currStackElt());
+			} finally {
+				request.close();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
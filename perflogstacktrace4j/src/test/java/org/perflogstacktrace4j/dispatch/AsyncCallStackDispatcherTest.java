@@ -0,0 +1,139 @@
+package org.perflogstacktrace4j.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+
+public class AsyncCallStackDispatcherTest {
+
+	private static final CallSite CALL_SITE = CallSiteRegistry.getOrRegister(AsyncCallStackDispatcherTest.class.getName(), "test");
+
+	private static class RecordingListener extends CallStackEventListener {
+		final List<String> events = new ArrayList<String>();
+		final List<Long> threadIds = new ArrayList<Long>();
+		int errorCountdown = 0;
+
+		@Override
+		public void onEvent(CallStackEvent event) {
+			events.add(event.getType() + ":" + event.getStackEltIndex());
+			threadIds.add(event.getThreadId());
+			if (errorCountdown > 0 && --errorCountdown == 0) {
+				throw new RuntimeException("test listener error");
+			}
+		}
+	}
+
+	private static CallStack createStack(AsyncCallStackDispatcher dispatcher) {
+		CallStack stack = new CallStack();
+		stack.addCallStackListener(dispatcher.createCallStackListener(stack));
+		return stack;
+	}
+
+	private static void pushPop(CallStack stack, int count) {
+		for (int i = 0; i < count; i++) {
+			stack.curr().pusher(CALL_SITE).push().close();
+		}
+	}
+
+	@Test
+	public void testEventsDispatchedInOrder_ringGrowsLazily() {
+		AsyncCallStackDispatcher dispatcher = new AsyncCallStackDispatcher();
+		RecordingListener listener = new RecordingListener();
+		dispatcher.addListener(listener);
+		CallStack stack = createStack(dispatcher);
+		pushPop(stack, 300); // 600 events, more than initial ring capacity
+
+		Assert.assertEquals(1, dispatcher.getRingCount());
+		Assert.assertEquals(600, dispatcher.getPendingEventCount());
+		Assert.assertEquals(600, dispatcher.dispatchPending());
+		Assert.assertEquals(0, dispatcher.getDroppedEventCount());
+		Assert.assertEquals(600, dispatcher.getDispatchedEventCount());
+		for (int i = 0; i < 600; i++) {
+			Assert.assertEquals(((i % 2 == 0)? "PUSH" : "POP") + ":1", listener.events.get(i));
+			Assert.assertEquals(Thread.currentThread().getId(), listener.threadIds.get(i).longValue());
+		}
+	}
+
+	@Test
+	public void testFullRingDropsEvents() {
+		AsyncCallStackDispatcher dispatcher = new AsyncCallStackDispatcher(8, AsyncCallStackDispatcher.OverflowPolicy.DROP, 0);
+		RecordingListener listener = new RecordingListener();
+		dispatcher.addListener(listener);
+		CallStack stack = createStack(dispatcher);
+		pushPop(stack, 10);
+
+		Assert.assertEquals(12, dispatcher.getDroppedEventCount());
+		Assert.assertEquals(8, dispatcher.dispatchPending());
+		pushPop(stack, 1);
+		Assert.assertEquals(2, dispatcher.dispatchPending());
+		Assert.assertEquals(10, listener.events.size());
+	}
+
+	@Test
+	public void testListenerErrorsAreCounted() {
+		AsyncCallStackDispatcher dispatcher = new AsyncCallStackDispatcher();
+		RecordingListener listener = new RecordingListener();
+		listener.errorCountdown = 3;
+		dispatcher.addListener(listener);
+		pushPop(createStack(dispatcher), 5);
+		Assert.assertEquals(10, dispatcher.dispatchPending());
+		Assert.assertEquals(1, dispatcher.getListenerErrorCount());
+		Assert.assertEquals(10, listener.events.size());
+	}
+
+	@Test
+	public void testRingOfTerminatedThreadRemoved_reRegisteredOnOtherThread() throws Exception {
+		final AsyncCallStackDispatcher dispatcher = new AsyncCallStackDispatcher();
+		RecordingListener listener = new RecordingListener();
+		dispatcher.addListener(listener);
+		final CallStack stack = createStack(dispatcher); // like a pooled stack, used by successive threads
+
+		Thread thread1 = runInThread(stack, 2);
+		Assert.assertEquals(4, dispatcher.dispatchPending());
+		Assert.assertEquals(0, dispatcher.getRingCount());
+
+		Thread thread2 = runInThread(stack, 3);
+		Assert.assertEquals(1, dispatcher.getRingCount());
+		Assert.assertEquals(6, dispatcher.dispatchPending());
+		Assert.assertEquals(10, listener.events.size());
+		for (int i = 0; i < 10; i++) {
+			Thread expectedThread = (i < 4)? thread1 : thread2;
+			Assert.assertEquals(expectedThread.getId(), listener.threadIds.get(i).longValue());
+		}
+	}
+
+	@Test
+	public void testConsumerThread() throws Exception {
+		AsyncCallStackDispatcher dispatcher = new AsyncCallStackDispatcher();
+		dispatcher.setIdleParkNanos(100000);
+		RecordingListener listener = new RecordingListener();
+		dispatcher.addListener(listener);
+		CallStack stack = createStack(dispatcher);
+		dispatcher.start();
+		try {
+			pushPop(stack, 100);
+		} finally {
+			dispatcher.close(); // dispatch published events before stopping
+		}
+		Assert.assertEquals(200, dispatcher.getDispatchedEventCount());
+		Assert.assertEquals(200, listener.events.size());
+	}
+
+	private static Thread runInThread(final CallStack stack, final int count) throws InterruptedException {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				pushPop(stack, count);
+			}
+		});
+		thread.start();
+		thread.join();
+		return thread;
+	}
+
+}
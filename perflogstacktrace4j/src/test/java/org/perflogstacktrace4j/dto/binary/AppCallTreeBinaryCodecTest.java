@@ -0,0 +1,185 @@
+package org.perflogstacktrace4j.dto.binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.dto.tree.AppCallTreeDTO;
+import org.perflogstacktrace4j.dto.tree.AppCallTreeNodeDTO;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.StackPopper;
+import org.perflogstacktrace4j.model.stats.LongStatsHistogram;
+import org.perflogstacktrace4j.model.stats.PerfTimeStats;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+
+public class AppCallTreeBinaryCodecTest {
+
+    private static final String CLASS_NAME = AppCallTreeBinaryCodecTest.class.getName();
+
+    @Test
+    public void testRoundTripDTO() {
+        AppCallTree tree = createTree();
+        AppCallTreeDTO src = tree.copyToDTO();
+
+        AppCallTreeDTO res = AppCallTreeBinaryDecoder.decode(AppCallTreeBinaryEncoder.encode(src));
+
+        Assert.assertEquals(src.getName(), res.getName());
+        Assert.assertEquals(src.getFromSnapshotDate(), res.getFromSnapshotDate());
+        Assert.assertEquals(src.getToSnapshotDate(), res.getToSnapshotDate());
+        assertSameTree(src.getRootNode(), res.getRootNode());
+    }
+
+    @Test
+    public void testRoundTripLiveTreeThroughStream() throws Exception {
+        AppCallTree tree = createTree();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AppCallTreeBinaryEncoder encoder = new AppCallTreeBinaryEncoder(out);
+        encoder.write(tree);
+        encoder.write(tree.copyToDTO()); // encoder is reusable, trees are concatenated
+        encoder.flush();
+
+        AppCallTreeBinaryDecoder decoder = new AppCallTreeBinaryDecoder(new ByteArrayInputStream(out.toByteArray()));
+        AppCallTreeDTO res1 = decoder.read();
+        AppCallTreeDTO res2 = decoder.read();
+        AppCallTreeDTO expected = tree.copyToDTO();
+        assertSameTree(expected.getRootNode(), res1.getRootNode());
+        assertSameTree(expected.getRootNode(), res2.getRootNode());
+    }
+
+    @Test
+    public void testRoundTripDeepTree() throws Exception {
+        AppCallTree tree = new AppCallTree("deep");
+        CallSite callSite = CallSiteRegistry.getOrRegister(CLASS_NAME, "deep");
+        int depth = 50000;
+        AppCallTreeNode node = tree.getRootNode();
+        for (int i = 0; i < depth; i++) {
+            node = node.findOrCreateChild(callSite);
+        }
+        node.incrTimeStats(1000, 0, 0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AppCallTreeBinaryEncoder encoder = new AppCallTreeBinaryEncoder(out);
+        encoder.write(tree);
+        encoder.flush();
+        AppCallTreeDTO fromLive = AppCallTreeBinaryDecoder.decode(out.toByteArray());
+        AppCallTreeDTO fromDTO = AppCallTreeBinaryDecoder.decode(AppCallTreeBinaryEncoder.encode(tree.snapshotAndReset()));
+
+        for (AppCallTreeDTO res : new AppCallTreeDTO[] { fromLive, fromDTO }) {
+            AppCallTreeNodeDTO resNode = res.getRootNode();
+            for (int i = 0; i < depth; i++) {
+                Assert.assertEquals(1, resNode.getChildCount());
+                resNode = resNode.getChildList().iterator().next();
+            }
+            Assert.assertEquals(0, resNode.getChildCount());
+            Assert.assertEquals(1, resNode.getCount());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalidMagic() {
+        AppCallTreeBinaryDecoder.decode(new byte[] { 1, 2, 3, 4, 5, 6 });
+    }
+
+    @Test
+    public void testDecoderReusableAfterTruncatedInput() throws Exception {
+        AppCallTreeDTO expected = createTree().copyToDTO();
+        byte[] encoded = AppCallTreeBinaryEncoder.encode(expected);
+        byte[] data = new byte[encoded.length * 2];
+        System.arraycopy(encoded, 0, data, 0, encoded.length);
+        System.arraycopy(encoded, 0, data, encoded.length, encoded.length);
+        // truncate first tree at each position (including inside histogram slots), then read the second one with same decoder
+        for (int cut = 0; cut < encoded.length; cut++) {
+            ByteBuffer in = ByteBuffer.wrap(data);
+            in.limit(cut);
+            AppCallTreeBinaryDecoder decoder = new AppCallTreeBinaryDecoder(in);
+            try {
+                decoder.read();
+                Assert.fail("truncated at " + cut);
+            } catch(IOException ex) {
+                // expected
+            }
+            in.limit(data.length);
+            in.position(encoded.length);
+            assertSameTree(expected.getRootNode(), decoder.read().getRootNode());
+        }
+    }
+
+    @Test
+    public void testDecodeCorruptedStringLength() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(AppCallTreeBinaryFormat.MAGIC);
+        out.write(AppCallTreeBinaryFormat.VERSION);
+        out.write(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 }); // name length ~2^31
+        out.write(new byte[] { 'a', 'b', 'c' });
+        byte[] data = out.toByteArray();
+        try {
+            new AppCallTreeBinaryDecoder(ByteBuffer.wrap(data)).read();
+            Assert.fail();
+        } catch(IOException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().startsWith("invalid format, string length"));
+        }
+        try {
+            new AppCallTreeBinaryDecoder(new ByteArrayInputStream(data)).read();
+            Assert.fail();
+        } catch(EOFException ex) {
+            // expected, without allocating the corrupted length
+        }
+    }
+
+    private static AppCallTree createTree() {
+        AppCallTree tree = new AppCallTree("test");
+        AppCallTreeNode root = tree.getRootNode();
+        AppCallTreeNode a = root.findOrCreateChild(CallSiteRegistry.getOrRegister(CLASS_NAME, "a"));
+        AppCallTreeNode b = root.findOrCreateChild(CallSiteRegistry.getOrRegister(CLASS_NAME, "b"));
+        AppCallTreeNode ab = a.findOrCreateChild(CallSiteRegistry.getOrRegister(CLASS_NAME, "b")); // shared name
+        for (int i = 1; i <= 100; i++) {
+            a.incrTimeStats(i * 1000L, i * 100L, i * 200L);
+            ab.incrTimeStats(i * 500L, 0, 0);
+        }
+        b.incrTimeStats(5000000L, 1000L, 2000L);
+        CallStack stack = new CallStack();
+        StackPopper popper = stack.curr().pusher(b.getCallSite()).push();
+        b.addPending(stack.curr());
+        popper.close();
+        return tree;
+    }
+
+    private static void assertSameTree(AppCallTreeNodeDTO expected, AppCallTreeNodeDTO actual) {
+        Assert.assertEquals(expected.getName(), actual.getName());
+        assertSameStats(expected.getPerfTimeStats(), actual.getPerfTimeStats());
+        Assert.assertEquals(expected.getChildCount(), actual.getChildCount());
+        Iterator<AppCallTreeNodeDTO> actualIter = actual.getChildList().iterator();
+        for (AppCallTreeNodeDTO expectedChild : expected.getChildList()) {
+            assertSameTree(expectedChild, actualIter.next());
+        }
+    }
+
+    private static void assertSameStats(PerfTimeStats expected, PerfTimeStats actual) {
+        Assert.assertEquals(expected.getTimingModeMask(), actual.getTimingModeMask());
+        Assert.assertEquals(expected.getPendingCount(), actual.getPendingCount());
+        Assert.assertEquals(expected.getPendingSumStartTime(), actual.getPendingSumStartTime());
+        assertSameHistogram(expected.getElapsedTimeStats(), actual.getElapsedTimeStats());
+        assertSameHistogram(expected.getThreadUserTimeStats(), actual.getThreadUserTimeStats());
+        assertSameHistogram(expected.getThreadCpuTimeStats(), actual.getThreadCpuTimeStats());
+    }
+
+    private static void assertSameHistogram(LongStatsHistogram expected, LongStatsHistogram actual) {
+        Assert.assertEquals(expected.getCount(), actual.getCount());
+        Assert.assertEquals(expected.getSum(), actual.getSum());
+        Assert.assertEquals(expected.getMinValue(), actual.getMinValue());
+        Assert.assertEquals(expected.getMaxValue(), actual.getMaxValue());
+        Assert.assertEquals(expected.getTimeReachingMaxValue(), actual.getTimeReachingMaxValue());
+        Assert.assertEquals(expected.getP50(), actual.getP50());
+        Assert.assertEquals(expected.getP99(), actual.getP99());
+        Assert.assertFalse(expected.compareHasChangeCount(actual));
+    }
+
+}
@@ -0,0 +1,131 @@
+package org.perflogstacktrace4j.dto.tree;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.StackPopper;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+
+public class AppCallTreeDumpWriterTest {
+
+    /**
+     * root -> a (3000) -> c (500) -> d (100)
+     *      -> b"q (2 x 500)
+     */
+    private static AppCallTreeNodeDTO createTree() {
+        AppCallTreeNodeDTO root = new AppCallTreeNodeDTO("");
+        AppCallTreeNodeDTO a = root.findOrCreateChild("a");
+        a.getPerfTimeStats().incr(3000, 0, 0);
+        AppCallTreeNodeDTO c = a.findOrCreateChild("c");
+        c.getPerfTimeStats().incr(500, 0, 0);
+        c.findOrCreateChild("d").getPerfTimeStats().incr(100, 0, 0);
+        AppCallTreeNodeDTO b = root.findOrCreateChild("b\"q");
+        b.getPerfTimeStats().incr(500, 0, 0);
+        b.getPerfTimeStats().incr(500, 0, 0);
+        return root;
+    }
+
+    private static String write(AppCallTreeDumpWriter dumpWriter, StringBuilder out, AppCallTreeNodeDTO node) throws Exception {
+        dumpWriter.writeHeader();
+        dumpWriter.write(node);
+        return out.toString();
+    }
+
+    @Test
+    public void testCsv() throws Exception {
+        StringBuilder out = new StringBuilder();
+        AppCallTreeDumpWriter dumpWriter = new AppCallTreeDumpWriter(out, AppCallTreeDumpWriter.Format.CSV);
+        String csv = write(dumpWriter, out, createTree());
+        Assert.assertTrue(csv.startsWith(AppCallTreeDumpWriter.CSV_HEADER));
+        String[] lines = csv.split("\n");
+        Assert.assertEquals(1 + 4, lines.length); // root without calls has no line
+        Assert.assertTrue(lines[1], lines[1].startsWith("    ;\"a\";\"a\";1;3000;3000.0;"));
+        Assert.assertTrue(lines[2], lines[2].startsWith("        ;\"a/c\";\"c\";1;500;"));
+        Assert.assertTrue(lines[3], lines[3].startsWith("            ;\"a/c/d\";\"d\";1;100;"));
+        Assert.assertTrue(lines[4], lines[4].startsWith("    ;\"b\"q\";\"b\"q\";2;1000;500.0;"));
+        Assert.assertEquals(5, dumpWriter.getWrittenNodeCount());
+        Assert.assertEquals(0, dumpWriter.getPrunedNodeCount());
+
+        // same lines as recursiveToStringDump()
+        StringBuilder sb = new StringBuilder();
+        createTree().recursiveToStringDump(sb, null, 0, -1);
+        Assert.assertEquals(csv.substring(AppCallTreeDumpWriter.CSV_HEADER.length()), sb.toString());
+    }
+
+    @Test
+    public void testJsonNestedAndEscaped() throws Exception {
+        StringBuilder out = new StringBuilder();
+        AppCallTreeDumpWriter dumpWriter = new AppCallTreeDumpWriter(out, AppCallTreeDumpWriter.Format.JSON);
+        String json = write(dumpWriter, out, createTree());
+        Assert.assertTrue(json, json.startsWith("{\"name\":\"\",\"path\":\"\",\"count\":0,\"children\":[{\"name\":\"a\",\"path\":\"a\",\"count\":1,\"sum\":3000,"));
+        Assert.assertTrue(json, json.contains("{\"name\":\"d\",\"path\":\"a/c/d\",\"count\":1,\"sum\":100,"));
+        Assert.assertTrue(json, json.contains("\"children\":[]}]}]},{\"name\":\"b\\\"q\",\"path\":\"b\\\"q\",\"count\":2,\"sum\":1000,"));
+        Assert.assertTrue(json, json.endsWith("\"children\":[]}]}\n"));
+        Assert.assertEquals(5, dumpWriter.getWrittenNodeCount());
+    }
+
+    @Test
+    public void testPruneMinCountAndMinTotalTime() throws Exception {
+        StringBuilder out = new StringBuilder();
+        AppCallTreeDumpWriter dumpWriter = new AppCallTreeDumpWriter(out, AppCallTreeDumpWriter.Format.CSV);
+        dumpWriter.setMinCount(2);
+        write(dumpWriter, out, createTree());
+        Assert.assertEquals(2, dumpWriter.getWrittenNodeCount()); // root, b"q
+        Assert.assertEquals(1, dumpWriter.getPrunedNodeCount()); // a, with its sub-tree
+
+        out.setLength(0);
+        dumpWriter = new AppCallTreeDumpWriter(out, AppCallTreeDumpWriter.Format.CSV);
+        dumpWriter.setMinTotalTime(500);
+        String csv = write(dumpWriter, out, createTree());
+        Assert.assertEquals(4, dumpWriter.getWrittenNodeCount());
+        Assert.assertEquals(1, dumpWriter.getPrunedNodeCount()); // d
+        Assert.assertFalse(csv, csv.contains("a/c/d"));
+    }
+
+    @Test
+    public void testPruneMaxDepthAndMaxChildCount() throws Exception {
+        StringBuilder out = new StringBuilder();
+        AppCallTreeDumpWriter dumpWriter = new AppCallTreeDumpWriter(out, AppCallTreeDumpWriter.Format.CSV);
+        dumpWriter.setMaxDepth(1);
+        String csv = write(dumpWriter, out, createTree());
+        Assert.assertEquals(3, dumpWriter.getWrittenNodeCount()); // root, a, b"q
+        Assert.assertFalse(csv, csv.contains("a/c"));
+
+        out.setLength(0);
+        dumpWriter = new AppCallTreeDumpWriter(out, AppCallTreeDumpWriter.Format.JSON);
+        dumpWriter.setMaxChildCount(1);
+        AppCallTreeNodeDTO root = createTree();
+        root.findOrCreateChild("e").getPerfTimeStats().incr(5000, 0, 0);
+        String json = write(dumpWriter, out, root);
+        // top-1 child by total time: e, others pruned
+        Assert.assertTrue(json, json.startsWith("{\"name\":\"\",\"path\":\"\",\"count\":0,\"children\":[{\"name\":\"e\","));
+        Assert.assertEquals(2, dumpWriter.getWrittenNodeCount());
+        Assert.assertEquals(2, dumpWriter.getPrunedNodeCount());
+    }
+
+    @Test
+    public void testWriteLiveTree() throws Exception {
+        String className = AppCallTreeDumpWriterTest.class.getName();
+        CallSite siteA = CallSiteRegistry.getOrRegister(className, "a");
+        CallSite siteB = CallSiteRegistry.getOrRegister(className, "b");
+        AppCallTree tree = new AppCallTree("test");
+        CallStack stack = new CallStack();
+        stack.addCallStackListener(tree.createCallStackListener(stack));
+        StackPopper a = stack.curr().pusher(siteA).push();
+        stack.curr().pusher(siteB).push().close();
+        a.close();
+        StackPopper pending = stack.curr().pusher(siteB).push();
+
+        StringBuilder out = new StringBuilder();
+        AppCallTreeDumpWriter dumpWriter = new AppCallTreeDumpWriter(out, AppCallTreeDumpWriter.Format.JSON);
+        dumpWriter.write(tree);
+        String json = out.toString();
+        Assert.assertEquals(4, dumpWriter.getWrittenNodeCount());
+        Assert.assertTrue(json, json.contains("\"path\":\"" + siteA.getDisplayName() + "/" + siteB.getDisplayName() + "\",\"count\":1,"));
+        Assert.assertTrue(json, json.contains("\"path\":\"" + siteB.getDisplayName() + "\",\"count\":0,\"pending\":1,"));
+        pending.close();
+    }
+
+}
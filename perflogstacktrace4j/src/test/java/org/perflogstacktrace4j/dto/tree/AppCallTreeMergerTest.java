@@ -0,0 +1,208 @@
+package org.perflogstacktrace4j.dto.tree;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+
+public class AppCallTreeMergerTest {
+
+    private static AppCallTreeDTO createTree(int index) {
+        AppCallTreeDTO tree = new AppCallTreeDTO();
+        tree.setName("jvm" + index);
+        tree.setFromSnapshotDate(new Date(1000 + index));
+        tree.setToSnapshotDate(new Date(2000 + index));
+        AppCallTreeNodeDTO root = new AppCallTreeNodeDTO("");
+        tree.setRootNode(root);
+        for (int i = 0; i < 8; i++) {
+            AppCallTreeNodeDTO child = root.findOrCreateChild("child" + i);
+            child.getPerfTimeStats().incr(1000 * (i + 1), 0, 0);
+            for (int j = 0; j <= index % 5; j++) {
+                child.findOrCreateChild("leaf" + j).getPerfTimeStats().incr(10, 0, 0);
+            }
+        }
+        root.findOrCreateChild("child0").getPerfTimeStats().getPendingCounts().set(1, 100, 0);
+        return tree;
+    }
+
+    @Test
+    public void testParallelMergeEqualsSequentialMerge() {
+        List<AppCallTreeDTO> trees = new ArrayList<AppCallTreeDTO>();
+        AppCallTreeNodeDTO expected = new AppCallTreeNodeDTO("");
+        for (int i = 0; i < 50; i++) {
+            AppCallTreeDTO tree = createTree(i);
+            trees.add(tree);
+            expected.addRecursive(tree.getRootNode());
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            AppCallTreeMerger merger = new AppCallTreeMerger(pool);
+            merger.setForkDepth(2);
+            merger.setMinForkChildCount(2);
+            AppCallTreeDTO merged = merger.merge(trees);
+
+            Assert.assertEquals("jvm0", merged.getName());
+            Assert.assertEquals(1000, merged.getFromSnapshotDate().getTime());
+            Assert.assertEquals(2049, merged.getToSnapshotDate().getTime());
+            assertSameCounts(expected, merged.getRootNode());
+
+            AppCallTreeNodeDTO child0 = merged.getRootNode().findOrCreateChild("child0");
+            Assert.assertEquals(50, child0.getCount());
+            Assert.assertEquals(50 * 1000, child0.getElapsedTime());
+            Assert.assertEquals(50, child0.getPerfTimeStats().getPendingCount());
+            Assert.assertEquals(50, child0.findOrCreateChild("leaf0").getCount());
+            Assert.assertEquals(10, child0.findOrCreateChild("leaf4").getCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMergeEmpty() {
+        AppCallTreeDTO merged = new AppCallTreeMerger().merge(new ArrayList<AppCallTreeDTO>());
+        Assert.assertEquals(0, merged.getRootNode().getChildCount());
+    }
+
+    @Test
+    public void testMergeDeepTreesWithoutRecursion() {
+        int depth = 50000;
+        AppCallTreeNodeDTO root = new AppCallTreeNodeDTO("");
+        AppCallTreeNodeDTO node = root;
+        for (int i = 0; i < depth; i++) {
+            node = node.findOrCreateChild("n");
+            node.getPerfTimeStats().incr(1, 0, 0);
+        }
+        List<AppCallTreeNodeDTO> roots = new ArrayList<AppCallTreeNodeDTO>();
+        roots.add(root);
+        roots.add(root);
+        AppCallTreeNodeDTO merged = new AppCallTreeMerger().mergeNodes(roots);
+        AppCallTreeNodeDTO curr = merged;
+        for (int i = 0; i < depth; i++) {
+            curr = curr.getChildList().iterator().next();
+            Assert.assertEquals(2, curr.getCount());
+        }
+        Assert.assertEquals(0, curr.getChildCount());
+    }
+
+    @Test
+    public void testAddRecursiveIntoLiveTree() {
+        AppCallTree liveTree = new AppCallTree("live");
+        AppCallTreeNode liveRoot = liveTree.getRootNode();
+        liveRoot.addRecursive(createTree(4).getRootNode());
+        liveRoot.addRecursive(createTree(4).getRootNode());
+        AppCallTreeNode child7 = liveRoot.findOrCreateChild("child7");
+        Assert.assertEquals(2, child7.getTimeStats().getElapsedTimeStats().getCount());
+        Assert.assertEquals(16000, child7.getTimeStats().getElapsedTimeStats().getSum());
+        Assert.assertEquals(5, child7.getChildCount());
+
+        // live to live
+        AppCallTree copy = new AppCallTree("copy");
+        copy.getRootNode().addRecursive(liveRoot);
+        Assert.assertEquals(2, copy.getRootNode().findOrCreateChild("child7").findOrCreateChild("leaf4")
+                .getTimeStats().getElapsedTimeStats().getCount());
+    }
+
+    @Test
+    public void testAddRecursiveDeepLiveTreeWithoutRecursion() {
+        int depth = 50000;
+        AppCallTree src = new AppCallTree("src");
+        AppCallTreeNode node = src.getRootNode();
+        for (int i = 0; i < depth; i++) {
+            node = node.findOrCreateChild("n" + (i % 10));
+            node.incrTimeStats(1, 0, 0);
+        }
+        AppCallTree dest = new AppCallTree("dest");
+        dest.setMaxNodeCount(2 * depth);
+        dest.getRootNode().addRecursive(src.getRootNode());
+        dest.getRootNode().addRecursive(src.copyToDTO().getRootNode());
+        AppCallTreeNode curr = dest.getRootNode();
+        for (int i = 0; i < depth; i++) {
+            curr = curr.getFirstChild();
+            Assert.assertEquals(2, curr.getTimeStats().getElapsedTimeStats().getCount());
+        }
+        Assert.assertNull(curr.getFirstChild());
+    }
+
+    @Test
+    public void testConcurrentAddRecursiveIntoLiveTree() throws InterruptedException {
+        final AppCallTree liveTree = new AppCallTree("live");
+        final AppCallTreeDTO src = createTree(4);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100; i++) {
+                        liveTree.getRootNode().addRecursive(src.getRootNode());
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        AppCallTreeNodeDTO res = liveTree.copyToDTO().getRootNode();
+        Assert.assertEquals(8, res.getChildCount());
+        Assert.assertEquals(400, res.findOrCreateChild("child3").getCount());
+        Assert.assertEquals(400, res.findOrCreateChild("child3").findOrCreateChild("leaf2").getCount());
+    }
+
+    @Test
+    public void testAddRecursiveDoesNotRegisterRemoteNames() {
+        String prefix = AppCallTreeMergerTest.class.getName() + ":remote";
+        CallSite registered = CallSiteRegistry.getOrRegister(AppCallTreeMergerTest.class.getName(), "registered");
+        AppCallTreeNodeDTO src = new AppCallTreeNodeDTO("");
+        src.findOrCreateChild(registered.getDisplayName()).getPerfTimeStats().incr(10, 0, 0);
+        for (int i = 0; i < 100; i++) {
+            src.findOrCreateChild(prefix + i).getPerfTimeStats().incr(10, 0, 0);
+        }
+        int siteCount = CallSiteRegistry.getSiteCount();
+        AppCallTree tree = new AppCallTree("aggregator");
+        tree.setMaxChildCountPerNode(11);
+        AppCallTreeNode root = tree.getRootNode();
+        root.addRecursive(src);
+        root.addRecursive(src);
+        Assert.assertEquals(siteCount, CallSiteRegistry.getSiteCount());
+        Assert.assertNull(CallSiteRegistry.find(prefix + 0));
+
+        // registered name resolved to its CallSite, remote names to distinct nodes of this tree, up to its limits
+        Assert.assertSame(registered, root.getFirstChild().getCallSite());
+        Assert.assertEquals(2, root.findChild(registered).getTimeStats().getElapsedTimeStats().getCount());
+        AppCallTreeNode remote0 = root.findOrCreateChild(prefix + 0);
+        Assert.assertEquals(prefix + 0, remote0.getChildName());
+        Assert.assertFalse(remote0.getCallSite().isRegistered());
+        Assert.assertEquals(2, remote0.getTimeStats().getElapsedTimeStats().getCount());
+        Assert.assertSame(remote0, root.findChild(remote0.getCallSite()));
+        Assert.assertEquals(11 + 1, root.getChildCount());
+        Assert.assertEquals(100 - 10, root.getFoldedNameCount());
+        Assert.assertEquals(100 - 10, tree.getFoldedNameCount());
+        Assert.assertEquals(2 * 90, root.getOverflowChild().getTimeStats().getElapsedTimeStats().getCount());
+
+        // live to live: names resolved again in the dest tree
+        AppCallTree copy = new AppCallTree("copy");
+        copy.getRootNode().addRecursive(root);
+        Assert.assertEquals(2, copy.getRootNode().findOrCreateChild(prefix + 0).getTimeStats().getElapsedTimeStats().getCount());
+        Assert.assertNotSame(remote0.getCallSite(), copy.getRootNode().findOrCreateChild(prefix + 0).getCallSite());
+        Assert.assertEquals(siteCount, CallSiteRegistry.getSiteCount());
+    }
+
+    private static void assertSameCounts(AppCallTreeNodeDTO expected, AppCallTreeNodeDTO actual) {
+        Assert.assertEquals(expected.getName(), actual.getName());
+        Assert.assertEquals(expected.getCount(), actual.getCount());
+        Assert.assertEquals(expected.getElapsedTime(), actual.getElapsedTime());
+        Assert.assertEquals(expected.getPerfTimeStats().getPendingCount(), actual.getPerfTimeStats().getPendingCount());
+        Assert.assertEquals(expected.getChildCount(), actual.getChildCount());
+        for (AppCallTreeNodeDTO expectedChild : expected.getChildList()) {
+            assertSameCounts(expectedChild, actual.findOrCreateChild(expectedChild.getName()));
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package org.perflogstacktrace4j.live;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.CallStackSnapshot;
+import org.perflogstacktrace4j.model.StackPopper;
+
+public class AppStackDumpWriterTest {
+
+	private static final String CLASS_NAME = AppStackDumpWriterTest.class.getName();
+	private static final CallSite SITE_request = CallSiteRegistry.getOrRegister(CLASS_NAME, "request");
+
+	@Test
+	public void testWriteTextAndJson() throws Exception {
+		LiveCallStackRegistry registry = new LiveCallStackRegistry();
+		final CallStack stack = new CallStack();
+		registry.register(stack);
+		final CountDownLatch pushed = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				stack.setOwnerThread(Thread.currentThread());
+				StackPopper request = stack.curr().pusher(SITE_request)
+						.withInheritableProp("user", "a\"b")
+						.withParam("sql", "select 1\n\tfrom t where c = '\\'")
+						.withParam("rows", 10L)
+						.push();
+				pushed.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					// ignore
+				}
+				request.close();
+			}
+		}, "dump-test-thread");
+		thread.start();
+		AppStackDump dump;
+		try {
+			pushed.await();
+			dump = AppStackDump.capture(registry, true);
+		} finally {
+			release.countDown();
+			thread.join();
+		}
+		Assert.assertEquals(1, dump.getThreadCount());
+
+		String text = AppStackDumpWriter.toText(dump);
+		Assert.assertTrue(text, text.contains("\"dump-test-thread\" props {user=a\"b}\n"));
+		Assert.assertTrue(text, text.contains("\tat " + CLASS_NAME + ":request ("));
+
+		StringBuilder json = new StringBuilder();
+		new AppStackDumpWriter(json, AppStackDumpWriter.Format.JSON).write(dump);
+		String s = json.toString();
+		Assert.assertTrue(s, s.contains("\"threads\":[{\"thread\":\"dump-test-thread\","));
+		Assert.assertTrue(s, s.contains("\"props\":{\"user\":\"a\\\"b\"}"));
+		Assert.assertTrue(s, s.contains("\"params\":{\"sql\":\"select 1\\n\\tfrom t where c = '\\\\'\",\"rows\":10}"));
+	}
+
+	@Test
+	public void testWriteEmptyDump() throws Exception {
+		AppStackDump dump = AppStackDump.group(1000, 0, Collections.<CallStackSnapshot>emptyList());
+		StringBuilder json = new StringBuilder();
+		new AppStackDumpWriter(json, AppStackDumpWriter.Format.JSON).write(dump);
+		Assert.assertEquals("{\"time\":1000,\"captureNanos\":0,\"threadCount\":0,\"groups\":[]}\n", json.toString());
+	}
+
+	@Test
+	public void testSnapshotWithPropsConcurrentlyModified() throws InterruptedException {
+		final CallStack stack = new CallStack();
+		final AtomicBoolean stop = new AtomicBoolean();
+		final CountDownLatch started = new CountDownLatch(1);
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				stack.setOwnerThread(Thread.currentThread());
+				while (!stop.get()) {
+					StackPopper request = stack.curr().pusher(SITE_request).withInheritableProp("prop", 0).push();
+					StackPopper child = stack.curr().pusher(SITE_request).withInheritableProp("prop0", 0).push();
+					child.close();
+					for (int i = 1; i < 20; i++) {
+						// element re-used, props re-filled
+						StackPopper next = stack.curr().pusher(SITE_request).withInheritableProp("prop" + i, i).push();
+						next.close();
+					}
+					request.close();
+					started.countDown();
+				}
+			}
+		});
+		writer.start();
+		int snapshotCount = 0;
+		try {
+			started.await();
+			long deadline = System.currentTimeMillis() + 10000;
+			while (snapshotCount < 100 && System.currentTimeMillis() < deadline) {
+				CallStackSnapshot snapshot = stack.snapshot(CallStack.DEFAULT_SNAPSHOT_MAX_ATTEMPTS, true);
+				if (snapshot == null || snapshot.getDepth() == 0) {
+					Thread.yield();
+					continue;
+				}
+				Assert.assertEquals(0, snapshot.getEltAt(0).getInheritableProps().get("prop"));
+				if (snapshot.getDepth() == 2) {
+					Assert.assertEquals(1, snapshot.getEltAt(1).getInheritableProps().size());
+				}
+				snapshotCount++;
+			}
+		} finally {
+			stop.set(true);
+			writer.join();
+		}
+		Assert.assertTrue(snapshotCount > 0);
+	}
+
+}
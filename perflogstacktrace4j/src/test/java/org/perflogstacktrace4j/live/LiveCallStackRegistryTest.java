@@ -0,0 +1,150 @@
+package org.perflogstacktrace4j.live;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.CallStackSnapshot;
+import org.perflogstacktrace4j.model.StackPopper;
+
+public class LiveCallStackRegistryTest {
+
+	private static final String CLASS_NAME = LiveCallStackRegistryTest.class.getName();
+	private static final CallSite SITE_outer = CallSiteRegistry.getOrRegister(CLASS_NAME, "outer");
+	private static final CallSite SITE_inner = CallSiteRegistry.getOrRegister(CLASS_NAME, "inner");
+
+	/** thread pushing outer + inner, then waiting for release */
+	private static class BlockedThread extends Thread {
+		final CallStack stack = new CallStack();
+		final CountDownLatch pushed = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		BlockedThread(LiveCallStackRegistry registry) {
+			registry.register(stack);
+		}
+
+		@Override
+		public void run() {
+			stack.setOwnerThread(this);
+			StackPopper outer = stack.curr().pusher(SITE_outer).withParam("id", 123).push();
+			StackPopper inner = stack.curr().pusher(SITE_inner).push();
+			inner.progressStep(2, "step2");
+			inner.withParamValue("rows", 10L);
+			pushed.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException ex) {
+				// ignore
+			}
+			inner.close();
+			outer.close();
+		}
+	}
+
+	@Test
+	public void testSnapshotAll() throws InterruptedException {
+		LiveCallStackRegistry registry = new LiveCallStackRegistry();
+		BlockedThread thread = new BlockedThread(registry);
+		registry.register(new CallStack()); // empty: not snapshotted
+		thread.start();
+		thread.pushed.await();
+		try {
+			Assert.assertEquals(2, registry.size());
+			List<CallStackSnapshot> snapshots = registry.snapshotAll(true);
+			Assert.assertEquals(1, snapshots.size());
+			CallStackSnapshot snapshot = snapshots.get(0);
+			Assert.assertSame(thread, snapshot.getThread());
+			Assert.assertEquals(2, snapshot.getDepth());
+			Assert.assertSame(SITE_outer, snapshot.getEltAt(0).getCallSite());
+			Assert.assertEquals(123, snapshot.getEltAt(0).getParams().get("id"));
+			CallStackSnapshot.Elt inner = snapshot.getEltAt(1);
+			Assert.assertSame(SITE_inner, inner.getCallSite());
+			Assert.assertEquals(2, inner.getProgressIndex());
+			Assert.assertEquals("step2", inner.getProgressMessage());
+			Assert.assertEquals(10L, inner.getParams().get("rows"));
+		} finally {
+			thread.release.countDown();
+			thread.join();
+		}
+		Assert.assertTrue(registry.snapshotAll().isEmpty());
+	}
+
+	@Test
+	public void testStackOfTerminatedThreadKeptForReuse() throws InterruptedException {
+		LiveCallStackRegistry registry = new LiveCallStackRegistry();
+		final CallStack stack = new CallStack();
+		registry.register(stack);
+		Thread first = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				stack.setOwnerThread(Thread.currentThread());
+			}
+		});
+		first.start();
+		first.join();
+		Assert.assertEquals(0, registry.size());
+
+		// pooled stack bound to a new thread
+		stack.setOwnerThread(Thread.currentThread());
+		Assert.assertEquals(1, registry.size());
+		Assert.assertSame(stack, registry.getLiveCallStacks().get(0));
+	}
+
+	@Test
+	public void testSnapshotConsistentWithProgressAndParams() throws InterruptedException {
+		LiveCallStackRegistry registry = new LiveCallStackRegistry();
+		final CallStack stack = new CallStack();
+		registry.register(stack);
+		final AtomicBoolean stop = new AtomicBoolean();
+		final CountDownLatch started = new CountDownLatch(1);
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				stack.setOwnerThread(Thread.currentThread());
+				while (!stop.get()) {
+					StackPopper popper = stack.curr().pusher(SITE_outer).push();
+					for (int i = 1; i <= 20; i++) {
+						popper.progressStep(1, "step" + i);
+						popper.withParamValue("param" + i, i);
+					}
+					popper.close();
+					started.countDown();
+				}
+			}
+		});
+		writer.start();
+		int checkedCount = 0;
+		try {
+			started.await();
+			long deadline = System.currentTimeMillis() + 10000;
+			while (checkedCount < 100 && System.currentTimeMillis() < deadline) {
+				CallStackSnapshot snapshot = stack.snapshot(CallStack.DEFAULT_SNAPSHOT_MAX_ATTEMPTS, true);
+				if (snapshot == null || snapshot.getDepth() == 0) {
+					Thread.yield();
+					continue;
+				}
+				CallStackSnapshot.Elt elt = snapshot.getEltAt(0);
+				int progressIndex = elt.getProgressIndex();
+				if (progressIndex != 0) {
+					Assert.assertEquals("step" + progressIndex, elt.getProgressMessage());
+				}
+				int paramCount = elt.getParams().size();
+				Assert.assertTrue(paramCount == progressIndex || paramCount == progressIndex - 1);
+				for (int i = 1; i <= paramCount; i++) {
+					Assert.assertEquals(i, elt.getParams().get("param" + i));
+				}
+				checkedCount++;
+			}
+		} finally {
+			stop.set(true);
+			writer.join();
+		}
+		Assert.assertTrue(checkedCount > 0);
+	}
+
+}
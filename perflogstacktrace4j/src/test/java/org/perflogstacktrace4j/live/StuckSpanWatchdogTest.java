@@ -0,0 +1,122 @@
+package org.perflogstacktrace4j.live;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.StackPopper;
+
+public class StuckSpanWatchdogTest {
+
+	private static final String CLASS_NAME = StuckSpanWatchdogTest.class.getName();
+	private static final CallSite SITE_request = CallSiteRegistry.getOrRegister(CLASS_NAME, "request");
+	private static final CallSite SITE_sql = CallSiteRegistry.getOrRegister(CLASS_NAME, "sql");
+
+	private static class RecordingListener extends StuckSpanListener {
+		final List<StuckSpan> spans = new ArrayList<StuckSpan>();
+		final CountDownLatch firstSpan = new CountDownLatch(1);
+		boolean failing;
+
+		@Override
+		public synchronized void onStuckSpan(StuckSpan span) {
+			spans.add(span);
+			firstSpan.countDown();
+			if (failing) {
+				throw new RuntimeException("test listener failure");
+			}
+		}
+	}
+
+	/** @return started thread pushing request + sql, and waiting for <code>release</code> */
+	private static Thread startStuckThread(LiveCallStackRegistry registry, final CountDownLatch pushed, final CountDownLatch release) {
+		final CallStack stack = new CallStack();
+		registry.register(stack);
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				stack.setOwnerThread(Thread.currentThread());
+				StackPopper request = stack.curr().pusher(SITE_request).push();
+				StackPopper sql = stack.curr().pusher(SITE_sql).push();
+				pushed.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					// ignore
+				}
+				sql.close();
+				request.close();
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	@Test
+	public void testScanReportsDeepestStuckSpanOnce() throws InterruptedException {
+		LiveCallStackRegistry registry = new LiveCallStackRegistry();
+		StuckSpanWatchdog watchdog = new StuckSpanWatchdog(registry);
+		watchdog.setLogStuckSpans(false);
+		watchdog.setDefaultThresholdNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		watchdog.setThresholdNanos(SITE_sql, Long.MAX_VALUE);
+		CountDownLatch pushed = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread thread = startStuckThread(registry, pushed, release);
+		try {
+			pushed.await();
+			Thread.sleep(5);
+			List<StuckSpan> spans = watchdog.scan();
+			Assert.assertEquals(1, spans.size());
+			StuckSpan span = spans.get(0);
+			Assert.assertSame(SITE_request, span.getElt().getCallSite()); // sql is never reported
+			Assert.assertEquals(0, span.getPathIndex());
+			Assert.assertSame(thread, span.getThread());
+			Assert.assertTrue(span.getElapsedNanos() > span.getThresholdNanos());
+
+			Assert.assertTrue(watchdog.scan().isEmpty()); // already reported
+			Assert.assertEquals(1, watchdog.getStuckSpanCount());
+		} finally {
+			release.countDown();
+			thread.join();
+		}
+		Assert.assertTrue(watchdog.scan().isEmpty());
+	}
+
+	@Test
+	public void testScanThreadAndListenerErrors() throws InterruptedException {
+		LiveCallStackRegistry registry = new LiveCallStackRegistry();
+		StuckSpanWatchdog watchdog = new StuckSpanWatchdog(registry);
+		watchdog.setLogStuckSpans(false);
+		watchdog.setDefaultThresholdNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		watchdog.setScanPeriodNanos(TimeUnit.MILLISECONDS.toNanos(5));
+		RecordingListener listener = new RecordingListener();
+		listener.failing = true;
+		watchdog.addListener(listener);
+		CountDownLatch pushed = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread thread = startStuckThread(registry, pushed, release);
+		try {
+			pushed.await();
+			watchdog.start();
+			Assert.assertTrue(listener.firstSpan.await(10, TimeUnit.SECONDS));
+		} finally {
+			watchdog.close();
+			release.countDown();
+			thread.join();
+		}
+		synchronized(listener) {
+			Assert.assertEquals(1, listener.spans.size());
+			Assert.assertSame(SITE_sql, listener.spans.get(0).getElt().getCallSite());
+		}
+		Assert.assertEquals(1, watchdog.getListenerErrorCount());
+		// restartable
+		watchdog.start();
+		watchdog.close();
+	}
+
+}
@@ -0,0 +1,161 @@
+package org.perflogstacktrace4j.model;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+
+public class CallSiteRegistryTest {
+
+	private static final String CLASS_NAME = CallSiteRegistryTest.class.getName();
+	private static final CallSite SITE_request = CallSiteRegistry.getOrRegister(CLASS_NAME, "request");
+
+	private int prevMaxSiteCount;
+
+	@Before
+	public void setUp() {
+		prevMaxSiteCount = CallSiteRegistry.getMaxSiteCount();
+	}
+
+	@After
+	public void tearDown() {
+		CallSiteRegistry.setMaxSiteCount(prevMaxSiteCount);
+	}
+
+	/** cap the registry at its current count: names registered by tests below are not registered, other tests are not affected */
+	private static int capAtCurrentCount() {
+		int siteCount = CallSiteRegistry.getSiteCount();
+		CallSiteRegistry.setMaxSiteCount(siteCount);
+		return siteCount;
+	}
+
+	@Test
+	public void testGetOrRegister() {
+		CallSite site = CallSiteRegistry.getOrRegister(CLASS_NAME, "registered");
+		Assert.assertSame(site, CallSiteRegistry.getOrRegister(CLASS_NAME, "registered"));
+		Assert.assertSame(site, CallSiteRegistry.getOrRegister(CLASS_NAME + ":registered"));
+		Assert.assertSame(site, CallSiteRegistry.find(CLASS_NAME + ":registered"));
+		Assert.assertSame(site, CallSiteRegistry.getById(site.getId()));
+		Assert.assertTrue(site.getId() < CallSiteRegistry.getSiteCount());
+		Assert.assertTrue(site.isRegistered());
+		Assert.assertSame(CallSiteRegistry.OVERFLOW_SITE, CallSiteRegistry.getOrRegister(AppCallTreeNode.OVERFLOW_CHILD_NAME));
+		Assert.assertNull(CallSiteRegistry.find(CLASS_NAME + ":neverRegistered"));
+	}
+
+	@Test
+	public void testMaxSiteCount() {
+		int siteCount = capAtCurrentCount();
+		for (int i = 0; i < 100; i++) {
+			CallSite site = CallSiteRegistry.getOrRegister(CLASS_NAME, "dynamic" + i);
+			// not registered, name kept, id of OVERFLOW_SITE
+			Assert.assertFalse(site.isRegistered());
+			Assert.assertEquals("dynamic" + i, site.getName());
+			Assert.assertEquals(CallSiteRegistry.OVERFLOW_SITE.getId(), site.getId());
+			Assert.assertSame(CallSiteRegistry.OVERFLOW_SITE, CallSiteRegistry.getById(site.getId()));
+		}
+		CallSite byDisplayName = CallSiteRegistry.getOrRegister(CLASS_NAME + ":dynamicByDisplayName");
+		Assert.assertFalse(byDisplayName.isRegistered());
+		Assert.assertEquals(CLASS_NAME, byDisplayName.getClassName());
+		Assert.assertEquals("dynamicByDisplayName", byDisplayName.getName());
+		Assert.assertEquals(siteCount, CallSiteRegistry.getSiteCount());
+		Assert.assertNull(CallSiteRegistry.find(CLASS_NAME + ":dynamic3"));
+		// already registered sites still resolved
+		Assert.assertSame(SITE_request, CallSiteRegistry.getOrRegister(CLASS_NAME, "request"));
+		Assert.assertTrue(CallSiteRegistry.OVERFLOW_SITE.isRegistered());
+	}
+
+	@Test
+	public void testOverflowedSiteCachedOnElement() {
+		capAtCurrentCount();
+		CallStack stack = new CallStack();
+		StackPopper popper = stack.curr().pusher(CLASS_NAME, "dynamicPushed").push();
+		try {
+			CallStackElt elt = stack.curr();
+			CallSite site = elt.getCallSite();
+			Assert.assertFalse(site.isRegistered());
+			Assert.assertEquals("dynamicPushed", site.getName());
+			Assert.assertSame(site, elt.getCallSite()); // resolved once per push
+			Assert.assertEquals(CallSiteRegistry.OVERFLOW_SITE.getId(), elt.getCallSiteId());
+		} finally {
+			popper.close();
+		}
+	}
+
+	@Test
+	public void testDynamicNamesFoldedInTreeDoNotGrowRegistry() {
+		int siteCount = capAtCurrentCount();
+		AppCallTree tree = new AppCallTree("test");
+		tree.setMaxChildCountPerNode(10);
+		CallStack stack = new CallStack();
+		stack.addCallStackListener(tree.createCallStackListener(stack));
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < 20000; i++) {
+				stack.curr().pusher(CLASS_NAME, "sql" + i).push().close();
+			}
+		}
+		Assert.assertEquals(siteCount, CallSiteRegistry.getSiteCount());
+
+		AppCallTreeNode root = tree.getRootNode();
+		Assert.assertEquals(11, root.getChildCount());
+		// names of the first children kept, distinct
+		Assert.assertEquals(CLASS_NAME + ":sql0", root.getFirstChild().getChildName());
+		Assert.assertEquals(2, root.getFirstChild().getTimeStats().getElapsedTimeStats().getCount());
+		AppCallTreeNode overflowChild = root.getOverflowChild();
+		Assert.assertNotNull(overflowChild);
+		Assert.assertSame(overflowChild, root.findChild(CallSiteRegistry.OVERFLOW_SITE));
+		Assert.assertEquals(2 * (20000 - 10), overflowChild.getTimeStats().getElapsedTimeStats().getCount());
+		// distinct names counted, not lookups
+		Assert.assertEquals(20000 - 10, root.getFoldedNameCount());
+		Assert.assertEquals(20000 - 10, tree.getFoldedNameCount());
+	}
+
+	@Test
+	public void testFoldedNameCountPerNode() {
+		capAtCurrentCount();
+		AppCallTree tree = new AppCallTree("test");
+		tree.setMaxChildCountPerNode(5);
+		CallStack stack = new CallStack();
+		stack.addCallStackListener(tree.createCallStackListener(stack));
+		for (int i = 0; i < 100; i++) {
+			StackPopper request = stack.curr().pusher(SITE_request).push();
+			try {
+				stack.curr().pusher(CLASS_NAME, "query" + (i % 50)).push().close();
+				stack.curr().pusher(CLASS_NAME, "other" + (i % 20)).push().close();
+			} finally {
+				request.close();
+			}
+			stack.curr().pusher(CLASS_NAME, "task" + (i % 8)).push().close();
+		}
+		AppCallTreeNode root = tree.getRootNode();
+		AppCallTreeNode requestNode = root.findChild(SITE_request);
+		Assert.assertEquals(6, requestNode.getChildCount()); // 5 + overflow
+		Assert.assertEquals(50 + 20 - 5, requestNode.getFoldedNameCount());
+		Assert.assertEquals(8 + 1 - 5, root.getFoldedNameCount());
+		Assert.assertEquals(65 + 4, tree.getFoldedNameCount());
+	}
+
+	@Test
+	public void testSiteAfterCapHasOwnNode() {
+		capAtCurrentCount();
+		CallSite lateSite1 = CallSiteRegistry.getOrRegister(CLASS_NAME, "registeredAfterCap1");
+		CallSite lateSite2 = CallSiteRegistry.getOrRegister(CLASS_NAME, "registeredAfterCap2");
+		AppCallTree tree = new AppCallTree("test");
+		CallStack stack = new CallStack();
+		stack.addCallStackListener(tree.createCallStackListener(stack));
+		stack.curr().pusher(lateSite1).push().close();
+		stack.curr().pusher(lateSite2).push().close();
+		stack.curr().pusher(lateSite1).push().close();
+
+		AppCallTreeNode root = tree.getRootNode();
+		Assert.assertEquals(2, root.getChildCount());
+		Assert.assertNull(root.getOverflowChild());
+		AppCallTreeNode node1 = root.findChild(lateSite1);
+		Assert.assertEquals(lateSite1.getDisplayName(), node1.getChildName());
+		Assert.assertEquals(2, node1.getTimeStats().getElapsedTimeStats().getCount());
+		Assert.assertEquals(lateSite2.getDisplayName(), root.findChild(lateSite2).getChildName());
+		Assert.assertNull(root.findChild(CallSiteRegistry.getOrRegister(CLASS_NAME, "notPushed")));
+	}
+
+}
@@ -0,0 +1,83 @@
+package org.perflogstacktrace4j.model;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.CallStackElt.ParamType;
+
+public class CallStackEltParamsTest {
+
+	private static final String CLASS_NAME = CallStackEltParamsTest.class.getName();
+
+	@Test
+	public void testPrimitiveParamsStoredUnboxed() {
+		CallStack stack = new CallStack();
+		StackPopper popper = stack.curr().pusher(CLASS_NAME, "prims")
+				.withParam("l", 123456789012L)
+				.withParam("i", 42)
+				.withParam("d", 1.5)
+				.withParam("b", true)
+				.withParam("o", "text")
+				.push();
+		CallStackElt elt = stack.curr();
+		Assert.assertEquals(5, elt.getParamCount());
+		Assert.assertEquals("l", elt.getParamName(0));
+		Assert.assertEquals(ParamType.LONG, elt.getParamType(0));
+		Assert.assertEquals(123456789012L, elt.getParamLongValue(0));
+		Assert.assertEquals(ParamType.INT, elt.getParamType(1));
+		Assert.assertEquals(42, elt.getParamLongValue(1));
+		Assert.assertEquals(ParamType.DOUBLE, elt.getParamType(2));
+		Assert.assertEquals(1.5, elt.getParamDoubleValue(2), 0.0);
+		Assert.assertEquals(ParamType.BOOLEAN, elt.getParamType(3));
+		Assert.assertTrue(elt.getParamBooleanValue(3));
+		Assert.assertEquals(ParamType.OBJECT, elt.getParamType(4));
+
+		Map<String,Object> params = elt.getParams();
+		Assert.assertEquals(123456789012L, params.get("l"));
+		Assert.assertEquals(42, params.get("i"));
+		Assert.assertEquals(1.5, params.get("d"));
+		Assert.assertEquals(Boolean.TRUE, params.get("b"));
+		Assert.assertEquals("text", params.get("o"));
+		Assert.assertSame(params, elt.getParams()); // materialized once
+		popper.close();
+	}
+
+	@Test
+	public void testParamOverwrittenAndSlotsGrown() {
+		CallStack stack = new CallStack();
+		StackPusher pusher = stack.curr().pusher(CLASS_NAME, "grow");
+		for (int i = 0; i < 10; i++) {
+			pusher.withParam("p" + i, i);
+		}
+		pusher.withParam("p3", "replaced");
+		StackPopper popper = pusher.push();
+		Map<String,Object> before = stack.curr().getParams();
+		popper.withParamValue("p9", 90L);
+		CallStackElt elt = stack.curr();
+		Assert.assertEquals(10, elt.getParamCount());
+		Assert.assertEquals("replaced", elt.getParams().get("p3"));
+		Assert.assertEquals(ParamType.LONG, elt.getParamType(9));
+		Assert.assertEquals(90L, elt.getParams().get("p9"));
+		Assert.assertEquals(9, before.get("p9")); // map view invalidated, not modified
+		popper.close();
+	}
+
+	@Test
+	public void testParamsClearedOnPop() {
+		CallStack stack = new CallStack();
+		stack.curr().pusher(CLASS_NAME, "first").withParam("a", 1).withParam("b", "x").withInheritableProp("prop", "v").push().close();
+		StackPopper popper = stack.curr().pusher(CLASS_NAME, "second").withParam("c", 2L).push();
+		CallStackElt elt = stack.curr(); // same element, re-used
+		Assert.assertEquals(1, elt.getParamCount());
+		Assert.assertEquals("c", elt.getParamName(0));
+		Assert.assertEquals(1, elt.getParams().size());
+		Assert.assertTrue(elt.getInheritableProps().isEmpty());
+		Assert.assertNull(elt.getInheritedProps().get("prop"));
+		popper.close();
+		stack.curr().pusher(CLASS_NAME, "third").push();
+		Assert.assertEquals(0, stack.curr().getParamCount());
+		Assert.assertTrue(stack.curr().getParams().isEmpty());
+	}
+
+}
@@ -0,0 +1,130 @@
+package org.perflogstacktrace4j.model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+public class CallStackEltPoolTest {
+
+	private static final int MAX_DEPTH = 40;
+	private static final CallSite[] SITES = new CallSite[MAX_DEPTH + 1];
+	static {
+		for (int i = 1; i <= MAX_DEPTH; i++) {
+			SITES[i] = CallSiteRegistry.getOrRegister(CallStackEltPoolTest.class.getName(), "level" + i);
+		}
+	}
+
+	@Rule
+	public Timeout timeout = Timeout.seconds(60);
+
+	@Before
+	public void setUp() {
+		CallStack.setMaxPooledEltCount(CallStackEltPool.DEFAULT_MAX_POOLED_COUNT); // empty pool
+	}
+
+	@After
+	public void tearDown() {
+		CallStack.setMaxPooledEltCount(CallStackEltPool.DEFAULT_MAX_POOLED_COUNT);
+	}
+
+	@Test
+	public void testDeepEltsPooledAndReused() {
+		CallStack stack1 = CallStack.createCompact();
+		CallStackElt[] elts1 = pushDeep(stack1, 20);
+		popAll(stack1, 20);
+		// grown 2, 4, 8, 16, 32: elements [4, 32) returned as chains of 4, 8 and 16 elements
+		Assert.assertEquals(4 + 8 + 16, CallStack.getPooledEltCount());
+
+		CallStack stack2 = CallStack.createCompact();
+		CallStackElt[] elts2 = pushDeep(stack2, 20);
+		Assert.assertEquals(0, CallStack.getPooledEltCount());
+		for (int i = 4; i <= 20; i++) {
+			Assert.assertSame(elts1[i], elts2[i]);
+		}
+		for (int i = 1; i < 4; i++) {
+			Assert.assertNotSame(elts1[i], elts2[i]); // retained by stack1
+		}
+		popAll(stack2, 20);
+		Assert.assertEquals(4 + 8 + 16, CallStack.getPooledEltCount());
+
+		// stack1 still usable, with its retained elements
+		CallStackElt[] elts1Again = pushDeep(stack1, 6);
+		for (int i = 1; i < 4; i++) {
+			Assert.assertSame(elts1[i], elts1Again[i]);
+		}
+		popAll(stack1, 6);
+	}
+
+	@Test
+	public void testNotPooledWhenDisabled() {
+		CallStack.setMaxPooledEltCount(0);
+		CallStack stack = CallStack.createCompact();
+		pushDeep(stack, 20);
+		popAll(stack, 20);
+		Assert.assertEquals(0, CallStack.getPooledEltCount());
+		pushDeep(stack, 20);
+		popAll(stack, 20);
+	}
+
+	@Test
+	public void testConcurrentStacks() throws InterruptedException {
+		final AtomicInteger errorCount = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int seed = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 2000; i++) {
+						CallStack stack = CallStack.createCompact();
+						int depth = 1 + (i * 7 + seed) % MAX_DEPTH;
+						try {
+							pushDeep(stack, depth);
+							popAll(stack, depth);
+						} catch (AssertionError ex) {
+							errorCount.incrementAndGet(); // element shared with another stack
+						}
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(0, errorCount.get());
+		int pooledCount = CallStack.getPooledEltCount();
+		Assert.assertTrue(pooledCount > 0 && pooledCount <= CallStackEltPool.DEFAULT_MAX_POOLED_COUNT);
+	}
+
+	/** @return pushed elements, by index, checked to be linked to the stack */
+	private static CallStackElt[] pushDeep(CallStack stack, int depth) {
+		CallStackElt[] res = new CallStackElt[depth + 1];
+		res[0] = stack.curr();
+		for (int i = 1; i <= depth; i++) {
+			stack.curr().pusher(SITES[i]).push();
+			CallStackElt elt = stack.curr();
+			Assert.assertEquals(i, elt.getStackEltIndex());
+			Assert.assertSame(res[i - 1], elt.getParentCallStackElt());
+			Assert.assertSame(SITES[i], elt.getCallSite());
+			res[i] = elt;
+		}
+		return res;
+	}
+
+	private static void popAll(CallStack stack, int depth) {
+		for (int i = depth; i >= 1; i--) {
+			CallStackElt elt = stack.curr();
+			Assert.assertEquals(i, elt.getStackEltIndex());
+			Assert.assertSame(SITES[i], elt.getCallSite());
+			elt.popper.close();
+		}
+		Assert.assertEquals(0, stack.curr().getStackEltIndex());
+	}
+
+}
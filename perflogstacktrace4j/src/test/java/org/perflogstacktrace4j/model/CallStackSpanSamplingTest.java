@@ -0,0 +1,69 @@
+package org.perflogstacktrace4j.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+
+public class CallStackSpanSamplingTest {
+
+	private static final String CLASS_NAME = CallStackSpanSamplingTest.class.getName();
+
+	@Test
+	public void testSampledLeafCountIsExact() {
+		CallSite leaf = CallSiteRegistry.getOrRegister(CLASS_NAME, "sampledLeaf");
+		leaf.setSpanSamplingRate(10);
+		AppCallTree tree = new AppCallTree("test");
+		CallStack stack = new CallStack();
+		stack.addCallStackListener(tree.createCallStackListener(stack));
+		for (int i = 0; i < 1000; i++) {
+			stack.curr().pusher(leaf).push().close();
+		}
+		Assert.assertEquals(1000, countOf(tree.getRootNode().getChildMap().get(leaf.getDisplayName())));
+	}
+
+	@Test
+	public void testChildOfSampledParentIsWeightedByParent() {
+		CallSite parent = CallSiteRegistry.getOrRegister(CLASS_NAME, "sampledParent");
+		CallSite child = CallSiteRegistry.getOrRegister(CLASS_NAME, "childOfSampledParent");
+		parent.setSpanSamplingRate(10);
+		AppCallTree tree = new AppCallTree("test");
+		CallStack stack = new CallStack();
+		stack.addCallStackListener(tree.createCallStackListener(stack));
+		for (int i = 0; i < 1000; i++) {
+			StackPopper parentPopper = stack.curr().pusher(parent).push();
+			stack.curr().pusher(child).push().close();
+			parentPopper.close();
+		}
+		AppCallTreeNode parentNode = tree.getRootNode().getChildMap().get(parent.getDisplayName());
+		Assert.assertEquals(1000, countOf(parentNode));
+		Assert.assertEquals(1000, countOf(parentNode.getChildMap().get(child.getDisplayName())));
+	}
+
+	@Test
+	public void testNestedSampledSitesMultiplyWeights() {
+		CallSite parent = CallSiteRegistry.getOrRegister(CLASS_NAME, "nestedSampledParent");
+		CallSite child = CallSiteRegistry.getOrRegister(CLASS_NAME, "nestedSampledChild");
+		parent.setSpanSamplingRate(5);
+		child.setSpanSamplingRate(4);
+		AppCallTree tree = new AppCallTree("test");
+		CallStack stack = new CallStack();
+		stack.addCallStackListener(tree.createCallStackListener(stack));
+		for (int i = 0; i < 1000; i++) {
+			StackPopper parentPopper = stack.curr().pusher(parent).push();
+			for (int j = 0; j < 2; j++) {
+				stack.curr().pusher(child).push().close();
+			}
+			parentPopper.close();
+		}
+		AppCallTreeNode parentNode = tree.getRootNode().getChildMap().get(parent.getDisplayName());
+		Assert.assertEquals(1000, countOf(parentNode));
+		Assert.assertEquals(2000, countOf(parentNode.getChildMap().get(child.getDisplayName())));
+	}
+
+	private static int countOf(AppCallTreeNode node) {
+		Assert.assertNotNull(node);
+		return node.getTimeStats().getElapsedTimeStats().getCount();
+	}
+
+}
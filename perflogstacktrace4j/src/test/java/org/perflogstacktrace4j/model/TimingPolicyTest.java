@@ -0,0 +1,105 @@
+package org.perflogstacktrace4j.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.stats.PerfTimeStats;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.utils.ThreadTimeUtils;
+
+public class TimingPolicyTest {
+
+	private static final String CLASS_NAME = TimingPolicyTest.class.getName();
+
+	private static PerfTimeStats pushPop(TimingPolicy policy, String name, int count) {
+		AppCallTree tree = new AppCallTree("test");
+		CallStack stack = new CallStack();
+		stack.addCallStackListener(tree.createCallStackListener(stack));
+		CallSite site = CallSiteRegistry.getOrRegister(CLASS_NAME, name);
+		for (int i = 0; i < count; i++) {
+			stack.curr().pusher(site).withTimingPolicy(policy).push().close();
+		}
+		return tree.getRootNode().getChildMap().get(site.getDisplayName()).getTimeStats();
+	}
+
+	@Test
+	public void testWallOnly() {
+		PerfTimeStats stats = pushPop(TimingPolicy.wallOnly(), "wallOnly", 10);
+		Assert.assertEquals(10, stats.getElapsedTimeStats().getCount());
+		Assert.assertEquals(0, stats.getThreadCpuTimeStats().getCount());
+		Assert.assertEquals(0, stats.getThreadUserTimeStats().getCount());
+		Assert.assertTrue(stats.hasTimingMode(TimingMode.WALL_ONLY));
+		Assert.assertFalse(stats.hasTimingMode(TimingMode.WALL_AND_CPU));
+	}
+
+	@Test
+	public void testWallAndCpu() {
+		PerfTimeStats stats = pushPop(TimingPolicy.wallAndCpu(), "wallAndCpu", 10);
+		Assert.assertEquals(10, stats.getElapsedTimeStats().getCount());
+		Assert.assertEquals(10, stats.getThreadCpuTimeStats().getCount());
+		Assert.assertTrue(stats.hasTimingMode(TimingMode.WALL_AND_CPU));
+	}
+
+	@Test
+	public void testSampledCpu() {
+		TimingPolicy policy = TimingPolicy.sampledCpu(4);
+		Assert.assertEquals(TimingMode.WALL_AND_SAMPLED_CPU, policy.getMode());
+		Assert.assertSame(TimingPolicy.wallAndCpu(), TimingPolicy.sampledCpu(1));
+		PerfTimeStats stats = pushPop(policy, "sampledCpu", 100);
+		Assert.assertEquals(100, stats.getElapsedTimeStats().getCount());
+		Assert.assertEquals(25, stats.getThreadCpuTimeStats().getCount());
+		Assert.assertEquals(25, stats.getThreadUserTimeStats().getCount());
+		Assert.assertTrue(stats.hasTimingMode(TimingMode.WALL_AND_SAMPLED_CPU));
+	}
+
+	@Test
+	public void testRootCpu() {
+		AppCallTree tree = new AppCallTree("test");
+		CallStack stack = new CallStack();
+		stack.addCallStackListener(tree.createCallStackListener(stack));
+		CallSite root = CallSiteRegistry.getOrRegister(CLASS_NAME, "rootCpuRoot");
+		CallSite child = CallSiteRegistry.getOrRegister(CLASS_NAME, "rootCpuChild");
+		for (int i = 0; i < 10; i++) {
+			StackPopper parent = stack.curr().pusher(root).withTimingPolicy(TimingPolicy.rootCpu()).push();
+			Assert.assertTrue(stack.curr().isCpuTimeMeasured());
+			StackPopper childPopper = stack.curr().pusher(child).withTimingPolicy(TimingPolicy.rootCpu()).push();
+			Assert.assertFalse(stack.curr().isCpuTimeMeasured());
+			childPopper.close();
+			parent.close();
+		}
+		PerfTimeStats rootStats = tree.getRootNode().getChildMap().get(root.getDisplayName()).getTimeStats();
+		Assert.assertEquals(10, rootStats.getThreadCpuTimeStats().getCount());
+		Assert.assertEquals(0, tree.getRootNode().getChildMap().get(root.getDisplayName()).getChildMap().get(child.getDisplayName()).getTimeStats().getThreadCpuTimeStats().getCount());
+	}
+
+	@Test
+	public void testCoarseWall() throws InterruptedException {
+		TimingPolicy policy = TimingPolicy.coarseWall();
+		Assert.assertEquals(TimingMode.COARSE_WALL, policy.getMode());
+		long t0 = ThreadTimeUtils.getCoarseTime();
+		Thread.sleep(50);
+		Assert.assertTrue(ThreadTimeUtils.getCoarseTime() > t0); // updated by background ticker
+
+		PerfTimeStats stats = pushPop(policy, "coarseWall", 10);
+		Assert.assertEquals(10, stats.getElapsedTimeStats().getCount());
+		Assert.assertEquals(0, stats.getThreadCpuTimeStats().getCount());
+		Assert.assertTrue(stats.hasTimingMode(TimingMode.COARSE_WALL));
+	}
+
+	@Test
+	public void testCoarseClockTickerStopAndRestart() throws InterruptedException {
+		ThreadTimeUtils.startCoarseClockTicker();
+		Assert.assertTrue(ThreadTimeUtils.isCoarseClockTickerStarted());
+		Assert.assertTrue(ThreadTimeUtils.stopCoarseClockTicker());
+		Assert.assertFalse(ThreadTimeUtils.isCoarseClockTickerStarted());
+		Assert.assertFalse(ThreadTimeUtils.stopCoarseClockTicker());
+		long stoppedTime = ThreadTimeUtils.getCoarseTime();
+		Thread.sleep(20);
+		Assert.assertEquals(stoppedTime, ThreadTimeUtils.getCoarseTime());
+
+		TimingPolicy.coarseWall(); // restarts ticker
+		Assert.assertTrue(ThreadTimeUtils.isCoarseClockTickerStarted());
+		Thread.sleep(20);
+		Assert.assertTrue(ThreadTimeUtils.getCoarseTime() > stoppedTime);
+	}
+
+}
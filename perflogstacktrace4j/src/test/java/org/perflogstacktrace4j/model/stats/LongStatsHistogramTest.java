@@ -0,0 +1,145 @@
+package org.perflogstacktrace4j.model.stats;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.dto.stats.CumulatedLongStatsHistogramDTO;
+
+public class LongStatsHistogramTest {
+
+	private static final long MICROS = 1000L;
+
+	@Test
+	public void testCountSumMinMax() {
+		LongStatsHistogram h = new LongStatsHistogram();
+		h.incr(10 * MICROS);
+		h.incr(20 * MICROS, 3);
+		Assert.assertEquals(4, h.getCount());
+		Assert.assertEquals(70 * MICROS, h.getSum());
+		Assert.assertEquals(10 * MICROS, h.getMinValue());
+		Assert.assertEquals(20 * MICROS, h.getMaxValue());
+	}
+
+	@Test
+	public void testPercentilesWithinRelativeError() {
+		LongStatsHistogram h = new LongStatsHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			h.incr(i * MICROS);
+		}
+		assertWithinRelativeError(500 * MICROS, h.getP50());
+		assertWithinRelativeError(990 * MICROS, h.getP99());
+		Assert.assertEquals(1000 * MICROS, h.getValueAtPercentile(100.0));
+		Assert.assertEquals(0, new LongStatsHistogram().getP50());
+	}
+
+	@Test
+	public void testStripedCountsMatch() {
+		LongStatsHistogram h = new LongStatsHistogram();
+		h.enableStriping(4);
+		for (int i = 1; i <= 100; i++) {
+			h.incr(i * MICROS);
+		}
+		Assert.assertEquals(100, h.getCount());
+		Assert.assertEquals(5050 * MICROS, h.getSum());
+		assertWithinRelativeError(50 * MICROS, h.getP50());
+	}
+
+	@Test
+	public void testIncrRebucketsOtherLayout() {
+		LongStatsHistogram src = new LongStatsHistogram(new LongStatsHistogramLayout(0, 2, 40));
+		src.incr(100 * MICROS, 5);
+		LongStatsHistogram dest = new LongStatsHistogram();
+		dest.incr(src);
+		Assert.assertEquals(5, dest.getCount());
+		Assert.assertEquals(500 * MICROS, dest.getSum());
+		Assert.assertEquals(100 * MICROS, dest.getMaxValue());
+	}
+
+	@Test
+	public void testCumulatedDTO() {
+		LongStatsHistogram h = new LongStatsHistogram();
+		for (int i = 1; i <= 100; i++) {
+			h.incr(i * MICROS);
+		}
+		CumulatedLongStatsHistogramDTO dto = new CumulatedLongStatsHistogramDTO(h);
+		Assert.assertEquals(100, dto.totalCount());
+		Assert.assertEquals(h.getP90(), dto.getP90());
+		dto.incr(h);
+		Assert.assertEquals(200, dto.totalCount());
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testDeprecatedSlotSumsAreEstimated() {
+		LongStatsHistogram h = new LongStatsHistogram();
+		h.incr(100 * MICROS, 10);
+		int index = h.getLayout().valueToSlotIndex(100 * MICROS);
+		Assert.assertEquals(index, LongStatsHistogram.valueToSlotIndex(100 * MICROS));
+		assertWithinRelativeError(1000 * MICROS, h.getSum(index));
+		assertWithinRelativeError(100 * MICROS, (long) h.getSlotInfoCopyAt(index).average());
+		CumulatedLongStatsHistogramDTO dto = new CumulatedLongStatsHistogramDTO(h);
+		long[] cumulatedSums = dto.getCumulatedSumSlots();
+		Assert.assertEquals(dto.cumulatedSumAt(cumulatedSums.length - 1), cumulatedSums[cumulatedSums.length - 1]);
+		assertWithinRelativeError(1, cumulatedSums[cumulatedSums.length - 1]); // 1000 micros = 1 ms
+	}
+
+	@Test
+	public void testStripedConcurrentIncrNotLost() throws InterruptedException {
+		final LongStatsHistogram h = new LongStatsHistogram();
+		h.incr(1000 * MICROS); // counted before switch, kept
+		h.enableStriping(4);
+		Assert.assertTrue(h.isStriped());
+		h.enableStriping(8); // one-way switch, no-op
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 1; i <= 10000; i++) {
+						h.incr(i % 10 + 1, 2);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(1 + 4 * 20000, h.getCount());
+		Assert.assertEquals(1000 * MICROS + 4 * 2 * 1000 * 55, h.getSum());
+		Assert.assertEquals(1, h.getMinValue());
+		Assert.assertEquals(1000 * MICROS, h.getMaxValue());
+		long slotCountSum = 0;
+		for (int i = 0; i < h.getSlotLen(); i++) {
+			slotCountSum += h.getCount(i);
+		}
+		Assert.assertEquals(h.getCount(), slotCountSum); // merged from cells
+
+		LongStatsHistogram copy = new LongStatsHistogram(h);
+		Assert.assertEquals(h.getCount(), copy.getCount());
+		Assert.assertEquals(h.getSum(), copy.getSum());
+		h.clear();
+		Assert.assertEquals(0, h.getCount());
+		Assert.assertEquals(0, h.getSum());
+	}
+
+	@Test
+	public void testStripedPerfTimeStats() {
+		PerfTimeStats stats = new PerfTimeStats();
+		stats.enableStriping(2);
+		Assert.assertTrue(stats.isStriped());
+		Assert.assertTrue(stats.getThreadCpuTimeStats().isStriped());
+		stats.incr(10 * MICROS, 2 * MICROS, 3 * MICROS);
+		PerfTimeStats sum = new PerfTimeStats();
+		sum.incr(stats);
+		sum.incr(stats);
+		Assert.assertEquals(2, sum.getElapsedTimeStats().getCount());
+		Assert.assertEquals(20 * MICROS, sum.getElapsedTimeStats().getSum());
+		Assert.assertEquals(6 * MICROS, sum.getThreadCpuTimeStats().getSum());
+		Assert.assertFalse(sum.isStriped());
+	}
+
+	private static void assertWithinRelativeError(long expected, long actual) {
+		Assert.assertTrue("expected ~" + expected + ", got " + actual, Math.abs(actual - expected) <= expected * 0.125 + 1);
+	}
+
+}
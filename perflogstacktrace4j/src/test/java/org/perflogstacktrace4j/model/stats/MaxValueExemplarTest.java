@@ -0,0 +1,106 @@
+package org.perflogstacktrace4j.model.stats;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.CallStackElt;
+import org.perflogstacktrace4j.model.StackPopper;
+
+public class MaxValueExemplarTest {
+
+	private static final String CLASS_NAME = MaxValueExemplarTest.class.getName();
+	private static final CallSite SITE_request = CallSiteRegistry.getOrRegister(CLASS_NAME, "request");
+	private static final CallSite SITE_query = CallSiteRegistry.getOrRegister(CLASS_NAME, "query");
+
+	@After
+	public void restoreDefaults() {
+		LongStatsHistogram.setMaxValueExemplarMinIntervalMillis(1000);
+		LongStatsHistogram.setMaxValueExemplarJavaStackEnabled(false);
+	}
+
+	@Test
+	public void testCapturedOnNewMax() {
+		LongStatsHistogram.setMaxValueExemplarMinIntervalMillis(0);
+		CallStack stack = new CallStack();
+		StackPopper request = stack.curr().pusher(SITE_request).push();
+		StackPopper query = stack.curr().pusher(SITE_query)
+				.withParam("sql", "select 1")
+				.withParam("rows", 10L)
+				.push();
+		CallStackElt elt = stack.curr();
+		LongStatsHistogram h = new LongStatsHistogram();
+		h.incr(100, 1, null);
+		Assert.assertNull(h.getMaxValueExemplar());
+		Assert.assertNull(h.getStackReachingMaxValue());
+
+		h.incr(200, 1, elt);
+		MaxValueExemplar exemplar = h.getMaxValueExemplar();
+		Assert.assertNotNull(exemplar);
+		Assert.assertEquals(200, exemplar.getValue());
+		Assert.assertArrayEquals(new int[] { SITE_request.getId(), SITE_query.getId() }, exemplar.getCallSiteIdPath());
+		Assert.assertEquals("/" + SITE_request.getDisplayName() + "/" + SITE_query.getDisplayName(), exemplar.getPathString());
+		Assert.assertEquals(2, exemplar.getParamCount());
+		Assert.assertEquals("sql", exemplar.getParamName(0));
+		Assert.assertEquals("select 1", exemplar.getParamValue(0));
+		Assert.assertEquals("10", exemplar.getParamValue(1));
+		Assert.assertFalse(exemplar.hasJavaStack());
+		Assert.assertNull(exemplar.getJavaStackTrace());
+		Assert.assertTrue(h.getStackReachingMaxValue().contains("{sql:select 1, rows:10} value:200"));
+
+		h.incr(150, 1, elt); // not a new max
+		Assert.assertSame(exemplar, h.getMaxValueExemplar());
+
+		h.clear();
+		Assert.assertNull(h.getMaxValueExemplar());
+		query.close();
+		request.close();
+	}
+
+	@Test
+	public void testCaptureRateLimited() {
+		LongStatsHistogram.setMaxValueExemplarMinIntervalMillis(60000);
+		CallStack stack = new CallStack();
+		StackPopper popper = stack.curr().pusher(SITE_request).push();
+		LongStatsHistogram h = new LongStatsHistogram();
+		h.incr(100, 1, stack.curr());
+		MaxValueExemplar first = h.getMaxValueExemplar();
+		Assert.assertEquals(100, first.getValue());
+		h.incr(200, 1, stack.curr());
+		Assert.assertEquals(200, h.getMaxValue());
+		Assert.assertSame(first, h.getMaxValueExemplar()); // may correspond to a previous max
+		popper.close();
+	}
+
+	@Test
+	public void testJavaStackOptional() {
+		LongStatsHistogram.setMaxValueExemplarMinIntervalMillis(0);
+		LongStatsHistogram.setMaxValueExemplarJavaStackEnabled(true);
+		CallStack stack = new CallStack();
+		StackPopper popper = stack.curr().pusher(SITE_request).push();
+		LongStatsHistogram h = new LongStatsHistogram();
+		h.incr(100, 1, stack.curr());
+		MaxValueExemplar exemplar = h.getMaxValueExemplar();
+		Assert.assertTrue(exemplar.hasJavaStack());
+		String javaStack = exemplar.getJavaStackTrace();
+		Assert.assertTrue(javaStack, javaStack.contains(MaxValueExemplarTest.class.getName() + ".testJavaStackOptional"));
+		popper.close();
+	}
+
+	@Test
+	public void testParamsTruncated() {
+		LongStatsHistogram.setMaxValueExemplarMinIntervalMillis(0);
+		CallStack stack = new CallStack();
+		StackPopper popper = stack.curr().pusher(SITE_request)
+				.withParam("p0", 0).withParam("p1", 1).withParam("p2", 2)
+				.withParam("p3", 3).withParam("p4", 4).withParam("p5", 5)
+				.push();
+		LongStatsHistogram h = new LongStatsHistogram();
+		h.incr(100, 1, stack.curr());
+		Assert.assertEquals(MaxValueExemplar.MAX_PARAMS, h.getMaxValueExemplar().getParamCount());
+		popper.close();
+	}
+
+}
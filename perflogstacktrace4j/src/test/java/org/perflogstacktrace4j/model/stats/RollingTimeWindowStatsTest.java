@@ -0,0 +1,96 @@
+package org.perflogstacktrace4j.model.stats;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.tree.AppCallTree;
+import org.perflogstacktrace4j.model.tree.AppCallTreeNode;
+
+public class RollingTimeWindowStatsTest {
+
+	private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void testRingRotation() {
+		RollingWindowHistogram ring = new RollingWindowHistogram(10, SECOND_NANOS);
+		long t0 = 1000 * SECOND_NANOS;
+		for (int i = 0; i < 20; i++) {
+			ring.incr(t0 + i * SECOND_NANOS, 1000 * (i + 1), 1);
+		}
+		LongStatsHistogram last5s = new LongStatsHistogram(ring.getLayout());
+		long now = t0 + 19 * SECOND_NANOS;
+		ring.mergeLastTo(last5s, now, 5 * SECOND_NANOS);
+		Assert.assertEquals(5, last5s.getCount());
+		Assert.assertEquals(20000, last5s.getMaxValue());
+
+		// older than the ring: ignored
+		ring.incr(t0, 1, 1);
+		LongStatsHistogram all = new LongStatsHistogram(ring.getLayout());
+		ring.mergeLastTo(all, now, 60 * SECOND_NANOS);
+		Assert.assertEquals(10, all.getCount());
+		Assert.assertEquals(11000, all.getMinValue());
+	}
+
+	@Test
+	public void testConcurrentRotationNotLost() throws InterruptedException {
+		final RollingWindowHistogram ring = new RollingWindowHistogram(10, SECOND_NANOS);
+		final int epochCount = 100, valuesPerEpoch = 50;
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					// buckets are reset in place by the first writer of each epoch, possibly while others still write
+					for (int e = 0; e < epochCount; e++) {
+						for (int v = 1; v <= valuesPerEpoch; v++) {
+							ring.incr(e * SECOND_NANOS + v, 1000, 1);
+						}
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join(30000);
+		}
+		LongStatsHistogram last = new LongStatsHistogram(ring.getLayout());
+		ring.mergeLastTo(last, epochCount * SECOND_NANOS - 1, 10 * SECOND_NANOS);
+		Assert.assertEquals(threads.length * valuesPerEpoch * 10, last.getCount());
+		Assert.assertEquals(threads.length * valuesPerEpoch * 10 * 1000L, last.getSum());
+
+		ring.clear();
+		last.clear();
+		ring.mergeLastTo(last, epochCount * SECOND_NANOS - 1, 10 * SECOND_NANOS);
+		Assert.assertEquals(0, last.getCount());
+		ring.incr(0, 1000, 1); // after clear, any epoch is accepted
+		ring.mergeLastTo(last, 0, SECOND_NANOS);
+		Assert.assertEquals(1, last.getCount());
+	}
+
+	@Test
+	public void testPoppedEltsRecordedWithoutExemplars() {
+		CallSite site = CallSiteRegistry.getOrRegister(RollingTimeWindowStatsTest.class.getName(), "rolling");
+		AppCallTree tree = new AppCallTree("test");
+		AppCallTreeNode node = tree.getRootNode().findOrCreateChild(site);
+		node.enableRollingTimeWindows();
+		CallStack stack = new CallStack();
+		stack.addCallStackListener(tree.createCallStackListener(stack));
+		for (int i = 0; i < 100; i++) {
+			stack.curr().pusher(site).push().close();
+		}
+
+		Assert.assertEquals(100, node.getTimeStats().getElapsedTimeStats().getCount());
+		Assert.assertNotNull(node.getTimeStats().getElapsedTimeStats().getMaxValueExemplar());
+
+		RollingTimeWindowStats windows = node.getRollingTimeWindows();
+		for (RollingWindowSnapshot snapshot : new RollingWindowSnapshot[] { windows.getLastMinute(), windows.getLast15Minutes() }) {
+			Assert.assertEquals(100, snapshot.getCount());
+			Assert.assertNull(snapshot.getHistogram().getMaxValueExemplar());
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package org.perflogstacktrace4j.model.tree;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.StackPopper;
+
+public class AppCallTreeCallStackListenerTest {
+
+    private static final String CLASS_NAME = AppCallTreeCallStackListenerTest.class.getName();
+    private static final CallSite SITE_a = CallSiteRegistry.getOrRegister(CLASS_NAME, "a");
+    private static final CallSite SITE_b = CallSiteRegistry.getOrRegister(CLASS_NAME, "b");
+
+    @Test
+    public void testNestedPushPopAggregated() {
+        AppCallTree tree = new AppCallTree("test");
+        CallStack stack = new CallStack();
+        AppCallTreeCallStackListener listener = tree.createCallStackListener(stack);
+        stack.addCallStackListener(listener);
+        for (int i = 0; i < 10; i++) {
+            StackPopper a = stack.curr().pusher(SITE_a).push();
+            stack.curr().pusher(SITE_b).push().close();
+            stack.curr().pusher(SITE_b).push().close();
+            a.close();
+        }
+        stack.curr().pusher(SITE_b).push().close();
+
+        AppCallTreeNode root = tree.getRootNode();
+        Assert.assertEquals(2, root.getChildMap().size());
+        AppCallTreeNode a = root.getChildMap().get(SITE_a.getDisplayName());
+        Assert.assertEquals(10, a.getTimeStats().getElapsedTimeStats().getCount());
+        Assert.assertEquals(1, a.getChildMap().size());
+        AppCallTreeNode ab = a.getChildMap().get(SITE_b.getDisplayName());
+        Assert.assertEquals(20, ab.getTimeStats().getElapsedTimeStats().getCount());
+        Assert.assertEquals(1, root.getChildMap().get(SITE_b.getDisplayName()).getTimeStats().getElapsedTimeStats().getCount());
+        Assert.assertTrue(a.getTimeStats().getElapsedTimeStats().getSum() >= ab.getTimeStats().getElapsedTimeStats().getSum());
+        Assert.assertEquals(3, tree.getNodeCount());
+    }
+
+    @Test
+    public void testPendingWhilePushed() {
+        AppCallTree tree = new AppCallTree("test");
+        CallStack stack = new CallStack();
+        AppCallTreeCallStackListener listener = tree.createCallStackListener(stack);
+        stack.addCallStackListener(listener);
+        StackPopper a = stack.curr().pusher(SITE_a).push();
+        StackPopper b = stack.curr().pusher(SITE_b).push();
+        AppCallTreeNode nodeA = tree.getRootNode().getChildMap().get(SITE_a.getDisplayName());
+        AppCallTreeNode nodeB = nodeA.getChildMap().get(SITE_b.getDisplayName());
+        Assert.assertSame(nodeA, listener.getNodeAt(1));
+        Assert.assertSame(nodeB, listener.getNodeAt(2));
+        Assert.assertEquals(1, nodeA.getTimeStats().getPendingCount());
+        Assert.assertEquals(1, nodeB.getTimeStats().getPendingCount());
+        Assert.assertEquals(0, nodeB.getTimeStats().getElapsedTimeStats().getCount());
+        b.close();
+        Assert.assertEquals(0, nodeB.getTimeStats().getPendingCount());
+        Assert.assertEquals(1, nodeB.getTimeStats().getElapsedTimeStats().getCount());
+        a.close();
+        Assert.assertEquals(0, nodeA.getTimeStats().getPendingCount());
+    }
+
+    @Test
+    public void testEltsPushedBeforeAttachIgnored() {
+        AppCallTree tree = new AppCallTree("test");
+        CallStack stack = new CallStack();
+        StackPopper a = stack.curr().pusher(SITE_a).push();
+        stack.addCallStackListener(tree.createCallStackListener(stack));
+        stack.curr().pusher(SITE_b).push().close();
+        a.close();
+        Assert.assertEquals(0, tree.getRootNode().getChildMap().size());
+
+        stack.curr().pusher(SITE_a).push().close();
+        Assert.assertEquals(1, tree.getRootNode().getChildMap().get(SITE_a.getDisplayName()).getTimeStats().getElapsedTimeStats().getCount());
+    }
+
+}
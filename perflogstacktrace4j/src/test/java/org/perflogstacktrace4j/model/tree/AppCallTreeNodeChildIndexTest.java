@@ -0,0 +1,107 @@
+package org.perflogstacktrace4j.model.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+
+public class AppCallTreeNodeChildIndexTest {
+
+    private static final String CLASS_NAME = AppCallTreeNodeChildIndexTest.class.getName();
+
+    @Test
+    public void testFindOrCreate() {
+        AppCallTreeNodeChildIndex index = new AppCallTreeNodeChildIndex();
+        AppCallTreeNode parent = new AppCallTreeNode(null, "");
+        AppCallTreeCardinalityLimits limits = new AppCallTreeCardinalityLimits();
+        List<CallSite> callSites = callSites("seq", 100);
+        for (CallSite callSite : callSites) {
+            Assert.assertNull(index.find(callSite));
+            AppCallTreeNode child = index.findOrCreate(parent, callSite, limits);
+            Assert.assertSame(callSite, child.getCallSite());
+            Assert.assertSame(child, index.findOrCreate(parent, callSite, limits));
+        }
+        for (CallSite callSite : callSites) {
+            Assert.assertSame(callSite, index.find(callSite).getCallSite());
+        }
+        Assert.assertEquals(100, index.getChildCount());
+        Assert.assertEquals(100 - 8, index.getTableCount());
+        // siblings in insertion order
+        int i = 0;
+        for (AppCallTreeNode child = index.getFirstChild(); child != null; child = child.getNextSibling()) {
+            Assert.assertSame(callSites.get(i++), child.getCallSite());
+        }
+        Assert.assertEquals(100, i);
+    }
+
+    @Test
+    public void testConcurrentInsertsOfSameCallSites() throws Exception {
+        final int threadCount = 4;
+        final int siteCount = 2000;
+        final List<CallSite> callSites = callSites("concurrent", siteCount);
+        for (int round = 0; round < 20; round++) {
+            final AppCallTreeNodeChildIndex index = new AppCallTreeNodeChildIndex();
+            final AppCallTreeNode parent = new AppCallTreeNode(null, "");
+            final AppCallTreeCardinalityLimits limits = new AppCallTreeCardinalityLimits();
+            final CountDownLatch startLatch = new CountDownLatch(1);
+            final List<List<AppCallTreeNode>> resultsByThread = new ArrayList<List<AppCallTreeNode>>();
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int t = 0; t < threadCount; t++) {
+                final List<CallSite> shuffled = new ArrayList<CallSite>(callSites);
+                Collections.shuffle(shuffled, new Random(round * 31 + t));
+                final List<AppCallTreeNode> results = new ArrayList<AppCallTreeNode>();
+                resultsByThread.add(results);
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            startLatch.await();
+                        } catch (InterruptedException ex) {
+                            return;
+                        }
+                        for (CallSite callSite : shuffled) {
+                            results.add(index.findOrCreate(parent, callSite, limits));
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            startLatch.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            Assert.assertEquals(siteCount, index.getChildCount());
+            Assert.assertEquals(siteCount - 8, index.getTableCount());
+            Assert.assertEquals(siteCount, limits.getNodeCount());
+            IdentityHashMap<AppCallTreeNode, Boolean> siblings = new IdentityHashMap<AppCallTreeNode, Boolean>();
+            for (AppCallTreeNode child = index.getFirstChild(); child != null; child = child.getNextSibling()) {
+                siblings.put(child, Boolean.TRUE);
+            }
+            Assert.assertEquals(siteCount, siblings.size());
+            for (List<AppCallTreeNode> results : resultsByThread) {
+                for (AppCallTreeNode node : results) {
+                    Assert.assertTrue("all threads see the same node", siblings.containsKey(node));
+                    Assert.assertSame(node, index.find(node.getCallSite()));
+                }
+            }
+        }
+    }
+
+    private static List<CallSite> callSites(String prefix, int count) {
+        List<CallSite> res = new ArrayList<CallSite>();
+        for (int i = 0; i < count; i++) {
+            res.add(CallSiteRegistry.getOrRegister(CLASS_NAME, prefix + i));
+        }
+        return res;
+    }
+
+}
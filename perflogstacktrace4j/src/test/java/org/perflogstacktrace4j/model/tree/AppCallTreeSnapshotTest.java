@@ -0,0 +1,116 @@
+package org.perflogstacktrace4j.model.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.perflogstacktrace4j.dto.tree.AppCallTreeDTO;
+import org.perflogstacktrace4j.dto.tree.AppCallTreeNodeDTO;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+
+public class AppCallTreeSnapshotTest {
+
+    private static final String CLASS_NAME = AppCallTreeSnapshotTest.class.getName();
+
+    @Test
+    public void testSnapshotAndResetLosesNoConcurrentIncrement() throws Exception {
+        AppCallTree tree = new AppCallTree("test");
+        final AppCallTreeNode node = tree.getRootNode().findOrCreateChild(CallSiteRegistry.getOrRegister(CLASS_NAME, "hot"));
+        final AtomicBoolean stop = new AtomicBoolean();
+        final int threadCount = 3;
+        final long[] recordedCounts = new long[threadCount];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; t++) {
+            final int index = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!stop.get()) {
+                        node.incrTimeStats(1000, 0, 0);
+                        recordedCounts[index]++;
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        long snapshotCount = 0;
+        for (int i = 0; i < 200; i++) {
+            snapshotCount += countOf(tree.snapshotAndReset(), "hot");
+            Thread.yield();
+        }
+        stop.set(true);
+        long recordedCount = 0;
+        for (int t = 0; t < threadCount; t++) {
+            threads.get(t).join();
+            recordedCount += recordedCounts[t];
+        }
+        snapshotCount += countOf(tree.snapshotAndReset(), "hot");
+        Assert.assertEquals(recordedCount, snapshotCount);
+    }
+
+    @Test
+    public void testSubTreeSnapshotKeepsOtherNodesStats() {
+        AppCallTree tree = new AppCallTree("test");
+        AppCallTreeNode root = tree.getRootNode();
+        AppCallTreeNode a = root.findOrCreateChild(CallSiteRegistry.getOrRegister(CLASS_NAME, "a"));
+        AppCallTreeNode b = root.findOrCreateChild(CallSiteRegistry.getOrRegister(CLASS_NAME, "b"));
+        a.incrTimeStats(1000, 0, 0);
+        b.incrTimeStats(1000, 0, 0);
+
+        AppCallTreeNodeDTO aDTO = new AppCallTreeNodeDTO("a");
+        a.snapshotAndResetTo(aDTO);
+        Assert.assertEquals(1, aDTO.getCount());
+        Assert.assertEquals(0, a.getTimeStats().getElapsedTimeStats().getCount());
+        Assert.assertEquals(1, b.getTimeStats().getElapsedTimeStats().getCount());
+
+        a.incrTimeStats(1000, 0, 0);
+        b.incrTimeStats(1000, 0, 0);
+        AppCallTreeDTO dto = tree.snapshotAndReset();
+        Assert.assertEquals(1, countOf(dto, "a"));
+        // b was not snapshotted by the sub-tree snapshot: both intervals are reported, once
+        Assert.assertEquals(2, countOf(dto, "b"));
+        Assert.assertEquals(0, countOf(tree.snapshotAndReset(), "b"));
+    }
+
+    @Test
+    public void testDeepTreeSnapshotIsIterative() {
+        AppCallTree tree = new AppCallTree("test");
+        CallSite callSite = CallSiteRegistry.getOrRegister(CLASS_NAME, "deep");
+        int depth = 50000;
+        AppCallTreeNode node = tree.getRootNode();
+        for (int i = 0; i < depth; i++) {
+            node = node.findOrCreateChild(callSite);
+        }
+        node.incrTimeStats(1000, 0, 0);
+
+        AppCallTreeNodeDTO dtoNode = tree.snapshotAndReset().getRootNode();
+        for (int i = 0; i < depth; i++) {
+            Assert.assertEquals(1, dtoNode.getChildCount());
+            dtoNode = dtoNode.getChildList().iterator().next();
+        }
+        Assert.assertEquals(1, dtoNode.getCount());
+
+        AppCallTreeNode dest = new AppCallTreeNode(null, "");
+        node.incrTimeStats(1000, 0, 0);
+        tree.getRootNode().clearAndCopyTo(dest);
+        AppCallTreeNode destNode = dest;
+        for (int i = 0; i < depth; i++) {
+            destNode = destNode.findChild(callSite);
+        }
+        Assert.assertEquals(1, destNode.getTimeStats().getElapsedTimeStats().getCount());
+    }
+
+    private static long countOf(AppCallTreeDTO dto, String name) {
+        for (AppCallTreeNodeDTO child : dto.getRootNode().getChildList()) {
+            if (child.getName().endsWith(":" + name)) {
+                return child.getCount();
+            }
+        }
+        return 0;
+    }
+
+}
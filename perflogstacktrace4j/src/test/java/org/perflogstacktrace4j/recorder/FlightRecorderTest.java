@@ -0,0 +1,144 @@
+package org.perflogstacktrace4j.recorder;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.perflogstacktrace4j.model.CallSite;
+import org.perflogstacktrace4j.model.CallSiteRegistry;
+import org.perflogstacktrace4j.model.CallStack;
+import org.perflogstacktrace4j.model.StackPopper;
+import org.perflogstacktrace4j.recorder.FlightRecordEvent.Type;
+
+public class FlightRecorderTest {
+
+	private static final String CLASS_NAME = FlightRecorderTest.class.getName();
+	private static final CallSite SITE_request = CallSiteRegistry.getOrRegister(CLASS_NAME, "request");
+	private static final CallSite SITE_query = CallSiteRegistry.getOrRegister(CLASS_NAME, "query");
+
+	/** small dictionary: only names of recorded CallSites are written, whatever the count of registered CallSites */
+	private static final int DICTIONARY_LEN = 1024;
+
+	@Rule
+	public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+	@Test
+	public void testRecordAndRead() throws Exception {
+		File file = tmpFolder.newFile("test.rec");
+		FlightRecorder recorder = new FlightRecorder(file, 4, 4096, DICTIONARY_LEN);
+		CallStack stack = new CallStack();
+		stack.addCallStackListener(recorder.createCallStackListener(stack));
+		StackPopper request = stack.curr().pusher(SITE_request).push();
+		StackPopper query = stack.curr().pusher(SITE_query).push();
+		query.progressStep(1, "step");
+		query.close();
+		// request left open, as when the JVM crashes
+		recorder.close();
+
+		FlightRecordReader reader = new FlightRecordReader(file);
+		Assert.assertEquals(SITE_query.getDisplayName(), reader.getSiteName(SITE_query.getId()));
+		List<FlightRecordThread> threads = reader.readThreads();
+		Assert.assertEquals(1, threads.size());
+		FlightRecordThread thread = threads.get(0);
+		Assert.assertEquals(Thread.currentThread().getName(), thread.getThreadName());
+		Assert.assertEquals(Thread.currentThread().getId(), thread.getThreadId());
+		Assert.assertEquals(0, thread.getLostEventCount());
+		List<FlightRecordEvent> events = thread.getEvents();
+		Assert.assertEquals(4, events.size());
+		assertEvent(Type.PUSH, 1, SITE_request, events.get(0));
+		assertEvent(Type.PUSH, 2, SITE_query, events.get(1));
+		assertEvent(Type.PROGRESS, 2, SITE_query, events.get(2));
+		assertEvent(Type.POP, 2, SITE_query, events.get(3));
+		Assert.assertTrue(events.get(3).getTime() >= events.get(1).getTime());
+
+		List<FlightRecordEvent> openStack = thread.getOpenStack();
+		Assert.assertEquals(1, openStack.size());
+		Assert.assertEquals(SITE_request.getId(), openStack.get(0).getSiteId());
+		request.close();
+	}
+
+	@Test
+	public void testRingBufferKeepsLastEvents() throws Exception {
+		File file = tmpFolder.newFile("test.rec");
+		int capacity = 4;
+		FlightRecorder recorder = new FlightRecorder(file, 1,
+				FlightRecorderFormat.REGION_HEADER_LEN + capacity * FlightRecorderFormat.RECORD_LEN, DICTIONARY_LEN);
+		Assert.assertEquals(capacity, recorder.getRegionRecordCapacity());
+		CallStack stack = new CallStack();
+		stack.addCallStackListener(recorder.createCallStackListener(stack));
+		for (int i = 0; i < 10; i++) {
+			stack.curr().pusher(SITE_request).push().close();
+		}
+		stack.curr().pusher(SITE_query).push().close();
+		recorder.close();
+
+		FlightRecordThread thread = new FlightRecordReader(file).readThreads().get(0);
+		Assert.assertEquals(22 - capacity, thread.getLostEventCount());
+		List<FlightRecordEvent> events = thread.getEvents();
+		Assert.assertEquals(capacity, events.size());
+		assertEvent(Type.PUSH, 1, SITE_request, events.get(0));
+		assertEvent(Type.POP, 1, SITE_request, events.get(1));
+		assertEvent(Type.PUSH, 1, SITE_query, events.get(2));
+		assertEvent(Type.POP, 1, SITE_query, events.get(3));
+		Assert.assertTrue(thread.getOpenStack().isEmpty());
+	}
+
+	@Test
+	public void testStacksNotRecordedWhenAllRegionsUsed() throws Exception {
+		File file = tmpFolder.newFile("test.rec");
+		FlightRecorder recorder = new FlightRecorder(file, 1, 4096, DICTIONARY_LEN);
+		CallStack stack1 = new CallStack();
+		FlightRecorderCallStackListener listener1 = recorder.createCallStackListener(stack1);
+		stack1.addCallStackListener(listener1);
+		stack1.curr().pusher(SITE_request).push().close();
+
+		CallStack stack2 = new CallStack();
+		stack2.addCallStackListener(recorder.createCallStackListener(stack2));
+		stack2.curr().pusher(SITE_query).push().close();
+		stack2.curr().pusher(SITE_query).push().close();
+		Assert.assertEquals(1, recorder.getUnrecordedStackCount()); // counted once per stack
+		recorder.close();
+
+		List<FlightRecordThread> threads = new FlightRecordReader(file).readThreads();
+		Assert.assertEquals(1, threads.size());
+		Assert.assertEquals(2, threads.get(0).getEvents().size());
+		Assert.assertNotNull(listener1); // keep region owner reachable until here
+	}
+
+	@Test
+	public void testDictionaryWritesRecordedSitesOnly() throws Exception {
+		for (int i = 0; i < 1000; i++) {
+			CallSiteRegistry.getOrRegister(CLASS_NAME, "notRecorded" + i);
+		}
+		CallSite lateSite = CallSiteRegistry.getOrRegister(CLASS_NAME, "registeredAfterOthers");
+		File file = tmpFolder.newFile("test.rec");
+		FlightRecorder recorder = new FlightRecorder(file, 1, 4096, 6 + SITE_query.getDisplayName().length() + 6 + lateSite.getDisplayName().length());
+		CallStack stack = new CallStack();
+		stack.addCallStackListener(recorder.createCallStackListener(stack));
+		for (int i = 0; i < 3; i++) {
+			stack.curr().pusher(lateSite).push().close();
+			stack.curr().pusher(SITE_query).push().close();
+		}
+		Assert.assertEquals(0, recorder.getDictionaryMissingSiteCount());
+		stack.curr().pusher(SITE_request).push().close(); // dictionary full
+		Assert.assertEquals(1, recorder.getDictionaryMissingSiteCount());
+		recorder.close();
+
+		FlightRecordReader reader = new FlightRecordReader(file);
+		Assert.assertEquals(lateSite.getDisplayName(), reader.getSiteName(lateSite.getId()));
+		Assert.assertEquals(SITE_query.getDisplayName(), reader.getSiteName(SITE_query.getId()));
+		Assert.assertEquals("site#" + SITE_request.getId(), reader.getSiteName(SITE_request.getId()));
+		Assert.assertEquals(14, reader.readThreads().get(0).getEvents().size());
+	}
+
+	private static void assertEvent(Type expectedType, int expectedDepth, CallSite expectedSite, FlightRecordEvent event) {
+		Assert.assertEquals(expectedType, event.getType());
+		Assert.assertEquals(expectedDepth, event.getDepth());
+		Assert.assertEquals(expectedSite.getId(), event.getSiteId());
+		Assert.assertEquals(expectedSite.getDisplayName(), event.getSiteName());
+	}
+
+}